@@ -0,0 +1,133 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.app;
+
+import android.content.Context;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+import pl.mrwojtek.sensrec.app.util.MaterialUtils;
+
+/**
+ * Immutable texts of a row in the list of records. Rows are formatted by
+ * the thread reading the record, so binding a row only sets the texts.
+ */
+public class RecordRow {
+
+    private final String name;
+    private final String date;
+    private final String time;
+    private final String wideTime;
+    private final String details;
+    private final boolean dateFallback;
+
+    private RecordRow(String name, String date, String time, String wideTime, String details,
+                      boolean dateFallback) {
+        this.name = name;
+        this.date = date;
+        this.time = time;
+        this.wideTime = wideTime;
+        this.details = details;
+        this.dateFallback = dateFallback;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public String getTime() {
+        return time;
+    }
+
+    /**
+     * Gets the start and the end time of the record, or just the start if
+     * the end is not known.
+     */
+    public String getWideTime() {
+        return wideTime;
+    }
+
+    /**
+     * Gets size, duration and distance of the record.
+     *
+     * @return details or <code>null</code> if the record is being recorded
+     */
+    public String getDetails() {
+        return details;
+    }
+
+    public boolean isDateFallback() {
+        return dateFallback;
+    }
+
+    /**
+     * Formats rows. Date formats are not thread safe, so every thread needs
+     * its own formatter.
+     */
+    public static class Formatter {
+
+        private final Context context;
+        private final DateFormat dateFormat = DateFormat.getDateInstance();
+        private final DateFormat timeFormat = DateFormat.getTimeInstance();
+
+        public Formatter(Context context) {
+            this.context = context.getApplicationContext();
+        }
+
+        public RecordRow format(Records.RecordEntry record) {
+            Date startDate = record.getDate();
+            Date endDate = record.getEndDate();
+
+            String time = timeFormat.format(startDate);
+            String wideTime = time;
+            if (endDate != null) {
+                wideTime = context.getString(R.string.records_dates_wide, time,
+                        timeFormat.format(endDate));
+            }
+
+            String details = null;
+            if (!record.isTabu()) {
+                String written = MaterialUtils.formatBytesWritten(record.getSize());
+                if (record.getDuration() != null) {
+                    String timeText = RecordingService.getTimeText(context,
+                            R.string.record_clock, record.getDuration());
+                    Double distance = record.getDistance();
+                    if (distance != null && distance > 0.0) {
+                        details = context.getString(R.string.records_size_distance_time,
+                                written, MaterialUtils.formatDistance(distance), timeText);
+                    } else {
+                        details = context.getString(R.string.records_size_time, written,
+                                timeText);
+                    }
+                } else {
+                    details = context.getString(R.string.records_size, written);
+                }
+            }
+
+            return new RecordRow(record.getName(), dateFormat.format(startDate), time, wideTime,
+                    details, record.isDateFallback());
+        }
+    }
+}
@@ -39,10 +39,12 @@ import java.util.List;
 
 import pl.mrwojtek.sensrec.FileOutput;
 import pl.mrwojtek.sensrec.FrequencyMeasure;
+import pl.mrwojtek.sensrec.PipelineMetrics;
 import pl.mrwojtek.sensrec.Recorder;
 import pl.mrwojtek.sensrec.SensorsRecorder;
 import pl.mrwojtek.sensrec.SocketOutput;
 import pl.mrwojtek.sensrec.app.util.MaterialUtils;
+import pl.mrwojtek.sensrec.app.util.SparklineView;
 import pl.mrwojtek.sensrec.app.util.TintableImageView;
 
 /**
@@ -83,9 +85,14 @@ public class RecordingFragment extends Fragment implements SensorsRecorder.OnRec
     protected TextView networkText;
     protected TextView networkStatusText;
 
+    protected TextView pipelineCaption;
+    protected TextView pipelineText;
+    protected TextView pipelineLatencyText;
+
     protected List<RecordingView> recordings = new ArrayList<>();
     protected FileOutputListener fileListener = new FileOutputListener();
     protected SocketOutputListener socketListener = new SocketOutputListener();
+    protected MetricsListener metricsListener = new MetricsListener();
 
     public static RecordingFragment newInstance(boolean freezeOnStop) {
         Bundle args = new Bundle();
@@ -129,6 +136,10 @@ public class RecordingFragment extends Fragment implements SensorsRecorder.OnRec
         networkStatusText = (TextView) view.findViewById(R.id.network_status_text);
         networkStatusText.setTypeface(MaterialUtils.getRobotoMedium(activity));
 
+        pipelineCaption = (TextView) view.findViewById(R.id.pipeline_caption);
+        pipelineText = (TextView) view.findViewById(R.id.pipeline_text);
+        pipelineLatencyText = (TextView) view.findViewById(R.id.pipeline_latency_text);
+
         sensorsLayout = (GridLayout) view.findViewById(R.id.recordings_layout);
         int cw = getResources().getDimensionPixelSize(R.dimen.recording_column_width);
         int sw = getResources().getDisplayMetrics().widthPixels;
@@ -170,17 +181,23 @@ public class RecordingFragment extends Fragment implements SensorsRecorder.OnRec
         super.onStart();
         fileListener.setVisibility(View.GONE);
         socketListener.setVisibility(View.GONE);
+        metricsListener.setVisibility(View.GONE);
         activity.getRecorder().addOnRecordingListener(this, true);
         activity.getRecorder().getOutput().getFileOutput().addOnFileListener(fileListener);
         activity.getRecorder().getOutput().getSocketOutput().setOnSocketListener(socketListener);
+        activity.getRecorder().addOnMetricsListener(metricsListener);
     }
 
     @Override
     public void onStop() {
+        activity.getRecorder().removeOnMetricsListener(metricsListener);
         activity.getRecorder().getOutput().getSocketOutput().setOnSocketListener(null);
         activity.getRecorder().getOutput().getFileOutput().removeOnFileListener(fileListener);
         activity.getRecorder().removeOnRecordingListener(this);
         uiHandler.removeCallbacks(recordingRunnable);
+        for (RecordingView recordingView : recordings) {
+            recordingView.sparklineView.setRunning(false);
+        }
         super.onStop();
     }
 
@@ -224,6 +241,9 @@ public class RecordingFragment extends Fragment implements SensorsRecorder.OnRec
     }
 
     private void reinitializeRecorders() {
+        for (RecordingView recordingView : recordings) {
+            recordingView.sparklineView.setRunning(false);
+        }
         sensorsLayout.removeAllViews();
         recordings.clear();
 
@@ -400,10 +420,95 @@ public class RecordingFragment extends Fragment implements SensorsRecorder.OnRec
         }
     }
 
+    /**
+     * Shows rates and latencies of the recording pipeline computed from
+     * the change of its counters between consecutive updates, together
+     * with the worst 99th percentile latency of each stage among all the
+     * channels since the start of the recording.
+     */
+    protected class MetricsListener implements SensorsRecorder.OnMetricsListener {
+
+        private static final double PERCENTILE = 0.99;
+
+        private long lastTime;
+        private long lastCount;
+        private long lastDropped;
+        private long lastFlushNanos;
+        private long lastFlushCount;
+        private long lastSendNanos;
+        private long lastSendCount;
+
+        @Override
+        public void onMetrics(PipelineMetrics metrics) {
+            long time = SystemClock.elapsedRealtime();
+            long count = metrics.getTotal(PipelineMetrics.COUNT);
+            long dropped = metrics.getTotal(PipelineMetrics.DROPPED);
+            PipelineMetrics.Sink file = metrics.getSink(PipelineMetrics.SINK_FILE);
+            PipelineMetrics.Sink socket = metrics.getSink(PipelineMetrics.SINK_SOCKET);
+            long flushNanos = file.get(PipelineMetrics.BUSY_NANOS);
+            long flushCount = file.get(PipelineMetrics.BUSY_COUNT);
+            long sendNanos = socket.get(PipelineMetrics.BUSY_NANOS);
+            long sendCount = socket.get(PipelineMetrics.BUSY_COUNT);
+
+            // Counters are cleared when a new recording starts
+            if (count < lastCount || lastTime == 0) {
+                lastTime = time;
+                lastCount = lastDropped = lastFlushNanos = lastFlushCount = 0;
+                lastSendNanos = lastSendCount = 0;
+            }
+
+            if (time > lastTime) {
+                pipelineText.setText(getString(R.string.record_pipeline_text,
+                        (count - lastCount) * 1000 / (time - lastTime), dropped - lastDropped,
+                        metrics.getTotalGaps(),
+                        getAverage(flushNanos - lastFlushNanos, flushCount - lastFlushCount),
+                        getAverage(sendNanos - lastSendNanos, sendCount - lastSendCount)));
+            }
+            pipelineLatencyText.setText(getString(R.string.record_pipeline_latency,
+                    getPercentile(metrics, PipelineMetrics.STAGE_EVENT),
+                    getPercentile(metrics, PipelineMetrics.STAGE_SAVE),
+                    getPercentile(metrics, PipelineMetrics.STAGE_FILE),
+                    getPercentile(metrics, PipelineMetrics.STAGE_SEND)));
+
+            if (activity.getRecorder().isActive()) {
+                setVisibility(View.VISIBLE);
+            } else if (!freezeOnStop) {
+                setVisibility(View.GONE);
+            }
+
+            lastTime = time;
+            lastCount = count;
+            lastDropped = dropped;
+            lastFlushNanos = flushNanos;
+            lastFlushCount = flushCount;
+            lastSendNanos = sendNanos;
+            lastSendCount = sendCount;
+        }
+
+        private double getAverage(long nanos, long count) {
+            return count > 0 ? nanos / 1e6 / count : 0.0;
+        }
+
+        private double getPercentile(PipelineMetrics metrics, int stage) {
+            long nanos = 0;
+            for (PipelineMetrics.Channel channel : metrics.getChannels()) {
+                nanos = Math.max(nanos, channel.getLatency(stage).getPercentile(PERCENTILE));
+            }
+            return nanos / 1e6;
+        }
+
+        public void setVisibility(int visibility) {
+            pipelineCaption.setVisibility(visibility);
+            pipelineText.setVisibility(visibility);
+            pipelineLatencyText.setVisibility(visibility);
+        }
+    }
+
     protected class RecordingView {
 
         protected Recorder recorder;
         protected TextView valueText;
+        protected SparklineView sparklineView;
 
         protected View bind(Recorder recorder, LayoutInflater inflater, ViewGroup root) {
             this.recorder = recorder;
@@ -413,16 +518,34 @@ public class RecordingFragment extends Fragment implements SensorsRecorder.OnRec
             nameText.setText(recorder.getShortName());
 
             valueText = (TextView) view.findViewById(R.id.value_text);
+            sparklineView = (SparklineView) view.findViewById(R.id.sparkline_view);
+            sparklineView.setHistory(recorder.getValueHistory());
+            if (recorder.getValueHistory() != null) {
+                sparklineView.setVisibility(View.VISIBLE);
+            }
             updateValueText();
 
             return view;
         }
 
         protected boolean updateValueText() {
+            boolean active = resolveValueText();
+            sparklineView.setRunning(active);
+            return active;
+        }
+
+        private boolean resolveValueText() {
             FrequencyMeasure measure = recorder.getFrequencyMeasure();
             measure.resolveNow();
             if (measure.getMeasure() == FrequencyMeasure.MEASURE_VALUE) {
-                valueText.setText(getString(R.string.measure_frequency, measure.getValue()));
+                FrequencyMeasure.Snapshot snapshot = measure.getSnapshot();
+                if (snapshot.getMissed() > 0) {
+                    valueText.setText(getString(R.string.measure_frequency_missed,
+                            measure.getValue(), snapshot.getJitter(), snapshot.getMissed()));
+                } else {
+                    valueText.setText(getString(R.string.measure_frequency_jitter,
+                            measure.getValue(), snapshot.getJitter()));
+                }
                 return true;
             } else if (measure.getMeasure() == FrequencyMeasure.MEASURE_QUIET) {
                 valueText.setText(getString(R.string.measure_quiet));
@@ -29,23 +29,32 @@ import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
+import android.util.Log;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 import pl.mrwojtek.sensrec.FileOutput;
 import pl.mrwojtek.sensrec.RecordReader;
 import pl.mrwojtek.sensrec.SensorsRecorder;
+import pl.mrwojtek.sensrec.app.util.ListDiff;
+import pl.mrwojtek.sensrec.io.RecordFormat;
+import pl.mrwojtek.sensrec.io.RecordVerifier;
 
 /**
- * Maintains a list of records.
+ * Maintains a list of records. Records are read and their rows formatted
+ * by background workers, changes of the list are reported as differences
+ * between its consecutive versions.
  */
 public class Records extends Fragment {
 
@@ -55,6 +64,14 @@ public class Records extends Fragment {
 
     private static final String PARAM_ACTIVATED = "activated";
 
+    private static final int SCAN_PAGE_SIZE = 64;
+    private static final int MAXIMUM_WORKERS = 4;
+
+    // Only recordings untouched for a while and missing just a torn tail
+    // are repaired, the one being recorded is never touched
+    private static final long REPAIR_AGE = 60 * 1000;
+    private static final long REPAIR_MAXIMUM_LOSS = 64 * 1024;
+
     private RecordsObserver recordsObserver;
     private SensorsRecorder recorder;
     private File recordsDirectory;
@@ -62,11 +79,23 @@ public class Records extends Fragment {
     private int activatedCount;
     private int lastRecordId;
     private FileListener fileListener;
-    private RecordReader recordReader;
+    private RecordsCache recordsCache;
+    private RecordRow.Formatter rowFormatter;
+    private ListDiff.Callback diffCallback = new DiffCallback();
 
-    private RecordsInitializationTask initializationTask;
+    private RecordsScanner scanner;
     private final Object updateLock = new Object();
 
+    // Entries waiting to be read, guarded by the update lock
+    private PriorityQueue<RecordEntry> pending;
+    private int visibleFirst;
+    private int visibleLast = -1;
+    private int busyWorkers;
+    private boolean scanning;
+    private boolean destroyed;
+
+    private Set<String> activatedPaths;
+
     private List<RecordEntry> records = new ArrayList<>();
     private Map<String, RecordEntry> recordByName = new HashMap<>();
 
@@ -77,9 +106,9 @@ public class Records extends Fragment {
         super.onCreate(savedInstanceState);
         setRetainInstance(true);
 
-        Set<String> activated = null;
         if (savedInstanceState != null) {
-            activated = new HashSet<>(savedInstanceState.getStringArrayList(PARAM_ACTIVATED));
+            activatedPaths = new HashSet<>(
+                    savedInstanceState.getStringArrayList(PARAM_ACTIVATED));
         }
 
         // TODO: Add option to select storage directory
@@ -88,7 +117,10 @@ public class Records extends Fragment {
         uiHandler = new Handler(getActivity().getMainLooper());
 
         recorder = RecordingService.getRecorder(getContext());
-        recordReader = new RecordReader(recorder);
+        rowFormatter = new RecordRow.Formatter(getContext());
+        recordsCache = new RecordsCache(new File(getActivity().getCacheDir(),
+                RecordsCache.FILE_NAME));
+        recordsCache.load();
 
         recordsDirectory = getActivity().getExternalFilesDir(null);
         recordsObserver = new RecordsObserver(recordsDirectory.getPath());
@@ -97,31 +129,28 @@ public class Records extends Fragment {
         fileListener = new FileListener();
         recorder.getOutput().getFileOutput().addOnFileListener(fileListener);
 
-        // TODO: Move this listing to the initialization task
-        for (File d : recordsDirectory.listFiles()) {
-            RecordEntry recordEntry = new RecordEntry(d, true);
-            if (activated != null && activated.contains(recordEntry.getFile().getPath())) {
-                recordEntry.toggleActivated();
-            }
-            records.add(recordEntry);
-            recordByName.put(recordEntry.getName(), recordEntry);
-        }
-
-        updateRecordsOrder();
-
-        initializationTask = new RecordsInitializationTask(recorder, new ArrayList<>(records));
-        initializationTask.execute();
+        // Workers read records while the listing is in progress
+        pending = new PriorityQueue<>(SCAN_PAGE_SIZE, new PriorityComparator());
+        scanning = true;
+        scanner = new RecordsScanner(recordsDirectory, new RecordRow.Formatter(getContext()));
+        scanner.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        startWorkers();
     }
 
     @Override
     public void onDestroy() {
-        if (initializationTask != null) {
-            initializationTask.cancel(false);
-            initializationTask = null;
+        if (scanner != null) {
+            scanner.cancel(false);
+            scanner = null;
+        }
+        synchronized (updateLock) {
+            destroyed = true;
+            updateLock.notifyAll();
         }
         recorder.getOutput().getFileOutput().removeOnFileListener(fileListener);
         recordsObserver.stopWatching();
         uiHandler.removeCallbacks(recordsObserver);
+        recordsCache.save();
         super.onDestroy();
     }
 
@@ -133,6 +162,10 @@ public class Records extends Fragment {
                 activated.add(recordEntry.getFile().getPath());
             }
         }
+        if (activatedPaths != null) {
+            // Keep the selection of the records that were not listed yet
+            activated.addAll(activatedPaths);
+        }
         outState.putStringArrayList(PARAM_ACTIVATED, activated);
     }
 
@@ -157,16 +190,12 @@ public class Records extends Fragment {
     }
 
     public void activateAll(boolean activate) {
-        boolean modified = false;
         for (RecordEntry recordEntry : records) {
             if (recordEntry.isActivated() != activate) {
                 recordEntry.toggleActivated();
-                modified = true;
+                notifyItemChanged(recordEntry.getPosition());
             }
         }
-        if (modified) {
-            notifyDataSetChanged();
-        }
     }
 
     public boolean shareActivated() {
@@ -196,59 +225,294 @@ public class Records extends Fragment {
         for (RecordEntry recordEntry : records) {
             if (recordEntry.isActivated()) {
                 successful &= recordEntry.getFile().delete();
+                for (File sidecar : RecordFormat.getSidecars(recordEntry.getFile())) {
+                    sidecar.delete();
+                }
             }
         }
 
         return successful;
     }
 
-    private void updateRecordsOrder() {
+    /**
+     * Tells which rows are currently displayed, so that the records shown
+     * are read before the others.
+     */
+    public void setVisibleRange(int first, int last) {
+        synchronized (updateLock) {
+            if (first != visibleFirst || last != visibleLast) {
+                visibleFirst = first;
+                visibleLast = last;
+                reprioritize();
+            }
+        }
+    }
+
+    /**
+     * Replaces the list of records and reports the differences.
+     */
+    private void setRecords(List<RecordEntry> newRecords) {
+        List<RecordEntry> oldRecords = records;
+        synchronized (updateLock) {
+            records = newRecords;
+            int index = 0;
+            for (RecordEntry record : records) {
+                record.setPosition(index++);
+            }
+            reprioritize();
+        }
+
+        if (onItemListener != null) {
+            ListDiff.dispatch(oldRecords, newRecords, diffCallback);
+        }
+    }
+
+    /**
+     * Merges records into a sorted list. Must be called with the update
+     * lock held.
+     *
+     * @param sorted sorted records
+     * @param added records to add, sorted in place
+     * @return new sorted list
+     */
+    private List<RecordEntry> insertSorted(List<RecordEntry> sorted, List<RecordEntry> added) {
+        Collections.sort(added);
+        List<RecordEntry> result = new ArrayList<>(sorted.size() + added.size());
+        int i = 0;
+        int j = 0;
+        while (i < sorted.size() || j < added.size()) {
+            if (j == added.size() ||
+                    (i < sorted.size() && sorted.get(i).compareTo(added.get(j)) <= 0)) {
+                result.add(sorted.get(i++));
+            } else {
+                result.add(added.get(j++));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Queues a record to be read again, unless it's already waiting.
+     */
+    private void requestUpdate(RecordEntry entry) {
         synchronized (updateLock) {
-            Collections.sort(records);
+            entry.resolved = false;
+            if (!entry.queued) {
+                entry.queued = true;
+                entry.priority = getPriority(entry.getPosition());
+                pending.add(entry);
+                updateLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the queue of records to read after the visible rows or the
+     * positions of the records changed. Must be called with the update lock
+     * held.
+     */
+    private void reprioritize() {
+        if (pending == null || pending.isEmpty()) {
+            return;
         }
 
-        int index = 0;
-        for (RecordEntry record : records) {
-            record.setPosition(index++);
+        List<RecordEntry> entries = new ArrayList<>(pending);
+        pending.clear();
+        for (RecordEntry entry : entries) {
+            if (!entry.resolved) {
+                entry.priority = getPriority(entry.getPosition());
+                pending.add(entry);
+            } else {
+                entry.queued = false;
+            }
         }
     }
 
+    /**
+     * Computes priority of a record as a distance of its row from the rows
+     * displayed, lower values go first.
+     */
+    private int getPriority(int position) {
+        if (position < visibleFirst) {
+            return visibleFirst - position;
+        } else if (position > visibleLast) {
+            return position - Math.max(visibleFirst, visibleLast);
+        } else {
+            return 0;
+        }
+    }
+
+    private void addPage(List<RecordEntry> page) {
+        List<RecordEntry> added = new ArrayList<>();
+        for (RecordEntry entry : page) {
+            if (recordByName.containsKey(entry.getName())) {
+                // Already added by the observer
+                continue;
+            }
+            if (activatedPaths != null && activatedPaths.remove(entry.getFile().getPath())) {
+                entry.toggleActivated();
+            }
+            recordByName.put(entry.getName(), entry);
+            added.add(entry);
+        }
+
+        if (!added.isEmpty()) {
+            List<RecordEntry> newRecords;
+            synchronized (updateLock) {
+                newRecords = insertSorted(records, added);
+            }
+            setRecords(newRecords);
+            for (RecordEntry entry : added) {
+                if (!entry.isResolved()) {
+                    requestUpdate(entry);
+                }
+            }
+            notifyCountsChanged();
+        }
+    }
+
+    /**
+     * Shows a record just read by a worker. A record that changed its date
+     * is moved to its new position.
+     */
+    private void publishRecord(RecordEntry entry, boolean sameDate) {
+        int from = entry.getPosition();
+        if (from >= records.size() || records.get(from) != entry) {
+            // Record was removed in the meantime
+            return;
+        }
+
+        int to = from;
+        if (!sameDate) {
+            synchronized (updateLock) {
+                records.remove(from);
+                to = findPosition(entry);
+                records.add(to, entry);
+                for (int i = Math.min(from, to); i <= Math.max(from, to); ++i) {
+                    records.get(i).setPosition(i);
+                }
+            }
+        }
+
+        if (from != to) {
+            notifyItemMoved(from, to);
+        }
+        notifyItemChanged(to);
+    }
+
+    /**
+     * Finds a position where a record should be inserted to keep the order.
+     * Must be called with the update lock held.
+     */
+    private int findPosition(RecordEntry entry) {
+        int low = 0;
+        int high = records.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (records.get(middle).compareTo(entry) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void startWorkers() {
+        int count = Math.min(MAXIMUM_WORKERS,
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+        for (int i = 0; i < count; ++i) {
+            new RecordsWorker(new RecordReader(), new RecordRow.Formatter(getContext()), i)
+                    .start();
+        }
+    }
+
+    /**
+     * Notifies that workers read all the pending records. Must be called
+     * with the update lock held.
+     */
+    private void checkIdle() {
+        if (busyWorkers == 0 && pending.isEmpty() && !scanning) {
+            uiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    finishWorkers();
+                }
+            });
+        }
+    }
+
+    private void finishWorkers() {
+        if (destroyed) {
+            return;
+        }
+
+        recordsCache.save();
+
+        // Records published while others were read could end up out of order
+        List<RecordEntry> sorted = new ArrayList<>(records);
+        synchronized (updateLock) {
+            Collections.sort(sorted);
+        }
+        for (int i = 0; i < sorted.size(); ++i) {
+            if (sorted.get(i) != records.get(i)) {
+                setRecords(sorted);
+                break;
+            }
+        }
+    }
+
+    private void finishScanning() {
+        synchronized (updateLock) {
+            scanning = false;
+            updateLock.notifyAll();
+            checkIdle();
+        }
+        activatedPaths = null;
+        recordsCache.retain(recordByName.keySet());
+    }
+
     public void updateRecords(Set<String> added, Set<String> deleted, Set<String> modified) {
-        boolean changed = false;
         if (!added.isEmpty() || !deleted.isEmpty()) {
-            List<RecordEntry> newRecords;
-            if (!deleted.isEmpty()) {
-                newRecords = new ArrayList<>();
-                for (RecordEntry entry : records) {
-                    String name = entry.getName();
-                    if (added.contains(name)) {
-                        added.remove(name);
-                    }
-                    if (!deleted.contains(name)) {
-                        newRecords.add(entry);
-                    } else {
-                        if (entry.isActivated()) {
-                            --activatedCount;
-                        }
-                        recordByName.remove(name);
-                        changed = true;
+            boolean changed = false;
+            List<RecordEntry> kept = new ArrayList<>(records.size());
+            for (RecordEntry entry : records) {
+                String name = entry.getName();
+                if (added.contains(name)) {
+                    added.remove(name);
+                }
+                if (!deleted.contains(name)) {
+                    kept.add(entry);
+                } else {
+                    if (entry.isActivated()) {
+                        --activatedCount;
                     }
+                    recordByName.remove(name);
+                    recordsCache.remove(name);
+                    changed = true;
                 }
-            } else {
-                newRecords = records;
             }
 
+            List<RecordEntry> created = new ArrayList<>();
             for (String name : added) {
                 if (!deleted.contains(name)) {
-                    RecordEntry record = new RecordEntry(new File(recordsDirectory, name), false);
-                    newRecords.add(record);
+                    RecordEntry record = new RecordEntry(new File(recordsDirectory, name),
+                            rowFormatter);
                     recordByName.put(name, record);
+                    created.add(record);
                     changed = true;
                 }
             }
 
             if (changed) {
-                records = newRecords;
+                List<RecordEntry> newRecords;
+                synchronized (updateLock) {
+                    newRecords = insertSorted(kept, created);
+                }
+                setRecords(newRecords);
+                for (RecordEntry record : created) {
+                    requestUpdate(record);
+                }
                 notifyCountsChanged();
             }
         }
@@ -256,39 +520,22 @@ public class Records extends Fragment {
         for (String name : modified) {
             RecordEntry record = recordByName.get(name);
             if (record != null) {
-                changed |= !record.update(recordReader);
-                if (!changed) {
-                    notifyItemChanged(record.getPosition());
-                }
+                requestUpdate(record);
             }
         }
-
-        if (changed) {
-            updateRecordsOrder();
-            notifyDataSetChanged();
-        }
     }
 
     private void updateTabu(String tabuPreviousPath, String tabuPath) {
         RecordEntry record = recordByName.get(tabuPreviousPath);
         if (record != null) {
             record.setTabu(false);
-            refreshRecord(record);
+            requestUpdate(record);
         }
 
         record = recordByName.get(tabuPath);
         if (record != null) {
             record.setTabu(true);
-            refreshRecord(record);
-        }
-    }
-
-    private void refreshRecord(RecordEntry record) {
-        if (!record.update(recordReader)) {
-            updateRecordsOrder();
-            notifyDataSetChanged();
-        } else {
-            notifyItemChanged(record.getPosition());
+            requestUpdate(record);
         }
     }
 
@@ -298,15 +545,33 @@ public class Records extends Fragment {
         }
     }
 
-    void notifyDataSetChanged() {
+    void notifyItemChanged(int position) {
         if (onItemListener != null) {
-            onItemListener.onDataSetChanged();
+            onItemListener.onItemChanged(position);
         }
     }
 
-    void notifyItemChanged(int position) {
+    void notifyItemMoved(int fromPosition, int toPosition) {
         if (onItemListener != null) {
-            onItemListener.onItemChanged(position);
+            onItemListener.onItemMoved(fromPosition, toPosition);
+        }
+    }
+
+    private class DiffCallback implements ListDiff.Callback {
+
+        @Override
+        public void onRemoved(int position, int count) {
+            onItemListener.onItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            onItemListener.onItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            onItemListener.onItemRangeInserted(position, count);
         }
     }
 
@@ -317,6 +582,9 @@ public class Records extends Fragment {
 
     public interface OnItemListener extends OnDataSetChangedListener {
         void onItemChanged(int position);
+        void onItemMoved(int fromPosition, int toPosition);
+        void onItemRangeInserted(int position, int count);
+        void onItemRangeRemoved(int position, int count);
     }
 
     private class RecordsObserver extends FileObserver implements Runnable {
@@ -339,6 +607,10 @@ public class Records extends Fragment {
             lastUpdateTime = SystemClock.elapsedRealtime() - MODIFICATION_INTERVAL;
         }
 
+        public synchronized boolean isTabuPath(String path) {
+            return path.equals(tabuPath);
+        }
+
         public synchronized void setTabuPath(String tabuPath) {
             if (!this.tabuUpdate) {
                 this.tabuPreviousPath = this.tabuPath;
@@ -352,7 +624,7 @@ public class Records extends Fragment {
 
         @Override
         public synchronized void onEvent(int event, String path) {
-            if (path.equals(tabuPath)) {
+            if (path == null || path.equals(tabuPath) || RecordFormat.isSidecar(path)) {
                 return;
             }
 
@@ -429,21 +701,36 @@ public class Records extends Fragment {
         private Long duration;
         private Double distance;
         private File file;
+        private long size;
         private boolean activated;
         private int id;
         private int position;
-        private boolean tabu;
+        private volatile boolean tabu;
         private boolean dateFallback;
-
-        public RecordEntry(File file, boolean delayInitialization) {
+        private boolean resolved;
+        private boolean queued;
+        private int priority;
+        private volatile RecordRow row;
+
+        /**
+         * Creates a record from the cached metadata, if any. Reading of the
+         * record is left for the workers.
+         */
+        public RecordEntry(File file, RecordRow.Formatter formatter) {
             this.file = file;
-            id = ++lastRecordId;
+            synchronized (updateLock) {
+                id = ++lastRecordId;
+            }
 
-            if (delayInitialization) {
-                date = new Date(file.lastModified());
-                dateFallback = true;
+            long lastModified = file.lastModified();
+            size = file.length();
+            RecordsCache.Metadata metadata = recordsCache.get(getName(), size, lastModified);
+            if (metadata != null) {
+                update(metadata, lastModified, formatter);
             } else {
-                update(recordReader);
+                date = new Date(lastModified);
+                dateFallback = true;
+                row = formatter.format(this);
             }
         }
 
@@ -451,6 +738,19 @@ public class Records extends Fragment {
             return id;
         }
 
+        /**
+         * Gets the texts of the row formatted when the record was last read.
+         */
+        public RecordRow getRow() {
+            return row;
+        }
+
+        public boolean isResolved() {
+            synchronized (updateLock) {
+                return resolved;
+            }
+        }
+
         public boolean isDateFallback() {
             return dateFallback;
         }
@@ -479,8 +779,11 @@ public class Records extends Fragment {
             return file;
         }
 
+        /**
+         * Gets size of the file when the record was last read.
+         */
         public long getSize() {
-            return file.length();
+            return size;
         }
 
         public boolean isTabu() {
@@ -503,7 +806,7 @@ public class Records extends Fragment {
 
         /*public boolean onModified() {
             Date previousDate = date;
-            RecordReader reader = new RecordReader(recorder);
+            RecordReader reader = new RecordReader();
             long end = 0;
             long start = SystemClock.elapsedRealtimeNanos();
             if (reader.readStartEnd(file)) {
@@ -528,31 +831,80 @@ public class Records extends Fragment {
             return date.equals(previousDate);
         }
 */
-        public boolean update(RecordReader reader) {
+        public boolean update(RecordReader reader, RecordRow.Formatter formatter) {
+            long size = file.length();
+            long lastModified = file.lastModified();
+            if (lastModified == 0) {
+                // File was removed in the meantime
+                return true;
+            }
+            RecordsCache.Metadata metadata = recordsCache.get(getName(), size, lastModified);
+            if (metadata == null) {
+                boolean read = reader.readStartEnd(file);
+                if (read && reader.getEndDate() == null && repair(lastModified)) {
+                    size = file.length();
+                    lastModified = file.lastModified();
+                    read = reader.readStartEnd(file);
+                }
+                metadata = recordsCache.put(getName(), size, lastModified, read ? reader : null);
+            }
+            this.size = size;
+            return update(metadata, lastModified, formatter);
+        }
+
+        /**
+         * Repairs a recording left without the end frame by a crash, unless
+         * it's being recorded or was modified recently.
+         *
+         * @return <code>true</code> if the recording was repaired
+         */
+        private boolean repair(long lastModified) {
+            if (recordsObserver.isTabuPath(getName()) ||
+                    System.currentTimeMillis() - lastModified < REPAIR_AGE) {
+                return false;
+            }
+
+            RecordVerifier verifier = new RecordVerifier();
+            verifier.setMaximumLoss(REPAIR_MAXIMUM_LOSS);
+            try {
+                if (verifier.repair(file).isRepaired()) {
+                    Log.i(TAG, "Repaired unfinished recording " + getName());
+                    return true;
+                }
+            } catch (IOException ex) {
+                Log.w(TAG, "Error repairing " + getName() + ": " + ex.getMessage());
+            }
+            return false;
+        }
+
+        private boolean update(RecordsCache.Metadata metadata, long lastModified,
+                               RecordRow.Formatter formatter) {
             Date previousDate;
             Date newDate;
 
-            if (reader.readStartEnd(file)) {
-                synchronized (updateLock) {
-                    previousDate = date;
-                    date = reader.getStartDate();
-                    endDate = reader.getEndDate();
-                    duration = reader.getDuration();
+            synchronized (updateLock) {
+                previousDate = date;
+                if (metadata.hasStart()) {
+                    date = new Date(metadata.getStartDate());
                     dateFallback = false;
-                    newDate = date;
-                }
-            } else {
-                synchronized (updateLock) {
-                    previousDate = date;
-                    date = new Date(file.lastModified());
+                } else {
+                    date = new Date(lastModified);
                     dateFallback = true;
+                }
+                if (metadata.hasEnd()) {
+                    endDate = new Date(metadata.getEndDate());
+                    duration = metadata.getDuration();
+                    distance = metadata.getDistance();
+                } else {
                     endDate = null;
                     duration = null;
-                    dateFallback = true;
-                    newDate = date;
+                    distance = null;
                 }
+                resolved = true;
+                newDate = date;
             }
 
+            row = formatter.format(this);
             return newDate.equals(previousDate);
         }
 
@@ -588,33 +940,146 @@ public class Records extends Fragment {
         }
     }
 
-    private class RecordsInitializationTask extends AsyncTask<Void, Void, Void> {
+    private class RecordsScanner extends AsyncTask<Void, List<RecordEntry>, Void> {
 
-        private RecordReader reader;
-        private List<RecordEntry> records;
+        private File directory;
+        private RecordRow.Formatter formatter;
 
-        public RecordsInitializationTask(SensorsRecorder recorder,
-                                         ArrayList<RecordEntry> records) {
-            this.records = records;
-            reader = new RecordReader(recorder);
+        public RecordsScanner(File directory, RecordRow.Formatter formatter) {
+            this.directory = directory;
+            this.formatter = formatter;
         }
 
         @Override
         protected Void doInBackground(Void... params) {
-            for (RecordEntry entry : records) {
+            String[] names = directory.list();
+            if (names == null) {
+                return null;
+            }
+
+            List<RecordEntry> page = new ArrayList<>(SCAN_PAGE_SIZE);
+            for (String name : names) {
                 if (isCancelled()) {
                     break;
                 }
-                entry.update(reader);
+                if (RecordFormat.isSidecar(name)) {
+                    continue;
+                }
+
+                page.add(new RecordEntry(new File(directory, name), formatter));
+                if (page.size() == SCAN_PAGE_SIZE) {
+                    publishPage(page);
+                    page = new ArrayList<>(SCAN_PAGE_SIZE);
+                }
+            }
+            if (!page.isEmpty()) {
+                publishPage(page);
             }
             return null;
         }
 
+        @SuppressWarnings("unchecked")
+        private void publishPage(List<RecordEntry> page) {
+            synchronized (updateLock) {
+                Collections.sort(page);
+            }
+            publishProgress(page);
+        }
+
+        @Override
+        protected void onProgressUpdate(List<RecordEntry>... pages) {
+            for (List<RecordEntry> page : pages) {
+                addPage(page);
+            }
+        }
+
         @Override
         protected void onPostExecute(Void nothing) {
-            updateRecordsOrder();
-            notifyDataSetChanged();
-            initializationTask = null;
+            finishScanning();
+            scanner = null;
+        }
+
+        @Override
+        protected void onCancelled(Void nothing) {
+            synchronized (updateLock) {
+                scanning = false;
+                updateLock.notifyAll();
+            }
+        }
+    }
+
+    private class PriorityComparator implements Comparator<RecordEntry> {
+
+        @Override
+        public int compare(RecordEntry lhs, RecordEntry rhs) {
+            if (lhs.priority != rhs.priority) {
+                return lhs.priority < rhs.priority ? -1 : 1;
+            }
+            return lhs.position < rhs.position ? -1 : (lhs.position == rhs.position ? 0 : 1);
+        }
+    }
+
+    /**
+     * Reads the pending records, each worker uses its own reader and row
+     * formatter. Records are published one by one as soon as they are read.
+     * Workers wait for more records until the fragment is destroyed.
+     */
+    private class RecordsWorker extends Thread {
+
+        private RecordReader reader;
+        private RecordRow.Formatter formatter;
+
+        public RecordsWorker(RecordReader reader, RecordRow.Formatter formatter, int index) {
+            super("RecordsWorker-" + index);
+            this.reader = reader;
+            this.formatter = formatter;
+        }
+
+        @Override
+        public void run() {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                RecordEntry entry;
+                while ((entry = takePending()) != null) {
+                    final RecordEntry record = entry;
+                    final boolean sameDate = record.update(reader, formatter);
+                    uiHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            publishRecord(record, sameDate);
+                        }
+                    });
+                    synchronized (updateLock) {
+                        --busyWorkers;
+                        checkIdle();
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Takes the record of the highest priority.
+         *
+         * @return record or <code>null</code> if the fragment was destroyed
+         */
+        private RecordEntry takePending() throws InterruptedException {
+            synchronized (updateLock) {
+                while (!destroyed) {
+                    RecordEntry entry = pending.poll();
+                    if (entry != null) {
+                        entry.queued = false;
+                        if (!entry.resolved) {
+                            ++busyWorkers;
+                            return entry;
+                        }
+                    } else {
+                        updateLock.wait();
+                    }
+                }
+                return null;
+            }
         }
     }
 }
@@ -27,11 +27,6 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import java.text.DateFormat;
-import java.util.Date;
-
-import pl.mrwojtek.sensrec.app.util.MaterialUtils;
-
 /**
  * Recycler adapter for displaying list of records.
  */
@@ -110,23 +105,13 @@ public class RecordsAdapter extends RecyclerView.Adapter<RecordsAdapter.RecordVi
         public void bind(Records.RecordEntry record) {
             this.record = record;
 
-            nameText.setText(record.getName());
-
-            Date startDate = record.getDate();
-            Date endDate = record.getEndDate();
-
-            String startDateString = DateFormat.getDateInstance().format(startDate);
-            dateText.setText(startDateString);
-
-            if (recordsFragment.isRecordsAdapterWide() && endDate != null) {
-                timeText.setText(timeText.getContext().getString(R.string.records_dates_wide,
-                        DateFormat.getTimeInstance().format(startDate),
-                        DateFormat.getTimeInstance().format(endDate)));
-            } else {
-                timeText.setText(DateFormat.getTimeInstance().format(startDate));
-            }
+            RecordRow row = record.getRow();
+            nameText.setText(row.getName());
+            dateText.setText(row.getDate());
+            timeText.setText(recordsFragment.isRecordsAdapterWide() ? row.getWideTime() :
+                    row.getTime());
 
-            if (record.isDateFallback()) {
+            if (row.isDateFallback()) {
                 dateText.setTextColor(textColorTertiary);
                 timeText.setTextColor(textColorTertiary);
             } else {
@@ -134,19 +119,9 @@ public class RecordsAdapter extends RecyclerView.Adapter<RecordsAdapter.RecordVi
                 timeText.setTextColor(textColorSecondary);
             }
 
-            if (!record.isTabu()) {
-                String written = MaterialUtils.formatBytesWritten(record.getSize());
-                if (record.getDuration() != null) {
-                    String timeText = RecordingService.getTimeText(
-                            detailsText.getContext(), R.string.record_clock, record.getDuration());
-                    detailsText.setText(detailsText.getContext()
-                            .getString(R.string.records_size_time, written, timeText));
-                } else {
-                    detailsText.setText(detailsText.getContext()
-                            .getString(R.string.records_size, written));
-                }
-                detailsText.setTextColor(ContextCompat.getColor(detailsText.getContext(),
-                        R.color.colorTextSecondary));
+            if (row.getDetails() != null) {
+                detailsText.setText(row.getDetails());
+                detailsText.setTextColor(textColorSecondary);
             } else {
                 detailsText.setText(R.string.records_recording);
                 detailsText.setTextColor(textColorPrimary);
@@ -0,0 +1,298 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.app;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import pl.mrwojtek.sensrec.RecordReader;
+
+/**
+ * On-disk cache of the recording metadata shown on the records list. An
+ * entry is valid as long as the file name, size and modification time
+ * match, so only new or modified recordings need to be read.
+ */
+public class RecordsCache {
+
+    private static final String TAG = "SensRec";
+
+    public static final String FILE_NAME = "records.cache";
+
+    private static final int MAGIC = 0x53524d43;
+    private static final int VERSION = 1;
+
+    private static final int FLAG_START = 1;
+    private static final int FLAG_BINARY = 2;
+    private static final int FLAG_END = 4;
+
+    private File file;
+    private Map<String, Metadata> entries = new HashMap<>();
+    private boolean modified;
+
+    public RecordsCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads cache from the disk. A missing or malformed cache is treated
+     * as empty.
+     */
+    public synchronized void load() {
+        entries.clear();
+        modified = false;
+
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                Log.w(TAG, "Records cache of unknown version, ignoring");
+                return;
+            }
+
+            int count = dis.readInt();
+            for (int i = 0; i < count; ++i) {
+                Metadata metadata = Metadata.read(dis);
+                entries.put(metadata.name, metadata);
+            }
+        } catch (FileNotFoundException ex) {
+            // Nothing cached yet
+        } catch (IOException ex) {
+            Log.w(TAG, "Records cache read error: " + ex.getMessage());
+            entries.clear();
+        } finally {
+            if (dis != null) {
+                try {
+                    dis.close();
+                } catch (IOException ex) {
+                    Log.e(TAG, "Records cache close error: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves cache to the disk if it was modified since it was loaded. The
+     * cache is written to a temporary file first, so a failed write never
+     * leaves a partial cache behind.
+     */
+    public synchronized void save() {
+        if (!modified) {
+            return;
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream dos = null;
+        try {
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(entries.size());
+            for (Metadata metadata : entries.values()) {
+                metadata.write(dos);
+            }
+            dos.close();
+            dos = null;
+
+            if (temporary.renameTo(file)) {
+                modified = false;
+            } else {
+                Log.w(TAG, "Records cache rename failed");
+            }
+        } catch (IOException ex) {
+            Log.w(TAG, "Records cache write error: " + ex.getMessage());
+        } finally {
+            if (dos != null) {
+                try {
+                    dos.close();
+                } catch (IOException ex) {
+                    Log.e(TAG, "Records cache close error: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up metadata of a recording.
+     *
+     * @param name file name of a recording
+     * @param size current size of a recording
+     * @param lastModified current modification time of a recording
+     * @return cached metadata or <code>null</code> if the recording is not
+     * cached or was changed since
+     */
+    public synchronized Metadata get(String name, long size, long lastModified) {
+        Metadata metadata = entries.get(name);
+        if (metadata != null && metadata.size == size && metadata.lastModified == lastModified) {
+            return metadata;
+        }
+        return null;
+    }
+
+    /**
+     * Stores metadata of a recording just read by a reader.
+     *
+     * @param name file name of a recording
+     * @param size size of a recording before it was read
+     * @param lastModified modification time of a recording before it was read
+     * @param reader reader that read the recording or <code>null</code> if
+     *               the start frame could not be read
+     * @return stored metadata
+     */
+    public synchronized Metadata put(String name, long size, long lastModified,
+                                     RecordReader reader) {
+        Metadata metadata = new Metadata(name, size, lastModified);
+        if (reader != null) {
+            metadata.flags = FLAG_START;
+            if (reader.isBinary()) {
+                metadata.flags |= FLAG_BINARY;
+            }
+            metadata.version = reader.getVersion();
+            metadata.startDate = reader.getStartDate().getTime();
+            if (reader.getEndDate() != null) {
+                metadata.flags |= FLAG_END;
+                metadata.endDate = reader.getEndDate().getTime();
+                metadata.duration = reader.getDuration();
+                metadata.distance = reader.getTotalDistance();
+            }
+        }
+        entries.put(name, metadata);
+        modified = true;
+        return metadata;
+    }
+
+    public synchronized void remove(String name) {
+        if (entries.remove(name) != null) {
+            modified = true;
+        }
+    }
+
+    /**
+     * Removes entries of the recordings that no longer exist.
+     *
+     * @param names file names of all existing recordings
+     */
+    public synchronized void retain(Set<String> names) {
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!names.contains(iterator.next())) {
+                iterator.remove();
+                modified = true;
+            }
+        }
+    }
+
+    /**
+     * Immutable metadata of a single recording.
+     */
+    public static class Metadata {
+
+        private String name;
+        private long size;
+        private long lastModified;
+        private int flags;
+        private int version;
+        private long startDate;
+        private long endDate;
+        private long duration;
+        private double distance;
+
+        private Metadata(String name, long size, long lastModified) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public boolean hasStart() {
+            return (flags & FLAG_START) != 0;
+        }
+
+        public boolean hasEnd() {
+            return (flags & FLAG_END) != 0;
+        }
+
+        public boolean isBinary() {
+            return (flags & FLAG_BINARY) != 0;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public long getStartDate() {
+            return startDate;
+        }
+
+        public long getEndDate() {
+            return endDate;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+
+        private static Metadata read(DataInputStream dis) throws IOException {
+            Metadata metadata = new Metadata(dis.readUTF(), dis.readLong(), dis.readLong());
+            metadata.flags = dis.readByte();
+            if (metadata.hasStart()) {
+                metadata.version = dis.readInt();
+                metadata.startDate = dis.readLong();
+            }
+            if (metadata.hasEnd()) {
+                metadata.endDate = dis.readLong();
+                metadata.duration = dis.readLong();
+                metadata.distance = dis.readDouble();
+            }
+            return metadata;
+        }
+
+        private void write(DataOutputStream dos) throws IOException {
+            dos.writeUTF(name);
+            dos.writeLong(size);
+            dos.writeLong(lastModified);
+            dos.writeByte(flags);
+            if (hasStart()) {
+                dos.writeInt(version);
+                dos.writeLong(startDate);
+            }
+            if (hasEnd()) {
+                dos.writeLong(endDate);
+                dos.writeLong(duration);
+                dos.writeDouble(distance);
+            }
+        }
+    }
+}
@@ -51,10 +51,18 @@ public class RecordsFragment extends Fragment implements DeleteConfirmationDialo
     private Records records;
     private RecordsAdapter adapter;
     private RecyclerView recycler;
+    private LinearLayoutManager layoutManager;
     private TextView fallbackText;
 
     private boolean recordsAdapterWide;
 
+    private Runnable visibleRangeUpdate = new Runnable() {
+        @Override
+        public void run() {
+            updateVisibleRange();
+        }
+    };
+
     private ActionMode actionMode;
     private ActionMode.Callback actionModeCallback = new ActionMode.Callback() {
 
@@ -118,10 +126,16 @@ public class RecordsFragment extends Fragment implements DeleteConfirmationDialo
         recycler = (RecyclerView) view.findViewById(R.id.records_recycler);
         recycler.addItemDecoration(new DividerItemDecoration(getActivity(),
                 DividerItemDecoration.VERTICAL_LIST));
-        recycler.setLayoutManager(new LinearLayoutManager(getActivity()));
+        recycler.setLayoutManager(layoutManager = new LinearLayoutManager(getActivity()));
         recycler.setItemAnimator(itemAnimator);
         recycler.setAdapter(adapter = new RecordsAdapter(this, records));
         recycler.setHasFixedSize(true);
+        recycler.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                updateVisibleRange();
+            }
+        });
 
         records.setOnItemListener(this);
         resolveVisibility();
@@ -138,6 +152,7 @@ public class RecordsFragment extends Fragment implements DeleteConfirmationDialo
 
     @Override
     public void onDestroyView() {
+        recycler.removeCallbacks(visibleRangeUpdate);
         records.setOnItemListener(null);
         super.onDestroyView();
     }
@@ -146,6 +161,9 @@ public class RecordsFragment extends Fragment implements DeleteConfirmationDialo
     public void onDataSetChanged() {
         resolveActionMode();
         adapter.notifyDataSetChanged();
+
+        // Visible rows are known once the new data is laid out
+        recycler.post(visibleRangeUpdate);
     }
 
     @Override
@@ -158,6 +176,24 @@ public class RecordsFragment extends Fragment implements DeleteConfirmationDialo
         adapter.notifyItemChanged(position);
     }
 
+    @Override
+    public void onItemMoved(int fromPosition, int toPosition) {
+        adapter.notifyItemMoved(fromPosition, toPosition);
+    }
+
+    @Override
+    public void onItemRangeInserted(int position, int count) {
+        adapter.notifyItemRangeInserted(position, count);
+        recycler.post(visibleRangeUpdate);
+    }
+
+    @Override
+    public void onItemRangeRemoved(int position, int count) {
+        resolveActionMode();
+        adapter.notifyItemRangeRemoved(position, count);
+        recycler.post(visibleRangeUpdate);
+    }
+
     @Override
     public void onDelete() {
         if (!records.deleteActivated()) {
@@ -195,6 +231,13 @@ public class RecordsFragment extends Fragment implements DeleteConfirmationDialo
         }
     }
 
+    private void updateVisibleRange() {
+        int first = layoutManager.findFirstVisibleItemPosition();
+        if (first != RecyclerView.NO_POSITION) {
+            records.setVisibleRange(first, layoutManager.findLastVisibleItemPosition());
+        }
+    }
+
     private void updateTitle(ActionMode actionMode) {
         actionMode.setTitle(getResources().getQuantityString(R.plurals.records_action_title,
                 records.getActivatedCount(), records.getActivatedCount()));
@@ -0,0 +1,156 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.app.util;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the changes turning one list into another as removals, moves
+ * and insertions, in the order a recycler adapter expects them. Items are
+ * matched by identity, so each of them must appear in a list only once.
+ *
+ * <p>Items kept in both lists move only if they are not part of the
+ * longest run of items keeping their relative order, so a single item
+ * changing its place is reported as a single move.
+ */
+public class ListDiff {
+
+    private ListDiff() {
+    }
+
+    /**
+     * Reports changes from the old list to the new one. Positions passed
+     * to the callback account for all the changes reported before.
+     *
+     * @param oldList list before the changes
+     * @param newList list after the changes
+     * @param callback receiver of the changes
+     */
+    public static <T> void dispatch(List<T> oldList, List<T> newList, Callback callback) {
+        Map<T, Integer> oldPositions = new IdentityHashMap<>(oldList.size());
+        for (int i = 0; i < oldList.size(); ++i) {
+            oldPositions.put(oldList.get(i), i);
+        }
+        Map<T, Integer> newPositions = new IdentityHashMap<>(newList.size());
+        for (int i = 0; i < newList.size(); ++i) {
+            newPositions.put(newList.get(i), i);
+        }
+
+        // Removals go from the end, so that earlier positions stay valid
+        List<T> current = new ArrayList<>(oldList.size());
+        int removed = 0;
+        for (int i = oldList.size() - 1; i >= 0; --i) {
+            if (!newPositions.containsKey(oldList.get(i))) {
+                ++removed;
+            } else if (removed > 0) {
+                callback.onRemoved(i + 1, removed);
+                removed = 0;
+            }
+        }
+        if (removed > 0) {
+            callback.onRemoved(0, removed);
+        }
+        for (T item : oldList) {
+            if (newPositions.containsKey(item)) {
+                current.add(item);
+            }
+        }
+
+        // Kept items in the new order, those outside of the longest
+        // increasing run of old positions are moved after their predecessor
+        List<T> target = new ArrayList<>(current.size());
+        for (T item : newList) {
+            if (oldPositions.containsKey(item)) {
+                target.add(item);
+            }
+        }
+        int[] positions = new int[target.size()];
+        for (int i = 0; i < positions.length; ++i) {
+            positions[i] = oldPositions.get(target.get(i));
+        }
+        boolean[] stable = getLongestIncreasing(positions);
+        for (int i = 0; i < target.size(); ++i) {
+            if (stable[i]) {
+                continue;
+            }
+            T item = target.get(i);
+            int from = current.indexOf(item);
+            current.remove(from);
+            int to = i == 0 ? 0 : current.indexOf(target.get(i - 1)) + 1;
+            current.add(to, item);
+            if (from != to) {
+                callback.onMoved(from, to);
+            }
+        }
+
+        // Insertions go from the start, in the final positions
+        int inserted = 0;
+        for (int i = 0; i <= newList.size(); ++i) {
+            if (i < newList.size() && !oldPositions.containsKey(newList.get(i))) {
+                ++inserted;
+            } else if (inserted > 0) {
+                callback.onInserted(i - inserted, inserted);
+                inserted = 0;
+            }
+        }
+    }
+
+    /**
+     * Finds the longest strictly increasing subsequence.
+     *
+     * @return flags of the values belonging to the subsequence
+     */
+    private static boolean[] getLongestIncreasing(int[] values) {
+        // Index of the last value of the best subsequence of each length
+        int[] tails = new int[values.length];
+        int[] previous = new int[values.length];
+        int length = 0;
+        for (int i = 0; i < values.length; ++i) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[tails[middle]] < values[i]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            length = Math.max(length, low + 1);
+        }
+
+        boolean[] result = new boolean[values.length];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            result[i] = true;
+        }
+        return result;
+    }
+
+    public interface Callback {
+        void onRemoved(int position, int count);
+        void onMoved(int fromPosition, int toPosition);
+        void onInserted(int position, int count);
+    }
+}
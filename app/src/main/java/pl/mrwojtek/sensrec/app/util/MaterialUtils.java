@@ -123,4 +123,14 @@ public class MaterialUtils {
         return String.format(formats[i], written + remainder / 1000.0f);
     }
 
+    public static String formatDistance(double meters) {
+        if (meters < 1000.0) {
+            return String.format("%.0fm", meters);
+        } else if (meters < 100000.0) {
+            return String.format("%.2fkm", meters / 1000.0);
+        } else {
+            return String.format("%.0fkm", meters / 1000.0);
+        }
+    }
+
 }
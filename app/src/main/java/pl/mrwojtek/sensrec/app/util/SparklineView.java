@@ -0,0 +1,173 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.app.util;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.view.ViewCompat;
+import android.util.AttributeSet;
+import android.view.View;
+
+import pl.mrwojtek.sensrec.ValueHistory;
+import pl.mrwojtek.sensrec.app.R;
+
+/**
+ * Live plot of a {@link ValueHistory}. The plot scrolls with the time and
+ * is scaled to the visible values. While running it is redrawn on every
+ * frame, reading the history without locking or allocating.
+ */
+public class SparklineView extends View {
+
+    private static final float STROKE_WIDTH = 1.5f;
+
+    private Paint paint;
+    private ValueHistory history;
+    private boolean running;
+
+    private float[] minimums;
+    private float[] maximums;
+    private float[] lines;
+
+    public SparklineView(Context context) {
+        super(context);
+        init(context);
+    }
+
+    public SparklineView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+
+    public SparklineView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init(context);
+    }
+
+    private void init(Context context) {
+        paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(ContextCompat.getColor(context, R.color.colorPrimaryDark));
+        paint.setStrokeWidth(STROKE_WIDTH * context.getResources().getDisplayMetrics().density);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+    }
+
+    public void setHistory(ValueHistory history) {
+        this.history = history;
+        if (history != null) {
+            minimums = new float[history.getSize()];
+            maximums = new float[history.getSize()];
+            lines = new float[8 * history.getSize()];
+        }
+        invalidate();
+    }
+
+    /**
+     * Starts or stops redrawing the plot on every frame.
+     */
+    public void setRunning(boolean running) {
+        if (running && !this.running) {
+            ViewCompat.postInvalidateOnAnimation(this);
+        }
+        this.running = running;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (history == null) {
+            return;
+        }
+
+        long last = history.read(minimums, maximums);
+        if (last >= 0) {
+            drawHistory(canvas, last);
+        }
+
+        if (running) {
+            ViewCompat.postInvalidateOnAnimation(this);
+        }
+    }
+
+    private void drawHistory(Canvas canvas, long last) {
+        int size = history.getSize();
+        long bucketMillis = history.getBucketMillis();
+        long now = SystemClock.elapsedRealtime();
+        long first = last - size + 1;
+
+        // Window spans the history length up to now, older buckets are hidden
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        float height = getHeight() - getPaddingTop() - getPaddingBottom();
+        double start = now - (double) size * bucketMillis;
+        float scale = width / ((float) size * bucketMillis);
+
+        float minimum = Float.POSITIVE_INFINITY;
+        float maximum = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; ++i) {
+            if (!Float.isNaN(minimums[i]) && (first + i + 1) * bucketMillis > start) {
+                minimum = Math.min(minimum, minimums[i]);
+                maximum = Math.max(maximum, maximums[i]);
+            }
+        }
+        if (minimum > maximum) {
+            return;
+        }
+        if (maximum - minimum < Math.ulp(maximum)) {
+            minimum -= 1.0f;
+            maximum += 1.0f;
+        }
+        float range = maximum - minimum;
+
+        int count = 0;
+        float lastX = 0.0f;
+        float lastY = Float.NaN;
+        for (int i = 0; i < size; ++i) {
+            if (Float.isNaN(minimums[i])) {
+                lastY = Float.NaN;
+                continue;
+            }
+
+            float x = getPaddingLeft() +
+                    (float) (((first + i + 0.5) * bucketMillis - start) * scale);
+            if (x < getPaddingLeft()) {
+                continue;
+            }
+            float yMinimum = getPaddingTop() + height * (maximum - minimums[i]) / range;
+            float yMaximum = getPaddingTop() + height * (maximum - maximums[i]) / range;
+            float y = 0.5f * (yMinimum + yMaximum);
+
+            if (!Float.isNaN(lastY)) {
+                lines[count++] = lastX;
+                lines[count++] = lastY;
+                lines[count++] = x;
+                lines[count++] = y;
+            }
+            lines[count++] = x;
+            lines[count++] = yMinimum;
+            lines[count++] = x;
+            lines[count++] = yMaximum;
+
+            lastX = x;
+            lastY = y;
+        }
+        canvas.drawLines(lines, 0, count, paint);
+    }
+}
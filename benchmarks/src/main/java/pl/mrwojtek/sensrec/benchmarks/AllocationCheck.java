@@ -0,0 +1,301 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import pl.mrwojtek.sensrec.FrequencyMeasure;
+import pl.mrwojtek.sensrec.Output;
+import pl.mrwojtek.sensrec.Platform;
+import pl.mrwojtek.sensrec.RecorderOutput;
+import pl.mrwojtek.sensrec.ValueHistory;
+import pl.mrwojtek.sensrec.io.RecordFormat;
+
+/**
+ * Checks that recording does not allocate on the hot path. Sensor, GPS,
+ * NMEA, battery and BLE records are written the same way as by the
+ * recorders of the Android library, saved to a file and streamed to a
+ * local TCP server at the same time. Bytes allocated by the recording
+ * thread are measured after a warm up.
+ *
+ * <p>The binary format must not allocate at all. The text format has a
+ * small per record budget, since formatting of floating point numbers is
+ * up to the platform. Total allocation of each record kind is compared
+ * with its budget times the number of records plus a fixed slack, which
+ * covers only the one-off allocations of the measurement itself. The
+ * check exits with a non-zero status if any of the record kinds exceeds
+ * its budget.
+ */
+public class AllocationCheck {
+
+    public static final long BINARY_BUDGET = 0;
+    public static final long TEXT_BUDGET = 64;
+    public static final long SLACK = 1024;
+
+    private static final String USAGE =
+            "usage: allocation [-n records] [-w warmup] [-t text-budget] [-d directory] " +
+                    "[-l (no streaming)]";
+
+    private final PrintStream out;
+    private final ThreadMXBean threads;
+    private int records = 1000000;
+    private int warmup = 200000;
+    private long textBudget = TEXT_BUDGET;
+    private File directory;
+    private boolean streaming = true;
+
+    public AllocationCheck(PrintStream out) {
+        this.out = out;
+        this.threads = ManagementFactory.getThreadMXBean();
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.exit(new AllocationCheck(System.out).run(args));
+    }
+
+    public int run(String[] args) throws IOException {
+        if (!parse(args)) {
+            out.println(USAGE);
+            return 1;
+        }
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            out.println("allocation: thread allocation counters are not supported");
+            return 2;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        if (!bean.isThreadAllocatedMemorySupported()) {
+            out.println("allocation: thread allocation counters are not supported");
+            return 2;
+        }
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        boolean clean = directory == null;
+        if (clean) {
+            directory = File.createTempFile("sensrec", "");
+            if (!directory.delete() || !directory.mkdir()) {
+                throw new IOException("Unable to create " + directory);
+            }
+        }
+
+        try {
+            boolean passed = check(bean, true, BINARY_BUDGET);
+            passed &= check(bean, false, textBudget);
+            out.println(passed ? "passed" : "FAILED");
+            return passed ? 0 : 3;
+        } finally {
+            if (clean) {
+                clean(directory);
+                directory.delete();
+            }
+        }
+    }
+
+    private boolean check(com.sun.management.ThreadMXBean bean, boolean binary, long budget)
+            throws IOException {
+        BenchmarkContext context = new BenchmarkContext(directory);
+        RecorderOutput output = new RecorderOutput(context);
+        TcpSink sink = null;
+        try {
+            if (streaming) {
+                sink = new TcpSink();
+                context.setStreaming(sink.getHost(), sink.getPort());
+            }
+            ConnectionListener listener = new ConnectionListener();
+            output.getSocketOutput().setOnSocketListener(listener);
+            output.start(binary);
+            if (streaming && !listener.await()) {
+                throw new IOException("Unable to connect to " + sink.getPort());
+            }
+
+            Kind[] kinds = newKinds();
+            for (Kind kind : kinds) {
+                for (int i = 0; i < warmup; ++i) {
+                    kind.record(output, i);
+                }
+            }
+
+            boolean passed = true;
+            long thread = Thread.currentThread().getId();
+            for (Kind kind : kinds) {
+                long allocated = bean.getThreadAllocatedBytes(thread);
+                for (int i = 0; i < records; ++i) {
+                    kind.record(output, i);
+                }
+                allocated = bean.getThreadAllocatedBytes(thread) - allocated;
+
+                boolean ok = allocated <= budget * records + SLACK;
+                passed &= ok;
+                out.println(String.format("%s %-8s %8d records, %10d bytes, %7.3f B/record, " +
+                                "budget %d B: %s", binary ? "binary" : "text  ", kind.name,
+                        records, allocated, (double) allocated / records, budget,
+                        ok ? "ok" : "FAILED"));
+            }
+            output.stop();
+            return passed;
+        } finally {
+            if (sink != null) {
+                sink.close();
+            }
+            clean(directory);
+        }
+    }
+
+    private static void clean(File directory) {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+    }
+
+    private static Kind[] newKinds() {
+        return new Kind[] {
+                new Kind("sensor") {
+                    private final short typeId = RecordFormat.getSensorTypeId(1);
+                    private final float[] values = new float[3];
+                    private final ValueHistory history = new ValueHistory();
+
+                    @Override
+                    protected void record(Output output, long millisecond, int i) {
+                        values[0] = i * 0.01f;
+                        values[1] = 9.80665f - values[0];
+                        values[2] = -values[0];
+                        Output.Record record = output
+                                .start(typeId, (short) 0)
+                                .write(millisecond)
+                                .write(i * 5000000L)
+                                .write((short) values.length);
+                        float squares = 0.0f;
+                        for (float value : values) {
+                            record.write(value);
+                            squares += value * value;
+                        }
+                        record.save();
+                        history.add(millisecond, (float) Math.sqrt(squares));
+                    }
+                },
+                new Kind("gps") {
+                    @Override
+                    protected void record(Output output, long millisecond, int i) {
+                        output.start(RecordFormat.TYPE_GPS, (short) 0)
+                                .write(millisecond)
+                                .write(50.061389 + i * 1e-7)
+                                .write(19.938333 + i * 1e-7)
+                                .write(219.5)
+                                .write(i % 360 * 1.0f)
+                                .write(1.5f)
+                                .write(4.0f)
+                                .write(1445000000000L + i * 1000L)
+                                .save();
+                    }
+                },
+                new Kind("nmea") {
+                    private final String nmea = "$GPGGA,123519,4807.038,N,01131.000,E," +
+                            "1,08,0.9,545.4,M,46.9,M,,*47\r\n";
+
+                    @Override
+                    protected void record(Output output, long millisecond, int i) {
+                        output.start(RecordFormat.TYPE_GPS_NMEA, (short) 0)
+                                .write(millisecond)
+                                .write(1445000000000L + i * 1000L)
+                                .write(nmea, 0, nmea.length())
+                                .save();
+                    }
+                },
+                new Kind("battery") {
+                    @Override
+                    protected void record(Output output, long millisecond, int i) {
+                        output.start(RecordFormat.TYPE_BATTERY_VOLTAGE, (short) 0)
+                                .write(millisecond)
+                                .write(i % 100 * 0.01f)
+                                .write(3700 + i % 500)
+                                .write(250 + i % 100)
+                                .save();
+                    }
+                },
+                new Kind("ble") {
+                    private final byte[] payload = new byte[] { 0x16, 0x48, 0x00, 0x00 };
+
+                    @Override
+                    protected void record(Output output, long millisecond, int i) {
+                        payload[1] = (byte) i;
+                        payload[2] = (byte) (i >> 8);
+                        output.start(RecordFormat.TYPE_BLE_VALUE, (short) 0)
+                                .write(millisecond)
+                                .write((short) 0)
+                                .write(payload, 0, payload.length)
+                                .save();
+                    }
+                }
+        };
+    }
+
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if ("-l".equals(arg)) {
+                streaming = false;
+                continue;
+            }
+            if (arg.startsWith("-") && i + 1 >= args.length) {
+                return false;
+            }
+            try {
+                if ("-n".equals(arg)) {
+                    records = Integer.parseInt(args[++i]);
+                } else if ("-w".equals(arg)) {
+                    warmup = Integer.parseInt(args[++i]);
+                } else if ("-t".equals(arg)) {
+                    textBudget = Long.parseLong(args[++i]);
+                } else if ("-d".equals(arg)) {
+                    directory = new File(args[++i]);
+                } else {
+                    return false;
+                }
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+        }
+        return records > 0 && warmup >= 0 && textBudget >= 0;
+    }
+
+    /**
+     * Kind of records, written like by its recorder together with the
+     * frequency measure that timestamps the samples.
+     */
+    private static abstract class Kind {
+
+        private final String name;
+        private final FrequencyMeasure measure;
+
+        public Kind(String name) {
+            this.name = name;
+            this.measure = new FrequencyMeasure(Platform.getClock(), 1000, 5000, 20);
+        }
+
+        public void record(Output output, int i) {
+            record(output, measure.onNewSample(), i);
+        }
+
+        protected abstract void record(Output output, long millisecond, int i);
+    }
+}
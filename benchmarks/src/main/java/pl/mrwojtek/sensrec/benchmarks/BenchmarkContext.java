@@ -0,0 +1,147 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.benchmarks;
+
+import java.io.File;
+
+import pl.mrwojtek.sensrec.Output;
+import pl.mrwojtek.sensrec.OutputContext;
+import pl.mrwojtek.sensrec.Platform;
+import pl.mrwojtek.sensrec.PipelineMetrics;
+import pl.mrwojtek.sensrec.SocketOutput;
+import pl.mrwojtek.sensrec.io.RecordFormat;
+
+/**
+ * Output settings of the benchmarks. Saves recordings to the given
+ * directory, if any, and streams them over TCP if a host is set.
+ */
+public class BenchmarkContext implements OutputContext {
+
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final File directory;
+    private boolean active = true;
+    private int lastFileIndex;
+    private String host;
+    private int port;
+
+    public BenchmarkContext(File directory) {
+        this.directory = directory;
+    }
+
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+
+    /**
+     * Enables streaming over TCP.
+     *
+     * @param host host to connect to
+     * @param port port to connect to
+     */
+    public void setStreaming(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public boolean isSaving() {
+        return directory != null;
+    }
+
+    @Override
+    public boolean isStorageMounted() {
+        return true;
+    }
+
+    @Override
+    public File getOutputDirectory() {
+        return directory;
+    }
+
+    @Override
+    public String getOutputFileName(boolean binary) {
+        return binary ? "Recording %d.bin" : "Recording %d.txt";
+    }
+
+    @Override
+    public int getLastFileIndex() {
+        return lastFileIndex;
+    }
+
+    @Override
+    public void setLastFileIndex(int fileIndex) {
+        lastFileIndex = fileIndex;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return host != null;
+    }
+
+    @Override
+    public String getOutputHost(boolean binary) {
+        return host;
+    }
+
+    @Override
+    public int getOutputProtocol(boolean binary) {
+        return SocketOutput.PROTOCOL_TCP;
+    }
+
+    @Override
+    public int getOutputPort(boolean binary) {
+        return port;
+    }
+
+    @Override
+    public void recordStart(Output.Record record) {
+        String magic = RecordFormat.MAGIC_WORD;
+        record.start(RecordFormat.TYPE_START, (short) 0)
+                .write(magic, 0, magic.length())
+                .write(RecordFormat.VERSION)
+                .write(Platform.getClock().elapsedRealtime())
+                .write(System.currentTimeMillis())
+                .save();
+    }
+
+    @Override
+    public void recordStop(Output.Record record) {
+        String magic = RecordFormat.MAGIC_WORD;
+        record.start(RecordFormat.TYPE_END, (short) 0)
+                .write(magic, 0, magic.length())
+                .write(RecordFormat.VERSION)
+                .write(Platform.getClock().elapsedRealtime())
+                .write(System.currentTimeMillis())
+                .write(0L)
+                .write(0L)
+                .write(0.0)
+                .save();
+    }
+}
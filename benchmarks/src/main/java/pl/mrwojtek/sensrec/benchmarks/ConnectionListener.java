@@ -0,0 +1,60 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+package pl.mrwojtek.sensrec.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import pl.mrwojtek.sensrec.SocketOutput;
+
+/**
+ * Waits for the network output to connect.
+ */
+public class ConnectionListener implements SocketOutput.OnSocketListener {
+
+    public static final long CONNECT_TIMEOUT = 5000;
+
+    private final CountDownLatch connected = new CountDownLatch(1);
+
+    public boolean await() throws IOException {
+        try {
+            return connected.await(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            throw new IOException("Interrupted", ex);
+        }
+    }
+
+    @Override
+    public void onError(int protocol, String host, int port, int error) {
+    }
+
+    @Override
+    public void onConnecting(int protocol, String host, int port) {
+    }
+
+    @Override
+    public void onConnected(int protocol, String host, int port) {
+        connected.countDown();
+    }
+
+    @Override
+    public void onStop() {
+    }
+}
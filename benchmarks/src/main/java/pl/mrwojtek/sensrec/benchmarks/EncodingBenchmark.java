@@ -0,0 +1,138 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.DataOutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import pl.mrwojtek.sensrec.Output;
+import pl.mrwojtek.sensrec.OutputContext;
+import pl.mrwojtek.sensrec.RecorderOutput;
+import pl.mrwojtek.sensrec.io.RecordFormat;
+
+/**
+ * Encoding of a single record in the binary and text formats, as formatted
+ * by {@link RecorderOutput} and written to a data stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+
+    @Param({"true", "false"})
+    public boolean binary;
+
+    @Param({"3", "9"})
+    public int values;
+
+    private Output.Record record;
+    private DataOutputStream writer;
+    private float[] sensorValues;
+    private byte[] bleValue;
+    private long timestamp;
+
+    @Setup
+    public void setUp() {
+        writer = new DataOutputStream(new NullOutputStream());
+        record = new FormattingOutput(new BenchmarkContext(null), binary)
+                .formatRecord(new StreamRecord(writer));
+        sensorValues = new float[values];
+        for (int i = 0; i < values; ++i) {
+            sensorValues[i] = 9.80665f / (i + 1);
+        }
+        bleValue = new byte[2 * values];
+    }
+
+    @Benchmark
+    public int sensor() {
+        timestamp += 20000000L;
+        record.start((short) 2, (short) 0)
+                .write(timestamp / 1000000L)
+                .write(timestamp)
+                .write((short) sensorValues.length);
+        for (float value : sensorValues) {
+            record.write(value);
+        }
+        record.save();
+        return writer.size();
+    }
+
+    @Benchmark
+    public int ble() {
+        timestamp += 1000000000L;
+        record.start(RecordFormat.TYPE_BLE_VALUE, (short) 0)
+                .write(timestamp / 1000000L)
+                .write((short) 0)
+                .write(bleValue, 0, bleValue.length)
+                .save();
+        return writer.size();
+    }
+
+    /**
+     * Exposes formatting of the records.
+     */
+    public static class FormattingOutput extends RecorderOutput {
+
+        public FormattingOutput(OutputContext context, boolean binary) {
+            super(context);
+            this.binary = binary;
+        }
+
+        @Override
+        public Output.Record formatRecord(Output.Record record) {
+            return super.formatRecord(record);
+        }
+    }
+
+    /**
+     * Record written to a data stream under an uncontended lock, like the
+     * file output does.
+     */
+    public static class StreamRecord extends Output.DataOutputStreamRecord {
+
+        private final DataOutputStream writer;
+
+        public StreamRecord(DataOutputStream writer) {
+            super(new ReentrantLock());
+            this.writer = writer;
+        }
+
+        @Override
+        protected DataOutputStream getWriter() {
+            return writer;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import pl.mrwojtek.sensrec.FrequencyMeasure;
+
+/**
+ * Cost of accounting a sample in {@link FrequencyMeasure}, alone and while
+ * other threads keep resolving the measure like the user interface does,
+ * only much more often.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrequencyMeasureBenchmark {
+
+    @State(Scope.Group)
+    public static class Measure {
+
+        final FrequencyMeasure measure = new FrequencyMeasure();
+
+        @Setup
+        public void setUp() {
+            measure.onStarted();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Reader {
+
+        final FrequencyMeasure.Snapshot snapshot = new FrequencyMeasure.Snapshot();
+    }
+
+    @Benchmark
+    @Group("alone")
+    @GroupThreads(1)
+    public long sample(Measure measure) {
+        return measure.measure.onNewSample();
+    }
+
+    @Benchmark
+    @Group("read")
+    @GroupThreads(1)
+    public long sampleWhileRead(Measure measure) {
+        return measure.measure.onNewSample();
+    }
+
+    @Benchmark
+    @Group("read")
+    @GroupThreads(3)
+    public long read(Measure measure, Reader reader) {
+        measure.measure.read(reader.snapshot);
+        return reader.snapshot.getSamples();
+    }
+}
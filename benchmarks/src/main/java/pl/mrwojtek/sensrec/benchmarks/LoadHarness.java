@@ -0,0 +1,398 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import pl.mrwojtek.sensrec.Clock;
+import pl.mrwojtek.sensrec.Platform;
+import pl.mrwojtek.sensrec.PipelineMetrics;
+import pl.mrwojtek.sensrec.RecorderOutput;
+
+/**
+ * Drives the recording output with synthetic sensor and BLE channels to
+ * find out how much load it sustains without the hardware. Sensor channels
+ * are produced by a single thread, like the sensor callbacks on the main
+ * looper, and BLE channels by another one, like the binder callbacks.
+ *
+ * <p>A run is sustained if no record was dropped and at least
+ * {@link #SUSTAINED_FRACTION} of the scheduled samples were recorded in
+ * time. With the search option the rates of all channels are scaled up
+ * until a run is not sustained, then the maximum scale is bisected.
+ *
+ * <p>The clock is used to schedule samples and to timestamp them. It must
+ * advance at the real time rate, since producers wait for the next sample
+ * by parking.
+ */
+public class LoadHarness {
+
+    public static final double SUSTAINED_FRACTION = 0.99;
+
+    private static final String USAGE =
+            "usage: load [-c channels] [-r rate] [-v values] [-b devices] [-R rate] " +
+                    "[-p bytes] [-d seconds] [-t] [-n] [-s] [-o directory]";
+
+    private static final int SENSOR_TYPES = 20;
+    private static final double MAXIMUM_SCALE = 1024.0;
+    private static final int SEARCH_STEPS = 5;
+
+    private final Clock clock;
+    private final PrintStream out;
+
+    private int channels = 40;
+    private double rate = 500.0;
+    private int values = 3;
+    private int bleDevices = 5;
+    private double bleRate = 50.0;
+    private int blePayload = 20;
+    private double seconds = 10.0;
+    private boolean binary = true;
+    private boolean streaming;
+    private boolean search;
+    private File directory;
+
+    public LoadHarness(Clock clock, PrintStream out) {
+        this.clock = clock;
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        System.exit(new LoadHarness(Platform.getClock(), System.out).run(args));
+    }
+
+    public int run(String[] args) {
+        if (!parse(args)) {
+            out.println(USAGE);
+            return 1;
+        }
+
+        boolean temporary = directory == null;
+        try {
+            if (temporary) {
+                directory = File.createTempFile("sensrec", "");
+                if (!directory.delete() || !directory.mkdir()) {
+                    throw new IOException("Unable to create " + directory);
+                }
+            }
+
+            out.println(String.format("%d channels at %.1f Hz, %d BLE devices at %.1f Hz, " +
+                            "%s, %s", channels, rate, bleDevices, bleRate,
+                    binary ? "binary" : "text", streaming ? "file and TCP" : "file"));
+            Result result = search ? search() : run(1.0, temporary);
+            out.println(result.isSustained() ? "sustained: " + result : "not sustained");
+            return result.isSustained() ? 0 : 3;
+        } catch (IOException ex) {
+            out.println("load: " + ex.getMessage());
+            return 2;
+        } finally {
+            if (temporary && directory != null) {
+                clean(directory);
+                directory.delete();
+            }
+        }
+    }
+
+    /**
+     * Finds the maximum sustained scale of all the channel rates.
+     */
+    private Result search() throws IOException {
+        double low = 0.0;
+        double high = 0.0;
+        double scale = 1.0;
+        Result best = null;
+        while (high == 0.0 && scale <= MAXIMUM_SCALE) {
+            Result result = run(scale, true);
+            if (result.isSustained()) {
+                low = scale;
+                best = result;
+                scale *= 2.0;
+            } else {
+                high = scale;
+            }
+        }
+
+        for (int i = 0; i < SEARCH_STEPS && high != 0.0; ++i) {
+            scale = (low + high) / 2.0;
+            Result result = run(scale, true);
+            if (result.isSustained()) {
+                low = scale;
+                best = result;
+            } else {
+                high = scale;
+            }
+        }
+        return best != null ? best : new Result(0.0);
+    }
+
+    /**
+     * Records synthetic channels for the configured time.
+     *
+     * @param scale factor of all the channel rates
+     * @param clean whether to remove the recordings afterwards
+     * @return run result
+     */
+    public Result run(double scale, boolean clean) throws IOException {
+        List<SyntheticRecorder> sensors = new ArrayList<>();
+        for (int i = 0; i < channels; ++i) {
+            sensors.add(SyntheticRecorder.newSensor(clock, 1 + i % SENSOR_TYPES,
+                    (short) (i / SENSOR_TYPES), rate * scale, values));
+        }
+        List<SyntheticRecorder> ble = new ArrayList<>();
+        for (int i = 0; i < bleDevices; ++i) {
+            ble.add(SyntheticRecorder.newBle(clock, (short) i, bleRate * scale, blePayload));
+        }
+
+        BenchmarkContext context = new BenchmarkContext(directory);
+        RecorderOutput output = new RecorderOutput(context);
+        TcpSink sink = null;
+        try {
+            if (streaming) {
+                sink = new TcpSink();
+                context.setStreaming(sink.getHost(), sink.getPort());
+            }
+            ConnectionListener listener = new ConnectionListener();
+            output.getSocketOutput().setOnSocketListener(listener);
+            output.start(binary);
+            if (streaming && !listener.await()) {
+                throw new IOException("Unable to connect to " + sink.getPort());
+            }
+
+            Result result = new Result(scale);
+            long cpuTime = getCpuTime();
+            long start = clock.elapsedRealtimeNanos();
+            long end = start + Math.round(seconds * 1e9);
+            Producer[] producers = new Producer[] {
+                    new Producer(output, sensors, start, end),
+                    new Producer(output, ble, start, end)
+            };
+            for (Producer producer : producers) {
+                producer.start();
+            }
+            for (Producer producer : producers) {
+                producer.join(result);
+            }
+            output.stop();
+            result.finish(context.getMetrics(), clock.elapsedRealtimeNanos() - start,
+                    getCpuTime() - cpuTime);
+
+            out.println(result);
+            return result;
+        } finally {
+            if (sink != null) {
+                sink.close();
+            }
+            if (clean) {
+                clean(directory);
+            }
+        }
+    }
+
+    private static void clean(File directory) {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Gets CPU time of the whole process, including the output threads,
+     * garbage collection and compilation.
+     *
+     * @return time in nanoseconds or <code>-1</code> if not available
+     */
+    private static long getCpuTime() {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            try {
+                if ("-t".equals(arg)) {
+                    binary = false;
+                } else if ("-n".equals(arg)) {
+                    streaming = true;
+                } else if ("-s".equals(arg)) {
+                    search = true;
+                } else if (i + 1 >= args.length) {
+                    return false;
+                } else if ("-c".equals(arg)) {
+                    channels = Integer.parseInt(args[++i]);
+                } else if ("-r".equals(arg)) {
+                    rate = Double.parseDouble(args[++i]);
+                } else if ("-v".equals(arg)) {
+                    values = Integer.parseInt(args[++i]);
+                } else if ("-b".equals(arg)) {
+                    bleDevices = Integer.parseInt(args[++i]);
+                } else if ("-R".equals(arg)) {
+                    bleRate = Double.parseDouble(args[++i]);
+                } else if ("-p".equals(arg)) {
+                    blePayload = Integer.parseInt(args[++i]);
+                } else if ("-d".equals(arg)) {
+                    seconds = Double.parseDouble(args[++i]);
+                } else if ("-o".equals(arg)) {
+                    directory = new File(args[++i]);
+                } else {
+                    return false;
+                }
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+        }
+        return channels >= 0 && bleDevices >= 0 && rate > 0.0 && bleRate > 0.0 &&
+                seconds > 0.0 && (directory == null || directory.isDirectory());
+    }
+
+    /**
+     * Outcome of a single run.
+     */
+    public static class Result {
+
+        private final double scale;
+        private long scheduled;
+        private long recorded;
+        private long late;
+        private long dropped;
+        private long bytes;
+        private long duration;
+        private long cpuTime;
+
+        protected Result(double scale) {
+            this.scale = scale;
+        }
+
+        private synchronized void add(long scheduled, long recorded, long late) {
+            this.scheduled += scheduled;
+            this.recorded += recorded;
+            this.late += late;
+        }
+
+        private void finish(PipelineMetrics metrics, long duration, long cpuTime) {
+            for (PipelineMetrics.Sink sink : metrics.getSinks()) {
+                dropped += sink.get(PipelineMetrics.DROPPED);
+            }
+            bytes = metrics.getTotal(PipelineMetrics.BYTES);
+            this.duration = duration;
+            this.cpuTime = cpuTime;
+        }
+
+        public boolean isSustained() {
+            return scheduled > 0 && dropped == 0 && recorded >= SUSTAINED_FRACTION * scheduled;
+        }
+
+        /**
+         * Gets recorded samples per second.
+         */
+        public double getRate() {
+            return duration > 0 ? recorded * 1e9 / duration : 0.0;
+        }
+
+        /**
+         * Gets CPU time of the process per recorded sample.
+         *
+         * @return time in microseconds or a negative value if not known
+         */
+        public double getCpuTimePerRecord() {
+            return recorded > 0 && cpuTime >= 0 ? cpuTime / 1e3 / recorded : -1.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("scale %.2f, %.0f records/s, %d of %d recorded, %d late, " +
+                            "%d dropped, %.2f us CPU/record, %.1f MB/s", scale, getRate(),
+                    recorded, scheduled, late, dropped, getCpuTimePerRecord(),
+                    duration > 0 ? bytes * 1e3 / duration : 0.0);
+        }
+    }
+
+    /**
+     * Thread recording samples of its channels as they become due.
+     */
+    private class Producer extends Thread {
+
+        private final RecorderOutput output;
+        private final List<SyntheticRecorder> recorders;
+        private final long end;
+        private long scheduled;
+        private long recorded;
+        private long late;
+
+        public Producer(RecorderOutput output, List<SyntheticRecorder> recorders, long start,
+                        long end) {
+            this.output = output;
+            this.recorders = recorders;
+            this.end = end;
+
+            // Channels are spread evenly over their periods
+            for (int i = 0; i < recorders.size(); ++i) {
+                SyntheticRecorder recorder = recorders.get(i);
+                recorder.setDue(start + recorder.getPeriod() * i / recorders.size());
+                scheduled += (end - recorder.getDue() + recorder.getPeriod() - 1) /
+                        recorder.getPeriod();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!recorders.isEmpty()) {
+                long now = clock.elapsedRealtimeNanos();
+                if (now >= end) {
+                    break;
+                }
+
+                long next = end;
+                for (SyntheticRecorder recorder : recorders) {
+                    while (recorder.getDue() <= now) {
+                        if (now - recorder.getDue() > recorder.getPeriod()) {
+                            ++late;
+                        }
+                        recorder.record(output);
+                        ++recorded;
+                    }
+                    next = Math.min(next, recorder.getDue());
+                }
+
+                long wait = next - clock.elapsedRealtimeNanos();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+        }
+
+        public void join(Result result) throws IOException {
+            try {
+                join();
+            } catch (InterruptedException ex) {
+                throw new IOException("Interrupted", ex);
+            }
+            result.add(scheduled, recorded, late);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import pl.mrwojtek.sensrec.Output;
+import pl.mrwojtek.sensrec.RecordReader;
+import pl.mrwojtek.sensrec.RecorderOutput;
+
+/**
+ * Reading of the start and end frames over a corpus of recordings, as done
+ * when the list of recordings is shown. Recordings are written by the file
+ * output to a temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordReaderBenchmark {
+
+    private static final int FILES = 50;
+
+    @Param({"true", "false"})
+    public boolean binary;
+
+    @Param({"1000", "10000"})
+    public int records;
+
+    private File directory;
+    private File[] files;
+    private RecordReader reader;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = File.createTempFile("sensrec", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create " + directory);
+        }
+
+        BenchmarkContext context = new BenchmarkContext(directory);
+        RecorderOutput output = new RecorderOutput(context);
+        for (int i = 0; i < FILES; ++i) {
+            output.start(binary);
+            for (int j = 0; j < records; ++j) {
+                Output.Record record = output.start((short) 2, (short) 0)
+                        .write((long) j * 20)
+                        .write(j * 20000000L)
+                        .write((short) 3);
+                for (int k = 0; k < 3; ++k) {
+                    record.write(k * 0.5f);
+                }
+                record.save();
+            }
+            output.stop();
+        }
+
+        files = directory.listFiles();
+        reader = new RecordReader();
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public int readStartEnd() {
+        int valid = 0;
+        for (File file : files) {
+            if (reader.readStartEnd(file)) {
+                ++valid;
+            }
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import pl.mrwojtek.sensrec.StepReadWriteStream;
+
+/**
+ * Throughput of the network buffer with 1, 2, 4 and 8 producers writing
+ * records the way the socket output does: mark, write and submit under a
+ * lock. A single consumer drains the buffer like the network thread.
+ * Producer scores count all the attempts, including records dropped when
+ * the consumer falls behind.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepReadWriteStreamBenchmark {
+
+    private static final int CAPACITY = 32768;
+    private static final int RECORD_LENGTH = 34;
+
+    @State(Scope.Group)
+    public static class Buffer {
+
+        final StepReadWriteStream stream = new StepReadWriteStream(CAPACITY);
+        final Lock lock = new ReentrantLock();
+        final NullOutputStream sink = new NullOutputStream();
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+
+        final byte[] record = new byte[RECORD_LENGTH];
+    }
+
+    @Benchmark
+    @Group("producers1")
+    @GroupThreads(1)
+    public boolean write1(Buffer buffer, Producer producer) throws IOException {
+        return write(buffer, producer);
+    }
+
+    @Benchmark
+    @Group("producers1")
+    @GroupThreads(1)
+    public int drain1(Buffer buffer) throws IOException {
+        return drain(buffer);
+    }
+
+    @Benchmark
+    @Group("producers2")
+    @GroupThreads(2)
+    public boolean write2(Buffer buffer, Producer producer) throws IOException {
+        return write(buffer, producer);
+    }
+
+    @Benchmark
+    @Group("producers2")
+    @GroupThreads(1)
+    public int drain2(Buffer buffer) throws IOException {
+        return drain(buffer);
+    }
+
+    @Benchmark
+    @Group("producers4")
+    @GroupThreads(4)
+    public boolean write4(Buffer buffer, Producer producer) throws IOException {
+        return write(buffer, producer);
+    }
+
+    @Benchmark
+    @Group("producers4")
+    @GroupThreads(1)
+    public int drain4(Buffer buffer) throws IOException {
+        return drain(buffer);
+    }
+
+    @Benchmark
+    @Group("producers8")
+    @GroupThreads(8)
+    public boolean write8(Buffer buffer, Producer producer) throws IOException {
+        return write(buffer, producer);
+    }
+
+    @Benchmark
+    @Group("producers8")
+    @GroupThreads(1)
+    public int drain8(Buffer buffer) throws IOException {
+        return drain(buffer);
+    }
+
+    private static boolean write(Buffer buffer, Producer producer) throws IOException {
+        buffer.lock.lock();
+        try {
+            buffer.stream.mark();
+            buffer.stream.write(producer.record, 0, producer.record.length);
+            return buffer.stream.submit();
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    private static int drain(Buffer buffer) throws IOException {
+        return buffer.stream.writeTo(buffer.sink, CAPACITY);
+    }
+}
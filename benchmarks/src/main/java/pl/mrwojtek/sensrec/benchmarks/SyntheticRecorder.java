@@ -0,0 +1,139 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.benchmarks;
+
+import pl.mrwojtek.sensrec.Clock;
+import pl.mrwojtek.sensrec.FrequencyMeasure;
+import pl.mrwojtek.sensrec.Output;
+import pl.mrwojtek.sensrec.io.RecordFormat;
+
+/**
+ * Channel producing samples at a fixed rate, recorded the same way as by
+ * the sensor and BLE recorders of the Android library.
+ */
+public class SyntheticRecorder {
+
+    // Heart rate measurement characteristic
+    private static final long BLE_UUID_MOST = 0x00002a3700001000L;
+    private static final long BLE_UUID_LEAST = 0x800000805f9b34fbL;
+
+    private final short typeId;
+    private final short deviceId;
+    private final long period;
+    private final FrequencyMeasure measure;
+    private final float[] values;
+    private final byte[] payload;
+    private long due;
+    private boolean mapped;
+
+    private SyntheticRecorder(Clock clock, short typeId, short deviceId, double rate,
+                              float[] values, byte[] payload) {
+        this.typeId = typeId;
+        this.deviceId = deviceId;
+        this.period = Math.max(1, Math.round(1e9 / rate));
+        this.measure = new FrequencyMeasure(clock, 1000, 5000, 20);
+        this.values = values;
+        this.payload = payload;
+    }
+
+    /**
+     * Creates a sensor channel.
+     *
+     * @param clock clock of the frequency measure
+     * @param type Android sensor type
+     * @param deviceId device of the sensor
+     * @param rate samples per second
+     * @param valueCount number of values of each sample
+     * @return sensor channel
+     */
+    public static SyntheticRecorder newSensor(Clock clock, int type, short deviceId, double rate,
+                                              int valueCount) {
+        float[] values = new float[valueCount];
+        for (int i = 0; i < valueCount; ++i) {
+            values[i] = 9.80665f / (i + 1);
+        }
+        return new SyntheticRecorder(clock, RecordFormat.getSensorTypeId(type), deviceId, rate,
+                values, null);
+    }
+
+    /**
+     * Creates a BLE characteristic channel.
+     *
+     * @param clock clock of the frequency measure
+     * @param deviceId BLE device
+     * @param rate notifications per second
+     * @param payloadLength length of each characteristic value
+     * @return BLE channel
+     */
+    public static SyntheticRecorder newBle(Clock clock, short deviceId, double rate,
+                                           int payloadLength) {
+        return new SyntheticRecorder(clock, RecordFormat.TYPE_BLE_VALUE, deviceId, rate, null,
+                new byte[payloadLength]);
+    }
+
+    public long getPeriod() {
+        return period;
+    }
+
+    public long getDue() {
+        return due;
+    }
+
+    public void setDue(long due) {
+        this.due = due;
+        mapped = false;
+        measure.onStarted();
+    }
+
+    /**
+     * Records a single sample and schedules the next one.
+     *
+     * @param output output to record to
+     */
+    public void record(Output output) {
+        long millisecond = measure.onNewSample();
+        if (payload == null) {
+            Output.Record record = output.start(typeId, deviceId)
+                    .write(millisecond)
+                    .write(due)
+                    .write((short) values.length);
+            for (float value : values) {
+                record.write(value);
+            }
+            record.save();
+        } else {
+            if (!mapped) {
+                output.start(RecordFormat.TYPE_BLE_MAP, deviceId)
+                        .write(millisecond)
+                        .write((short) 0)
+                        .write(BLE_UUID_MOST)
+                        .write(BLE_UUID_LEAST)
+                        .save();
+                mapped = true;
+            }
+            output.start(typeId, deviceId)
+                    .write(millisecond)
+                    .write((short) 0)
+                    .write(payload, 0, payload.length)
+                    .save();
+        }
+        due += period;
+    }
+}
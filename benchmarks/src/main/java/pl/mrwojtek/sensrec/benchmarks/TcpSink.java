@@ -0,0 +1,71 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+package pl.mrwojtek.sensrec.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Local TCP server discarding everything it receives.
+ */
+public class TcpSink extends Thread {
+
+    private final ServerSocket server;
+
+    public TcpSink() throws IOException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        setDaemon(true);
+        start();
+    }
+
+    public String getHost() {
+        return server.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[65536];
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                try {
+                    InputStream stream = socket.getInputStream();
+                    while (stream.read(buffer) >= 0) {
+                        // Discard
+                    }
+                } finally {
+                    socket.close();
+                }
+            } catch (IOException ex) {
+                // Closed or disconnected
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+    }
+}
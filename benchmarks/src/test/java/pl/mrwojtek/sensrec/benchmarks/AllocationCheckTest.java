@@ -0,0 +1,39 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.benchmarks;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class AllocationCheckTest {
+
+    @Test
+    public void recordingDoesNotAllocate() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AllocationCheck check = new AllocationCheck(new PrintStream(bytes));
+        int status = check.run(new String[] { "-n", "200000", "-w", "100000" });
+        assertEquals(bytes.toString(), 0, status);
+    }
+}
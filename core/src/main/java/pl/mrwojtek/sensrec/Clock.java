@@ -0,0 +1,39 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec;
+
+/**
+ * Source of the monotonic time used to timestamp records. On Android it's
+ * the elapsed real time, so that records from all the recorders share the
+ * same time base as the sensor events.
+ */
+public interface Clock {
+
+    /**
+     * Gets monotonic time in milliseconds.
+     */
+    long elapsedRealtime();
+
+    /**
+     * Gets monotonic time in nanoseconds, in the same time base as
+     * {@link #elapsedRealtime()}.
+     */
+    long elapsedRealtimeNanos();
+}
@@ -0,0 +1,441 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import pl.mrwojtek.sensrec.io.RecordFormat;
+import pl.mrwojtek.sensrec.io.RecordIndexWriter;
+
+/**
+ * Records sensors data to file.
+ */
+public class FileOutput {
+
+    public static final int ERROR_MEDIA_NOT_MOUNTED = 1;
+    public static final int ERROR_DIRECTORY_MISSING = 2;
+    public static final int ERROR_OPENING_FILE = 3;
+    public static final int ERROR_WRITE_ERROR = 4;
+
+    private static final String TAG = "SensRec";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // Buffered records are flushed once this many bytes are pending, below
+    // the buffer size so that the buffer rarely spills on its own
+    private static final int FLUSH_THRESHOLD = 4096;
+
+    private RecorderOutput output;
+    private OutputContext recorder;
+    private PipelineMetrics metrics;
+    private PipelineMetrics.Sink sink;
+    private List<OnFileListener> onFileListeners = new ArrayList<>();
+
+    private boolean started;
+    private FileOutputStream stream;
+    private DataOutputStream writer;
+    private RecordIndexWriter indexWriter;
+    private long written;
+    private long flushed;
+    private final Lock writeLock = new ReentrantLock();
+
+    private String lastFileName;
+    private Integer lastError;
+
+    public FileOutput(RecorderOutput output, OutputContext recorder) {
+        this.output = output;
+        this.recorder = recorder;
+        this.metrics = recorder.getMetrics();
+        this.sink = metrics.getSink(PipelineMetrics.SINK_FILE);
+    }
+
+    public void addOnFileListener(OnFileListener listener) {
+        onFileListeners.add(listener);
+        notifyListener(listener);
+    }
+
+    public void removeOnFileListener(OnFileListener listener) {
+        onFileListeners.remove(listener);
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public long getBytesWritten() {
+        writeLock.lock();
+        try {
+            return written;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public Output.Record newRecord() {
+        return new FileRecord(writeLock, sink);
+    }
+
+    public void start() {
+        // Do not start saving if disabled or recording is not active
+        if (!recorder.isSaving() || !recorder.isActive()) {
+            return;
+        }
+
+        if (!recorder.isStorageMounted()) {
+            Platform.getLogger().e(TAG, "External files directory is not mounted");
+            notifyError(ERROR_MEDIA_NOT_MOUNTED);
+            return;
+        }
+
+        File directory = recorder.getOutputDirectory();
+        if (directory == null) {
+            Platform.getLogger().e(TAG, "Error accessing external files directory");
+            notifyError(ERROR_DIRECTORY_MISSING);
+            return;
+        }
+
+        String fileName = recorder.getOutputFileName(output.isBinary());
+        int fileIndex = nextFreeIndex(directory.list(), fileName);
+        String currentName = String.format(fileName, fileIndex);
+
+        Platform.getLogger().i(TAG, "Logging to " + currentName);
+
+        writeLock.lock();
+        try {
+            if (started) {
+                Platform.getLogger().w(TAG, "Trying to start second file write");
+                return;
+            }
+
+            started = true;
+            written = 0;
+            flushed = 0;
+            File file = new File(directory, currentName);
+            stream = new FileOutputStream(file, false);
+            writer = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+            openIndex(file);
+            recorder.recordStart(output.formatRecord(newRecord()));
+            notifyStart(currentName);
+        } catch (FileNotFoundException ex) {
+            Platform.getLogger().e(TAG, "Error opening file " + currentName + ": " +
+                    ex.getMessage());
+            stop(true);
+            notifyError(ERROR_OPENING_FILE);
+        } finally {
+            writeLock.unlock();
+            recorder.setLastFileIndex(fileIndex);
+        }
+    }
+
+    private void openIndex(File file) {
+        try {
+            indexWriter = new RecordIndexWriter(file, output.isBinary());
+        } catch (IOException ex) {
+            Platform.getLogger().w(TAG, "Error opening index of " + file.getName() + ": " +
+                    ex.getMessage());
+            indexWriter = null;
+        }
+    }
+
+    private void closeIndex(boolean finish) {
+        if (indexWriter == null) {
+            return;
+        }
+
+        try {
+            if (finish) {
+                indexWriter.finish(written);
+            }
+        } catch (IOException ex) {
+            Platform.getLogger().w(TAG, "Error finishing index: " + ex.getMessage());
+        } finally {
+            try {
+                indexWriter.close();
+            } catch (IOException ex) {
+                Platform.getLogger().w(TAG, "Error closing index: " + ex.getMessage());
+            }
+            indexWriter = null;
+        }
+    }
+
+    private int nextFreeIndex(String[] files, String fileName) {
+        // List all recorded files
+        Set<String> set = new HashSet<>(Arrays.asList(files));
+
+        // Find the new file name
+        int index = recorder.getLastFileIndex() + 1;
+        String name;
+        while (true) {
+            name = String.format(fileName, index);
+            if (!set.contains(name)) {
+                return index;
+            } else {
+                ++index;
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered records to the file. Called periodically and when
+     * the recording is paused, so the file doesn't lag much behind the
+     * records saved in between the flushes.
+     */
+    public void flush() {
+        writeLock.lock();
+        try {
+            if (started && writer != null && flushed != written) {
+                flushWriter(null);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the writer and accounts the time to the sink and to the
+     * channel whose record filled the buffer, if any. The file is closed
+     * if it can't be written. Must be called with the write lock held.
+     */
+    private void flushWriter(PipelineMetrics.Channel channel) {
+        long time = System.nanoTime();
+        try {
+            writer.flush();
+            flushed = written;
+            long nanos = System.nanoTime() - time;
+            sink.add(PipelineMetrics.BUSY_NANOS, nanos);
+            sink.increment(PipelineMetrics.BUSY_COUNT);
+            if (channel != null) {
+                channel.getLatency(PipelineMetrics.STAGE_FILE).record(nanos);
+            }
+        } catch (IOException ex) {
+            Platform.getLogger().e(TAG, "Error flushing file: " + ex.getMessage());
+            sink.increment(PipelineMetrics.DROPPED);
+            stop(true);
+            notifyError(ERROR_WRITE_ERROR);
+        }
+    }
+
+    public void stop() {
+        stop(false);
+    }
+
+    private void stop(boolean quiet) {
+        writeLock.lock();
+        try {
+            if (!started) {
+                return;
+            }
+
+            started = false;
+            if (writer != null) {
+                recorder.recordStop(output.formatRecord(newRecord()));
+                closeIndex(!quiet);
+                try {
+                    writer.close();
+                } catch (IOException ex) {
+                    Platform.getLogger().e(TAG, "Error closing file writer: " + ex.getMessage());
+                } finally {
+                    writer = null;
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ex) {
+                Platform.getLogger().e(TAG, "Error closing file stream: " + ex.getMessage());
+            } finally {
+                stream = null;
+            }
+        }
+
+        if (!quiet) {
+            notifyStop();
+        }
+    }
+
+    private void notifyListener(OnFileListener listener) {
+        if (lastFileName != null) {
+            listener.onStart(lastFileName);
+        } else if (lastError != null) {
+            listener.onError(lastError);
+        } else {
+            listener.onStop();
+        }
+    }
+
+    private void notifyError(int error) {
+        lastFileName = null;
+        lastError = error;
+        for (OnFileListener listener : onFileListeners) {
+            listener.onError(error);
+        }
+    }
+
+    private void notifyStart(String fileName) {
+        lastFileName = fileName;
+        lastError = null;
+        for (OnFileListener listener : onFileListeners) {
+            listener.onStart(fileName);
+        }
+    }
+
+    private void notifyStop() {
+        lastFileName = null;
+        lastError = null;
+        for (OnFileListener listener : onFileListeners) {
+            listener.onStop();
+        }
+    }
+
+    /**
+     * Writes records to the file and feeds the index with the type, offset
+     * and millisecond of each saved record. Millisecond is the first long
+     * of a binary record or the first field of a text line. Records are
+     * buffered and flushed to the file once enough of them are pending.
+     */
+    private class FileRecord extends Output.DataOutputStreamRecord {
+
+        private short typeId;
+        private short deviceId;
+        private long offset;
+        private long millisecond;
+        private boolean pending;
+
+        public FileRecord(Lock writeLock, PipelineMetrics.Sink sink) {
+            super(writeLock, sink);
+        }
+
+        @Override
+        protected DataOutputStream getWriter() {
+            return writer;
+        }
+
+        @Override
+        protected void onException(IOException ex) {
+            sink.increment(PipelineMetrics.DROPPED);
+            if (PipelineMetrics.isTracked(typeId)) {
+                metrics.getChannel(typeId, deviceId).increment(PipelineMetrics.DROPPED);
+            }
+            stop(true);
+            notifyError(ERROR_WRITE_ERROR);
+        }
+
+        @Override
+        protected void onWritten(int bytes) {
+            written += bytes;
+        }
+
+        @Override
+        public Output.Record start(short typeId, short deviceId) {
+            super.start(typeId, deviceId);
+            this.typeId = typeId;
+            this.deviceId = deviceId;
+            this.offset = written;
+            this.pending = true;
+            return this;
+        }
+
+        @Override
+        public Output.Record write(long value) {
+            if (pending && output.isBinary()) {
+                millisecond = value;
+                pending = false;
+            }
+            return super.write(value);
+        }
+
+        @Override
+        public Output.Record write(CharSequence value, int offset, int count) {
+            if (pending && !output.isBinary()) {
+                pending = !parseMillisecond(value, offset, offset + count);
+            }
+            return super.write(value, offset, count);
+        }
+
+        @Override
+        public void save() {
+            try {
+                if (writer != null && written - flushed >= FLUSH_THRESHOLD) {
+                    flushWriter(PipelineMetrics.isTracked(typeId) ?
+                            metrics.getChannel(typeId, deviceId) : null);
+                }
+                if (!pending && indexWriter != null && writer != null) {
+                    indexWriter.add(typeId, deviceId, offset, millisecond);
+                }
+            } catch (IOException ex) {
+                Platform.getLogger().w(TAG, "Error writing index: " + ex.getMessage());
+                closeIndex(false);
+            } finally {
+                super.save();
+            }
+        }
+
+        private boolean parseMillisecond(CharSequence line, int from, int to) {
+            char separator = RecordFormat.SEPARATOR.charAt(0);
+            int i = from;
+            while (i < to && line.charAt(i) != separator) {
+                ++i;
+            }
+            if (++i >= to) {
+                return false;
+            }
+
+            boolean negative = line.charAt(i) == '-';
+            if (negative) {
+                ++i;
+            }
+
+            long value = 0;
+            int digits = 0;
+            for (; i < to; ++i, ++digits) {
+                char c = line.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+
+            millisecond = negative ? -value : value;
+            return digits > 0;
+        }
+    }
+
+    public interface OnFileListener {
+        void onError(int error);
+        void onStart(String fileName);
+        void onStop();
+    }
+}
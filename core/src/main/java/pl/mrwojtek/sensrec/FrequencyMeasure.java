@@ -0,0 +1,334 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Dynamic measurement of samples frequency. Besides the rate over a
+ * rolling window it tracks the inter-arrival jitter, the longest gap
+ * between samples and, if the expected sampling period is known, an
+ * estimate of the number of missed samples.
+ *
+ * <p>Samples must be reported by a single thread. Statistics are published
+ * after every sample under a sequence counter, so readers on any other
+ * thread get a consistent snapshot without ever blocking the writer.
+ */
+public class FrequencyMeasure {
+
+    public static final int MEASURE_VALUE = 1;
+    public static final int MEASURE_QUIET = 2;
+    public static final int MEASURE_AMBIGUOUS = 3;
+    public static final int MEASURE_DISABLED = 4;
+    public static final int MEASURE_PERMISSION_DENIED = 5;
+
+    private static final int MAXIMUM_MEASURES = 20;
+    private static final int MAXIMUM_INTERVAL = 1000;
+    private static final int QUIET_INTERVAL = 5000;
+
+    // Gain of the jitter filter, as in RFC 3550
+    private static final int JITTER_SHIFT = 4;
+
+    // Layout of the published snapshot
+    private static final int SEQUENCE = 0;
+    private static final int LAST_MILLISECOND = 1;
+    private static final int WINDOW_SAMPLES = 2;
+    private static final int WINDOW_NANOS = 3;
+    private static final int SAMPLES = 4;
+    private static final int JITTER_NANOS = 5;
+    private static final int MAXIMUM_GAP_NANOS = 6;
+    private static final int MISSED = 7;
+    private static final int SNAPSHOT_LENGTH = 8;
+
+    private final Clock clock;
+    private final long maximumInterval;
+    private final long quietInterval;
+
+    // Writer state, touched only by the thread reporting samples
+    private final long[] measures;
+    private int first;
+    private int last;
+    private int size;
+    private long lastInterval;
+    private long samples;
+    private long jitter;
+    private long maximumGap;
+    private long missed;
+    private int generation;
+
+    private final AtomicLongArray snapshot = new AtomicLongArray(SNAPSHOT_LENGTH);
+    private volatile int state = MEASURE_DISABLED;
+    private volatile int requestedGeneration;
+    private volatile long expectedPeriod;
+
+    // Reader state, resolved by resolveNow()
+    private final Snapshot resolved = new Snapshot();
+    private int measure = MEASURE_DISABLED;
+    private float value;
+
+    public FrequencyMeasure() {
+        this(MAXIMUM_INTERVAL, QUIET_INTERVAL, MAXIMUM_MEASURES);
+    }
+
+    public FrequencyMeasure(int maximumInterval, int quietInterval, int size) {
+        this(Platform.getClock(), maximumInterval, quietInterval, size);
+    }
+
+    public FrequencyMeasure(Clock clock, int maximumInterval, int quietInterval, int size) {
+        this.clock = clock;
+        this.maximumInterval = maximumInterval * 1000000L;
+        this.quietInterval = quietInterval;
+        measures = new long[size];
+    }
+
+    /**
+     * Sets the sampling period the source was configured with, used to
+     * estimate missed samples. Zero disables the estimate.
+     *
+     * @param expectedPeriod period in microseconds
+     */
+    public void setExpectedPeriod(long expectedPeriod) {
+        this.expectedPeriod = expectedPeriod * 1000L;
+    }
+
+    public void onPermissionDenied() {
+        state = MEASURE_PERMISSION_DENIED;
+        measure = MEASURE_PERMISSION_DENIED;
+    }
+
+    /**
+     * Marks the source as started. Statistics are cleared by the writer
+     * with the next sample, so that gaps from before the start are not
+     * counted.
+     */
+    public void onStarted() {
+        requestedGeneration = requestedGeneration + 1;
+        state = MEASURE_QUIET;
+        measure = MEASURE_QUIET;
+    }
+
+    public void onStopped() {
+        state = MEASURE_DISABLED;
+        measure = MEASURE_DISABLED;
+    }
+
+    /**
+     * Accounts a new sample. Must always be called from the same thread.
+     *
+     * @return elapsed real time of the sample in milliseconds
+     */
+    public long onNewSample() {
+        long nanos = clock.elapsedRealtimeNanos();
+        long millisecond = nanos / 1000000L;
+
+        int requested = requestedGeneration;
+        if (generation != requested) {
+            generation = requested;
+            size = 0;
+            lastInterval = -1;
+            samples = 0;
+            jitter = 0;
+            maximumGap = 0;
+            missed = 0;
+        }
+
+        if (size > 0) {
+            long interval = nanos - measures[last];
+            if (lastInterval >= 0) {
+                jitter += (Math.abs(interval - lastInterval) - jitter) >> JITTER_SHIFT;
+            }
+            lastInterval = interval;
+            maximumGap = Math.max(maximumGap, interval);
+
+            long period = expectedPeriod;
+            if (period > 0) {
+                missed += Math.max(0, (interval + period / 2) / period - 1);
+            }
+        }
+        ++samples;
+
+        add(nanos);
+        while (size > 2 && measures[last] - measures[first] > maximumInterval) {
+            remove();
+        }
+        if (size == 2 && measures[last] - measures[first] > quietInterval * 1000000L) {
+            remove();
+        }
+
+        publish(millisecond);
+        return millisecond;
+    }
+
+    /**
+     * Reads consistent statistics of the samples reported since the last
+     * start. Never blocks the writer, but retries while it's publishing.
+     *
+     * @param out snapshot to fill
+     */
+    public void read(Snapshot out) {
+        while (true) {
+            long sequence = snapshot.get(SEQUENCE);
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+
+            out.lastMillisecond = snapshot.get(LAST_MILLISECOND);
+            out.windowSamples = snapshot.get(WINDOW_SAMPLES);
+            out.windowNanos = snapshot.get(WINDOW_NANOS);
+            out.samples = snapshot.get(SAMPLES);
+            out.jitterNanos = snapshot.get(JITTER_NANOS);
+            out.maximumGapNanos = snapshot.get(MAXIMUM_GAP_NANOS);
+            out.missed = snapshot.get(MISSED);
+
+            if (snapshot.get(SEQUENCE) == sequence) {
+                return;
+            }
+        }
+    }
+
+    public int getMeasure() {
+        return measure;
+    }
+
+    public float getValue() {
+        return value;
+    }
+
+    /**
+     * Gets statistics read by the last {@link #resolveNow()}.
+     */
+    public Snapshot getSnapshot() {
+        return resolved;
+    }
+
+    /**
+     * Resolves the current measure and value from the latest statistics.
+     * Should be called from a single reader thread, usually the UI one.
+     */
+    public void resolveNow() {
+        int current = state;
+        if (current == MEASURE_DISABLED || current == MEASURE_PERMISSION_DENIED) {
+            measure = current;
+            return;
+        }
+
+        read(resolved);
+        long millisecond = clock.elapsedRealtime();
+        if (resolved.windowSamples < 2 ||
+                millisecond - resolved.lastMillisecond > quietInterval) {
+            measure = MEASURE_QUIET;
+        } else if (resolved.windowNanos != 0) {
+            measure = MEASURE_VALUE;
+            value = 1e9f * (resolved.windowSamples - 1) / resolved.windowNanos;
+        } else {
+            measure = MEASURE_AMBIGUOUS;
+        }
+    }
+
+    private void publish(long millisecond) {
+        long sequence = snapshot.get(SEQUENCE);
+        snapshot.set(SEQUENCE, sequence + 1);
+        snapshot.set(LAST_MILLISECOND, millisecond);
+        snapshot.set(WINDOW_SAMPLES, size);
+        snapshot.set(WINDOW_NANOS, measures[last] - measures[first]);
+        snapshot.set(SAMPLES, samples);
+        snapshot.set(JITTER_NANOS, jitter);
+        snapshot.set(MAXIMUM_GAP_NANOS, maximumGap);
+        snapshot.set(MISSED, missed);
+        snapshot.set(SEQUENCE, sequence + 2);
+    }
+
+    private void add(long value) {
+        if (size != 0) {
+            if (size == measures.length) {
+                last = first;
+                first = (first + 1) % measures.length;
+            } else {
+                last = (last + 1) % measures.length;
+                ++size;
+            }
+        } else {
+            first = last;
+            ++size;
+        }
+        measures[last] = value;
+    }
+
+    private void remove() {
+        if (--size != 0) {
+            first = (first + 1) % measures.length;
+        }
+    }
+
+    /**
+     * Statistics of the samples since the last start.
+     */
+    public static class Snapshot {
+
+        private long lastMillisecond;
+        private long windowSamples;
+        private long windowNanos;
+        private long samples;
+        private long jitterNanos;
+        private long maximumGapNanos;
+        private long missed;
+
+        /**
+         * Gets elapsed real time of the last sample in milliseconds.
+         */
+        public long getLastMillisecond() {
+            return lastMillisecond;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        /**
+         * Gets the smoothed mean deviation between consecutive intervals.
+         *
+         * @return jitter in milliseconds
+         */
+        public double getJitter() {
+            return jitterNanos / 1e6;
+        }
+
+        /**
+         * Gets the longest interval between consecutive samples.
+         *
+         * @return gap in milliseconds
+         */
+        public double getMaximumGap() {
+            return maximumGapNanos / 1e6;
+        }
+
+        /**
+         * Estimates the number of samples missed relative to the expected
+         * sampling period.
+         *
+         * @return number of samples or <code>0</code> if the period is not
+         * known
+         */
+        public long getMissed() {
+            return missed;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec;
+
+import pl.mrwojtek.sensrec.io.RecordFormat;
+
+/**
+ * Detector of gaps in samples of a channel. Event timestamps of consecutive
+ * samples are compared to the expected sampling period and every interval
+ * longer than {@link #GAP_PERIODS} periods is counted as a gap, caused for
+ * example by a sensor hub hiccup, a garbage collection pause or an
+ * overflowed buffer. Gaps are counted in the channel metrics and may be
+ * written to the recording as gap frames.
+ *
+ * <p>Samples must be reported by a single thread. Detection takes only a few
+ * arithmetic operations and doesn't allocate memory.
+ */
+public class GapDetector {
+
+    /** Shortest interval counted as a gap, in expected periods. */
+    public static final int GAP_PERIODS = 2;
+
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private final PipelineMetrics.Channel channel;
+    private long period;
+    private long lastTimestamp = NO_TIMESTAMP;
+
+    // Last detected gap
+    private long gapTimestamp;
+    private long gapDuration;
+    private long gapMissed;
+
+    public GapDetector(PipelineMetrics.Channel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Prepares for a new sequence of samples. Should be called before the
+     * source is started, on the thread that reports samples or before it
+     * starts reporting them.
+     *
+     * @param expectedPeriod sampling period in microseconds or
+     *                       <code>0</code> to disable detection
+     */
+    public void reset(long expectedPeriod) {
+        period = expectedPeriod * 1000L;
+        lastTimestamp = NO_TIMESTAMP;
+    }
+
+    /**
+     * Accounts a new sample.
+     *
+     * @param timestamp event timestamp in nanoseconds
+     * @return <code>true</code> if a gap precedes the sample
+     */
+    public boolean onSample(long timestamp) {
+        long last = lastTimestamp;
+        lastTimestamp = timestamp;
+        if (period <= 0 || last == NO_TIMESTAMP) {
+            return false;
+        }
+
+        // Timestamps going backwards are not gaps
+        long interval = timestamp - last;
+        if (interval <= GAP_PERIODS * period) {
+            return false;
+        }
+
+        gapTimestamp = timestamp;
+        gapDuration = interval;
+        gapMissed = (interval + period / 2) / period - 1;
+        channel.addGap(gapMissed);
+        return true;
+    }
+
+    /**
+     * Writes the last detected gap as a gap frame.
+     *
+     * @param output recording output
+     * @param millisecond elapsed real time of the sample ending the gap
+     */
+    public void write(Output output, long millisecond) {
+        output.start(RecordFormat.TYPE_GAP, (short) 0)
+                .write(millisecond)                                  // 8B
+                .write(channel.getTypeId())                          // 2B, subject type
+                .write(channel.getDeviceId())                        // 2B, subject device
+                .write(gapTimestamp)                                 // 8B
+                .write(gapDuration)                                  // 8B, nanoseconds
+                .write((int) Math.min(gapMissed, Integer.MAX_VALUE)) // 4B
+                .save();
+    }
+
+    public long getGapTimestamp() {
+        return gapTimestamp;
+    }
+
+    public long getGapDuration() {
+        return gapDuration;
+    }
+
+    public long getGapMissed() {
+        return gapMissed;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds with logarithmic buckets. Every
+ * power of two range is split into {@link #SUB_BUCKETS} linear buckets, so
+ * a value is known with a relative error below 1/16, like in a
+ * HdrHistogram with a single significant digit. Values from zero up to
+ * {@link #MAXIMUM_VALUE} are counted, larger ones fall into the last
+ * bucket.
+ *
+ * <p>Memory is allocated once and recording is lock-free, so it's safe to
+ * record from many threads and read at the same time. Percentiles read
+ * while values are recorded may be slightly off.
+ */
+public class LatencyHistogram {
+
+    public static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    public static final int MAXIMUM_BITS = 35;
+    public static final long MAXIMUM_VALUE = (1L << MAXIMUM_BITS) - 1;
+    public static final int BUCKETS = (MAXIMUM_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Counts a single value. Negative values are ignored since they come
+     * from clocks of different time bases.
+     *
+     * @param nanos latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+
+        counts.getAndIncrement(getBucket(Math.min(nanos, MAXIMUM_VALUE)));
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Finds the value below or equal to which the given fraction of the
+     * values is. Returned value is the upper bound of its bucket, but never
+     * more than the maximum.
+     *
+     * @param fraction fraction of the values, from 0 to 1
+     * @return latency in nanoseconds or <code>0</code> if nothing was
+     * recorded
+     */
+    public long getPercentile(double fraction) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(getUpperValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public long getMedian() {
+        return getPercentile(0.5);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts.set(i, 0);
+        }
+        max.set(0);
+    }
+
+    protected static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    protected static long getUpperValue(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long top = bucket - ((long) shift << SUB_BUCKET_BITS);
+        return ((top + 1) << shift) - 1;
+    }
+}
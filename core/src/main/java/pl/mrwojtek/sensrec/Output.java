@@ -19,8 +19,6 @@
 
 package pl.mrwojtek.sensrec;
 
-import android.util.Log;
-
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.concurrent.locks.Lock;
@@ -41,7 +39,7 @@ public abstract class Output {
         Record write(long value);
         Record write(float value);
         Record write(double value);
-        Record write(String value, int offset, int count);
+        Record write(CharSequence value, int offset, int count);
         Record write(byte[] value, int offset, int count);
         void save();
     }
@@ -79,7 +77,7 @@ public abstract class Output {
         }
 
         @Override
-        public Record write(String value, int offset, int count) {
+        public Record write(CharSequence value, int offset, int count) {
             return this;
         }
 
@@ -139,7 +137,7 @@ public abstract class Output {
         }
 
         @Override
-        public Record write(String value, int offset, int count) {
+        public Record write(CharSequence value, int offset, int count) {
             wrapped.write(value, offset, count);
             return this;
         }
@@ -159,9 +157,17 @@ public abstract class Output {
     public static abstract class DataOutputStreamRecord implements Record {
 
         protected Lock writeLock;
+        protected PipelineMetrics.Sink sink;
+        private int recordBytes;
+        private byte[] scratch = new byte[256];
 
         public DataOutputStreamRecord(Lock writeLock) {
+            this(writeLock, null);
+        }
+
+        public DataOutputStreamRecord(Lock writeLock, PipelineMetrics.Sink sink) {
             this.writeLock = writeLock;
+            this.sink = sink;
         }
 
         protected abstract DataOutputStream getWriter();
@@ -176,24 +182,62 @@ public abstract class Output {
 
         @Override
         public Output.Record start(short typeId, short deviceId) {
-            writeLock.lock();
+            // Time is measured only when the lock is contended
+            if (!writeLock.tryLock()) {
+                long time = System.nanoTime();
+                writeLock.lock();
+                if (sink != null) {
+                    sink.add(PipelineMetrics.WAIT_NANOS, System.nanoTime() - time);
+                }
+            }
+            recordBytes = 0;
             return this;
         }
 
         @Override
         public void save() {
+            if (sink != null) {
+                sink.increment(PipelineMetrics.COUNT);
+                sink.add(PipelineMetrics.BYTES, recordBytes);
+            }
             writeLock.unlock();
         }
 
+        /**
+         * Gets number of bytes written since the start of the record.
+         */
+        protected int getRecordBytes() {
+            return recordBytes;
+        }
+
+        /**
+         * Copies characters to the reused scratch buffer, one byte each.
+         * Recorded strings are ASCII so no charset encoder is involved.
+         */
+        private byte[] toAscii(CharSequence value, int offset, int count) {
+            if (scratch.length < count) {
+                scratch = new byte[Math.max(count, 2 * scratch.length)];
+            }
+            for (int i = 0; i < count; ++i) {
+                scratch[i] = (byte) value.charAt(offset + i);
+            }
+            return scratch;
+        }
+
+        private void written(int bytes) {
+            recordBytes += bytes;
+            onWritten(bytes);
+        }
+
         @Override
         public Output.Record write(short value) {
             try {
                 if (getWriter() != null) {
                     getWriter().writeShort(value);
-                    onWritten(2);
+                    written(2);
                 }
             } catch (IOException ex) {
-                Log.e(TAG, "Error writing short: " + ex.getMessage());
+                Platform.getLogger().e(TAG, "Error writing short: " + ex.getMessage());
                 onException(ex);
             }
             return this;
@@ -204,10 +248,10 @@ public abstract class Output {
             try {
                 if (getWriter() != null) {
                     getWriter().writeInt(value);
-                    onWritten(4);
+                    written(4);
                 }
             } catch (IOException ex) {
-                Log.e(TAG, "Error writing int: " + ex.getMessage());
+                Platform.getLogger().e(TAG, "Error writing int: " + ex.getMessage());
                 onException(ex);
             }
             return this;
@@ -218,10 +262,10 @@ public abstract class Output {
             try {
                 if (getWriter() != null) {
                     getWriter().writeLong(value);
-                    onWritten(8);
+                    written(8);
                 }
             } catch (IOException ex) {
-                Log.e(TAG, "Error writing long: " + ex.getMessage());
+                Platform.getLogger().e(TAG, "Error writing long: " + ex.getMessage());
                 onException(ex);
             }
             return this;
@@ -232,10 +276,10 @@ public abstract class Output {
             try {
                 if (getWriter() != null) {
                     getWriter().writeFloat(value);
-                    onWritten(4);
+                    written(4);
                 }
             } catch (IOException ex) {
-                Log.e(TAG, "Error writing float: " + ex.getMessage());
+                Platform.getLogger().e(TAG, "Error writing float: " + ex.getMessage());
                 onException(ex);
             }
             return this;
@@ -246,24 +290,24 @@ public abstract class Output {
             try {
                 if (getWriter() != null) {
                     getWriter().writeDouble(value);
-                    onWritten(4);
+                    written(8);
                 }
             } catch (IOException ex) {
-                Log.e(TAG, "Error writing float: " + ex.getMessage());
+                Platform.getLogger().e(TAG, "Error writing double: " + ex.getMessage());
                 onException(ex);
             }
             return this;
         }
 
         @Override
-        public Output.Record write(String value, int offset, int count) {
+        public Output.Record write(CharSequence value, int offset, int count) {
             try {
                 if (getWriter() != null) {
-                    getWriter().write(value.getBytes(), offset, count);
-                    onWritten(count);
+                    getWriter().write(toAscii(value, offset, count), 0, count);
+                    written(count);
                 }
             } catch (IOException ex) {
-                Log.e(TAG, "Error writing String: " + ex.getMessage());
+                Platform.getLogger().e(TAG, "Error writing String: " + ex.getMessage());
                 onException(ex);
             }
             return this;
@@ -274,10 +318,10 @@ public abstract class Output {
             try {
                 if (getWriter() != null) {
                     getWriter().write(value, offset, count);
-                    onWritten(count);
+                    written(count);
                 }
             } catch (IOException ex) {
-                Log.e(TAG, "Error writing String: " + ex.getMessage());
+                Platform.getLogger().e(TAG, "Error writing String: " + ex.getMessage());
                 onException(ex);
             }
             return this;
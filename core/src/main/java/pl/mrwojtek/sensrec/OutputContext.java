@@ -0,0 +1,102 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec;
+
+import java.io.File;
+
+/**
+ * Settings and state of a recording that the file and network outputs
+ * depend on. Implemented by the Android recorder on top of the shared
+ * preferences, but may as well be backed by a plain configuration.
+ */
+public interface OutputContext {
+
+    /**
+     * Gets metrics the outputs account their records to.
+     */
+    PipelineMetrics getMetrics();
+
+    /**
+     * Checks whether a recording is in progress, including a paused one.
+     */
+    boolean isActive();
+
+    /**
+     * Checks whether records are to be saved to a file.
+     */
+    boolean isSaving();
+
+    /**
+     * Checks whether the storage of the output directory is available.
+     */
+    boolean isStorageMounted();
+
+    /**
+     * Gets the directory recordings are saved to.
+     *
+     * @return directory or <code>null</code> if it's not accessible
+     */
+    File getOutputDirectory();
+
+    /**
+     * Gets format of the recording file name with a single integer
+     * parameter being the file index.
+     *
+     * @param binary whether the binary encoding is used
+     * @return file name format
+     */
+    String getOutputFileName(boolean binary);
+
+    int getLastFileIndex();
+
+    void setLastFileIndex(int fileIndex);
+
+    /**
+     * Checks whether records are to be streamed over network.
+     */
+    boolean isStreaming();
+
+    String getOutputHost(boolean binary);
+
+    /**
+     * Gets the network protocol.
+     *
+     * @param binary whether the binary encoding is used
+     * @return {@link SocketOutput#PROTOCOL_TCP} or
+     * {@link SocketOutput#PROTOCOL_UDP}
+     */
+    int getOutputProtocol(boolean binary);
+
+    int getOutputPort(boolean binary);
+
+    /**
+     * Writes the start frame of a recording.
+     *
+     * @param record record to write the frame to
+     */
+    void recordStart(Output.Record record);
+
+    /**
+     * Writes the end frame of a recording.
+     *
+     * @param record record to write the frame to
+     */
+    void recordStop(Output.Record record);
+}
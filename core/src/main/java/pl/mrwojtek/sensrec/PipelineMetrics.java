@@ -0,0 +1,317 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import pl.mrwojtek.sensrec.io.RecordFormat;
+
+/**
+ * Counters of the recording pipeline. Every channel, identified by its type
+ * and device, counts the records it produced, their encoded bytes, records
+ * dropped by any of the sinks and the time spent encoding and writing them.
+ * Every sink counts the records and bytes it accepted, the records it
+ * dropped, time spent waiting for its write lock and time spent flushing
+ * the file or sending the data over network. Every channel also keeps
+ * histograms of latencies of the pipeline stages its records go through
+ * and counts gaps detected in its samples.
+ *
+ * <p>Counters are split into stripes selected by the writing thread and
+ * updated without locking. Reading sums the stripes, so it never blocks
+ * the writers, but counters read one after another need not be consistent
+ * with each other.
+ */
+public class PipelineMetrics {
+
+    public static final int SINK_FILE = 0;
+    public static final int SINK_SOCKET = 1;
+
+    public static final int COUNT = 0;
+    public static final int BYTES = 1;
+    public static final int DROPPED = 2;
+    public static final int WAIT_NANOS = 3;
+    public static final int BUSY_NANOS = 4;
+    public static final int BUSY_COUNT = 5;
+    public static final int COUNTERS = 6;
+
+    /** From the sensor event timestamp to the sensor callback. */
+    public static final int STAGE_EVENT = 0;
+    /** From the start of a record to the completion of its save. */
+    public static final int STAGE_SAVE = 1;
+    /** Flush of the buffered records to the file, when a record fills it. */
+    public static final int STAGE_FILE = 2;
+    /** From the save of a record to the completion of its network send. */
+    public static final int STAGE_SEND = 3;
+    public static final int STAGES = 4;
+
+    private static final int STRIPES = 4;
+
+    // Stripes are 128 bytes apart so that they don't share cache lines
+    private static final int STRIPE_LENGTH = 16;
+
+    private volatile Channel[] channels = new Channel[0];
+    private final Sink[] sinks = new Sink[] {
+            new Sink(SINK_FILE),
+            new Sink(SINK_SOCKET)
+    };
+
+    /**
+     * Gets counters of a channel, creating them on the first use.
+     *
+     * @param typeId type of the channel records
+     * @param deviceId device of the channel records
+     * @return channel counters
+     */
+    public Channel getChannel(short typeId, short deviceId) {
+        int key = getKey(typeId, deviceId);
+        Channel[] array = channels;
+        int index = find(array, key);
+        if (index >= 0) {
+            return array[index];
+        }
+
+        synchronized (this) {
+            array = channels;
+            index = find(array, key);
+            if (index >= 0) {
+                return array[index];
+            }
+
+            index = -index - 1;
+            Channel channel = new Channel(typeId, deviceId);
+            Channel[] newArray = new Channel[array.length + 1];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index, newArray, index + 1, array.length - index);
+            newArray[index] = channel;
+            channels = newArray;
+            return channel;
+        }
+    }
+
+    /**
+     * Tells whether records of a type are accounted to their channel.
+     * Start, end, statistics, gap and BLE mapping frames describe the
+     * recording itself, so they are counted by the sinks only.
+     *
+     * @param typeId record type
+     * @return <code>true</code> for the data records
+     */
+    public static boolean isTracked(short typeId) {
+        return typeId != RecordFormat.TYPE_START && typeId != RecordFormat.TYPE_END &&
+                typeId != RecordFormat.TYPE_STATS && typeId != RecordFormat.TYPE_GAP &&
+                typeId != RecordFormat.TYPE_BLE_MAP;
+    }
+
+    /**
+     * Lists counters of all the channels seen so far, ordered by type and
+     * device. Returned array must not be modified.
+     */
+    public Channel[] getChannels() {
+        return channels;
+    }
+
+    public Sink getSink(int sink) {
+        return sinks[sink];
+    }
+
+    public Sink[] getSinks() {
+        return sinks;
+    }
+
+    /**
+     * Gets a counter summed over all the channels.
+     *
+     * @param counter one of the counter constants
+     * @return sum of the counter
+     */
+    public long getTotal(int counter) {
+        long total = 0;
+        for (Channel channel : channels) {
+            total += channel.get(counter);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of gaps detected over all the channels.
+     */
+    public long getTotalGaps() {
+        long total = 0;
+        for (Channel channel : channels) {
+            total += channel.getGaps();
+        }
+        return total;
+    }
+
+    /**
+     * Clears all the counters and histograms. Channels are kept, so that
+     * recorders may hold on to them. Updates done concurrently with a reset
+     * may be lost.
+     */
+    public synchronized void reset() {
+        for (Channel channel : channels) {
+            channel.reset();
+        }
+        for (Sink sink : sinks) {
+            sink.reset();
+        }
+    }
+
+    private static int getKey(short typeId, short deviceId) {
+        return (typeId << 16) | (deviceId & 0xffff);
+    }
+
+    private static int find(Channel[] array, int key) {
+        int low = 0;
+        int high = array.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleKey = array[middle].key;
+            if (middleKey < key) {
+                low = middle + 1;
+            } else if (middleKey > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Set of striped counters updated concurrently by many threads.
+     */
+    public static class Counters {
+
+        private final AtomicLongArray values = new AtomicLongArray(STRIPES * STRIPE_LENGTH);
+
+        public void add(int counter, long delta) {
+            long id = Thread.currentThread().getId();
+            int stripe = (int) (id ^ (id >>> 2)) & (STRIPES - 1);
+            values.getAndAdd(stripe * STRIPE_LENGTH + counter, delta);
+        }
+
+        public void increment(int counter) {
+            add(counter, 1);
+        }
+
+        public long get(int counter) {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; ++i) {
+                sum += values.get(i * STRIPE_LENGTH + counter);
+            }
+            return sum;
+        }
+
+        protected void reset() {
+            for (int i = 0; i < values.length(); ++i) {
+                values.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * Counters of records of a single type and device. Busy time covers
+     * encoding of a record and writing it to all the sinks.
+     */
+    public static class Channel extends Counters {
+
+        private final short typeId;
+        private final short deviceId;
+        private final int key;
+        private final LatencyHistogram[] latencies = new LatencyHistogram[STAGES];
+        private final AtomicLong gaps = new AtomicLong();
+        private final AtomicLong missed = new AtomicLong();
+
+        protected Channel(short typeId, short deviceId) {
+            this.typeId = typeId;
+            this.deviceId = deviceId;
+            this.key = getKey(typeId, deviceId);
+            for (int i = 0; i < STAGES; ++i) {
+                latencies[i] = new LatencyHistogram();
+            }
+        }
+
+        /**
+         * Gets latency histogram of a pipeline stage.
+         *
+         * @param stage one of the stage constants
+         * @return latency histogram
+         */
+        public LatencyHistogram getLatency(int stage) {
+            return latencies[stage];
+        }
+
+        /**
+         * Counts a gap in the channel samples.
+         *
+         * @param missedSamples estimated number of samples missing in the gap
+         */
+        public void addGap(long missedSamples) {
+            gaps.incrementAndGet();
+            missed.addAndGet(missedSamples);
+        }
+
+        public long getGaps() {
+            return gaps.get();
+        }
+
+        public long getMissed() {
+            return missed.get();
+        }
+
+        @Override
+        protected void reset() {
+            super.reset();
+            for (LatencyHistogram latency : latencies) {
+                latency.reset();
+            }
+            gaps.set(0);
+            missed.set(0);
+        }
+
+        public short getTypeId() {
+            return typeId;
+        }
+
+        public short getDeviceId() {
+            return deviceId;
+        }
+    }
+
+    /**
+     * Counters of a file or network output. Busy time is spent flushing the
+     * file or sending the data, busy count is the number of those
+     * operations.
+     */
+    public static class Sink extends Counters {
+
+        private final int id;
+
+        protected Sink(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec;
+
+/**
+ * Clock and logger used by the recording core. Defaults are based on the
+ * plain JVM: {@link System#nanoTime()} and the standard error stream. The
+ * Android library installs its own ones before any recorder is created.
+ */
+public final class Platform {
+
+    private static volatile Clock clock = new SystemClock();
+    private static volatile Logger logger = new StreamLogger();
+
+    private Platform() {
+    }
+
+    public static Clock getClock() {
+        return clock;
+    }
+
+    public static void setClock(Clock clock) {
+        Platform.clock = clock;
+    }
+
+    public static Logger getLogger() {
+        return logger;
+    }
+
+    public static void setLogger(Logger logger) {
+        Platform.logger = logger;
+    }
+
+    /**
+     * Monotonic clock of the JVM. Its origin is arbitrary, so it's only
+     * meaningful within a single process.
+     */
+    public static class SystemClock implements Clock {
+
+        @Override
+        public long elapsedRealtime() {
+            return System.nanoTime() / 1000000L;
+        }
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return System.nanoTime();
+        }
+    }
+
+    /**
+     * Logger printing warnings and errors to the standard error stream.
+     * Debug and information messages are dropped.
+     */
+    public static class StreamLogger implements Logger {
+
+        @Override
+        public void d(String tag, String message) {
+        }
+
+        @Override
+        public void i(String tag, String message) {
+        }
+
+        @Override
+        public void w(String tag, String message) {
+            System.err.println(tag + " W: " + message);
+        }
+
+        @Override
+        public void e(String tag, String message) {
+            System.err.println(tag + " E: " + message);
+        }
+    }
+}
@@ -19,8 +19,6 @@
 
 package pl.mrwojtek.sensrec;
 
-import android.util.Log;
-
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
@@ -29,7 +27,9 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.Scanner;
+
+import pl.mrwojtek.sensrec.io.AsciiParser;
+import pl.mrwojtek.sensrec.io.RecordFormat;
 
 /**
  * Helper class to obtain basic information from recording files.
@@ -38,14 +38,11 @@ public class RecordReader {
 
     protected static final String TAG = "SensRec";
 
-    protected static final int START_BINARY_LENGTH = 28 + SensorsRecorder.MAGIC_WORD.length();
-    protected static final int END_BINARY_LENGTH_1200 = 52 + SensorsRecorder.MAGIC_WORD.length();
-    protected static final int END_TEXT_EXPECTED_LENGTH = 70 + SensorsRecorder.MAGIC_WORD.length();
+    protected static final int START_BINARY_LENGTH = 28 + RecordFormat.MAGIC_WORD.length();
+    protected static final int END_BINARY_LENGTH_1200 = 52 + RecordFormat.MAGIC_WORD.length();
     protected static final int END_TEXT_MAX_LENGTH = 1024;
     protected static final int BUFFER_SIZE = 1024;
 
-    protected SensorsRecorder recorder;
-
     // Start frame data
     protected boolean binary;
     protected int version;
@@ -63,20 +60,26 @@ public class RecordReader {
     protected byte[] endPrefix;
     protected byte[] magicBytes;
     protected byte[] magicWord;
-    protected byte[] newLineBytes;
+    protected byte separator;
+    protected byte newLine;
     protected byte[] buffer;
 
-    public RecordReader(SensorsRecorder recorder) {
-        this.recorder = recorder;
-        startPrefix = (recorder.getTypePrefix(SensorsRecorder.TYPE_START, (short) 0) +
-                recorder.getTextSeparator() + SensorsRecorder.MAGIC_WORD +
-                recorder.getTextSeparator()).getBytes();
-        endPrefix = (recorder.getTypePrefix(SensorsRecorder.TYPE_END, (short) 0) +
-                recorder.getTextSeparator() + SensorsRecorder.MAGIC_WORD +
-                recorder.getTextSeparator()).getBytes();
-        magicBytes = SensorsRecorder.MAGIC_WORD.getBytes();
+    // Text line parsing state
+    private int field;
+    private int fieldEnd;
+    private int lineEnd;
+
+    public RecordReader() {
+        startPrefix = (RecordFormat.getTypePrefix(RecordFormat.TYPE_START, (short) 0) +
+                RecordFormat.SEPARATOR + RecordFormat.MAGIC_WORD +
+                RecordFormat.SEPARATOR).getBytes();
+        endPrefix = (RecordFormat.getTypePrefix(RecordFormat.TYPE_END, (short) 0) +
+                RecordFormat.SEPARATOR + RecordFormat.MAGIC_WORD +
+                RecordFormat.SEPARATOR).getBytes();
+        magicBytes = RecordFormat.MAGIC_WORD.getBytes();
         magicWord = new byte[magicBytes.length];
-        newLineBytes = recorder.getTextNewLine().getBytes();
+        separator = (byte) RecordFormat.SEPARATOR.charAt(0);
+        newLine = (byte) RecordFormat.NEW_LINE.charAt(0);
         buffer = new byte[BUFFER_SIZE];
     }
 
@@ -113,15 +116,15 @@ public class RecordReader {
         try {
             return readStart(raf = new RandomAccessFile(file, "r"));
         } catch (FileNotFoundException ex) {
-            Log.e(TAG, "Record file not found: " + ex.getMessage());
+            Platform.getLogger().e(TAG, "Record file not found: " + ex.getMessage());
         } catch (IOException ex) {
-            Log.e(TAG, "Record file read error: " + ex.getMessage());
+            Platform.getLogger().e(TAG, "Record file read error: " + ex.getMessage());
         } finally {
             if (raf != null) {
                 try {
                     raf.close();
                 } catch (IOException ex) {
-                    Log.e(TAG, "Record file close error: " + ex.getMessage());
+                    Platform.getLogger().e(TAG, "Record file close error: " + ex.getMessage());
                 }
             }
         }
@@ -139,15 +142,15 @@ public class RecordReader {
                 return true;
             }
         } catch (FileNotFoundException ex) {
-            Log.e(TAG, "Record file not found: " + ex.getMessage());
+            Platform.getLogger().e(TAG, "Record file not found: " + ex.getMessage());
         } catch (IOException ex) {
-            Log.e(TAG, "Record file read error: " + ex.getMessage());
+            Platform.getLogger().e(TAG, "Record file read error: " + ex.getMessage());
         } finally {
             if (raf != null) {
                 try {
                     raf.close();
                 } catch (IOException ex) {
-                    Log.e(TAG, "Record file close error: " + ex.getMessage());
+                    Platform.getLogger().e(TAG, "Record file close error: " + ex.getMessage());
                 }
             }
         }
@@ -163,8 +166,8 @@ public class RecordReader {
     }
 
     private boolean readStart(RandomAccessFile raf) throws IOException {
-        int read = raf.read(buffer, 0, Math.max(START_BINARY_LENGTH, startPrefix.length));
-        return tryStartBinary(read) || tryStartText(read, raf);
+        int read = raf.read(buffer, 0, buffer.length);
+        return tryStartBinary(read) || tryStartText(read);
     }
 
     private boolean tryStartBinary(int read) throws IOException {
@@ -172,7 +175,7 @@ public class RecordReader {
             DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buffer));
 
             // Check start frame header
-            if (dis.readShort() != SensorsRecorder.TYPE_START ||
+            if (dis.readShort() != RecordFormat.TYPE_START ||
                     dis.readShort() != 0 ||
                     dis.readInt() != magicBytes.length) {
                 return false;
@@ -186,7 +189,7 @@ public class RecordReader {
 
             // Resolve start frame version and read data
             version = dis.readInt();
-            if (version == 1200 || (version / 100) == 13) {
+            if (RecordFormat.isSupportedVersion(version)) {
                 startTime = dis.readLong();
                 startDate = new Date(dis.readLong());
                 binary = true;
@@ -196,34 +199,29 @@ public class RecordReader {
         return false;
     }
 
-    private boolean tryStartText(int read, RandomAccessFile raf) throws IOException {
-        if (read >= startPrefix.length) {
-            // Check start frame header and magic word
-            if (!equals(buffer, 0, startPrefix, 0, startPrefix.length)) {
-                return false;
-            }
+    private boolean tryStartText(int read) {
+        // Check start frame header and magic word
+        if (read < startPrefix.length || !AsciiParser.equals(buffer, 0, startPrefix)) {
+            return false;
+        }
 
-            raf.seek(startPrefix.length);
-            Scanner scanner = new Scanner(raf.getChannel());
-            if (!scanner.hasNextInt()) {
-                return false;
-            }
+        lineEnd = AsciiParser.indexOf(buffer, newLine, startPrefix.length, read);
+        if (lineEnd < 0) {
+            return false;
+        }
+        fieldEnd = startPrefix.length - 1;
 
+        try {
             // Resolve start frame version and read data
-            version = scanner.nextInt();
-            if (version == 1200 || (version / 100) == 13) {
-                if (!scanner.hasNextLong()) {
-                    return false;
-                }
-                startTime = scanner.nextLong();
-
-                if (!scanner.hasNextLong()) {
-                    return false;
-                }
-                startDate = new Date(scanner.nextLong());
-
+            version = (int) nextLong();
+            if (RecordFormat.isSupportedVersion(version)) {
+                startTime = nextLong();
+                startDate = new Date(nextLong());
+                binary = false;
                 return true;
             }
+        } catch (NumberFormatException ex) {
+            Platform.getLogger().w(TAG, "Malformed text start frame: " + ex.getMessage());
         }
         return false;
     }
@@ -248,7 +246,7 @@ public class RecordReader {
             DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buffer));
 
             // Check end frame header
-            if (dis.readShort() != SensorsRecorder.TYPE_END ||
+            if (dis.readShort() != RecordFormat.TYPE_END ||
                     dis.readShort() != 0 ||
                     dis.readInt() != magicBytes.length) {
                 return false;
@@ -262,7 +260,7 @@ public class RecordReader {
             }
 
             // Read end frame data
-            if (version == 1200 || (version /100) == 13) {
+            if (RecordFormat.isSupportedVersion(version)) {
                 endTime = dis.readLong();
                 endDate = new Date(dis.readLong());
                 duration = dis.readLong();
@@ -275,103 +273,67 @@ public class RecordReader {
     }
 
     private boolean tryEndText(RandomAccessFile raf) throws IOException {
-        // First, try to parse end frame of expected length
-        long seek = Math.max(0, raf.length() - END_TEXT_EXPECTED_LENGTH);
-        int count = (int) (raf.length() - seek);
-        int pos = buffer.length - count;
-
-        // Read expected length bytes
+        // Read the last bytes that could contain an ending frame
+        long length = raf.length();
+        long seek = Math.max(0, length - END_TEXT_MAX_LENGTH);
+        int count = (int) (length - seek);
         raf.seek(seek);
-        if (raf.read(buffer, pos, count) != count) {
+        if (raf.read(buffer, 0, count) != count) {
             return false;
         }
 
-        int res = tryEndText(pos);
-        if (res == 0) {
-            return true;
-        } else if (res == 1) {
-            return false;
-        } else {
-            // Frame was not resolved, try the maximum size
-            long secondSeek = Math.max(0, raf.length() - END_TEXT_MAX_LENGTH);
-            if (secondSeek == seek) {
+        // Scan backwards for the last line, it has to be preceded by a new
+        // line unless it's the only line of the file
+        int start = AsciiParser.lastLineStart(buffer, newLine, 0, count);
+        if (start < 0) {
+            if (seek > 0) {
                 return false;
             }
-            count = (int) (seek - secondSeek);
-            pos -= count;
-
-            // Read the missing bytes
-            raf.seek(secondSeek);
-            return raf.read(buffer, pos, count) == count && tryEndText(pos) == 0;
+            start = 0;
         }
-    }
+        lineEnd = AsciiParser.lastLineEnd(buffer, newLine, start, count);
 
-    private int tryEndText(int pos) {
-        int end = buffer.length;
-        int endNewLine = end - newLineBytes.length;
-        if (endNewLine > pos && equals(buffer, endNewLine, newLineBytes, 0, newLineBytes.length)) {
-            end = endNewLine;
+        // Match end frame header
+        if (!AsciiParser.startsWith(buffer, start, lineEnd, endPrefix)) {
+            return false;
         }
+        fieldEnd = start + endPrefix.length - 1;
 
-        // Search for end frame preceeding new line
-        for (int p = end - 1; p >= pos; --p) {
-            if (equals(buffer, p, newLineBytes, 0, newLineBytes.length)) {
-                // New line found, skip it
-                p += newLineBytes.length;
-
-                // Match end frame header
-                if (!equals(buffer, p, endPrefix, 0, endPrefix.length)) {
-                    return 1;
-                }
-                p += endPrefix.length;
-
-                // Resolve version
-                Scanner scanner = new Scanner(new ByteArrayInputStream(buffer, p, end - p));
-                if (!scanner.hasNextInt() || scanner.nextInt() != version) {
-                    return 1;
-                }
-
-                // Read end frame data
-                if (version == 1200 || (version / 100) == 13) {
-                    if (!scanner.hasNextLong()) {
-                        return 1;
-                    }
-                    endTime = scanner.nextLong();
-
-                    if (!scanner.hasNextLong()) {
-                        return 1;
-                    }
-                    endDate = new Date(scanner.nextLong());
-
-                    if (!scanner.hasNextLong()) {
-                        return 1;
-                    }
-                    duration = scanner.nextLong();
-
-                    if (!scanner.hasNextLong()) {
-                        return 1;
-                    }
-                    movingDuration = scanner.nextLong();
-
-                    if (!scanner.hasNextDouble()) {
-                        return 1;
-                    }
-                    totalDistance = scanner.nextDouble();
-
-                    return 0;
-                }
+        try {
+            // Resolve version and read end frame data
+            if (nextLong() != version || !RecordFormat.isSupportedVersion(version)) {
+                return false;
             }
+            endTime = nextLong();
+            endDate = new Date(nextLong());
+            duration = nextLong();
+            movingDuration = nextLong();
+            totalDistance = nextDouble();
+            return true;
+        } catch (NumberFormatException ex) {
+            Platform.getLogger().w(TAG, "Malformed text end frame: " + ex.getMessage());
         }
-
-        return 2;
+        return false;
     }
 
-    private boolean equals(byte[] b1, int p1, byte[] b2, int p2, int count) {
-        while (--count > -1) {
-            if (b1[p1] != b2[p2]) {
-                return false;
-            }
+    private void nextField() {
+        if (fieldEnd >= lineEnd) {
+            throw new NumberFormatException("Missing field");
         }
-        return true;
+        field = fieldEnd + 1;
+        fieldEnd = AsciiParser.indexOf(buffer, separator, field, lineEnd);
+        if (fieldEnd < 0) {
+            fieldEnd = lineEnd;
+        }
+    }
+
+    private long nextLong() {
+        nextField();
+        return AsciiParser.parseLong(buffer, field, fieldEnd);
+    }
+
+    private double nextDouble() {
+        nextField();
+        return AsciiParser.parseDouble(buffer, field, fieldEnd);
     }
 }
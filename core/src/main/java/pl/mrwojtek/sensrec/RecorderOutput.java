@@ -19,10 +19,9 @@
 
 package pl.mrwojtek.sensrec;
 
-import android.util.Log;
+import java.util.Arrays;
 
-import java.util.LinkedList;
-import java.util.List;
+import pl.mrwojtek.sensrec.io.RecordFormat;
 
 /**
  * Records sensors data to file or over network in various formats.
@@ -30,19 +29,24 @@ import java.util.List;
 public class RecorderOutput extends Output {
 
     private static final String TAG = "SensRec";
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
-    protected SensorsRecorder sensorsRecorder;
+    protected OutputContext context;
+    protected PipelineMetrics metrics;
     protected FileOutput fileOutput;
     protected SocketOutput socketOutput;
     protected boolean binary;
 
-    // Recording objects cache
-    private final List<CachedRecord> records = new LinkedList<>();
+    // Recording objects cache, used as a stack so the hot path never allocates
+    private final Object recordsLock = new Object();
+    private CachedRecord[] records = new CachedRecord[16];
+    private int recordsCount;
 
-    public RecorderOutput(SensorsRecorder sensorsRecorder) {
-        this.sensorsRecorder = sensorsRecorder;
-        this.fileOutput = new FileOutput(this, sensorsRecorder);
-        this.socketOutput = new SocketOutput(this, sensorsRecorder);
+    public RecorderOutput(OutputContext context) {
+        this.context = context;
+        this.metrics = context.getMetrics();
+        this.fileOutput = new FileOutput(this, context);
+        this.socketOutput = new SocketOutput(this, context);
     }
 
     public boolean isBinary() {
@@ -66,14 +70,16 @@ public class RecorderOutput extends Output {
     @Override
     public Output.Record start(short typeId, short deviceId) {
         Output.Record record = null;
-        synchronized (records) {
-            if (!records.isEmpty()) {
-                record = records.remove(0);
+        synchronized (recordsLock) {
+            if (recordsCount > 0) {
+                record = records[--recordsCount];
+                records[recordsCount] = null;
             }
         }
 
         if (record == null) {
-            record = new CachedRecord(formatRecord(new Record()));
+            Record fanOut = new Record();
+            record = new CachedRecord(fanOut, formatRecord(fanOut));
         }
 
         record.start(typeId, deviceId);
@@ -81,11 +87,20 @@ public class RecorderOutput extends Output {
         return record;
     }
 
+    /**
+     * Writes the records buffered for the file.
+     */
+    public void flush() {
+        fileOutput.flush();
+    }
+
     public void stop() {
         fileOutput.stop();
         socketOutput.stop();
-        synchronized (records) {
-            records.clear();
+        synchronized (recordsLock) {
+            while (recordsCount > 0) {
+                records[--recordsCount] = null;
+            }
         }
     }
 
@@ -101,6 +116,7 @@ public class RecorderOutput extends Output {
 
         Output.Record fileRecord;
         Output.Record socketRecord;
+        int bytes;
 
         public Record() {
             fileRecord = fileOutput.newRecord();
@@ -109,6 +125,7 @@ public class RecorderOutput extends Output {
 
         @Override
         public Output.Record start(short typeId, short deviceId) {
+            bytes = 0;
             fileRecord.start(typeId, deviceId);
             socketRecord.start(typeId, deviceId);
             return this;
@@ -122,6 +139,7 @@ public class RecorderOutput extends Output {
 
         @Override
         public Output.Record write(short value) {
+            bytes += 2;
             fileRecord.write(value);
             socketRecord.write(value);
             return this;
@@ -129,6 +147,7 @@ public class RecorderOutput extends Output {
 
         @Override
         public Output.Record write(int value) {
+            bytes += 4;
             fileRecord.write(value);
             socketRecord.write(value);
             return this;
@@ -136,6 +155,7 @@ public class RecorderOutput extends Output {
 
         @Override
         public Output.Record write(long value) {
+            bytes += 8;
             fileRecord.write(value);
             socketRecord.write(value);
             return this;
@@ -143,6 +163,7 @@ public class RecorderOutput extends Output {
 
         @Override
         public Output.Record write(float value) {
+            bytes += 4;
             fileRecord.write(value);
             socketRecord.write(value);
             return this;
@@ -150,13 +171,15 @@ public class RecorderOutput extends Output {
 
         @Override
         public Output.Record write(double value) {
+            bytes += 8;
             fileRecord.write(value);
             socketRecord.write(value);
             return this;
         }
 
         @Override
-        public Output.Record write(String value, int offset, int count) {
+        public Output.Record write(CharSequence value, int offset, int count) {
+            bytes += count;
             fileRecord.write(value, offset, count);
             socketRecord.write(value, offset, count);
             return this;
@@ -164,6 +187,7 @@ public class RecorderOutput extends Output {
 
         @Override
         public Output.Record write(byte[] value, int offset, int count) {
+            bytes += count;
             fileRecord.write(value, offset, count);
             socketRecord.write(value, offset, count);
             return this;
@@ -187,7 +211,7 @@ public class RecorderOutput extends Output {
         }
 
         @Override
-        public Output.Record write(String value, int offset, int count) {
+        public Output.Record write(CharSequence value, int offset, int count) {
             write(count);
             super.write(value, offset, count);
             return this;
@@ -205,6 +229,8 @@ public class RecorderOutput extends Output {
 
         private Output.Record record;
         private StringBuilder builder;
+        private short typeId;
+        private short deviceId;
 
         public TextRecord(Output.Record record) {
             this.record = record;
@@ -213,81 +239,116 @@ public class RecorderOutput extends Output {
 
         @Override
         public Output.Record start(short typeId, short deviceId) {
+            this.typeId = typeId;
+            this.deviceId = deviceId;
             builder.setLength(0);
-            builder.append(sensorsRecorder.getTypePrefix(typeId, deviceId));
+            RecordFormat.appendTypePrefix(builder, typeId, deviceId);
             return this;
         }
 
         @Override
         public void save() {
-            builder.append(sensorsRecorder.getTextNewLine());
-            record.start((short) 0, (short) 0);
-            record.write(builder.toString(), 0, builder.length());
+            builder.append(RecordFormat.NEW_LINE);
+            record.start(typeId, deviceId);
+            record.write(builder, 0, builder.length());
             record.save();
         }
 
         @Override
         public Output.Record write(short value) {
-            builder.append(sensorsRecorder.getTextSeparator());
+            builder.append(RecordFormat.SEPARATOR);
             builder.append(value);
             return this;
         }
 
         @Override
         public Output.Record write(int value) {
-            builder.append(sensorsRecorder.getTextSeparator());
+            builder.append(RecordFormat.SEPARATOR);
             builder.append(value);
             return this;
         }
 
         @Override
         public Output.Record write(long value) {
-            builder.append(sensorsRecorder.getTextSeparator());
+            builder.append(RecordFormat.SEPARATOR);
             builder.append(value);
             return this;
         }
 
         @Override
         public Output.Record write(float value) {
-            builder.append(sensorsRecorder.getTextSeparator());
+            builder.append(RecordFormat.SEPARATOR);
             builder.append(value);
             return this;
         }
 
         @Override
         public Output.Record write(double value) {
-            builder.append(sensorsRecorder.getTextSeparator());
+            builder.append(RecordFormat.SEPARATOR);
             builder.append(value);
             return this;
         }
 
         @Override
-        public Output.Record write(String value, int offset, int count) {
-            builder.append(sensorsRecorder.getTextSeparator());
+        public Output.Record write(CharSequence value, int offset, int count) {
+            builder.append(RecordFormat.SEPARATOR);
             builder.append(value, offset, offset + count);
             return this;
         }
 
         @Override
         public Output.Record write(byte[] value, int offset, int count) {
-            builder.append(sensorsRecorder.getTextSeparator());
-            for (int i = 0; i < count; ++i)
-                builder.append(String.format("%02X", value[i + offset]));
+            builder.append(RecordFormat.SEPARATOR);
+            for (int i = 0; i < count; ++i) {
+                int b = value[i + offset] & 0xFF;
+                builder.append(HEX_DIGITS[b >>> 4]).append(HEX_DIGITS[b & 0x0F]);
+            }
             return this;
         }
     }
 
+    /**
+     * Formatted record returned to the pool once saved. Encoded bytes and
+     * time spent on the record are accounted to its channel.
+     */
     private class CachedRecord extends Output.RecordWrapper {
 
-        public CachedRecord(Output.Record record) {
+        private final Record fanOut;
+        private PipelineMetrics.Channel channel;
+        private long startTime;
+
+        public CachedRecord(Record fanOut, Output.Record record) {
             super(record);
+            this.fanOut = fanOut;
+        }
+
+        @Override
+        public Output.Record start(short typeId, short deviceId) {
+            if (PipelineMetrics.isTracked(typeId)) {
+                channel = metrics.getChannel(typeId, deviceId);
+                startTime = System.nanoTime();
+            } else {
+                channel = null;
+            }
+            return super.start(typeId, deviceId);
         }
 
         @Override
         public void save() {
             super.save();
-            synchronized (records) {
-                records.add(this);
+            if (channel != null) {
+                long nanos = System.nanoTime() - startTime;
+                channel.increment(PipelineMetrics.COUNT);
+                channel.add(PipelineMetrics.BYTES, fanOut.bytes);
+                channel.add(PipelineMetrics.BUSY_NANOS, nanos);
+                channel.increment(PipelineMetrics.BUSY_COUNT);
+                channel.getLatency(PipelineMetrics.STAGE_SAVE).record(nanos);
+            }
+            synchronized (recordsLock) {
+                if (recordsCount == records.length) {
+                    records = Arrays.copyOf(records, 2 * records.length);
+                }
+                records[recordsCount++] = this;
             }
         }
     }
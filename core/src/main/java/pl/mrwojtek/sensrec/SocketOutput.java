@@ -19,9 +19,6 @@
 
 package pl.mrwojtek.sensrec;
 
-import android.os.SystemClock;
-import android.util.Log;
-
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -31,6 +28,7 @@ import java.nio.channels.ByteChannel;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -39,22 +37,43 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class SocketOutput {
 
+    public static final int PROTOCOL_TCP = 0;
+    public static final int PROTOCOL_UDP = 1;
+
     private static final String TAG = "SensRec";
 
     private static final int BUFFER_CAPACITY = 32768;
     private static final int MAX_PACKET_SIZE = 16384;
+    private static final int PENDING_CAPACITY = 1024;
 
     private RecorderOutput output;
-    private SensorsRecorder recorder;
+    private OutputContext recorder;
+    private PipelineMetrics metrics;
+    private PipelineMetrics.Sink sink;
     private OutputThread outputThread;
     private OnSocketListener onSocketListener;
+    private volatile boolean streaming;
+    private final AtomicInteger lossCount = new AtomicInteger();
 
     private final Lock writeLock = new ReentrantLock();
     private final StepReadWriteStream writeStream = new StepReadWriteStream(BUFFER_CAPACITY);
 
-    public SocketOutput(RecorderOutput output, SensorsRecorder recorder) {
+    // Records waiting in the write stream, in order of submission, with
+    // their end as a total number of submitted bytes. Guarded by writeStream.
+    private final long[] pendingEnds = new long[PENDING_CAPACITY];
+    private final long[] pendingTimes = new long[PENDING_CAPACITY];
+    private final PipelineMetrics.Channel[] pendingChannels =
+            new PipelineMetrics.Channel[PENDING_CAPACITY];
+    private int pendingFirst;
+    private int pendingSize;
+    private long submittedBytes;
+    private long sentBytes;
+
+    public SocketOutput(RecorderOutput output, OutputContext recorder) {
         this.output = output;
         this.recorder = recorder;
+        this.metrics = recorder.getMetrics();
+        this.sink = metrics.getSink(PipelineMetrics.SINK_SOCKET);
     }
 
     public void setOnSocketListener(OnSocketListener onSocketListener) {
@@ -68,7 +87,19 @@ public class SocketOutput {
     }
 
     public Output.Record newRecord() {
-        return new StepReadWriteRecord(writeLock, writeStream);
+        return new StepReadWriteRecord(writeLock, sink, writeStream);
+    }
+
+    /**
+     * Counts the events after which a consumer of the stream may have
+     * missed some records, that is the connections of the socket and the
+     * records dropped. Recorders that write a state only once, like the BLE
+     * channel mappings, write it again when the count changes.
+     *
+     * @return number of the events since the output was created
+     */
+    public int getLossCount() {
+        return lossCount.get();
     }
 
     public void start() {
@@ -81,6 +112,8 @@ public class SocketOutput {
         int port = recorder.getOutputPort(output.isBinary());
         int protocol = recorder.getOutputProtocol(output.isBinary());
 
+        streaming = true;
+
         // Try to reuse previous output of applicable
         if (outputThread != null && protocol == outputThread.getProtocol() &&
                 port == outputThread.getPort() && host.equals(outputThread.getHost()) &&
@@ -95,14 +128,52 @@ public class SocketOutput {
         }
 
         outputThread = new ChannelOutputThread(host, port, protocol);
+        outputThread.start();
     }
 
     public void stop() {
+        streaming = false;
         if (outputThread != null) {
             outputThread.stop(false);
         }
     }
 
+    /**
+     * Remembers a record just submitted to the write stream, so that the
+     * time until it's sent can be measured. Records submitted when too
+     * many are pending are not measured. Must be called with the write
+     * stream lock held.
+     */
+    private void addPending(int bytes, PipelineMetrics.Channel channel) {
+        submittedBytes += bytes;
+        if (pendingSize == PENDING_CAPACITY) {
+            return;
+        }
+        int i = (pendingFirst + pendingSize++) % PENDING_CAPACITY;
+        pendingEnds[i] = submittedBytes;
+        pendingTimes[i] = System.nanoTime();
+        pendingChannels[i] = channel;
+    }
+
+    /**
+     * Measures latencies of the records sent completely. Must be called
+     * with the write stream lock held.
+     */
+    private void removeSent(int bytes) {
+        sentBytes += bytes;
+        long time = System.nanoTime();
+        while (pendingSize > 0 && pendingEnds[pendingFirst] <= sentBytes) {
+            PipelineMetrics.Channel channel = pendingChannels[pendingFirst];
+            if (channel != null) {
+                channel.getLatency(PipelineMetrics.STAGE_SEND)
+                        .record(time - pendingTimes[pendingFirst]);
+                pendingChannels[pendingFirst] = null;
+            }
+            pendingFirst = (pendingFirst + 1) % PENDING_CAPACITY;
+            --pendingSize;
+        }
+    }
+
     protected void notifyError(int error) {
         if (onSocketListener != null) {
             onSocketListener.onError(outputThread.getProtocol(), outputThread.getHost(),
@@ -154,6 +225,13 @@ public class SocketOutput {
             this.host = host;
             this.port = port;
             thread = new Thread(this, threadName);
+        }
+
+        /**
+         * Starts the thread. Kept out of the constructor, so the thread
+         * sees fully constructed subclasses and the assigned output thread.
+         */
+        public void start() {
             thread.start();
         }
 
@@ -212,7 +290,7 @@ public class SocketOutput {
         @Override
         public void run() {
             long connectWaitTime = FIRST_TIMEOUT;
-            long connectTime = SystemClock.elapsedRealtime() - connectWaitTime;
+            long connectTime = Platform.getClock().elapsedRealtime() - connectWaitTime;
             while (true) {
                 boolean doConnect = false;
                 boolean doDisconnect = false;
@@ -227,7 +305,7 @@ public class SocketOutput {
                             return;
                         }
                     } else if (!connected) {
-                        long waitTime = connectTime - SystemClock.elapsedRealtime();
+                        long waitTime = connectTime - Platform.getClock().elapsedRealtime();
                         if (waitTime > 0) {
                             try {
                                 writeStream.wait(waitTime);
@@ -252,18 +330,18 @@ public class SocketOutput {
 
                 if (doConnect) {
                     if (connect()) {
-                        Log.i(TAG, "Network connected");
+                        Platform.getLogger().i(TAG, "Network connected");
 
                         // Reset wait time
                         connectWaitTime = FIRST_TIMEOUT;
                     } else {
                         if (!stopping) {
-                            Log.e(TAG, "Network connect failed, retry in " +
+                            Platform.getLogger().e(TAG, "Network connect failed, retry in " +
                                     connectWaitTime + "ms");
                         }
 
                         // Calculate new connect time and increase connection retry time
-                        connectTime = SystemClock.elapsedRealtime() + connectWaitTime;
+                        connectTime = Platform.getClock().elapsedRealtime() + connectWaitTime;
                         connectWaitTime = Math.min(connectWaitTime << 1, MAXIMUM_TIMEOUT);
                     }
                 } else if(doDisconnect) {
@@ -310,7 +388,8 @@ public class SocketOutput {
                     socket.close();
                 }
             } catch (IOException cex) {
-                Log.e(TAG, "Error closing socket for write exception: " + cex.getMessage());
+                Platform.getLogger().e(TAG, "Error closing socket for write exception: " +
+                        cex.getMessage());
             } finally {
                 socket = null;
                 setConnected(false);
@@ -320,8 +399,8 @@ public class SocketOutput {
         protected boolean connect() {
             notifyConnecting();
             try {
-                if ((protocol == SensorsRecorder.PROTOCOL_UDP && connectUdp()) ||
-                        (protocol == SensorsRecorder.PROTOCOL_TCP && connectTcp())) {
+                if ((protocol == PROTOCOL_UDP && connectUdp()) ||
+                        (protocol == PROTOCOL_TCP && connectTcp())) {
                     writeLock.lock();
                     try {
                         recorder.recordStart(newDirectRecord());
@@ -329,12 +408,13 @@ public class SocketOutput {
                         writeLock.unlock();
                     }
 
+                    lossCount.incrementAndGet();
                     setConnected(true);
                     notifyConnected();
                     return true;
                 }
             } catch (IOException ex) {
-                Log.e(TAG, "Connect IOException: " + ex.getMessage());
+                Platform.getLogger().e(TAG, "Connect IOException: " + ex.getMessage());
                 onException(ex);
             }
 
@@ -382,7 +462,8 @@ public class SocketOutput {
                     socket.close();
                 }
             } catch (IOException cex) {
-                Log.e(TAG, "Error closing socket for disconnect: " + cex.getMessage());
+                Platform.getLogger().e(TAG, "Error closing socket for disconnect: " +
+                        cex.getMessage());
             } finally {
                 socket = null;
                 setConnected(false);
@@ -391,10 +472,16 @@ public class SocketOutput {
 
         protected void write() {
             try {
-                writeStream.writeTo(socket, MAX_PACKET_SIZE);
+                long time = System.nanoTime();
+                int bytes = writeStream.writeTo(socket, MAX_PACKET_SIZE);
+                sink.add(PipelineMetrics.BUSY_NANOS, System.nanoTime() - time);
+                sink.increment(PipelineMetrics.BUSY_COUNT);
+                synchronized (writeStream) {
+                    removeSent(bytes);
+                }
             } catch (IOException ex) {
-                Log.e(TAG, "Error writing stream [" + ex.getClass().getName() + "]: " +
-                        ex.getMessage());
+                Platform.getLogger().e(TAG, "Error writing stream [" +
+                        ex.getClass().getName() + "]: " + ex.getMessage());
                 onException(ex);
             }
         }
@@ -405,13 +492,13 @@ public class SocketOutput {
                 try {
                     socket.close();
                 } catch (IOException ex) {
-                    Log.e(TAG, "Error stopping socket: " + ex.getMessage());
+                    Platform.getLogger().e(TAG, "Error stopping socket: " + ex.getMessage());
                 }
             }
         }
 
         private Output.Record newDirectRecord() {
-            return output.formatRecord(new ByteChannelRecord(writeLock, socket) {
+            return output.formatRecord(new ByteChannelRecord(writeLock, sink, socket) {
                 @Override
                 protected void onChannelException(IOException ex) {
                     ChannelOutputThread.this.onException(ex);
@@ -421,35 +508,66 @@ public class SocketOutput {
 
     }
 
+    /**
+     * Buffers records for the output thread. Records are not encoded at all
+     * unless streaming is enabled and those that don't fit into the buffer
+     * are dropped.
+     */
     private class StepReadWriteRecord extends Output.DataOutputStreamRecord {
 
         private final StepReadWriteStream writeStream;
         private final DataOutputStream dataStream;
+        private short typeId;
+        private short deviceId;
+        private boolean active;
 
-        public StepReadWriteRecord(Lock writeLock, StepReadWriteStream writeStream) {
-            super(writeLock);
+        public StepReadWriteRecord(Lock writeLock, PipelineMetrics.Sink sink,
+                                   StepReadWriteStream writeStream) {
+            super(writeLock, sink);
             this.writeStream = writeStream;
             this.dataStream = new DataOutputStream(writeStream);
         }
 
         @Override
         protected DataOutputStream getWriter() {
-            return dataStream;
+            return active ? dataStream : null;
         }
 
         @Override
         public Output.Record start(short typeId, short deviceId) {
+            active = streaming;
+            if (!active) {
+                return this;
+            }
             super.start(typeId, deviceId);
+            this.typeId = typeId;
+            this.deviceId = deviceId;
             writeStream.mark();
             return this;
         }
 
         @Override
         public void save() {
+            if (!active) {
+                return;
+            }
+            PipelineMetrics.Channel channel = PipelineMetrics.isTracked(typeId) ?
+                    metrics.getChannel(typeId, deviceId) : null;
+            boolean submitted;
             synchronized (writeStream) {
-                writeStream.submit();
+                submitted = writeStream.submit();
+                if (submitted) {
+                    addPending(getRecordBytes(), channel);
+                }
                 writeStream.notify();
             }
+            if (!submitted) {
+                lossCount.incrementAndGet();
+                sink.increment(PipelineMetrics.DROPPED);
+                if (channel != null) {
+                    channel.increment(PipelineMetrics.DROPPED);
+                }
+            }
             super.save();
         }
     }
@@ -460,8 +578,9 @@ public class SocketOutput {
         private ByteArrayOutputStream byteArray;
         private DataOutputStream dataStream;
 
-        public ByteChannelRecord(Lock writeLock, WritableByteChannel channel) {
-            super(writeLock);
+        public ByteChannelRecord(Lock writeLock, PipelineMetrics.Sink sink,
+                                 WritableByteChannel channel) {
+            super(writeLock, sink);
             this.channel = channel;
             byteArray = new ByteArrayOutputStream();
             dataStream = new DataOutputStream(byteArray);
@@ -480,8 +599,8 @@ public class SocketOutput {
                 dataStream.flush();
                 channel.write(ByteBuffer.wrap(byteArray.toByteArray()));
             } catch (IOException ex) {
-                Log.e(TAG, "Error writing byte channel[" + ex.getClass().getName() + "]: "
-                        + ex.getMessage());
+                Platform.getLogger().e(TAG, "Error writing byte channel[" +
+                        ex.getClass().getName() + "]: " + ex.getMessage());
                 onChannelException(ex);
             }
         }
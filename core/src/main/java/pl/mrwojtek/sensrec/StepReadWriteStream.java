@@ -19,8 +19,6 @@
 
 package pl.mrwojtek.sensrec;
 
-import android.support.annotation.NonNull;
-
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.DatagramPacket;
@@ -91,7 +89,7 @@ public class StepReadWriteStream extends OutputStream {
     }
 
     @Override
-    public void write(@NonNull byte[] buffer, int offset, int count) throws IOException {
+    public void write(byte[] buffer, int offset, int count) throws IOException {
         synchronized (content) {
             if (valid && markCount + count < content.length) {
                 int space = content.length - markPos;
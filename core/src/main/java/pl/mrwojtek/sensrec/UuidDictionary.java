@@ -0,0 +1,107 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec;
+
+/**
+ * Dictionary of short channel ids assigned to 128 bit UUIDs, for example to
+ * the characteristics of a Bluetooth LE connection. Ids are assigned in the
+ * order UUIDs are added, starting from <code>0</code>. A recorder writes a
+ * mapping frame when an UUID is added, so values that follow carry only
+ * the id, and writes all the mappings again whenever a consumer may have
+ * missed them.
+ *
+ * <p>Lookup is a linear scan over primitive arrays as a connection exposes
+ * only a handful of characteristics, so it doesn't allocate memory. Access
+ * must be synchronized by the caller.
+ */
+public class UuidDictionary {
+
+    /** Returned by {@link #get(long, long)} for UUIDs not in the dictionary. */
+    public static final int NO_ID = -1;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private long[] mostSignificantBits = new long[INITIAL_CAPACITY];
+    private long[] leastSignificantBits = new long[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Finds the id of an UUID.
+     *
+     * @param most most significant bits of the UUID
+     * @param least least significant bits of the UUID
+     * @return id of the UUID or {@link #NO_ID} if it wasn't added yet
+     */
+    public int get(long most, long least) {
+        for (int i = 0; i < size; ++i) {
+            if (mostSignificantBits[i] == most && leastSignificantBits[i] == least) {
+                return i;
+            }
+        }
+        return NO_ID;
+    }
+
+    /**
+     * Assigns the next id to an UUID. The UUID shouldn't be in the
+     * dictionary already.
+     *
+     * @param most most significant bits of the UUID
+     * @param least least significant bits of the UUID
+     * @return id assigned to the UUID
+     * @throws IllegalStateException when all the short ids are taken
+     */
+    public int add(long most, long least) {
+        if (size > Short.MAX_VALUE) {
+            throw new IllegalStateException("UUID dictionary is full");
+        }
+        if (size == mostSignificantBits.length) {
+            mostSignificantBits = grow(mostSignificantBits);
+            leastSignificantBits = grow(leastSignificantBits);
+        }
+        mostSignificantBits[size] = most;
+        leastSignificantBits[size] = least;
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getMostSignificantBits(int id) {
+        return mostSignificantBits[id];
+    }
+
+    public long getLeastSignificantBits(int id) {
+        return leastSignificantBits[id];
+    }
+
+    /**
+     * Forgets all the ids, so they are assigned and mapped again.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    private static long[] grow(long[] array) {
+        long[] newArray = new long[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
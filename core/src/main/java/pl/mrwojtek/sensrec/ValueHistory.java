@@ -0,0 +1,169 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Recent values of a channel decimated to fixed time buckets, for live
+ * previews. Each bucket keeps the minimum and the maximum of its samples,
+ * so that spikes are not lost to decimation. Buckets without samples are
+ * reported as not-a-number.
+ *
+ * <p>Values must be added by a single thread. Buckets are published under a
+ * sequence counter, so readers on any other thread get a consistent copy
+ * without ever blocking the writer. Neither side allocates.
+ */
+public class ValueHistory {
+
+    public static final int DEFAULT_SIZE = 120;
+    public static final long DEFAULT_BUCKET = 100;
+
+    // Layout of the published buckets
+    private static final int SEQUENCE = 0;
+    private static final int LAST_BUCKET = 1;
+    private static final int BUCKETS = 2;
+
+    private static final long EMPTY = pack(Float.NaN, Float.NaN);
+
+    private final int size;
+    private final long bucketMillis;
+
+    // Writer state, touched only by the thread adding values
+    private long bucket = -1;
+    private float minimum;
+    private float maximum;
+    private int generation;
+
+    private final AtomicLongArray buckets;
+    private volatile int requestedGeneration;
+
+    public ValueHistory() {
+        this(DEFAULT_SIZE, DEFAULT_BUCKET);
+    }
+
+    /**
+     * Creates a history spanning <code>size * bucketMillis</code>
+     * milliseconds.
+     *
+     * @param size number of buckets
+     * @param bucketMillis duration of a bucket in milliseconds
+     */
+    public ValueHistory(int size, long bucketMillis) {
+        this.size = size;
+        this.bucketMillis = bucketMillis;
+        this.buckets = new AtomicLongArray(BUCKETS + size);
+        this.buckets.set(LAST_BUCKET, -1);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * Clears the history. Buckets are cleared by the writer with the next
+     * value.
+     */
+    public void clear() {
+        requestedGeneration = requestedGeneration + 1;
+    }
+
+    /**
+     * Adds a value. Must always be called from the same thread.
+     *
+     * @param millisecond elapsed real time of the value in milliseconds
+     * @param value value to add
+     */
+    public void add(long millisecond, float value) {
+        long current = millisecond / bucketMillis;
+        int requested = requestedGeneration;
+        if (generation != requested) {
+            generation = requested;
+            bucket = -1;
+        }
+
+        long sequence = buckets.get(SEQUENCE);
+        buckets.set(SEQUENCE, sequence + 1);
+        if (current != bucket) {
+            // Buckets skipped since the last value had no samples
+            long first = Math.max(bucket + 1, current - size + 1);
+            for (long i = first; i < current; ++i) {
+                buckets.set(BUCKETS + index(i), EMPTY);
+            }
+            bucket = current;
+            minimum = value;
+            maximum = value;
+            buckets.set(LAST_BUCKET, current);
+        } else {
+            minimum = Math.min(minimum, value);
+            maximum = Math.max(maximum, value);
+        }
+        buckets.set(BUCKETS + index(current), pack(minimum, maximum));
+        buckets.set(SEQUENCE, sequence + 2);
+    }
+
+    /**
+     * Copies the buckets, oldest first. Never blocks the writer, but
+     * retries while it's publishing.
+     *
+     * @param minimums array of at least {@link #getSize()} elements to
+     *                 fill with the bucket minimums
+     * @param maximums array of at least {@link #getSize()} elements to
+     *                 fill with the bucket maximums
+     * @return number of the newest bucket, that is its start time divided
+     * by the bucket duration, or <code>-1</code> if there are no values
+     */
+    public long read(float[] minimums, float[] maximums) {
+        while (true) {
+            long sequence = buckets.get(SEQUENCE);
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+
+            long last = buckets.get(LAST_BUCKET);
+            if (last >= 0) {
+                for (int i = 0; i < size; ++i) {
+                    long packed = buckets.get(BUCKETS + index(last + 1 + i));
+                    minimums[i] = Float.intBitsToFloat((int) (packed >>> 32));
+                    maximums[i] = Float.intBitsToFloat((int) packed);
+                }
+            }
+
+            if (buckets.get(SEQUENCE) == sequence) {
+                return last;
+            }
+        }
+    }
+
+    private int index(long bucket) {
+        int index = (int) (bucket % size);
+        return index < 0 ? index + size : index;
+    }
+
+    private static long pack(float minimum, float maximum) {
+        return ((long) Float.floatToRawIntBits(minimum) << 32) |
+                (Float.floatToRawIntBits(maximum) & 0xFFFFFFFFL);
+    }
+}
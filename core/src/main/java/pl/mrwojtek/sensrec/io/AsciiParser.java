@@ -0,0 +1,237 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Primitives for parsing ASCII text records directly from byte arrays.
+ * Numbers are parsed without creating intermediate strings, only the
+ * values that can't be parsed exactly, like <code>NaN</code> or numbers
+ * with many significant digits, are handed over to the library.
+ */
+public final class AsciiParser {
+
+    private static final double[] POWERS_OF_TEN = new double[] {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14,
+            1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private AsciiParser() {
+    }
+
+    /**
+     * Finds the first occurrence of a byte in the range.
+     *
+     * @return position of the byte or <code>-1</code> if there is none
+     */
+    public static int indexOf(byte[] data, byte b, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the last occurrence of a byte in the range.
+     *
+     * @return position of the byte or <code>-1</code> if there is none
+     */
+    public static int lastIndexOf(byte[] data, byte b, int from, int to) {
+        for (int i = to - 1; i >= from; --i) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the start of the last line in the range, scanning backwards.
+     * A new line ending the range is not considered a line on its own.
+     *
+     * @param data bytes to scan
+     * @param newLine new line byte
+     * @param from start of the range
+     * @param to end of the range
+     * @return start of the last line or <code>-1</code> if the range does
+     * not contain a new line preceding the last line
+     */
+    public static int lastLineStart(byte[] data, byte newLine, int from, int to) {
+        int end = lastLineEnd(data, newLine, from, to);
+        int p = lastIndexOf(data, newLine, from, end);
+        return p < 0 ? -1 : p + 1;
+    }
+
+    /**
+     * Finds the end of the last line in the range, that is the position of
+     * its new line or the end of the range if the line is not terminated.
+     */
+    public static int lastLineEnd(byte[] data, byte newLine, int from, int to) {
+        return to > from && data[to - 1] == newLine ? to - 1 : to;
+    }
+
+    /**
+     * Tells whether the bytes at the given position are equal to the bytes
+     * of the array. The caller is responsible for the range check.
+     */
+    public static boolean equals(byte[] data, int p, byte[] bytes) {
+        for (int i = 0; i < bytes.length; ++i) {
+            if (data[p + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether the range starts with the bytes of the array.
+     */
+    public static boolean startsWith(byte[] data, int from, int to, byte[] bytes) {
+        return to - from >= bytes.length && equals(data, from, bytes);
+    }
+
+    /**
+     * Parses a decimal integer that spans the whole range.
+     *
+     * @throws NumberFormatException if the range is not a valid integer
+     */
+    public static long parseLong(byte[] data, int from, int to) {
+        int p = from;
+        boolean negative = p < to && data[p] == '-';
+        if (negative) {
+            ++p;
+        }
+        if (p == to || to - p > 19) {
+            return Long.parseLong(toString(data, from, to));
+        }
+
+        long value = 0;
+        for (; p < to; ++p) {
+            int digit = data[p] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid integer at " + p);
+            }
+            value = value * 10 - digit;
+            if (value > 0) {
+                // Overflow, let the library report it
+                return Long.parseLong(toString(data, from, to));
+            }
+        }
+        if (!negative && value == Long.MIN_VALUE) {
+            return Long.parseLong(toString(data, from, to));
+        }
+        return negative ? value : -value;
+    }
+
+    /**
+     * Parses a decimal floating point number that spans the whole range.
+     *
+     * @throws NumberFormatException if the range is not a valid number
+     */
+    public static double parseDouble(byte[] data, int from, int to) {
+        int p = from;
+        boolean negative = p < to && data[p] == '-';
+        if (negative) {
+            ++p;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        boolean any = false;
+        for (; p < to; ++p) {
+            byte c = data[p];
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) {
+                        ++digits;
+                    }
+                    if (fraction) {
+                        --exponent;
+                    }
+                } else if (!fraction) {
+                    ++exponent;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (p < to && (data[p] == 'E' || data[p] == 'e') && any) {
+            ++p;
+            boolean negativeExponent = p < to && data[p] == '-';
+            if (negativeExponent || (p < to && data[p] == '+')) {
+                ++p;
+            }
+            int explicit = 0;
+            int start = p;
+            for (; p < to && data[p] >= '0' && data[p] <= '9'; ++p) {
+                explicit = Math.min(explicit * 10 + (data[p] - '0'), 10000);
+            }
+            if (p == start) {
+                throw new NumberFormatException("Invalid exponent at " + p);
+            }
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+
+        if (p != to || !any ||
+                mantissa >= (1L << 53) || exponent < -22 || exponent > 22) {
+            // Special values like NaN or Infinity and the numbers that can't
+            // be computed exactly are left for the library
+            return Double.parseDouble(toString(data, from, to));
+        }
+
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] :
+                mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a hexadecimal digit.
+     *
+     * @return value of the digit or <code>-1</code> if it's not a digit
+     */
+    public static int hexDigit(byte c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else {
+            return -1;
+        }
+    }
+
+    private static String toString(byte[] data, int from, int to) {
+        try {
+            return new String(data, from, to - from, "US-ASCII");
+        } catch (UnsupportedEncodingException ex) {
+            throw new NumberFormatException(ex.getMessage());
+        }
+    }
+}
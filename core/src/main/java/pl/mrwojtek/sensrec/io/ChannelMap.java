@@ -0,0 +1,139 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+/**
+ * Assigns dense indices to the channels identified by a type and a device
+ * id. Lookups do not allocate, so the map is suitable for the per record
+ * paths.
+ */
+public class ChannelMap {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] keys;
+    private int[] indices;
+    private int[] channels;
+    private int mask;
+    private int size;
+
+    public ChannelMap() {
+        keys = new int[INITIAL_CAPACITY];
+        indices = new int[INITIAL_CAPACITY];
+        channels = new int[INITIAL_CAPACITY / 2];
+        mask = INITIAL_CAPACITY - 1;
+        clearIndices();
+    }
+
+    public static int key(short typeId, short deviceId) {
+        return (typeId << 16) | (deviceId & 0xffff);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public short getTypeId(int index) {
+        return (short) (channels[index] >> 16);
+    }
+
+    public short getDeviceId(int index) {
+        return (short) channels[index];
+    }
+
+    /**
+     * Finds index of a channel.
+     *
+     * @param typeId channel type id
+     * @param deviceId channel device id
+     * @return index of the channel or <code>-1</code> if it is not present
+     */
+    public int get(short typeId, short deviceId) {
+        int key = key(typeId, deviceId);
+        for (int slot = hash(key); ; slot = (slot + 1) & mask) {
+            int index = indices[slot];
+            if (index < 0 || keys[slot] == key) {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Finds index of a channel and assigns the next free index to it if it
+     * is not present yet.
+     *
+     * @param typeId channel type id
+     * @param deviceId channel device id
+     * @return index of the channel
+     */
+    public int put(short typeId, short deviceId) {
+        int key = key(typeId, deviceId);
+        int slot = hash(key);
+        for (; indices[slot] >= 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return indices[slot];
+            }
+        }
+
+        if (size == channels.length) {
+            int[] newChannels = new int[channels.length * 2];
+            System.arraycopy(channels, 0, newChannels, 0, size);
+            channels = newChannels;
+            rehash(keys.length * 2);
+            return put(typeId, deviceId);
+        }
+
+        keys[slot] = key;
+        indices[slot] = size;
+        channels[size] = key;
+        return size++;
+    }
+
+    public void clear() {
+        size = 0;
+        clearIndices();
+    }
+
+    private void rehash(int capacity) {
+        keys = new int[capacity];
+        indices = new int[capacity];
+        mask = capacity - 1;
+        clearIndices();
+        for (int i = 0; i < size; ++i) {
+            int slot = hash(channels[i]);
+            while (indices[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = channels[i];
+            indices[slot] = i;
+        }
+    }
+
+    private void clearIndices() {
+        for (int i = 0; i < indices.length; ++i) {
+            indices[i] = -1;
+        }
+    }
+
+    private int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
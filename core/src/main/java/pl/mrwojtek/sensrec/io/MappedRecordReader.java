@@ -0,0 +1,233 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Random access reader of a recording. The file is memory-mapped in
+ * segments that are mapped lazily when the reader first touches them and
+ * the {@link RecordIndex} is used to jump close to the requested time, so
+ * seeking costs a binary search and a short scan instead of decoding the
+ * recording from its beginning.
+ *
+ * <p>Records are decoded with a {@link RecordCursor} available through
+ * {@link #getCursor()}. After a successful seek the cursor is positioned on
+ * the first matching record and subsequent calls to
+ * {@link RecordCursor#next()} continue from there in file order.
+ */
+public class MappedRecordReader implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private FileInputStream stream;
+    private FileChannel fileChannel;
+    private long fileLength;
+    private int segmentSize;
+    private MappedByteBuffer[] segments;
+
+    private RecordIndex index;
+    private RecordCursor cursor;
+    private SegmentChannel segmentChannel = new SegmentChannel();
+    private ChannelFilter channelFilter = new ChannelFilter();
+
+    public MappedRecordReader(File file) throws IOException {
+        this(file, RecordIndex.open(file, false), DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedRecordReader(File file, RecordIndex index, int segmentSize)
+            throws IOException {
+        this.index = index;
+        this.segmentSize = segmentSize;
+        this.cursor = new RecordCursor(DEFAULT_BUFFER_SIZE);
+
+        stream = new FileInputStream(file);
+        fileChannel = stream.getChannel();
+        fileLength = fileChannel.size();
+        segments = new MappedByteBuffer[(int) ((fileLength + segmentSize - 1) / segmentSize)];
+        rewind();
+    }
+
+    public RecordIndex getIndex() {
+        return index;
+    }
+
+    public RecordCursor getCursor() {
+        return cursor;
+    }
+
+    public boolean isBinary() {
+        return index.isBinary();
+    }
+
+    /**
+     * Positions cursor before the first record of a recording.
+     *
+     * @throws IOException on a read error
+     */
+    public void rewind() throws IOException {
+        segmentChannel.position = 0;
+        cursor.open(segmentChannel, 0, index.isBinary());
+    }
+
+    /**
+     * Positions cursor on the first record with a millisecond not less than
+     * the given one.
+     *
+     * @param millisecond time to seek
+     * @return <code>true</code> if such record exists
+     * @throws IOException on a read error or malformed data
+     */
+    public boolean seek(long millisecond) throws IOException {
+        return seek(index.findOffset(millisecond), millisecond, null);
+    }
+
+    /**
+     * Positions cursor on the first record of a channel with a millisecond
+     * not less than the given one.
+     *
+     * @param millisecond time to seek
+     * @param typeId channel type id
+     * @param deviceId channel device id
+     * @return <code>true</code> if such record exists
+     * @throws IOException on a read error or malformed data
+     */
+    public boolean seek(long millisecond, short typeId, short deviceId) throws IOException {
+        RecordIndex.Channel channel = index.getChannel(typeId, deviceId);
+        long offset = channel != null ? channel.findOffset(millisecond) : -1;
+        channelFilter.typeId = typeId;
+        channelFilter.deviceId = deviceId;
+        return seek(offset, millisecond, channelFilter);
+    }
+
+    /**
+     * Scans records from the offset. Records of other channels are skipped
+     * by the cursor without decoding when a filter is given.
+     */
+    private boolean seek(long offset, long millisecond, RecordCursor.Filter filter)
+            throws IOException {
+        if (offset < 0) {
+            segmentChannel.position = fileLength;
+            cursor.open(segmentChannel, fileLength, index.isBinary());
+            return false;
+        }
+
+        segmentChannel.position = offset;
+        cursor.open(segmentChannel, offset, index.isBinary());
+        RecordCursor.Filter previous = cursor.getFilter();
+        if (filter != null) {
+            cursor.setFilter(filter);
+        }
+        try {
+            while (cursor.next()) {
+                short recordType = cursor.getTypeId();
+                if (recordType == RecordFormat.TYPE_START ||
+                        recordType == RecordFormat.TYPE_END) {
+                    continue;
+                }
+                if (cursor.getMillisecond() >= millisecond) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            // Records following the seek are visited in file order again
+            cursor.setFilter(previous);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        cursor.close();
+        segments = null;
+        stream.close();
+    }
+
+    private ByteBuffer getSegment(int segment) throws IOException {
+        MappedByteBuffer buffer = segments[segment];
+        if (buffer == null) {
+            long start = (long) segment * segmentSize;
+            long size = Math.min(segmentSize, fileLength - start);
+            buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            segments[segment] = buffer;
+        }
+        return buffer;
+    }
+
+    /**
+     * Exposes the mapped segments as a channel, so that the cursor copies
+     * data straight from the mapped memory into its buffer.
+     */
+    private class SegmentChannel implements ReadableByteChannel {
+
+        private long position;
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (position >= fileLength) {
+                return -1;
+            }
+
+            int read = 0;
+            while (dst.hasRemaining() && position < fileLength) {
+                ByteBuffer segment = getSegment((int) (position / segmentSize));
+                int from = (int) (position % segmentSize);
+                int count = Math.min(dst.remaining(), segment.capacity() - from);
+                segment.limit(from + count);
+                segment.position(from);
+                dst.put(segment);
+                position += count;
+                read += count;
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return segments != null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Accepts the records of a single channel.
+     */
+    private static class ChannelFilter implements RecordCursor.Filter {
+
+        private short typeId;
+        private short deviceId;
+
+        @Override
+        public boolean accept(short typeId, short deviceId) {
+            return typeId == this.typeId && deviceId == this.deviceId;
+        }
+    }
+}
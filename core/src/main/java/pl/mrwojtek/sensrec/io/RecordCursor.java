@@ -0,0 +1,932 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Pull-based reader of all the records stored in a binary or text
+ * recording. The current record is exposed as a flyweight that is
+ * overwritten by each call to {@link #next()}, so the iteration does not
+ * allocate memory once the internal buffers are sized.
+ *
+ * <p>Values of the records are exposed as follows:
+ * <ul>
+ *     <li>sensor: millisecond, event timestamp and the sensor values,</li>
+ *     <li>sensor accuracy: millisecond and accuracy, resolution and
+ *     maximum range values,</li>
+ *     <li>battery: millisecond and percentage, voltage and temperature
+ *     values,</li>
+ *     <li>GPS: millisecond, fix time as a timestamp and latitude,
+ *     longitude, altitude, bearing, speed and accuracy values,</li>
+ *     <li>NMEA: millisecond, timestamp and the sentence as a payload,</li>
+ *     <li>BLE: millisecond, characteristic UUID and the characteristic
+ *     value as a payload,</li>
+ *     <li>BLE mapping: millisecond, characteristic UUID and the channel
+ *     assigned to it as a value,</li>
+ *     <li>BLE value: millisecond, channel as a value and the
+ *     characteristic value as a payload,</li>
+ *     <li>statistics: millisecond and subject type, subject device and
+ *     the pipeline counters values,</li>
+ *     <li>gap: millisecond, event timestamp of the sample ending the gap
+ *     and subject type, subject device, gap duration in nanoseconds and
+ *     missed samples values,</li>
+ *     <li>start and end frames: elapsed time as a millisecond, wall time
+ *     as a timestamp and version, duration, moving duration and distance
+ *     values (the last three for the end frame only).</li>
+ * </ul>
+ */
+public class RecordCursor implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    protected static final int INITIAL_VALUES = 16;
+    protected static final int INITIAL_PAYLOAD = 256;
+    protected static final int MAXIMUM_MAGIC_LENGTH = 64;
+
+    private static final byte SEPARATOR = (byte) RecordFormat.SEPARATOR.charAt(0);
+    private static final byte NEW_LINE = (byte) RecordFormat.NEW_LINE.charAt(0);
+
+    private static final byte[] TEXT_START = RecordFormat.getTypePrefix(
+            RecordFormat.TYPE_START, (short) 0).getBytes();
+    private static final byte[][] TEXT_OTHER_PREFIXES;
+    private static final short[] TEXT_OTHER_TYPES = new short[] {
+            RecordFormat.TYPE_START, RecordFormat.TYPE_PAUSE, RecordFormat.TYPE_END,
+            RecordFormat.TYPE_DEVICE, RecordFormat.TYPE_BATTERY_VOLTAGE, RecordFormat.TYPE_GPS,
+            RecordFormat.TYPE_GPS_NMEA, RecordFormat.TYPE_STATS, RecordFormat.TYPE_GAP };
+    private static final byte[] TEXT_BLE = "ble".getBytes();
+    private static final byte[] TEXT_BLE_MAP = "blemap".getBytes();
+    private static final byte[] TEXT_BLE_VALUE = "bleval".getBytes();
+    private static final byte[] TEXT_ACCURACY = RecordFormat.SUFFIX_ACCURACY.getBytes();
+    private static final byte[] TEXT_UNKNOWN = RecordFormat.PREFIX_UNKNOWN.getBytes();
+    private static final byte[][] TEXT_SENSOR_PREFIXES;
+
+    static {
+        TEXT_OTHER_PREFIXES = new byte[TEXT_OTHER_TYPES.length][];
+        for (int i = 0; i < TEXT_OTHER_TYPES.length; ++i) {
+            TEXT_OTHER_PREFIXES[i] = RecordFormat.getOtherTypePrefix(TEXT_OTHER_TYPES[i],
+                    (short) 0).getBytes();
+        }
+        TEXT_SENSOR_PREFIXES = new byte[RecordFormat.getSensorTypeCount()][];
+        for (int i = 1; i < TEXT_SENSOR_PREFIXES.length; ++i) {
+            TEXT_SENSOR_PREFIXES[i] = RecordFormat.getSensorTypePrefix((short) i).getBytes();
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final byte[] data;
+    private FileInputStream stream;
+    private ReadableByteChannel channel;
+    private boolean binary;
+    private boolean truncated;
+    private boolean skipped;
+    private long unrecognizedOffset;
+    private Filter filter;
+
+    // Buffer state, bufferOffset is a stream offset of the first buffer byte
+    private long bufferOffset;
+    private int position;
+    private int limit;
+
+    // Current record flyweight
+    private long offset;
+    private int length;
+    private short typeId;
+    private short deviceId;
+    private long millisecond;
+    private long timestamp;
+    private long uuidMostSignificantBits;
+    private long uuidLeastSignificantBits;
+    private double[] values = new double[INITIAL_VALUES];
+    private int valueCount;
+    private byte[] payload = new byte[INITIAL_PAYLOAD];
+    private int payloadLength;
+
+    // Text line parsing state
+    private int field;
+    private int fieldEnd;
+    private int lineEnd;
+
+    public RecordCursor() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public RecordCursor(int bufferSize) {
+        data = new byte[bufferSize];
+        buffer = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Opens a recording file and resolves its format from the start frame.
+     *
+     * @param file recording file
+     * @throws IOException when file can't be read or format is unknown
+     */
+    public void open(File file) throws IOException {
+        close();
+        stream = new FileInputStream(file);
+        detect(stream.getChannel());
+    }
+
+    /**
+     * Starts reading the recording from the beginning of a channel and
+     * resolves its format from the start frame. The channel is not closed
+     * by this cursor.
+     *
+     * @param channel channel positioned at the recording start
+     * @throws IOException when channel can't be read or format is unknown
+     */
+    public void open(ReadableByteChannel channel) throws IOException {
+        close();
+        detect(channel);
+    }
+
+    /**
+     * Starts reading the recording from an arbitrary record boundary. The
+     * channel is not closed by this cursor.
+     *
+     * @param channel channel positioned at a record boundary
+     * @param offset offset of the channel position in the recording
+     * @param binary format of the recording
+     * @throws IOException when previously opened file can't be closed
+     */
+    public void open(ReadableByteChannel channel, long offset, boolean binary)
+            throws IOException {
+        close();
+        reset(channel, offset);
+        this.binary = binary;
+    }
+
+    private void detect(ReadableByteChannel channel) throws IOException {
+        reset(channel, 0);
+        if (ensure(TEXT_START.length + 1) && isBinaryStart()) {
+            binary = true;
+        } else if (limit - position > TEXT_START.length && equals(position, TEXT_START) &&
+                data[position + TEXT_START.length] == SEPARATOR) {
+            binary = false;
+        } else {
+            throw new IOException("Unknown recording format");
+        }
+    }
+
+    private void reset(ReadableByteChannel channel, long offset) {
+        this.channel = channel;
+        this.bufferOffset = offset;
+        this.position = 0;
+        this.limit = 0;
+        this.truncated = false;
+        this.unrecognizedOffset = -1;
+        this.offset = offset;
+        this.length = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel = null;
+        if (stream != null) {
+            try {
+                stream.close();
+            } finally {
+                stream = null;
+            }
+        }
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Gets the number of bytes read from the stream, counted from its
+     * beginning. Once {@link #next()} returned <code>false</code> this is
+     * the length of the stream including any torn tail.
+     *
+     * @return stream offset past the last byte read
+     */
+    public long getReadLength() {
+        return bufferOffset + limit;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Sets a filter of the records to visit. Records rejected by the filter
+     * are skipped without decoding their values. Start and end frames are
+     * always visited.
+     *
+     * @param filter filter or <code>null</code> to visit all records
+     */
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Tells whether the stream ended in the middle of a record. It is only
+     * meaningful after {@link #next()} returned <code>false</code>.
+     *
+     * @return <code>true</code> if there are trailing bytes after the last
+     * complete record
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Gets offset of the first skipped text line that can't be attributed
+     * to any record type. Lines of types without a known prefix, which are
+     * written with the unknown prefix, and lines of known prefix but
+     * unknown layout don't count as unrecognized.
+     *
+     * @return stream offset or <code>-1</code> if no such line was skipped
+     */
+    public long getUnrecognizedOffset() {
+        return unrecognizedOffset;
+    }
+
+    /**
+     * Stream offset just past the last complete record.
+     *
+     * @return offset of the next record to be read
+     */
+    public long getPosition() {
+        return bufferOffset + position;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public short getTypeId() {
+        return typeId;
+    }
+
+    public short getDeviceId() {
+        return deviceId;
+    }
+
+    public long getMillisecond() {
+        return millisecond;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getUuidMostSignificantBits() {
+        return uuidMostSignificantBits;
+    }
+
+    public long getUuidLeastSignificantBits() {
+        return uuidLeastSignificantBits;
+    }
+
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    public double getDouble(int index) {
+        return values[index];
+    }
+
+    public float getFloat(int index) {
+        return (float) values[index];
+    }
+
+    /**
+     * Direct access to the values of the current record. The array is
+     * reused and may be longer than {@link #getValueCount()}.
+     *
+     * @return values array
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * Direct access to the payload of the current record. The array is
+     * reused and may be longer than {@link #getPayloadLength()}.
+     *
+     * @return payload array
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return <code>true</code> if a complete record was read,
+     * <code>false</code> at the end of the stream
+     * @throws IOException on read error or malformed record
+     */
+    public boolean next() throws IOException {
+        boolean read;
+        do {
+            position += length;
+            offset = bufferOffset + position;
+            length = 0;
+            valueCount = 0;
+            payloadLength = 0;
+            timestamp = 0;
+            skipped = false;
+            read = binary ? nextBinary() : nextText();
+        } while (skipped);
+        return read;
+    }
+
+    private boolean nextBinary() throws IOException {
+        if (!ensure(4)) {
+            return false;
+        }
+
+        typeId = buffer.getShort(position);
+        deviceId = buffer.getShort(position + 2);
+
+        if (filter != null && !isFrame() && !filter.accept(typeId, deviceId)) {
+            return skipBinary();
+        } else if (RecordFormat.isSensorType(typeId)) {
+            if (!ensure(22)) {
+                return false;
+            }
+            int count = buffer.getShort(position + 20);
+            if (count < 0) {
+                throw malformedBinary();
+            }
+            if (!ensure(22 + 4 * count)) {
+                return false;
+            }
+            millisecond = buffer.getLong(position + 4);
+            timestamp = buffer.getLong(position + 12);
+            ensureValues(count);
+            for (int i = 0, p = position + 22; i < count; ++i, p += 4) {
+                values[i] = buffer.getFloat(p);
+            }
+            valueCount = count;
+            length = 22 + 4 * count;
+            return true;
+        } else if (RecordFormat.isAccuracyType(typeId)) {
+            if (!ensure(RecordFormat.ACCURACY_LENGTH)) {
+                return false;
+            }
+            millisecond = buffer.getLong(position + 4);
+            values[0] = buffer.getInt(position + 12);
+            values[1] = buffer.getFloat(position + 16);
+            values[2] = buffer.getFloat(position + 20);
+            valueCount = 3;
+            length = RecordFormat.ACCURACY_LENGTH;
+            return true;
+        }
+
+        switch (typeId) {
+            case RecordFormat.TYPE_START:
+            case RecordFormat.TYPE_END:
+                return nextBinaryFrame();
+            case RecordFormat.TYPE_BATTERY_VOLTAGE:
+                if (!ensure(RecordFormat.BATTERY_VOLTAGE_LENGTH)) {
+                    return false;
+                }
+                millisecond = buffer.getLong(position + 4);
+                values[0] = buffer.getFloat(position + 12);
+                values[1] = buffer.getInt(position + 16);
+                values[2] = buffer.getInt(position + 20);
+                valueCount = 3;
+                length = RecordFormat.BATTERY_VOLTAGE_LENGTH;
+                return true;
+            case RecordFormat.TYPE_GPS:
+                if (!ensure(RecordFormat.GPS_LENGTH)) {
+                    return false;
+                }
+                millisecond = buffer.getLong(position + 4);
+                values[0] = buffer.getDouble(position + 12);
+                values[1] = buffer.getDouble(position + 20);
+                values[2] = buffer.getDouble(position + 28);
+                values[3] = buffer.getFloat(position + 36);
+                values[4] = buffer.getFloat(position + 40);
+                values[5] = buffer.getFloat(position + 44);
+                timestamp = buffer.getLong(position + 48);
+                valueCount = 6;
+                length = RecordFormat.GPS_LENGTH;
+                return true;
+            case RecordFormat.TYPE_GPS_NMEA:
+                if (!ensure(24)) {
+                    return false;
+                }
+                millisecond = buffer.getLong(position + 4);
+                timestamp = buffer.getLong(position + 12);
+                return nextBinaryPayload(20);
+            case RecordFormat.TYPE_BLE:
+                if (!ensure(32)) {
+                    return false;
+                }
+                millisecond = buffer.getLong(position + 4);
+                uuidMostSignificantBits = buffer.getLong(position + 12);
+                uuidLeastSignificantBits = buffer.getLong(position + 20);
+                return nextBinaryPayload(28);
+            case RecordFormat.TYPE_BLE_MAP:
+                if (!ensure(RecordFormat.BLE_MAP_LENGTH)) {
+                    return false;
+                }
+                millisecond = buffer.getLong(position + 4);
+                values[0] = buffer.getShort(position + 12);
+                uuidMostSignificantBits = buffer.getLong(position + 14);
+                uuidLeastSignificantBits = buffer.getLong(position + 22);
+                valueCount = 1;
+                length = RecordFormat.BLE_MAP_LENGTH;
+                return true;
+            case RecordFormat.TYPE_BLE_VALUE:
+                if (!ensure(18)) {
+                    return false;
+                }
+                millisecond = buffer.getLong(position + 4);
+                values[0] = buffer.getShort(position + 12);
+                valueCount = 1;
+                return nextBinaryPayload(14);
+            case RecordFormat.TYPE_STATS:
+                if (!ensure(RecordFormat.STATS_LENGTH)) {
+                    return false;
+                }
+                millisecond = buffer.getLong(position + 4);
+                values[0] = buffer.getShort(position + 12);
+                values[1] = buffer.getShort(position + 14);
+                for (int i = 0, p = position + 16; i < RecordFormat.STATS_COUNTERS; ++i, p += 8) {
+                    values[i + 2] = buffer.getLong(p);
+                }
+                valueCount = RecordFormat.STATS_COUNTERS + 2;
+                length = RecordFormat.STATS_LENGTH;
+                return true;
+            case RecordFormat.TYPE_GAP:
+                if (!ensure(RecordFormat.GAP_LENGTH)) {
+                    return false;
+                }
+                millisecond = buffer.getLong(position + 4);
+                values[0] = buffer.getShort(position + 12);
+                values[1] = buffer.getShort(position + 14);
+                timestamp = buffer.getLong(position + 16);
+                values[2] = buffer.getLong(position + 24);
+                values[3] = buffer.getInt(position + 32);
+                valueCount = 4;
+                length = RecordFormat.GAP_LENGTH;
+                return true;
+            default:
+                throw malformedBinary();
+        }
+    }
+
+    /**
+     * Finds the length of a record without decoding its values.
+     */
+    private boolean skipBinary() throws IOException {
+        int recordLength;
+        if (RecordFormat.isSensorType(typeId)) {
+            if (!ensure(22)) {
+                return false;
+            }
+            int count = buffer.getShort(position + 20);
+            if (count < 0) {
+                throw malformedBinary();
+            }
+            recordLength = 22 + 4 * count;
+        } else if (RecordFormat.isAccuracyType(typeId)) {
+            recordLength = RecordFormat.ACCURACY_LENGTH;
+        } else if (typeId == RecordFormat.TYPE_BATTERY_VOLTAGE) {
+            recordLength = RecordFormat.BATTERY_VOLTAGE_LENGTH;
+        } else if (typeId == RecordFormat.TYPE_GPS) {
+            recordLength = RecordFormat.GPS_LENGTH;
+        } else if (typeId == RecordFormat.TYPE_STATS) {
+            recordLength = RecordFormat.STATS_LENGTH;
+        } else if (typeId == RecordFormat.TYPE_GAP) {
+            recordLength = RecordFormat.GAP_LENGTH;
+        } else if (typeId == RecordFormat.TYPE_BLE_MAP) {
+            recordLength = RecordFormat.BLE_MAP_LENGTH;
+        } else if (typeId == RecordFormat.TYPE_GPS_NMEA || typeId == RecordFormat.TYPE_BLE ||
+                typeId == RecordFormat.TYPE_BLE_VALUE) {
+            int p = typeId == RecordFormat.TYPE_BLE ? 28 :
+                    typeId == RecordFormat.TYPE_BLE_VALUE ? 14 : 20;
+            if (!ensure(p + 4)) {
+                return false;
+            }
+            int count = buffer.getInt(position + p);
+            if (count < 0) {
+                throw malformedBinary();
+            }
+            recordLength = p + 4 + count;
+        } else {
+            throw malformedBinary();
+        }
+
+        if (!ensure(recordLength)) {
+            return false;
+        }
+        length = recordLength;
+        skipped = true;
+        return true;
+    }
+
+    private boolean isFrame() {
+        return typeId == RecordFormat.TYPE_START || typeId == RecordFormat.TYPE_END;
+    }
+
+    private boolean nextBinaryFrame() throws IOException {
+        if (!ensure(8)) {
+            return false;
+        }
+        int magicLength = buffer.getInt(position + 4);
+        if (magicLength < 0 || magicLength > MAXIMUM_MAGIC_LENGTH) {
+            throw malformedBinary();
+        }
+
+        int p = 8 + magicLength;
+        int frameLength = p + (typeId == RecordFormat.TYPE_START ? 20 : 44);
+        if (!ensure(frameLength)) {
+            return false;
+        }
+
+        values[0] = buffer.getInt(position + p);
+        millisecond = buffer.getLong(position + p + 4);
+        timestamp = buffer.getLong(position + p + 12);
+        valueCount = 1;
+        if (typeId == RecordFormat.TYPE_END) {
+            values[1] = buffer.getLong(position + p + 20);
+            values[2] = buffer.getLong(position + p + 28);
+            values[3] = buffer.getDouble(position + p + 36);
+            valueCount = 4;
+        }
+        length = frameLength;
+        return true;
+    }
+
+    private boolean nextBinaryPayload(int p) throws IOException {
+        int count = buffer.getInt(position + p);
+        if (count < 0) {
+            throw malformedBinary();
+        }
+        if (!ensure(p + 4 + count)) {
+            return false;
+        }
+        ensurePayload(count);
+        System.arraycopy(data, position + p + 4, payload, 0, count);
+        payloadLength = count;
+        length = p + 4 + count;
+        return true;
+    }
+
+    private boolean isBinaryStart() {
+        return buffer.getShort(position) == RecordFormat.TYPE_START &&
+                buffer.getShort(position + 2) == 0;
+    }
+
+    private boolean nextText() throws IOException {
+        // Find the end of the line
+        int scanned = position;
+        while (true) {
+            int end = indexOf(NEW_LINE, scanned, limit);
+            if (end >= 0) {
+                lineEnd = end;
+                break;
+            }
+            scanned = limit - position;
+            if (!ensure(scanned + 1)) {
+                return false;
+            }
+            scanned += position;
+        }
+        length = lineEnd + 1 - position;
+
+        field = position;
+        fieldEnd = indexOf(SEPARATOR, position, lineEnd);
+        if (fieldEnd < 0) {
+            fieldEnd = lineEnd;
+        }
+        if (!parseTextPrefix(field, fieldEnd)) {
+            // Skip records that can't be attributed to any type
+            if (unrecognizedOffset < 0 && (fieldEnd - field != TEXT_UNKNOWN.length ||
+                    !equals(field, TEXT_UNKNOWN))) {
+                unrecognizedOffset = offset;
+            }
+            skipped = true;
+            return false;
+        } else if (filter != null && !isFrame() && !filter.accept(typeId, deviceId)) {
+            skipped = true;
+            return false;
+        }
+
+        if (RecordFormat.isSensorType(typeId)) {
+            millisecond = nextLong();
+            timestamp = nextLong();
+            long count = nextLong();
+            if (count < 0 || count > RecordSync.MAXIMUM_VALUES) {
+                throw malformedText();
+            }
+            ensureValues((int) count);
+            for (int i = 0; i < count; ++i) {
+                values[i] = nextDouble();
+            }
+            valueCount = (int) count;
+        } else if (RecordFormat.isAccuracyType(typeId)) {
+            millisecond = nextLong();
+            nextValues(3);
+        } else {
+            switch (typeId) {
+                case RecordFormat.TYPE_START:
+                case RecordFormat.TYPE_END:
+                    nextField();
+                    values[0] = nextLong();
+                    millisecond = nextLong();
+                    timestamp = nextLong();
+                    valueCount = 1;
+                    if (typeId == RecordFormat.TYPE_END) {
+                        values[1] = nextLong();
+                        values[2] = nextLong();
+                        values[3] = nextDouble();
+                        valueCount = 4;
+                    }
+                    break;
+                case RecordFormat.TYPE_BATTERY_VOLTAGE:
+                    millisecond = nextLong();
+                    nextValues(3);
+                    break;
+                case RecordFormat.TYPE_GPS:
+                    millisecond = nextLong();
+                    nextValues(6);
+                    timestamp = nextLong();
+                    break;
+                case RecordFormat.TYPE_GPS_NMEA:
+                    millisecond = nextLong();
+                    timestamp = nextLong();
+                    // The sentence spans to the end of the line
+                    field = fieldEnd + 1;
+                    fieldEnd = lineEnd;
+                    if (field > lineEnd) {
+                        throw malformedText();
+                    }
+                    ensurePayload(fieldEnd - field);
+                    System.arraycopy(data, field, payload, 0, fieldEnd - field);
+                    payloadLength = fieldEnd - field;
+                    break;
+                case RecordFormat.TYPE_BLE:
+                    millisecond = nextLong();
+                    uuidMostSignificantBits = nextLong();
+                    uuidLeastSignificantBits = nextLong();
+                    nextField();
+                    nextHexPayload();
+                    break;
+                case RecordFormat.TYPE_BLE_MAP:
+                    millisecond = nextLong();
+                    values[0] = nextLong();
+                    uuidMostSignificantBits = nextLong();
+                    uuidLeastSignificantBits = nextLong();
+                    valueCount = 1;
+                    break;
+                case RecordFormat.TYPE_BLE_VALUE:
+                    millisecond = nextLong();
+                    values[0] = nextLong();
+                    valueCount = 1;
+                    nextField();
+                    nextHexPayload();
+                    break;
+                case RecordFormat.TYPE_STATS:
+                    millisecond = nextLong();
+                    for (int i = 0; i < RecordFormat.STATS_COUNTERS + 2; ++i) {
+                        values[i] = nextLong();
+                    }
+                    valueCount = RecordFormat.STATS_COUNTERS + 2;
+                    break;
+                case RecordFormat.TYPE_GAP:
+                    millisecond = nextLong();
+                    values[0] = nextLong();
+                    values[1] = nextLong();
+                    timestamp = nextLong();
+                    values[2] = nextLong();
+                    values[3] = nextLong();
+                    valueCount = 4;
+                    break;
+                default:
+                    // Skip records of known prefix but unknown layout
+                    skipped = true;
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean parseTextPrefix(int from, int to) {
+        deviceId = 0;
+        for (int i = 0; i < TEXT_OTHER_PREFIXES.length; ++i) {
+            byte[] prefix = TEXT_OTHER_PREFIXES[i];
+            if (to - from == prefix.length && equals(from, prefix)) {
+                typeId = TEXT_OTHER_TYPES[i];
+                return true;
+            }
+        }
+
+        // Device specific prefixes are in form name_device[_acc]
+        int underscore = indexOf((byte) '_', from, to);
+        if (underscore < 0) {
+            return false;
+        }
+        int digitsEnd = underscore + 1;
+        int device = 0;
+        while (digitsEnd < to && data[digitsEnd] >= '0' && data[digitsEnd] <= '9') {
+            device = device * 10 + (data[digitsEnd++] - '0');
+        }
+        if (digitsEnd == underscore + 1) {
+            return false;
+        }
+        deviceId = (short) device;
+
+        boolean accuracy = false;
+        if (digitsEnd != to) {
+            if (to - digitsEnd != TEXT_ACCURACY.length || !equals(digitsEnd, TEXT_ACCURACY)) {
+                return false;
+            }
+            accuracy = true;
+        }
+
+        int nameLength = underscore - from;
+        if (!accuracy && nameLength == TEXT_BLE.length && equals(from, TEXT_BLE)) {
+            typeId = RecordFormat.TYPE_BLE;
+            return true;
+        } else if (!accuracy && nameLength == TEXT_BLE_MAP.length &&
+                equals(from, TEXT_BLE_MAP)) {
+            typeId = RecordFormat.TYPE_BLE_MAP;
+            return true;
+        } else if (!accuracy && nameLength == TEXT_BLE_VALUE.length &&
+                equals(from, TEXT_BLE_VALUE)) {
+            typeId = RecordFormat.TYPE_BLE_VALUE;
+            return true;
+        }
+
+        for (int i = 1; i < TEXT_SENSOR_PREFIXES.length; ++i) {
+            byte[] prefix = TEXT_SENSOR_PREFIXES[i];
+            if (nameLength == prefix.length && equals(from, prefix)) {
+                typeId = accuracy ? RecordFormat.getSensorAccuracyId(i) :
+                        RecordFormat.getSensorTypeId(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void nextField() throws IOException {
+        if (fieldEnd >= lineEnd) {
+            throw malformedText();
+        }
+        field = fieldEnd + 1;
+        fieldEnd = indexOf(SEPARATOR, field, lineEnd);
+        if (fieldEnd < 0) {
+            fieldEnd = lineEnd;
+        }
+    }
+
+    private void nextValues(int count) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            values[i] = nextDouble();
+        }
+        valueCount = count;
+    }
+
+    private long nextLong() throws IOException {
+        nextField();
+        try {
+            return AsciiParser.parseLong(data, field, fieldEnd);
+        } catch (NumberFormatException ex) {
+            throw malformedText();
+        }
+    }
+
+    private double nextDouble() throws IOException {
+        nextField();
+        try {
+            return AsciiParser.parseDouble(data, field, fieldEnd);
+        } catch (NumberFormatException ex) {
+            throw malformedText();
+        }
+    }
+
+    private void nextHexPayload() throws IOException {
+        int count = (fieldEnd - field) / 2;
+        if ((fieldEnd - field) % 2 != 0) {
+            throw malformedText();
+        }
+        ensurePayload(count);
+        for (int i = 0, p = field; i < count; ++i, p += 2) {
+            int high = AsciiParser.hexDigit(data[p]);
+            int low = AsciiParser.hexDigit(data[p + 1]);
+            if (high < 0 || low < 0) {
+                throw malformedText();
+            }
+            payload[i] = (byte) ((high << 4) | low);
+        }
+        payloadLength = count;
+    }
+
+    private IOException malformedText() {
+        return new IOException("Malformed text record at offset " + offset);
+    }
+
+    private IOException malformedBinary() {
+        return new IOException("Malformed binary record of type " + typeId +
+                " at offset " + offset);
+    }
+
+    /**
+     * Ensures that the given number of bytes past the current position is
+     * available in the buffer, reading more from the channel if needed.
+     * Reading may move the data in the buffer but the current record
+     * position is always kept.
+     */
+    private boolean ensure(int count) throws IOException {
+        if (limit - position >= count) {
+            return true;
+        }
+        if (count > data.length) {
+            throw new IOException("Record at offset " + offset + " exceeds buffer size");
+        }
+
+        if (channel != null) {
+            if (position > 0) {
+                System.arraycopy(data, position, data, 0, limit - position);
+                bufferOffset += position;
+                limit -= position;
+                position = 0;
+            }
+
+            while (limit < count) {
+                buffer.limit(data.length);
+                buffer.position(limit);
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                limit += read;
+            }
+            buffer.clear();
+        }
+
+        if (limit - position >= count) {
+            return true;
+        } else {
+            truncated = limit > position;
+            return false;
+        }
+    }
+
+    private void ensureValues(int count) {
+        if (values.length < count) {
+            values = new double[Math.max(count, values.length * 2)];
+        }
+    }
+
+    private void ensurePayload(int count) {
+        if (payload.length < count) {
+            payload = new byte[Math.max(count, payload.length * 2)];
+        }
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        return AsciiParser.indexOf(data, b, from, to);
+    }
+
+    private boolean equals(int p, byte[] bytes) {
+        return AsciiParser.equals(data, p, bytes);
+    }
+
+    /**
+     * Selects the records visited by a cursor by their type and device.
+     */
+    public interface Filter {
+        boolean accept(short typeId, short deviceId);
+    }
+}
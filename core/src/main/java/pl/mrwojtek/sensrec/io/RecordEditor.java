@@ -0,0 +1,659 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Cuts recordings by time and concatenates them without decoding the
+ * records. Only the record boundaries at the cut points are located, with
+ * the sidecar index if it's up to date or by bisection of the file
+ * otherwise, and the records in between are copied with
+ * {@link FileChannel#transferTo}. Each written recording gets fresh start
+ * and end frames. A segment cut from the middle of a recording is preceded
+ * by the BLE channel mappings in effect at its beginning, so that the
+ * characteristic values it contains can be resolved.
+ *
+ * <p>Times are given in milliseconds since the start frame of a recording.
+ * A cut is placed before the first record at or after the cut time, so
+ * records of different channels that were written slightly out of order
+ * stay together.
+ */
+public class RecordEditor implements Closeable {
+
+    /**
+     * Bisection stops at a record this much earlier than the cut time, so
+     * that the forward scan doesn't miss records written out of order.
+     */
+    protected static final long SEEK_SLACK = 5000;
+    protected static final int SEEK_GRANULARITY = 256 * 1024;
+    protected static final int TAIL_SIZE = 64 * 1024;
+    protected static final int PROBE_RECORDS = 4;
+    protected static final long MAXIMUM_DURATION = 10L * 365 * 24 * 3600 * 1000;
+
+    private static final byte[] MAGIC_WORD = RecordFormat.MAGIC_WORD.getBytes();
+
+    private File recording;
+    private FileInputStream stream;
+    private FileChannel channel;
+    private RecordCursor cursor = new RecordCursor();
+    private RecordSync sync = new RecordSync();
+    private RecordIndex index;
+    private Segment whole;
+    private MappingFilter mappingFilter = new MappingFilter();
+    private Map<Integer, long[]> mappings = new TreeMap<>();
+    private long mappingsEnd = -1;
+
+    /**
+     * Opens a recording for cutting. The start frame is read and the end of
+     * the complete records is located from the tail of the file.
+     *
+     * @param recording recording file
+     * @throws IOException when recording can't be read or has no start frame
+     */
+    public RecordEditor(File recording) throws IOException {
+        this.recording = recording;
+        stream = new FileInputStream(recording);
+        try {
+            channel = stream.getChannel();
+            whole = readWhole();
+            index = loadIndex();
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        cursor.close();
+        if (stream != null) {
+            stream.close();
+            stream = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * Gets the segment of all the complete records of the recording.
+     */
+    public Segment getSegment() {
+        return whole;
+    }
+
+    /**
+     * Cuts the records of a time range.
+     *
+     * @param from start of the range in milliseconds since the start frame
+     * @param to end of the range in milliseconds since the start frame,
+     *           exclusive
+     * @return segment of the records in the range
+     * @throws IOException on read error
+     */
+    public Segment trim(long from, long to) throws IOException {
+        if (from <= 0 && to == Long.MAX_VALUE) {
+            return whole;
+        }
+
+        long start = whole.startMillisecond + Math.max(0, from);
+        long end = to == Long.MAX_VALUE ? Long.MAX_VALUE : whole.startMillisecond + to;
+        Segment segment = new Segment(whole);
+        segment.begin = find(start, whole.begin);
+        segment.end = Math.max(segment.begin, find(end, segment.begin));
+        segment.startMillisecond = start;
+        segment.endMillisecond = Math.max(start, Math.min(end,
+                lastMillisecond(segment.begin, segment.end, start)));
+        segment.startTimestamp = whole.startTimestamp + (start - whole.startMillisecond);
+        segment.endTimestamp = whole.startTimestamp +
+                (segment.endMillisecond - whole.startMillisecond);
+        segment.duration = segment.endMillisecond - segment.startMillisecond;
+        segment.movingDuration = 0;
+        segment.distance = -1.0;
+        if (segment.begin > whole.begin) {
+            segment.mappings = mappings(segment.begin, segment.startMillisecond);
+        }
+        return segment;
+    }
+
+    /**
+     * Splits the recording into consecutive segments of the same length.
+     *
+     * @param interval segment length in milliseconds
+     * @return segments, at least one
+     * @throws IOException on read error
+     */
+    public List<Segment> split(long interval) throws IOException {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Split interval must be positive");
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        for (long from = 0; ; from += interval) {
+            Segment segment = trim(from, from + interval);
+            segments.add(segment);
+            if (segment.end >= whole.end) {
+                return segments;
+            }
+        }
+    }
+
+    /**
+     * Writes segments of recordings of the same format into a new
+     * recording. Start frame is based on the first segment and the end
+     * frame on the last one, both with the newest version of the segments
+     * since the data of every segment is copied as it is. Durations, moving
+     * durations and distances are summed, distance is unknown if it's
+     * unknown for any of the segments.
+     *
+     * <p>Times are not rebased, so every segment has to start no earlier
+     * than the previous one ends. Recordings made after a reboot start
+     * their clock over and can't be joined with the earlier ones.
+     *
+     * @param output recording file to write
+     * @param segments segments to write
+     * @return number of bytes written
+     * @throws IOException on read or write error or when the times of the
+     * segments overlap or go backwards
+     */
+    public static long write(File output, List<Segment> segments) throws IOException {
+        if (segments.isEmpty()) {
+            throw new IllegalArgumentException("No segments to write");
+        }
+
+        Segment first = segments.get(0);
+        Segment last = segments.get(segments.size() - 1);
+        long duration = 0;
+        long movingDuration = 0;
+        double distance = 0.0;
+        int version = first.version;
+        Segment previous = null;
+        for (Segment segment : segments) {
+            if (segment.binary != first.binary) {
+                throw new IOException("Can't join binary and text recordings");
+            } else if (previous != null &&
+                    segment.startMillisecond < previous.endMillisecond) {
+                throw new IOException("Segment of " + segment.file +
+                        " starts before the previous one ends");
+            }
+            previous = segment;
+            version = Math.max(version, segment.version);
+            duration += segment.duration;
+            movingDuration += segment.movingDuration;
+            distance = distance < 0.0 || segment.distance < 0.0 ? -1.0 :
+                    distance + segment.distance;
+        }
+
+        FileOutputStream fos = new FileOutputStream(output);
+        try {
+            FileChannel out = fos.getChannel();
+            long written = writeFully(out, frame(first.binary, RecordFormat.TYPE_START,
+                    version, first.startMillisecond, first.startTimestamp, 0, 0, 0.0));
+            for (Segment segment : segments) {
+                if (segment.mappings != null) {
+                    written += writeFully(out, segment.mappings);
+                }
+                written += transfer(segment, out);
+            }
+            written += writeFully(out, frame(first.binary, RecordFormat.TYPE_END,
+                    version, last.endMillisecond, last.endTimestamp, duration,
+                    movingDuration, distance));
+            return written;
+        } finally {
+            fos.close();
+        }
+    }
+
+    private Segment readWhole() throws IOException {
+        cursor.open(channel);
+        if (!cursor.next() || cursor.getTypeId() != RecordFormat.TYPE_START) {
+            throw new IOException("Missing start frame");
+        }
+
+        Segment segment = new Segment(recording);
+        segment.binary = cursor.isBinary();
+        segment.version = (int) cursor.getDouble(0);
+        segment.startMillisecond = cursor.getMillisecond();
+        segment.startTimestamp = cursor.getTimestamp();
+        segment.begin = cursor.getOffset() + cursor.getLength();
+        segment.endMillisecond = segment.startMillisecond;
+
+        // Scan the tail for the last complete record and the end frame
+        long length = channel.size();
+        long tail = sync.findBoundary(channel, segment.binary,
+                Math.max(segment.begin, length - TAIL_SIZE), length);
+        while (tail < length && probe(tail, segment.binary,
+                segment.startMillisecond - SEEK_SLACK,
+                segment.startMillisecond + MAXIMUM_DURATION) < 0) {
+            tail = sync.findBoundary(channel, segment.binary, tail + 1, length);
+        }
+        if (tail >= length) {
+            tail = segment.begin;
+        }
+        open(tail, segment.binary);
+        segment.end = tail;
+        try {
+            while (cursor.next()) {
+                short typeId = cursor.getTypeId();
+                if (typeId == RecordFormat.TYPE_END) {
+                    segment.endMillisecond = cursor.getMillisecond();
+                    segment.endTimestamp = cursor.getTimestamp();
+                    segment.duration = (long) cursor.getDouble(1);
+                    segment.movingDuration = (long) cursor.getDouble(2);
+                    segment.distance = cursor.getDouble(3);
+                    segment.complete = true;
+                    return segment;
+                } else if (typeId != RecordFormat.TYPE_START) {
+                    segment.endMillisecond = Math.max(segment.endMillisecond,
+                            cursor.getMillisecond());
+                }
+                segment.end = cursor.getOffset() + cursor.getLength();
+            }
+        } catch (IOException ex) {
+            // Malformed tail, keep the records read so far
+        }
+
+        segment.endTimestamp = segment.startTimestamp +
+                (segment.endMillisecond - segment.startMillisecond);
+        segment.duration = segment.endMillisecond - segment.startMillisecond;
+        segment.distance = -1.0;
+        return segment;
+    }
+
+    private RecordIndex loadIndex() {
+        File indexFile = RecordIndex.getIndexFile(recording);
+        if (indexFile.exists()) {
+            try {
+                RecordIndex index = RecordIndex.load(indexFile);
+                if (index.getDataLength() == recording.length()) {
+                    return index;
+                }
+            } catch (IOException ex) {
+                // Bisect instead
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the offset of the first record at or after a time.
+     *
+     * @param millisecond time of the cut
+     * @param from offset of a record boundary to search from
+     * @return offset of the record or the end of the data if there is none
+     * @throws IOException on read error
+     */
+    private long find(long millisecond, long from) throws IOException {
+        if (millisecond == Long.MAX_VALUE) {
+            return whole.end;
+        }
+
+        long offset = Math.max(from, seek(millisecond, from));
+        if (offset >= whole.end) {
+            return whole.end;
+        }
+        open(offset, whole.binary);
+        while (cursor.getOffset() + cursor.getLength() < whole.end && cursor.next()) {
+            short typeId = cursor.getTypeId();
+            if (typeId != RecordFormat.TYPE_START && typeId != RecordFormat.TYPE_END &&
+                    cursor.getMillisecond() >= millisecond) {
+                return cursor.getOffset();
+            }
+        }
+        return whole.end;
+    }
+
+    /**
+     * Finds an offset of a record boundary from which a scan visits all the
+     * records at or after a time.
+     */
+    private long seek(long millisecond, long from) throws IOException {
+        if (index != null) {
+            long offset = index.findOffset(millisecond);
+            return offset >= 0 ? offset : whole.end;
+        }
+
+        long low = from;
+        long high = whole.end;
+        while (high - low > SEEK_GRANULARITY) {
+            long middle = low + (high - low) / 2;
+            long boundary = sync.findBoundary(channel, whole.binary, middle, high);
+            long probed = probe(boundary, high);
+            while (probed < 0) {
+                boundary = sync.findBoundary(channel, whole.binary, boundary + 1, high);
+                probed = probe(boundary, high);
+            }
+            if (boundary >= high) {
+                high = middle;
+            } else if (probed < millisecond - SEEK_SLACK) {
+                low = boundary;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private long probe(long boundary, long high) throws IOException {
+        if (boundary >= high) {
+            return Long.MAX_VALUE;
+        }
+        return probe(boundary, whole.binary, whole.startMillisecond - SEEK_SLACK,
+                whole.endMillisecond + SEEK_SLACK);
+    }
+
+    /**
+     * Reads time of the first record at a boundary. Data that merely looks
+     * like a chain of records is recognized by the times of the records
+     * being out of the range of the recording.
+     *
+     * @return record millisecond, {@link Long#MAX_VALUE} if there are no
+     * more records or <code>-1</code> if it's not a boundary
+     */
+    private long probe(long offset, boolean binary, long minimum, long maximum)
+            throws IOException {
+        open(offset, binary);
+        long millisecond = Long.MAX_VALUE;
+        try {
+            for (int i = 0; i < PROBE_RECORDS && cursor.next(); ) {
+                short typeId = cursor.getTypeId();
+                if (typeId == RecordFormat.TYPE_START || typeId == RecordFormat.TYPE_END) {
+                    continue;
+                }
+                long current = cursor.getMillisecond();
+                if (current < minimum || current > maximum) {
+                    return -1;
+                }
+                if (i++ == 0) {
+                    millisecond = current;
+                }
+            }
+        } catch (IOException ex) {
+            return -1;
+        }
+        return millisecond;
+    }
+
+    private long lastMillisecond(long begin, long end, long millisecond) throws IOException {
+        long offset = begin;
+        if (end - TAIL_SIZE > begin) {
+            offset = sync.findBoundary(channel, whole.binary, end - TAIL_SIZE, end);
+        }
+        open(offset, whole.binary);
+        while (cursor.getOffset() + cursor.getLength() < end && cursor.next()) {
+            short typeId = cursor.getTypeId();
+            if (typeId != RecordFormat.TYPE_START && typeId != RecordFormat.TYPE_END) {
+                millisecond = Math.max(millisecond, cursor.getMillisecond());
+            }
+        }
+        return millisecond;
+    }
+
+    /**
+     * Encodes the BLE channel mappings in effect at an offset, that is the
+     * last mapping of each channel of each device before it. Scans with
+     * growing offsets, like the ones of a split, continue the previous one.
+     *
+     * @param end offset of a record boundary
+     * @param millisecond time of the encoded mapping records
+     * @return mapping records or <code>null</code> if there are none
+     */
+    private byte[] mappings(long end, long millisecond) throws IOException {
+        if (end < mappingsEnd || mappingsEnd < whole.begin) {
+            mappings.clear();
+            mappingsEnd = whole.begin;
+        }
+
+        if (end > mappingsEnd) {
+            open(mappingsEnd, whole.binary);
+            mappingFilter.end = end;
+            cursor.setFilter(mappingFilter);
+            try {
+                while (cursor.next() && cursor.getOffset() < end) {
+                    if (cursor.getTypeId() == RecordFormat.TYPE_BLE_MAP) {
+                        int channel = (int) cursor.getDouble(0);
+                        mappings.put((cursor.getDeviceId() << 16) | channel, new long[] {
+                                cursor.getUuidMostSignificantBits(),
+                                cursor.getUuidLeastSignificantBits() });
+                    }
+                }
+            } finally {
+                cursor.setFilter(null);
+            }
+            mappingsEnd = end;
+        }
+
+        if (mappings.isEmpty()) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Map.Entry<Integer, long[]> entry : mappings.entrySet()) {
+            int key = entry.getKey();
+            bytes.write(mapping(whole.binary, (short) (key >>> 16), millisecond,
+                    (short) (key & 0xffff), entry.getValue()[0], entry.getValue()[1]));
+        }
+        return bytes.toByteArray();
+    }
+
+    private void open(long offset, boolean binary) throws IOException {
+        channel.position(offset);
+        cursor.open(channel, offset, binary);
+    }
+
+    private static long transfer(Segment segment, FileChannel out) throws IOException {
+        FileInputStream fis = new FileInputStream(segment.file);
+        try {
+            FileChannel in = fis.getChannel();
+            long position = segment.begin;
+            while (position < segment.end) {
+                long transferred = in.transferTo(position, segment.end - position, out);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of " + segment.file);
+                }
+                position += transferred;
+            }
+            return segment.end - segment.begin;
+        } finally {
+            fis.close();
+        }
+    }
+
+    private static long writeFully(FileChannel out, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        return data.length;
+    }
+
+    /**
+     * Encodes a start or end frame the same way the recorder does.
+     */
+    protected static byte[] frame(boolean binary, short typeId, int version, long millisecond,
+                                  long timestamp, long duration, long movingDuration,
+                                  double distance) throws IOException {
+        if (!binary) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(RecordFormat.getTypePrefix(typeId, (short) 0))
+                    .append(RecordFormat.SEPARATOR).append(RecordFormat.MAGIC_WORD)
+                    .append(RecordFormat.SEPARATOR).append(version)
+                    .append(RecordFormat.SEPARATOR).append(millisecond)
+                    .append(RecordFormat.SEPARATOR).append(timestamp);
+            if (typeId == RecordFormat.TYPE_END) {
+                builder.append(RecordFormat.SEPARATOR).append(duration)
+                        .append(RecordFormat.SEPARATOR).append(movingDuration)
+                        .append(RecordFormat.SEPARATOR).append(distance);
+            }
+            builder.append(RecordFormat.NEW_LINE);
+            return builder.toString().getBytes();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + MAGIC_WORD.length);
+        DataOutputStream dos = new DataOutputStream(bytes);
+        dos.writeShort(typeId);
+        dos.writeShort(0);
+        dos.writeInt(MAGIC_WORD.length);
+        dos.write(MAGIC_WORD);
+        dos.writeInt(version);
+        dos.writeLong(millisecond);
+        dos.writeLong(timestamp);
+        if (typeId == RecordFormat.TYPE_END) {
+            dos.writeLong(duration);
+            dos.writeLong(movingDuration);
+            dos.writeDouble(distance);
+        }
+        dos.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes a BLE channel mapping the same way the recorder does.
+     */
+    protected static byte[] mapping(boolean binary, short deviceId, long millisecond,
+                                    short channel, long most, long least) throws IOException {
+        if (!binary) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(RecordFormat.getTypePrefix(RecordFormat.TYPE_BLE_MAP, deviceId))
+                    .append(RecordFormat.SEPARATOR).append(millisecond)
+                    .append(RecordFormat.SEPARATOR).append(channel)
+                    .append(RecordFormat.SEPARATOR).append(most)
+                    .append(RecordFormat.SEPARATOR).append(least)
+                    .append(RecordFormat.NEW_LINE);
+            return builder.toString().getBytes();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RecordFormat.BLE_MAP_LENGTH);
+        DataOutputStream dos = new DataOutputStream(bytes);
+        dos.writeShort(RecordFormat.TYPE_BLE_MAP);
+        dos.writeShort(deviceId);
+        dos.writeLong(millisecond);
+        dos.writeShort(channel);
+        dos.writeLong(most);
+        dos.writeLong(least);
+        dos.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Visits the BLE channel mappings and the first record at or past the
+     * end of a scan.
+     */
+    private class MappingFilter implements RecordCursor.Filter {
+
+        private long end;
+
+        @Override
+        public boolean accept(short typeId, short deviceId) {
+            return typeId == RecordFormat.TYPE_BLE_MAP || cursor.getOffset() >= end;
+        }
+    }
+
+    /**
+     * Byte range of the records of a recording together with the values of
+     * the frames that enclose it.
+     */
+    public static class Segment {
+
+        private File file;
+        private boolean binary;
+        private boolean complete;
+        private int version;
+        private long begin;
+        private long end;
+        private long startMillisecond;
+        private long startTimestamp;
+        private long endMillisecond;
+        private long endTimestamp;
+        private long duration;
+        private long movingDuration;
+        private double distance;
+        private byte[] mappings;
+
+        private Segment(File file) {
+            this.file = file;
+        }
+
+        private Segment(Segment segment) {
+            this.file = segment.file;
+            this.binary = segment.binary;
+            this.version = segment.version;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public boolean isBinary() {
+            return binary;
+        }
+
+        /**
+         * Tells whether the segment is a whole recording that ends with an
+         * end frame.
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        public long getBegin() {
+            return begin;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getLength() {
+            return end - begin;
+        }
+
+        public long getStartMillisecond() {
+            return startMillisecond;
+        }
+
+        public long getEndMillisecond() {
+            return endMillisecond;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Gets travelled distance in meters.
+         *
+         * @return distance or <code>-1</code> if it's unknown
+         */
+        public double getDistance() {
+            return distance;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import java.io.File;
+
+/**
+ * Constants and naming rules of the recording format shared by the binary
+ * and text encodings. This class does not depend on the Android framework
+ * so it can be used by the desktop tools as well.
+ */
+public class RecordFormat {
+
+    public static final short TYPE_START = -1;
+    public static final short TYPE_PAUSE = -2;
+    public static final short TYPE_END = -3;
+    public static final short TYPE_DEVICE = -4;
+    public static final short TYPE_BATTERY_VOLTAGE = -5;
+    public static final short TYPE_GPS = -6;
+    public static final short TYPE_GPS_NMEA = -7;
+    public static final short TYPE_BLE = -8;
+    public static final short TYPE_STATS = -9;
+    public static final short TYPE_GAP = -10;
+    public static final short TYPE_BLE_MAP = -11;
+    public static final short TYPE_BLE_VALUE = -12;
+
+    // Version 1400 added the stats, gap and compact BLE records, which the
+    // readers of 13xx recordings can't skip
+    public static final int VERSION = 1400;
+
+    // Lengths in bytes of the binary records that have a fixed layout
+    public static final int ACCURACY_LENGTH = 24;
+    public static final int BATTERY_VOLTAGE_LENGTH = 24;
+    public static final int GPS_LENGTH = 56;
+    public static final int STATS_COUNTERS = 6;
+    public static final int STATS_LENGTH = 16 + 8 * STATS_COUNTERS;
+    public static final int GAP_LENGTH = 36;
+    public static final int BLE_MAP_LENGTH = 30;
+
+    public static final String MAGIC_WORD = "SensorsRecord";
+    public static final String SEPARATOR = "\t";
+    public static final String NEW_LINE = "\n";
+    public static final String PREFIX_UNKNOWN = "unknown";
+    public static final String SUFFIX_ACCURACY = "_acc";
+
+    // Extensions of the files stored next to a recording
+    private static final String[] SIDECAR_EXTENSIONS = new String[] {
+            RecordIndex.EXTENSION,
+            RecordOverview.EXTENSION
+    };
+
+    // Text prefixes of the sensor types indexed by the Android sensor type
+    private static final String[] SENSOR_PREFIXES = new String[] {
+            null,       // 0
+            "accel",    // Sensor.TYPE_ACCELEROMETER
+            "magn",     // Sensor.TYPE_MAGNETIC_FIELD
+            "orient",   // Sensor.TYPE_ORIENTATION
+            "gyro",     // Sensor.TYPE_GYROSCOPE
+            "light",    // Sensor.TYPE_LIGHT
+            "press",    // Sensor.TYPE_PRESSURE
+            "temp",     // Sensor.TYPE_TEMPERATURE
+            "prox",     // Sensor.TYPE_PROXIMITY
+            "grav",     // Sensor.TYPE_GRAVITY
+            "lacc",     // Sensor.TYPE_LINEAR_ACCELERATION
+            "rotv",     // Sensor.TYPE_ROTATION_VECTOR
+            "humi",     // Sensor.TYPE_RELATIVE_HUMIDITY
+            "amb",      // Sensor.TYPE_AMBIENT_TEMPERATURE
+            "umagn",    // Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED
+            "rotg",     // Sensor.TYPE_GAME_ROTATION_VECTOR
+            "ugyro",    // Sensor.TYPE_GYROSCOPE_UNCALIBRATED
+            "motion",   // Sensor.TYPE_SIGNIFICANT_MOTION
+            "stepd",    // Sensor.TYPE_STEP_DETECTOR
+            "stepc",    // Sensor.TYPE_STEP_COUNTER
+            "rotgeo",   // Sensor.TYPE_GEOMAGNETIC_ROTATION_VECTOR
+            "heart"     // Sensor.TYPE_HEART_RATE
+    };
+
+    public static short getSensorTypeId(int type) {
+        return (short) (type * 2);
+    }
+
+    public static short getSensorAccuracyId(int type) {
+        return (short) (type * 2 + 1);
+    }
+
+    public static boolean isSensorType(short typeId) {
+        return typeId > 0 && typeId % 2 == 0;
+    }
+
+    public static boolean isAccuracyType(short typeId) {
+        return typeId > 0 && typeId % 2 == 1;
+    }
+
+    /**
+     * Tells whether a record type carries Bluetooth LE characteristics. Such
+     * records are specific to the device they were received from.
+     *
+     * @param typeId record type id
+     * @return <code>true</code> for characteristic values and mappings
+     */
+    public static boolean isBleType(short typeId) {
+        return typeId == TYPE_BLE || typeId == TYPE_BLE_MAP || typeId == TYPE_BLE_VALUE;
+    }
+
+    public static boolean isSupportedVersion(int version) {
+        return version == 1200 || (version / 100) == 13 || version == VERSION;
+    }
+
+    /**
+     * Tells whether a file is a sidecar of some recording rather than a
+     * recording itself.
+     *
+     * @param fileName name of the file
+     * @return <code>true</code> for sidecar files
+     */
+    public static boolean isSidecar(String fileName) {
+        for (String extension : SIDECAR_EXTENSIONS) {
+            if (fileName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lists sidecar files a recording may have. Files need not exist.
+     *
+     * @param recording recording file
+     * @return possible sidecar files
+     */
+    public static File[] getSidecars(File recording) {
+        File[] files = new File[SIDECAR_EXTENSIONS.length];
+        for (int i = 0; i < files.length; ++i) {
+            files[i] = new File(recording.getPath() + SIDECAR_EXTENSIONS[i]);
+        }
+        return files;
+    }
+
+    /**
+     * Number of Android sensor types that have a known text prefix.
+     *
+     * @return exclusive upper bound of the named sensor types
+     */
+    public static int getSensorTypeCount() {
+        return SENSOR_PREFIXES.length;
+    }
+
+    public static String getTypePrefix(short typeId, short deviceId) {
+        return appendTypePrefix(new StringBuilder(), typeId, deviceId).toString();
+    }
+
+    /**
+     * Appends the text prefix of a record type without formatting an
+     * intermediate string, so text records can be encoded allocation free.
+     *
+     * @param builder builder to append to
+     * @param typeId record type id
+     * @param deviceId record device id
+     * @return the builder
+     */
+    public static StringBuilder appendTypePrefix(StringBuilder builder, short typeId,
+                                                 short deviceId) {
+        if (typeId == TYPE_BLE) {
+            return builder.append("ble_").append(deviceId);
+        } else if (typeId == TYPE_BLE_MAP) {
+            return builder.append("blemap_").append(deviceId);
+        } else if (typeId == TYPE_BLE_VALUE) {
+            return builder.append("bleval_").append(deviceId);
+        } else if (typeId < 0) {
+            return builder.append(getOtherTypePrefix(typeId, deviceId));
+        }
+
+        String prefix = getSensorTypePrefix((short) (typeId / 2));
+        builder.append(prefix);
+        if (!PREFIX_UNKNOWN.equals(prefix)) {
+            builder.append('_').append(deviceId);
+            if (typeId % 2 != 0) {
+                builder.append(SUFFIX_ACCURACY);
+            }
+        }
+        return builder;
+    }
+
+    public static String getOtherTypePrefix(short typeId, short deviceId) {
+        switch (typeId) {
+            case TYPE_START:
+                return "start";
+            case TYPE_PAUSE:
+                return "pause";
+            case TYPE_END:
+                return "end";
+            case TYPE_DEVICE:
+                return "device";
+            case TYPE_BATTERY_VOLTAGE:
+                return "bat";
+            case TYPE_GPS:
+                return "gps";
+            case TYPE_GPS_NMEA:
+                return "nmea";
+            case TYPE_BLE:
+                return String.format("ble_%d", deviceId);
+            case TYPE_STATS:
+                return "stats";
+            case TYPE_GAP:
+                return "gap";
+            case TYPE_BLE_MAP:
+                return String.format("blemap_%d", deviceId);
+            case TYPE_BLE_VALUE:
+                return String.format("bleval_%d", deviceId);
+            default:
+                return PREFIX_UNKNOWN;
+        }
+    }
+
+    public static String getSensorTypePrefix(short type) {
+        if (type > 0 && type < SENSOR_PREFIXES.length) {
+            return SENSOR_PREFIXES[type];
+        } else {
+            return PREFIX_UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Sparse time index of a recording. For every channel the index keeps the
+ * file offset and the millisecond of the first record and then of a record
+ * every {@link #getInterval()} milliseconds, together with the number of
+ * samples and the first and last millisecond of a channel. Start and end
+ * frames are not indexed.
+ *
+ * <p>The index is stored in a sidecar file next to the recording and can
+ * always be rebuilt from the recording data.
+ */
+public class RecordIndex {
+
+    public static final String EXTENSION = ".idx";
+    public static final long DEFAULT_INTERVAL = 1000;
+
+    protected static final int MAGIC = 0x53524958;
+    protected static final int VERSION = 1;
+
+    protected static final byte TAG_CHECKPOINT = 1;
+    protected static final byte TAG_CHANNEL = 2;
+    protected static final byte TAG_END = 3;
+
+    private boolean binary;
+    private long interval;
+    private long dataLength = -1;
+    private ChannelMap channelMap = new ChannelMap();
+    private Channel[] channels = new Channel[16];
+
+    public RecordIndex(boolean binary, long interval) {
+        this.binary = binary;
+        this.interval = interval;
+    }
+
+    public static File getIndexFile(File recording) {
+        return new File(recording.getPath() + EXTENSION);
+    }
+
+    /**
+     * Loads the sidecar index of a recording if it is complete and up to
+     * date, otherwise the index is rebuilt from the recording data.
+     *
+     * @param recording recording file
+     * @param save whether a rebuilt index should be stored as a sidecar
+     * @return recording index
+     * @throws IOException when recording can't be read
+     */
+    public static RecordIndex open(File recording, boolean save) throws IOException {
+        File indexFile = getIndexFile(recording);
+        if (indexFile.exists()) {
+            try {
+                RecordIndex index = load(indexFile);
+                if (index.getDataLength() == recording.length()) {
+                    return index;
+                }
+            } catch (IOException ex) {
+                // Rebuild below
+            }
+        }
+
+        RecordIndex index = build(recording, DEFAULT_INTERVAL);
+        if (save) {
+            index.save(indexFile);
+        }
+        return index;
+    }
+
+    /**
+     * Builds index by scanning all the records of a recording.
+     *
+     * @param recording recording file
+     * @param interval minimum distance between checkpoints of a channel
+     * @return recording index
+     * @throws IOException when recording can't be read
+     */
+    public static RecordIndex build(File recording, long interval) throws IOException {
+        RecordCursor cursor = new RecordCursor();
+        try {
+            cursor.open(recording);
+            RecordIndex index = new RecordIndex(cursor.isBinary(), interval);
+            while (cursor.next()) {
+                index.add(cursor.getTypeId(), cursor.getDeviceId(), cursor.getOffset(),
+                        cursor.getMillisecond());
+            }
+            // Torn tail is counted too, so the index matches the file length
+            index.setDataLength(cursor.getReadLength());
+            return index;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public static RecordIndex load(File indexFile) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(indexFile)));
+        try {
+            return read(dis);
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Reads index from a stream. Index that lacks the end tag, like one left
+     * by an interrupted recording, is returned with a data length of
+     * <code>-1</code>.
+     *
+     * @param dis input stream
+     * @return index read
+     * @throws IOException on read error or invalid index header
+     */
+    public static RecordIndex read(DataInputStream dis) throws IOException {
+        if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+            throw new IOException("Invalid record index header");
+        }
+
+        RecordIndex index = new RecordIndex(dis.readBoolean(), dis.readLong());
+        try {
+            while (true) {
+                byte tag = dis.readByte();
+                short typeId = 0;
+                short deviceId = 0;
+                if (tag == TAG_CHECKPOINT || tag == TAG_CHANNEL) {
+                    typeId = dis.readShort();
+                    deviceId = dis.readShort();
+                }
+
+                if (tag == TAG_CHECKPOINT) {
+                    long offset = dis.readLong();
+                    long millisecond = dis.readLong();
+                    index.getOrCreate(typeId, deviceId).addCheckpoint(offset, millisecond);
+                } else if (tag == TAG_CHANNEL) {
+                    Channel channel = index.getOrCreate(typeId, deviceId);
+                    channel.count = dis.readLong();
+                    channel.first = dis.readLong();
+                    channel.last = dis.readLong();
+                } else if (tag == TAG_END) {
+                    index.setDataLength(dis.readLong());
+                    return index;
+                } else {
+                    throw new IOException("Invalid record index tag " + tag);
+                }
+            }
+        } catch (EOFException ex) {
+            return index;
+        }
+    }
+
+    public void save(File indexFile) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFile)));
+        try {
+            write(dos);
+        } finally {
+            dos.close();
+        }
+    }
+
+    public void write(DataOutputStream dos) throws IOException {
+        writeHeader(dos, binary, interval);
+        for (int i = 0; i < channelMap.size(); ++i) {
+            Channel channel = channels[i];
+            for (int j = 0; j < channel.size; ++j) {
+                writeCheckpoint(dos, channel.typeId, channel.deviceId, channel.offsets[j],
+                        channel.milliseconds[j]);
+            }
+        }
+        writeEnd(dos);
+    }
+
+    protected static void writeHeader(DataOutputStream dos, boolean binary, long interval)
+            throws IOException {
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeBoolean(binary);
+        dos.writeLong(interval);
+    }
+
+    protected static void writeCheckpoint(DataOutputStream dos, short typeId, short deviceId,
+                                          long offset, long millisecond) throws IOException {
+        dos.writeByte(TAG_CHECKPOINT);
+        dos.writeShort(typeId);
+        dos.writeShort(deviceId);
+        dos.writeLong(offset);
+        dos.writeLong(millisecond);
+    }
+
+    protected void writeEnd(DataOutputStream dos) throws IOException {
+        for (int i = 0; i < channelMap.size(); ++i) {
+            Channel channel = channels[i];
+            dos.writeByte(TAG_CHANNEL);
+            dos.writeShort(channel.typeId);
+            dos.writeShort(channel.deviceId);
+            dos.writeLong(channel.count);
+            dos.writeLong(channel.first);
+            dos.writeLong(channel.last);
+        }
+        dos.writeByte(TAG_END);
+        dos.writeLong(dataLength);
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Length of the indexed recording data.
+     *
+     * @return length in bytes or <code>-1</code> if index is incomplete
+     */
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    public void setDataLength(long dataLength) {
+        this.dataLength = dataLength;
+    }
+
+    public int getChannelCount() {
+        return channelMap.size();
+    }
+
+    public Channel getChannel(int index) {
+        return channels[index];
+    }
+
+    public Channel getChannel(short typeId, short deviceId) {
+        int index = channelMap.get(typeId, deviceId);
+        return index >= 0 ? channels[index] : null;
+    }
+
+    public long getFirstMillisecond() {
+        long first = Long.MAX_VALUE;
+        for (int i = 0; i < channelMap.size(); ++i) {
+            first = Math.min(first, channels[i].first);
+        }
+        return first;
+    }
+
+    public long getLastMillisecond() {
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < channelMap.size(); ++i) {
+            last = Math.max(last, channels[i].last);
+        }
+        return last;
+    }
+
+    /**
+     * Adds a record to the index.
+     *
+     * @param typeId record type id
+     * @param deviceId record device id
+     * @param offset file offset of the record
+     * @param millisecond record millisecond
+     * @return <code>true</code> if the record became a checkpoint
+     */
+    public boolean add(short typeId, short deviceId, long offset, long millisecond) {
+        if (typeId == RecordFormat.TYPE_START || typeId == RecordFormat.TYPE_END) {
+            return false;
+        }
+
+        Channel channel = getOrCreate(typeId, deviceId);
+        if (channel.count++ == 0) {
+            channel.first = millisecond;
+        }
+        channel.last = millisecond;
+
+        if (channel.size == 0 ||
+                millisecond - channel.milliseconds[channel.size - 1] >= interval) {
+            channel.addCheckpoint(offset, millisecond);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Finds the offset from which a scan visits all the records with a
+     * millisecond not less than the given one.
+     *
+     * @param millisecond time to seek
+     * @return file offset of a record or <code>-1</code> if there are no
+     * records at or after the given time
+     */
+    public long findOffset(long millisecond) {
+        long offset = -1;
+        for (int i = 0; i < channelMap.size(); ++i) {
+            long channelOffset = channels[i].findOffset(millisecond);
+            if (channelOffset >= 0 && (offset < 0 || channelOffset < offset)) {
+                offset = channelOffset;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Finds the first checkpoint at or after the given offset. Checkpoints
+     * are known record boundaries.
+     *
+     * @param offset file offset
+     * @return offset of the checkpoint or <code>-1</code> if there is none
+     */
+    public long findBoundary(long offset) {
+        long boundary = -1;
+        for (int i = 0; i < channelMap.size(); ++i) {
+            long channelBoundary = channels[i].findBoundary(offset);
+            if (channelBoundary >= 0 && (boundary < 0 || channelBoundary < boundary)) {
+                boundary = channelBoundary;
+            }
+        }
+        return boundary;
+    }
+
+    protected Channel getOrCreate(short typeId, short deviceId) {
+        int index = channelMap.put(typeId, deviceId);
+        if (index == channels.length) {
+            Channel[] newChannels = new Channel[channels.length * 2];
+            System.arraycopy(channels, 0, newChannels, 0, channels.length);
+            channels = newChannels;
+        }
+        if (channels[index] == null) {
+            channels[index] = new Channel(typeId, deviceId);
+        }
+        return channels[index];
+    }
+
+    /**
+     * Checkpoints and statistics of a single channel.
+     */
+    public static class Channel {
+
+        private short typeId;
+        private short deviceId;
+        private long count;
+        private long first;
+        private long last;
+
+        private long[] offsets = new long[64];
+        private long[] milliseconds = new long[64];
+        private int size;
+
+        public Channel(short typeId, short deviceId) {
+            this.typeId = typeId;
+            this.deviceId = deviceId;
+        }
+
+        public short getTypeId() {
+            return typeId;
+        }
+
+        public short getDeviceId() {
+            return deviceId;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getFirstMillisecond() {
+            return first;
+        }
+
+        public long getLastMillisecond() {
+            return last;
+        }
+
+        public int getCheckpointCount() {
+            return size;
+        }
+
+        public long getCheckpointOffset(int index) {
+            return offsets[index];
+        }
+
+        public long getCheckpointMillisecond(int index) {
+            return milliseconds[index];
+        }
+
+        /**
+         * Finds the offset from which a scan visits all the records of this
+         * channel with a millisecond not less than the given one.
+         *
+         * @param millisecond time to seek
+         * @return file offset of a record or <code>-1</code> if channel has
+         * no records at or after the given time
+         */
+        public long findOffset(long millisecond) {
+            if (size == 0 || last < millisecond) {
+                return -1;
+            }
+
+            // Find the last checkpoint before the given time
+            int low = 0;
+            int high = size - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (milliseconds[middle] < millisecond) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return offsets[low];
+        }
+
+        /**
+         * Finds the first checkpoint of this channel at or after the given
+         * offset.
+         *
+         * @param offset file offset
+         * @return offset of the checkpoint or <code>-1</code> if there is none
+         */
+        public long findBoundary(long offset) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (offsets[middle] < offset) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low < size ? offsets[low] : -1;
+        }
+
+        protected void addCheckpoint(long offset, long millisecond) {
+            if (size == offsets.length) {
+                long[] newOffsets = new long[size * 2];
+                long[] newMilliseconds = new long[size * 2];
+                System.arraycopy(offsets, 0, newOffsets, 0, size);
+                System.arraycopy(milliseconds, 0, newMilliseconds, 0, size);
+                offsets = newOffsets;
+                milliseconds = newMilliseconds;
+            }
+            offsets[size] = offset;
+            milliseconds[size] = millisecond;
+            ++size;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes the sidecar index while a recording is being written. Checkpoints
+ * are appended as they are reached and the channel statistics together
+ * with the end tag are written by {@link #finish(long)}. An index that was
+ * not finished is detected by {@link RecordIndex#open(File, boolean)} and
+ * rebuilt from the recording.
+ */
+public class RecordIndexWriter implements Closeable {
+
+    private RecordIndex index;
+    private DataOutputStream writer;
+
+    public RecordIndexWriter(File recording, boolean binary) throws IOException {
+        this(recording, binary, RecordIndex.DEFAULT_INTERVAL);
+    }
+
+    public RecordIndexWriter(File recording, boolean binary, long interval) throws IOException {
+        index = new RecordIndex(binary, interval);
+        writer = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(RecordIndex.getIndexFile(recording), false)));
+        RecordIndex.writeHeader(writer, binary, interval);
+    }
+
+    public RecordIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Adds a record that was written to the recording.
+     *
+     * @param typeId record type id
+     * @param deviceId record device id
+     * @param offset file offset of the record
+     * @param millisecond record millisecond
+     * @throws IOException on index write error
+     */
+    public void add(short typeId, short deviceId, long offset, long millisecond)
+            throws IOException {
+        if (index.add(typeId, deviceId, offset, millisecond)) {
+            RecordIndex.writeCheckpoint(writer, typeId, deviceId, offset, millisecond);
+        }
+    }
+
+    /**
+     * Writes channel statistics and marks the index as complete.
+     *
+     * @param dataLength final length of the recording
+     * @throws IOException on index write error
+     */
+    public void finish(long dataLength) throws IOException {
+        index.setDataLength(dataLength);
+        index.writeEnd(writer);
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Level of detail pyramid of a recording used for plotting. For every
+ * channel with values and for every level the time is divided into
+ * buckets of {@link #getBucketSize(int)} milliseconds, by default 1 s,
+ * 10 s and 100 s, and the number of records together with the minimum,
+ * the maximum and the mean of every value is kept for each bucket.
+ *
+ * <p>The overview is stored in a sidecar file next to the recording. Only
+ * the header and the directory are read when the overview is loaded,
+ * buckets are stored in fixed size blocks, so any time range of any level
+ * is read directly with {@link #read(int, int, long, long, Buckets)}.
+ */
+public class RecordOverview implements Closeable {
+
+    public static final String EXTENSION = ".ovw";
+    public static final long[] BUCKET_SIZES = new long[] { 1000, 10000, 100000 };
+
+    protected static final int MAGIC = 0x53524f56;
+    protected static final int VERSION = 1;
+
+    private FileInputStream stream;
+    private FileChannel channel;
+    private long dataLength;
+    private long[] bucketSizes;
+    private ChannelMap channelMap = new ChannelMap();
+    private Channel[] channels;
+    private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+    private RecordOverview() {
+    }
+
+    public static File getOverviewFile(File recording) {
+        return new File(recording.getPath() + EXTENSION);
+    }
+
+    /**
+     * Loads the sidecar overview of a recording if it is up to date,
+     * otherwise the overview is built from the recording data and stored.
+     *
+     * @param recording recording file
+     * @return recording overview, it has to be closed
+     * @throws IOException when recording can't be read or overview written
+     */
+    public static RecordOverview open(File recording) throws IOException {
+        File overviewFile = getOverviewFile(recording);
+        if (overviewFile.exists()) {
+            try {
+                RecordOverview overview = load(overviewFile);
+                if (overview.getDataLength() == recording.length()) {
+                    return overview;
+                }
+                overview.close();
+            } catch (IOException ex) {
+                // Rebuild below
+            }
+        }
+
+        RecordOverviewBuilder.build(recording).write(overviewFile);
+        return load(overviewFile);
+    }
+
+    /**
+     * Loads header and directory of an overview file. The file is kept
+     * open for reading the buckets.
+     *
+     * @param overviewFile overview file
+     * @return recording overview, it has to be closed
+     * @throws IOException on read error or invalid overview header
+     */
+    public static RecordOverview load(File overviewFile) throws IOException {
+        RecordOverview overview = new RecordOverview();
+        overview.stream = new FileInputStream(overviewFile);
+        try {
+            overview.channel = overview.stream.getChannel();
+            overview.readDirectory();
+            return overview;
+        } catch (IOException | RuntimeException ex) {
+            overview.close();
+            throw ex;
+        }
+    }
+
+    private void readDirectory() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(24);
+        readFully(header, 0);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Invalid record overview header");
+        }
+        dataLength = header.getLong();
+        int levelCount = header.getInt();
+        if (levelCount < 0 || levelCount > 64) {
+            throw new IOException("Invalid record overview level count " + levelCount);
+        }
+
+        ByteBuffer levels = ByteBuffer.allocate(8 * levelCount + 4);
+        readFully(levels, 20);
+        bucketSizes = new long[levelCount];
+        for (int i = 0; i < levelCount; ++i) {
+            bucketSizes[i] = levels.getLong();
+        }
+        int channelCount = levels.getInt();
+        if (channelCount < 0 || channelCount > 65536) {
+            throw new IOException("Invalid record overview channel count " + channelCount);
+        }
+
+        long directoryStart = 24 + 8 * levelCount;
+        ByteBuffer directory = ByteBuffer.allocate((int) (getHeaderLength(levelCount,
+                channelCount) - directoryStart));
+        readFully(directory, directoryStart);
+        channels = new Channel[channelCount];
+        for (int i = 0; i < channelCount; ++i) {
+            Channel c = new Channel(directory.getShort(), directory.getShort(),
+                    directory.getInt(), levelCount);
+            for (int j = 0; j < levelCount; ++j) {
+                c.firstBuckets[j] = directory.getLong();
+                c.bucketCounts[j] = directory.getInt();
+                c.offsets[j] = directory.getLong();
+            }
+            channelMap.put(c.typeId, c.deviceId);
+            channels[i] = c;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (stream != null) {
+            stream.close();
+            stream = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * Gets length of the recording the overview was built from.
+     */
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    public int getLevelCount() {
+        return bucketSizes.length;
+    }
+
+    public long getBucketSize(int level) {
+        return bucketSizes[level];
+    }
+
+    public int getChannelCount() {
+        return channels.length;
+    }
+
+    /**
+     * Finds index of a channel.
+     *
+     * @return index of the channel or <code>-1</code> if there is no overview
+     * of the channel
+     */
+    public int findChannel(short typeId, short deviceId) {
+        return channelMap.get(typeId, deviceId);
+    }
+
+    public short getTypeId(int channel) {
+        return channels[channel].typeId;
+    }
+
+    public short getDeviceId(int channel) {
+        return channels[channel].deviceId;
+    }
+
+    public int getValueCount(int channel) {
+        return channels[channel].valueCount;
+    }
+
+    public long getFirstBucket(int channel, int level) {
+        return channels[channel].firstBuckets[level];
+    }
+
+    public int getBucketCount(int channel, int level) {
+        return channels[channel].bucketCounts[level];
+    }
+
+    /**
+     * Selects the finest level that covers the time range with no more
+     * than the given number of buckets, for example one bucket per pixel
+     * of a chart.
+     *
+     * @param from start of the time range in milliseconds
+     * @param to end of the time range in milliseconds
+     * @param maximumBuckets maximum number of buckets
+     * @return level index, the coarsest level if none fits
+     */
+    public int selectLevel(long from, long to, int maximumBuckets) {
+        for (int level = 0; level < bucketSizes.length; ++level) {
+            long count = floorDiv(to, bucketSizes[level]) - floorDiv(from, bucketSizes[level]) + 1;
+            if (count <= maximumBuckets) {
+                return level;
+            }
+        }
+        return bucketSizes.length - 1;
+    }
+
+    /**
+     * Reads buckets of a channel level that overlap the time range. Only
+     * the requested buckets are read from the file.
+     *
+     * @param channel channel index
+     * @param level level index
+     * @param from start of the time range in milliseconds
+     * @param to end of the time range in milliseconds, inclusive
+     * @param buckets buckets to read into, reused between calls
+     * @return number of buckets read
+     * @throws IOException on read error
+     */
+    public int read(int channel, int level, long from, long to, Buckets buckets)
+            throws IOException {
+        Channel c = channels[channel];
+        long bucketSize = bucketSizes[level];
+        long first = c.firstBuckets[level];
+        long start = Math.max(first, floorDiv(from, bucketSize));
+        long end = Math.min(first + c.bucketCounts[level], floorDiv(to, bucketSize) + 1);
+        int count = (int) Math.max(0, end - start);
+
+        buckets.reset(c.valueCount, bucketSize, start, count);
+        if (count == 0) {
+            return 0;
+        }
+
+        int bucketLength = getBucketLength(c.valueCount);
+        int length = count * bucketLength;
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(length);
+        }
+        buffer.clear();
+        buffer.limit(length);
+        readFully(buffer, c.offsets[level] + (start - first) * bucketLength);
+
+        int p = 0;
+        for (int i = 0; i < count; ++i) {
+            buckets.counts[i] = buffer.getInt();
+            for (int j = 0; j < 3 * c.valueCount; ++j) {
+                buckets.values[p++] = buffer.getFloat();
+            }
+        }
+        return count;
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of record overview");
+            }
+            position += read;
+        }
+        dst.flip();
+    }
+
+    protected static long getHeaderLength(int levelCount, int channelCount) {
+        return 24 + 8 * levelCount + (long) channelCount * (8 + 20 * levelCount);
+    }
+
+    protected static int getBucketLength(int valueCount) {
+        return 4 + 12 * valueCount;
+    }
+
+    protected static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? q - 1 : q;
+    }
+
+    /**
+     * Reusable result of {@link #read(int, int, long, long, Buckets)}.
+     * Statistics of empty buckets are <code>NaN</code>.
+     */
+    public static class Buckets {
+
+        private int valueCount;
+        private long bucketSize;
+        private long firstBucket;
+        private int size;
+        private int[] counts = new int[0];
+        private float[] values = new float[0];
+
+        private void reset(int valueCount, long bucketSize, long firstBucket, int size) {
+            this.valueCount = valueCount;
+            this.bucketSize = bucketSize;
+            this.firstBucket = firstBucket;
+            this.size = size;
+            if (counts.length < size) {
+                counts = new int[size];
+            }
+            if (values.length < 3 * valueCount * size) {
+                values = new float[3 * valueCount * size];
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getValueCount() {
+            return valueCount;
+        }
+
+        /**
+         * Gets the first millisecond of a bucket.
+         */
+        public long getStart(int bucket) {
+            return (firstBucket + bucket) * bucketSize;
+        }
+
+        public int getCount(int bucket) {
+            return counts[bucket];
+        }
+
+        public float getMinimum(int bucket, int value) {
+            return values[3 * (bucket * valueCount + value)];
+        }
+
+        public float getMaximum(int bucket, int value) {
+            return values[3 * (bucket * valueCount + value) + 1];
+        }
+
+        public float getMean(int bucket, int value) {
+            return values[3 * (bucket * valueCount + value) + 2];
+        }
+    }
+
+    private static class Channel {
+
+        private short typeId;
+        private short deviceId;
+        private int valueCount;
+        private long[] firstBuckets;
+        private int[] bucketCounts;
+        private long[] offsets;
+
+        public Channel(short typeId, short deviceId, int valueCount, int levelCount) {
+            this.typeId = typeId;
+            this.deviceId = deviceId;
+            this.valueCount = valueCount;
+            this.firstBuckets = new long[levelCount];
+            this.bucketCounts = new int[levelCount];
+            this.offsets = new long[levelCount];
+        }
+    }
+}
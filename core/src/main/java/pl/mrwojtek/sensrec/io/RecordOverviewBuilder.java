@@ -0,0 +1,302 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Builds the overview of a recording from its records. Records have to be
+ * added in the order of the file, a record earlier than the current bucket
+ * of its channel is counted in the current bucket.
+ *
+ * @see RecordOverview
+ */
+public class RecordOverviewBuilder {
+
+    /**
+     * Limits the number of buckets of a single level, so that a corrupted
+     * millisecond can't exhaust memory. Records past the limit are dropped.
+     */
+    public static final int MAXIMUM_BUCKETS = 1 << 24;
+
+    private long[] bucketSizes;
+    private long dataLength = -1;
+    private ChannelMap channelMap = new ChannelMap();
+    private Channel[] channels = new Channel[16];
+
+    public RecordOverviewBuilder() {
+        this(RecordOverview.BUCKET_SIZES);
+    }
+
+    public RecordOverviewBuilder(long[] bucketSizes) {
+        this.bucketSizes = bucketSizes.clone();
+    }
+
+    /**
+     * Builds overview by scanning all the records of a recording.
+     *
+     * @param recording recording file
+     * @return overview builder with all the records added
+     * @throws IOException when recording can't be read
+     */
+    public static RecordOverviewBuilder build(File recording) throws IOException {
+        RecordCursor cursor = new RecordCursor();
+        try {
+            cursor.open(recording);
+            RecordOverviewBuilder builder = new RecordOverviewBuilder();
+            while (cursor.next()) {
+                builder.add(cursor);
+            }
+            builder.setDataLength(cursor.getReadLength());
+            return builder;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    public void setDataLength(long dataLength) {
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * Adds the current record of a cursor. Start and end frames and the
+     * records without values are skipped. The number of values of a
+     * channel is taken from its first record.
+     *
+     * @param cursor cursor positioned on a record
+     */
+    public void add(RecordCursor cursor) {
+        short typeId = cursor.getTypeId();
+        if (typeId == RecordFormat.TYPE_START || typeId == RecordFormat.TYPE_END ||
+                cursor.getValueCount() == 0) {
+            return;
+        }
+
+        int index = channelMap.put(typeId, cursor.getDeviceId());
+        if (index == channels.length) {
+            Channel[] newChannels = new Channel[channels.length * 2];
+            System.arraycopy(channels, 0, newChannels, 0, channels.length);
+            channels = newChannels;
+        }
+        Channel channel = channels[index];
+        if (channel == null) {
+            channel = channels[index] = new Channel(typeId, cursor.getDeviceId(),
+                    cursor.getValueCount(), bucketSizes);
+        }
+        channel.add(cursor);
+    }
+
+    public void write(File overviewFile) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(overviewFile)));
+        try {
+            write(dos);
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * Writes overview header, the directory of the bucket blocks and the
+     * blocks themselves.
+     */
+    public void write(DataOutputStream dos) throws IOException {
+        int channelCount = channelMap.size();
+        for (int i = 0; i < channelCount; ++i) {
+            channels[i].flush();
+        }
+
+        dos.writeInt(RecordOverview.MAGIC);
+        dos.writeInt(RecordOverview.VERSION);
+        dos.writeLong(dataLength);
+        dos.writeInt(bucketSizes.length);
+        for (long bucketSize : bucketSizes) {
+            dos.writeLong(bucketSize);
+        }
+        dos.writeInt(channelCount);
+
+        long offset = RecordOverview.getHeaderLength(bucketSizes.length, channelCount);
+        for (int i = 0; i < channelCount; ++i) {
+            Channel channel = channels[i];
+            dos.writeShort(channel.typeId);
+            dos.writeShort(channel.deviceId);
+            dos.writeInt(channel.valueCount);
+            for (Level level : channel.levels) {
+                dos.writeLong(level.firstBucket);
+                dos.writeInt(level.size);
+                dos.writeLong(offset);
+                offset += (long) level.size *
+                        RecordOverview.getBucketLength(channel.valueCount);
+            }
+        }
+
+        for (int i = 0; i < channelCount; ++i) {
+            Channel channel = channels[i];
+            for (Level level : channel.levels) {
+                level.write(dos, channel.valueCount);
+            }
+        }
+    }
+
+    private static class Channel {
+
+        private short typeId;
+        private short deviceId;
+        private int valueCount;
+        private Level[] levels;
+
+        public Channel(short typeId, short deviceId, int valueCount, long[] bucketSizes) {
+            this.typeId = typeId;
+            this.deviceId = deviceId;
+            this.valueCount = valueCount;
+            this.levels = new Level[bucketSizes.length];
+            for (int i = 0; i < levels.length; ++i) {
+                levels[i] = new Level(bucketSizes[i], valueCount);
+            }
+        }
+
+        public void add(RecordCursor cursor) {
+            for (Level level : levels) {
+                level.add(cursor);
+            }
+        }
+
+        public void flush() {
+            for (Level level : levels) {
+                level.flush();
+            }
+        }
+    }
+
+    /**
+     * Buckets of a single level. Values of the current bucket are
+     * accumulated and stored when the next bucket is reached, buckets
+     * without records in between are stored empty.
+     */
+    private static class Level {
+
+        private long bucketSize;
+        private int valueCount;
+
+        // Stored buckets
+        private long firstBucket;
+        private int size;
+        private int[] counts = new int[64];
+        private float[] values;
+
+        // Current bucket
+        private long bucket;
+        private int count;
+        private float[] minimum;
+        private float[] maximum;
+        private double[] sum;
+
+        public Level(long bucketSize, int valueCount) {
+            this.bucketSize = bucketSize;
+            this.valueCount = valueCount;
+            this.values = new float[counts.length * 3 * valueCount];
+            this.minimum = new float[valueCount];
+            this.maximum = new float[valueCount];
+            this.sum = new double[valueCount];
+        }
+
+        public void add(RecordCursor cursor) {
+            long b = RecordOverview.floorDiv(cursor.getMillisecond(), bucketSize);
+            if (size == 0 && count == 0) {
+                firstBucket = bucket = b;
+            } else if (b > bucket) {
+                if (b - firstBucket >= MAXIMUM_BUCKETS) {
+                    return;
+                }
+                flush();
+                while (firstBucket + size < b) {
+                    append(0);
+                }
+                bucket = b;
+            }
+
+            if (count == 0) {
+                Arrays.fill(minimum, Float.POSITIVE_INFINITY);
+                Arrays.fill(maximum, Float.NEGATIVE_INFINITY);
+                Arrays.fill(sum, 0.0);
+            }
+
+            int n = Math.min(valueCount, cursor.getValueCount());
+            for (int i = 0; i < n; ++i) {
+                float value = (float) cursor.getDouble(i);
+                minimum[i] = Math.min(minimum[i], value);
+                maximum[i] = Math.max(maximum[i], value);
+                sum[i] += value;
+            }
+            ++count;
+        }
+
+        public void flush() {
+            if (count > 0) {
+                append(count);
+                count = 0;
+            }
+        }
+
+        private void append(int bucketCount) {
+            if (size == counts.length) {
+                int[] newCounts = new int[counts.length * 2];
+                System.arraycopy(counts, 0, newCounts, 0, size);
+                counts = newCounts;
+                float[] newValues = new float[newCounts.length * 3 * valueCount];
+                System.arraycopy(values, 0, newValues, 0, size * 3 * valueCount);
+                values = newValues;
+            }
+
+            int p = size * 3 * valueCount;
+            for (int i = 0; i < valueCount; ++i) {
+                if (bucketCount > 0 && minimum[i] <= maximum[i]) {
+                    values[p++] = minimum[i];
+                    values[p++] = maximum[i];
+                    values[p++] = (float) (sum[i] / bucketCount);
+                } else {
+                    values[p++] = Float.NaN;
+                    values[p++] = Float.NaN;
+                    values[p++] = Float.NaN;
+                }
+            }
+            counts[size++] = bucketCount;
+        }
+
+        public void write(DataOutputStream dos, int valueCount) throws IOException {
+            int p = 0;
+            for (int i = 0; i < size; ++i) {
+                dos.writeInt(counts[i]);
+                for (int j = 0; j < 3 * valueCount; ++j) {
+                    dos.writeFloat(values[p++]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,593 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the records of the selected channels within a time range from a
+ * set of recordings into primitive arrays.
+ *
+ * <p>When a recording has an up to date sidecar index, the recordings
+ * without any of the channels in the time range are skipped and only the
+ * bytes between the checkpoints of the selected channels around the time
+ * range are read, split into chunks at checkpoints that are decoded in
+ * parallel. Without the index the range is located with
+ * {@link RecordEditor} and split into chunks at the boundaries found by
+ * {@link RecordSync}. A chunk is trusted only if the previous one ended
+ * exactly at its beginning, otherwise the rest of the range is decoded
+ * sequentially. Records of the other channels are skipped without
+ * decoding their values.
+ *
+ * <p>Times are given in milliseconds since the start frame of each
+ * recording.
+ */
+public class RecordQuery {
+
+    public static final short ANY_DEVICE = -1;
+    public static final long DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private short[] typeIds = new short[0];
+    private short[] deviceIds = new short[0];
+    private long from = 0;
+    private long to = Long.MAX_VALUE;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long chunkSize = DEFAULT_CHUNK_SIZE;
+
+    // Statistics of the last run
+    private long scannedBytes;
+    private int skippedFiles;
+
+    /**
+     * Selects all the devices of a record type. Without any channel
+     * selected all the channels are read.
+     */
+    public RecordQuery addChannel(short typeId) {
+        return addChannel(typeId, ANY_DEVICE);
+    }
+
+    public RecordQuery addChannel(short typeId, short deviceId) {
+        typeIds = Arrays.copyOf(typeIds, typeIds.length + 1);
+        deviceIds = Arrays.copyOf(deviceIds, deviceIds.length + 1);
+        typeIds[typeIds.length - 1] = typeId;
+        deviceIds[deviceIds.length - 1] = deviceId;
+        return this;
+    }
+
+    /**
+     * Sets the time range.
+     *
+     * @param from start of the range in milliseconds since the start frame
+     * @param to end of the range in milliseconds since the start frame,
+     *           exclusive
+     */
+    public RecordQuery setTimeRange(long from, long to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    public RecordQuery setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    public RecordQuery setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Tells whether records of a channel are selected by this query.
+     */
+    public boolean accept(short typeId, short deviceId) {
+        if (typeIds.length == 0) {
+            return true;
+        }
+        for (int i = 0; i < typeIds.length; ++i) {
+            if (typeIds[i] == typeId &&
+                    (deviceIds[i] == ANY_DEVICE || deviceIds[i] == deviceId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets number of bytes read by the last run.
+     */
+    public long getScannedBytes() {
+        return scannedBytes;
+    }
+
+    /**
+     * Gets number of recordings skipped by the last run without reading
+     * any records, as none of the selected channels is in the time range.
+     */
+    public int getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    /**
+     * Runs the query.
+     *
+     * @param recordings recording files
+     * @return series of the selected channels, ordered by recording and by
+     * the first record of a channel
+     * @throws IOException when any recording can't be read
+     */
+    public List<Series> run(List<File> recordings) throws IOException {
+        scannedBytes = 0;
+        skippedFiles = 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<List<Chunk>> chunks = new ArrayList<>();
+            for (File recording : recordings) {
+                chunks.add(submit(executor, recording));
+            }
+
+            List<Series> result = new ArrayList<>();
+            for (int i = 0; i < recordings.size(); ++i) {
+                List<Chunk> parts = chunks.get(i);
+                if (parts.isEmpty()) {
+                    ++skippedFiles;
+                    continue;
+                }
+                merge(recordings.get(i), parts, result);
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Chunk> submit(ExecutorService executor, File recording)
+            throws IOException {
+        List<Chunk> parts = new ArrayList<>();
+        RecordIndex index = loadIndex(recording);
+        long start;
+        long begin;
+        long end;
+        boolean binary;
+
+        if (index != null) {
+            RecordCursor cursor = new RecordCursor(4096);
+            try {
+                cursor.open(recording);
+                if (!cursor.next() || cursor.getTypeId() != RecordFormat.TYPE_START) {
+                    throw new IOException("Missing start frame in " + recording);
+                }
+                start = cursor.getMillisecond();
+                binary = cursor.isBinary();
+            } finally {
+                cursor.close();
+            }
+
+            // Narrow the range to the checkpoints of the selected channels
+            begin = Long.MAX_VALUE;
+            end = -1;
+            long first = start + Math.max(0, from);
+            long last = to == Long.MAX_VALUE ? Long.MAX_VALUE : start + to - 1;
+            for (int i = 0; i < index.getChannelCount(); ++i) {
+                RecordIndex.Channel channel = index.getChannel(i);
+                if (!accept(channel.getTypeId(), channel.getDeviceId()) ||
+                        channel.getCount() == 0 || channel.getLastMillisecond() < first ||
+                        channel.getFirstMillisecond() > last) {
+                    continue;
+                }
+                begin = Math.min(begin, channel.findOffset(first));
+                end = Math.max(end, findEnd(channel, last, index.getDataLength()));
+            }
+            if (begin >= end) {
+                return parts;
+            }
+        } else {
+            RecordEditor editor = new RecordEditor(recording);
+            try {
+                RecordEditor.Segment segment = editor.trim(from, to);
+                start = editor.getSegment().getStartMillisecond();
+                binary = segment.isBinary();
+                begin = segment.getBegin();
+                end = segment.getEnd();
+            } finally {
+                editor.close();
+            }
+        }
+
+        // Split the range at the checkpoints, which are known boundaries, or
+        // at the boundaries found by the sync and verified when merging
+        FileInputStream stream = index == null && end - begin > chunkSize ?
+                new FileInputStream(recording) : null;
+        try {
+            RecordSync sync = new RecordSync();
+            long chunkBegin = begin;
+            while (chunkBegin < end) {
+                long chunkEnd = end;
+                if (end - chunkBegin > chunkSize) {
+                    long boundary = index != null ?
+                            index.findBoundary(chunkBegin + chunkSize) :
+                            sync.findBoundary(stream.getChannel(), binary,
+                                    chunkBegin + chunkSize, end);
+                    if (boundary > chunkBegin && boundary < end) {
+                        chunkEnd = boundary;
+                    }
+                }
+                Chunk chunk = new Chunk(recording, binary, start, chunkBegin, chunkEnd);
+                chunk.future = executor.submit(chunk);
+                parts.add(chunk);
+                chunkBegin = chunkEnd;
+            }
+        } finally {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+        return parts;
+    }
+
+    private void merge(File recording, List<Chunk> chunks, List<Series> result)
+            throws IOException {
+        ChannelMap channels = new ChannelMap();
+        List<List<Series>> groups = new ArrayList<>();
+        long position = chunks.get(0).begin;
+        boolean verified = true;
+        for (int c = 0; c < chunks.size() && verified; ++c) {
+            Chunk chunk = chunks.get(c);
+            Part part;
+            if (chunk.begin != position) {
+                // Boundary of this chunk is wrong, decode the rest of the range
+                // from the end of the previous chunk
+                for (int i = c; i < chunks.size(); ++i) {
+                    chunks.get(i).future.cancel(true);
+                }
+                Chunk last = chunks.get(chunks.size() - 1);
+                part = new Chunk(recording, chunk.binary, chunk.start, position, last.end)
+                        .call();
+                verified = false;
+            } else {
+                try {
+                    part = chunk.future.get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException("Query of " + recording + " failed", cause);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Query interrupted");
+                }
+            }
+
+            position = part.reached;
+            scannedBytes += part.bytes;
+            for (int i = 0; i < part.channels.size(); ++i) {
+                Series series = part.series.get(i);
+                int index = channels.put(series.typeId, series.deviceId);
+                if (index == groups.size()) {
+                    groups.add(new ArrayList<Series>());
+                }
+                groups.get(index).add(series);
+            }
+        }
+
+        // Join the chunks of each channel with a single copy
+        for (List<Series> group : groups) {
+            int size = 0;
+            for (Series series : group) {
+                size += series.size;
+            }
+            Series merged = group.get(0);
+            merged.resize(size);
+            for (int i = 1; i < group.size(); ++i) {
+                merged.append(group.get(i));
+            }
+            result.add(merged);
+        }
+    }
+
+    private static long findEnd(RecordIndex.Channel channel, long last, long dataLength) {
+        // First checkpoint past the range, all the earlier records of the
+        // channel are before it
+        int low = 0;
+        int high = channel.getCheckpointCount();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (channel.getCheckpointMillisecond(middle) <= last) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < channel.getCheckpointCount() ? channel.getCheckpointOffset(low) :
+                dataLength;
+    }
+
+    private static RecordIndex loadIndex(File recording) {
+        File indexFile = RecordIndex.getIndexFile(recording);
+        if (indexFile.exists()) {
+            try {
+                RecordIndex index = RecordIndex.load(indexFile);
+                if (index.getDataLength() == recording.length()) {
+                    return index;
+                }
+            } catch (IOException ex) {
+                // Locate the range without the index
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes a byte range of a recording that starts and ends at record
+     * boundaries.
+     */
+    private class Chunk implements Callable<Part>, RecordCursor.Filter {
+
+        private File recording;
+        private boolean binary;
+        private long start;
+        private long begin;
+        private long end;
+        private Future<Part> future;
+
+        public Chunk(File recording, boolean binary, long start, long begin, long end) {
+            this.recording = recording;
+            this.binary = binary;
+            this.start = start;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        public boolean accept(short typeId, short deviceId) {
+            return RecordQuery.this.accept(typeId, deviceId);
+        }
+
+        @Override
+        public Part call() throws IOException {
+            Part part = new Part();
+            long first = start + Math.max(0, from);
+            long last = to == Long.MAX_VALUE ? Long.MAX_VALUE : start + to - 1;
+
+            FileInputStream stream = new FileInputStream(recording);
+            RecordCursor cursor = new RecordCursor();
+            try {
+                FileChannel channel = stream.getChannel();
+                channel.position(begin);
+                cursor.open(new RangeChannel(channel, end), begin, binary);
+                cursor.setFilter(this);
+                while (cursor.next()) {
+                    short typeId = cursor.getTypeId();
+                    long millisecond = cursor.getMillisecond();
+                    if (typeId == RecordFormat.TYPE_START || typeId == RecordFormat.TYPE_END ||
+                            millisecond < first || millisecond > last) {
+                        continue;
+                    }
+
+                    int index = part.channels.put(typeId, cursor.getDeviceId());
+                    if (index == part.series.size()) {
+                        part.series.add(new Series(recording, typeId, cursor.getDeviceId(),
+                                cursor.getValueCount()));
+                    }
+                    part.series.get(index).add(cursor);
+                }
+                part.reached = cursor.getPosition();
+                part.bytes = part.reached - begin;
+            } finally {
+                cursor.close();
+                stream.close();
+            }
+            return part;
+        }
+    }
+
+    /**
+     * Channel limited to a byte range of a file.
+     */
+    private static class RangeChannel implements ReadableByteChannel {
+
+        private FileChannel channel;
+        private long end;
+
+        public RangeChannel(FileChannel channel, long end) {
+            this.channel = channel;
+            this.end = end;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            long remaining = end - channel.position();
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (dst.remaining() > remaining) {
+                int limit = dst.limit();
+                dst.limit(dst.position() + (int) remaining);
+                try {
+                    return channel.read(dst);
+                } finally {
+                    dst.limit(limit);
+                }
+            }
+            return channel.read(dst);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class Part {
+
+        private ChannelMap channels = new ChannelMap();
+        private List<Series> series = new ArrayList<>();
+        private long reached;
+        private long bytes;
+    }
+
+    /**
+     * Records of a single channel of a recording. Values of a record are
+     * stored consecutively, records that have fewer values than the first
+     * record of the channel are padded with <code>NaN</code>.
+     */
+    public static class Series {
+
+        private File file;
+        private short typeId;
+        private short deviceId;
+        private int valueCount;
+        private int size;
+        private long[] milliseconds = new long[64];
+        private long[] timestamps = new long[64];
+        private double[] values;
+
+        private Series(File file, short typeId, short deviceId, int valueCount) {
+            this.file = file;
+            this.typeId = typeId;
+            this.deviceId = deviceId;
+            this.valueCount = valueCount;
+            this.values = new double[64 * valueCount];
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public short getTypeId() {
+            return typeId;
+        }
+
+        public short getDeviceId() {
+            return deviceId;
+        }
+
+        public int getValueCount() {
+            return valueCount;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getMillisecond(int record) {
+            return milliseconds[record];
+        }
+
+        public long getTimestamp(int record) {
+            return timestamps[record];
+        }
+
+        public double getValue(int record, int value) {
+            return values[record * valueCount + value];
+        }
+
+        /**
+         * Gets milliseconds of all the records, the array is exactly
+         * {@link #size()} long.
+         */
+        public long[] getMilliseconds() {
+            return milliseconds;
+        }
+
+        public long[] getTimestamps() {
+            return timestamps;
+        }
+
+        /**
+         * Gets values of all the records, the array is exactly
+         * {@link #size()} times {@link #getValueCount()} long.
+         */
+        public double[] getValues() {
+            return values;
+        }
+
+        private void add(RecordCursor cursor) {
+            ensure(size + 1);
+            milliseconds[size] = cursor.getMillisecond();
+            timestamps[size] = cursor.getTimestamp();
+            int count = Math.min(valueCount, cursor.getValueCount());
+            int p = size * valueCount;
+            for (int i = 0; i < count; ++i) {
+                values[p + i] = cursor.getDouble(i);
+            }
+            for (int i = count; i < valueCount; ++i) {
+                values[p + i] = Double.NaN;
+            }
+            ++size;
+        }
+
+        private void append(Series series) {
+            ensure(size + series.size);
+            System.arraycopy(series.milliseconds, 0, milliseconds, size, series.size);
+            System.arraycopy(series.timestamps, 0, timestamps, size, series.size);
+            if (series.valueCount == valueCount) {
+                System.arraycopy(series.values, 0, values, size * valueCount,
+                        series.size * valueCount);
+                size += series.size;
+                return;
+            }
+            int count = Math.min(valueCount, series.valueCount);
+            for (int i = 0; i < series.size; ++i) {
+                int p = (size + i) * valueCount;
+                int q = i * series.valueCount;
+                System.arraycopy(series.values, q, values, p, count);
+                for (int j = count; j < valueCount; ++j) {
+                    values[p + j] = Double.NaN;
+                }
+            }
+            size += series.size;
+        }
+
+        private void ensure(int capacity) {
+            if (milliseconds.length < capacity) {
+                resize(Math.max(capacity, milliseconds.length * 2));
+            }
+        }
+
+        private void resize(int capacity) {
+            if (milliseconds.length != capacity) {
+                milliseconds = Arrays.copyOf(milliseconds, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                values = Arrays.copyOf(values, capacity * valueCount);
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Finds record boundaries at arbitrary offsets of a recording. Text
+ * records start after a new line. Binary records carry no sync marker, so
+ * a position is accepted as a boundary only if a chain of
+ * {@link #CHAIN_LENGTH} records starting there has plausible headers, value
+ * counts and payload lengths, or if the chain reaches the end of the file.
+ */
+public class RecordSync {
+
+    public static final int CHAIN_LENGTH = 8;
+
+    public static final int MAXIMUM_DEVICE_ID = 4096;
+    public static final int MAXIMUM_VALUES = 64;
+    public static final int MAXIMUM_NMEA_LENGTH = 4096;
+    public static final int MAXIMUM_BLE_LENGTH = 512;
+
+    protected static final int SEARCH_SIZE = 32 * 1024;
+    protected static final int WINDOW_SIZE = 2 * SEARCH_SIZE;
+
+    private static final byte[] MAGIC_WORD = RecordFormat.MAGIC_WORD.getBytes();
+    private static final byte NEW_LINE = (byte) RecordFormat.NEW_LINE.charAt(0);
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(WINDOW_SIZE);
+
+    /**
+     * Finds the first record boundary at or after the given offset.
+     *
+     * @param channel recording file
+     * @param binary format of the recording
+     * @param from offset to start search from
+     * @param to offset to end search at
+     * @return offset of the boundary or <code>to</code> if there is none
+     * @throws IOException on read error
+     */
+    public long findBoundary(FileChannel channel, boolean binary, long from, long to)
+            throws IOException {
+        if (from <= 0) {
+            return 0;
+        }
+
+        long fileLength = channel.size();
+        to = Math.min(to, fileLength);
+        if (binary) {
+            for (long start = from; start < to; start += SEARCH_SIZE) {
+                int window = read(channel, start);
+                boolean eof = start + window >= fileLength;
+                int search = (int) Math.min(Math.min(SEARCH_SIZE, window), to - start);
+                for (int p = 0; p < search; ++p) {
+                    if (isChain(buffer, p, window, eof)) {
+                        return start + p;
+                    }
+                }
+            }
+        } else {
+            // Look for the new line ending the previous record
+            for (long start = from - 1; start < to; start += WINDOW_SIZE) {
+                int window = read(channel, start);
+                for (int p = 0; p < window && start + p < to; ++p) {
+                    if (buffer.get(p) == NEW_LINE) {
+                        return Math.min(start + p + 1, to);
+                    }
+                }
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Tells whether a chain of plausible binary records starts at the given
+     * position.
+     *
+     * @param buffer data to validate
+     * @param p position in the buffer
+     * @param limit limit of valid data in the buffer
+     * @param eof whether the limit is the end of the recording
+     * @return <code>true</code> if the position looks like a boundary
+     */
+    public static boolean isChain(ByteBuffer buffer, int p, int limit, boolean eof) {
+        for (int i = 0; i < CHAIN_LENGTH; ++i) {
+            if (eof && p == limit && i > 0) {
+                return true;
+            }
+
+            int length = getRecordLength(buffer, p, limit);
+            if (length == 0 && !eof && i > 1) {
+                // Chain runs past the data available, accept what was seen
+                return true;
+            } else if (length <= 0) {
+                return false;
+            }
+            p += length;
+        }
+        return true;
+    }
+
+    /**
+     * Validates a binary record header and computes the record length.
+     *
+     * @param buffer data to validate
+     * @param p position of the record in the buffer
+     * @param limit limit of valid data in the buffer
+     * @return record length, <code>0</code> if more data is needed to
+     * decide or <code>-1</code> if the record is not plausible
+     */
+    public static int getRecordLength(ByteBuffer buffer, int p, int limit) {
+        int available = limit - p;
+        if (available < 4) {
+            return 0;
+        }
+
+        short typeId = buffer.getShort(p);
+        short deviceId = buffer.getShort(p + 2);
+        if (RecordFormat.isSensorType(typeId)) {
+            if (!isDeviceId(deviceId)) {
+                return -1;
+            } else if (available < 22) {
+                return 0;
+            }
+            int count = buffer.getShort(p + 20);
+            if (count < 0 || count > MAXIMUM_VALUES) {
+                return -1;
+            }
+            return fits(22 + 4 * count, available);
+        } else if (RecordFormat.isAccuracyType(typeId)) {
+            if (!isDeviceId(deviceId)) {
+                return -1;
+            } else if (available < 16) {
+                return 0;
+            }
+            int accuracy = buffer.getInt(p + 12);
+            if (accuracy < -1 || accuracy > 3) {
+                return -1;
+            }
+            return fits(RecordFormat.ACCURACY_LENGTH, available);
+        } else if (typeId == RecordFormat.TYPE_BLE) {
+            if (!isDeviceId(deviceId)) {
+                return -1;
+            }
+            return getPayloadRecordLength(buffer, p, 28, MAXIMUM_BLE_LENGTH, available);
+        } else if (typeId == RecordFormat.TYPE_BLE_MAP ||
+                typeId == RecordFormat.TYPE_BLE_VALUE) {
+            if (!isDeviceId(deviceId)) {
+                return -1;
+            } else if (available < 14) {
+                return 0;
+            } else if (buffer.getShort(p + 12) < 0) {
+                return -1;
+            }
+            return typeId == RecordFormat.TYPE_BLE_MAP ?
+                    fits(RecordFormat.BLE_MAP_LENGTH, available) :
+                    getPayloadRecordLength(buffer, p, 14, MAXIMUM_BLE_LENGTH, available);
+        } else if (deviceId != 0) {
+            return -1;
+        }
+
+        switch (typeId) {
+            case RecordFormat.TYPE_START:
+            case RecordFormat.TYPE_END:
+                if (available < 8 + MAGIC_WORD.length) {
+                    return 0;
+                }
+                if (buffer.getInt(p + 4) != MAGIC_WORD.length) {
+                    return -1;
+                }
+                for (int i = 0; i < MAGIC_WORD.length; ++i) {
+                    if (buffer.get(p + 8 + i) != MAGIC_WORD[i]) {
+                        return -1;
+                    }
+                }
+                return fits(8 + MAGIC_WORD.length +
+                        (typeId == RecordFormat.TYPE_START ? 20 : 44), available);
+            case RecordFormat.TYPE_BATTERY_VOLTAGE:
+                return fits(RecordFormat.BATTERY_VOLTAGE_LENGTH, available);
+            case RecordFormat.TYPE_GPS:
+                return fits(RecordFormat.GPS_LENGTH, available);
+            case RecordFormat.TYPE_STATS:
+                return fits(RecordFormat.STATS_LENGTH, available);
+            case RecordFormat.TYPE_GAP:
+                return fits(RecordFormat.GAP_LENGTH, available);
+            case RecordFormat.TYPE_GPS_NMEA:
+                return getPayloadRecordLength(buffer, p, 20, MAXIMUM_NMEA_LENGTH, available);
+            default:
+                return -1;
+        }
+    }
+
+    private static int getPayloadRecordLength(ByteBuffer buffer, int p, int countOffset,
+                                              int maximum, int available) {
+        if (available < countOffset + 4) {
+            return 0;
+        }
+        int count = buffer.getInt(p + countOffset);
+        if (count < 0 || count > maximum) {
+            return -1;
+        }
+        return fits(countOffset + 4 + count, available);
+    }
+
+    private static boolean isDeviceId(short deviceId) {
+        return deviceId >= 0 && deviceId < MAXIMUM_DEVICE_ID;
+    }
+
+    private static int fits(int length, int available) {
+        return length <= available ? length : 0;
+    }
+
+    private int read(FileChannel channel, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Verifies recordings and repairs the ones left unfinished. All the records
+ * are scanned with a {@link RecordCursor} and the header, length and time
+ * of each one is validated. The scan stops at the first record that is
+ * not valid, everything from that offset on is considered corrupted.
+ * Text lines that can't be attributed to any record type are not valid
+ * either, only lines of types the reader doesn't handle are kept.
+ *
+ * <p>A recording is repaired by truncating it just after the last valid
+ * record and appending an end frame if it's missing, so that it can be
+ * summarized like any other recording. Moving duration of a repaired
+ * recording is zero and its distance is unknown.
+ */
+public class RecordVerifier {
+
+    public static final long DEFAULT_GAP = 2000;
+
+    /**
+     * Records may be slightly earlier than the start frame, but times far
+     * outside of the recording mean the data is corrupted.
+     */
+    protected static final long TIME_SLACK = 5000;
+    protected static final long MAXIMUM_DURATION = 10L * 365 * 24 * 3600 * 1000;
+
+    private RecordCursor cursor = new RecordCursor();
+    private long gap = DEFAULT_GAP;
+    private long maximumLoss = Long.MAX_VALUE;
+
+    public long getGap() {
+        return gap;
+    }
+
+    /**
+     * Sets the minimum interval between the consecutive records of a
+     * channel that is reported as a gap.
+     *
+     * @param gap interval in milliseconds
+     */
+    public void setGap(long gap) {
+        this.gap = gap;
+    }
+
+    public long getMaximumLoss() {
+        return maximumLoss;
+    }
+
+    /**
+     * Limits the amount of data a repair may drop, so that only a torn tail
+     * like one left by a crash is repaired automatically.
+     *
+     * @param maximumLoss number of bytes
+     */
+    public void setMaximumLoss(long maximumLoss) {
+        this.maximumLoss = maximumLoss;
+    }
+
+    /**
+     * Scans all the records of a recording.
+     *
+     * @param recording recording file
+     * @return verification report
+     * @throws IOException on read error
+     */
+    public Report verify(File recording) throws IOException {
+        Report report = new Report(recording.length());
+        try {
+            cursor.open(recording);
+        } catch (IOException ex) {
+            if (!recording.exists()) {
+                throw ex;
+            }
+            report.corrupt(0, "missing start frame");
+            return report;
+        }
+
+        try {
+            report.binary = cursor.isBinary();
+            scan(report);
+        } finally {
+            cursor.close();
+        }
+        return report;
+    }
+
+    /**
+     * Verifies a recording and, if it has no valid end frame or there is
+     * any data past the last valid record, truncates the data and appends
+     * an end frame. Recording is left as it is if more than the maximum
+     * loss of data would be dropped. Sidecars of a repaired recording are removed, since
+     * they no longer describe the data.
+     *
+     * @param recording recording file
+     * @return verification report from before the repair
+     * @throws IOException when the recording has no start frame or can't be
+     * written
+     */
+    public Report repair(File recording) throws IOException {
+        Report report = verify(recording);
+        if (!report.hasStart()) {
+            throw new IOException("Can't repair a recording without a start frame");
+        } else if (!report.isRepairable() ||
+                report.length - report.validLength > maximumLoss) {
+            return report;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(recording, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            channel.truncate(report.validLength);
+            if (!report.hasEnd()) {
+                long duration = report.lastMillisecond - report.startMillisecond;
+                ByteBuffer frame = ByteBuffer.wrap(RecordEditor.frame(report.binary,
+                        RecordFormat.TYPE_END, report.version, report.lastMillisecond,
+                        report.startTimestamp + duration, duration, 0, -1.0));
+                channel.position(report.validLength);
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            }
+            channel.force(false);
+        } finally {
+            raf.close();
+        }
+
+        for (File sidecar : RecordFormat.getSidecars(recording)) {
+            sidecar.delete();
+        }
+        report.repaired = true;
+        return report;
+    }
+
+    private void scan(Report report) throws IOException {
+        long[] previous = new long[16];
+        try {
+            while (cursor.next()) {
+                if (cursor.getUnrecognizedOffset() >= 0) {
+                    report.corrupt(cursor.getUnrecognizedOffset(), "unrecognized record");
+                    return;
+                }
+                short typeId = cursor.getTypeId();
+                long offset = cursor.getOffset();
+                long millisecond = cursor.getMillisecond();
+
+                if (report.records == 0) {
+                    if (typeId != RecordFormat.TYPE_START ||
+                            !RecordFormat.isSupportedVersion((int) cursor.getDouble(0))) {
+                        report.corrupt(offset, "missing start frame");
+                        return;
+                    }
+                    report.version = (int) cursor.getDouble(0);
+                    report.startMillisecond = millisecond;
+                    report.startTimestamp = cursor.getTimestamp();
+                    report.lastMillisecond = millisecond;
+                } else if (report.endOffset >= 0) {
+                    report.corrupt(offset, "data after end frame");
+                    return;
+                } else if (typeId == RecordFormat.TYPE_START) {
+                    report.corrupt(offset, "unexpected start frame");
+                    return;
+                } else if (typeId == RecordFormat.TYPE_END) {
+                    report.endOffset = offset;
+                } else {
+                    String problem = validate(typeId, cursor.getDeviceId(), millisecond,
+                            report.startMillisecond);
+                    if (problem != null) {
+                        report.corrupt(offset, problem);
+                        return;
+                    }
+
+                    int index = report.channels.put(typeId, cursor.getDeviceId());
+                    if (index == report.counts.length) {
+                        report.counts = grow(report.counts);
+                        previous = grow(previous);
+                    }
+                    if (report.counts[index]++ > 0) {
+                        long interval = millisecond - previous[index];
+                        if (interval >= gap) {
+                            ++report.gaps;
+                            report.longestGap = Math.max(report.longestGap, interval);
+                        }
+                    }
+                    previous[index] = millisecond;
+                    report.lastMillisecond = Math.max(report.lastMillisecond, millisecond);
+                }
+
+                ++report.records;
+                report.validLength = offset + cursor.getLength();
+            }
+        } catch (IOException ex) {
+            if (cursor.getUnrecognizedOffset() >= 0) {
+                report.corrupt(cursor.getUnrecognizedOffset(), "unrecognized record");
+            } else {
+                report.corrupt(cursor.getOffset(), ex.getMessage());
+            }
+            return;
+        }
+
+        if (cursor.getUnrecognizedOffset() >= 0) {
+            report.corrupt(cursor.getUnrecognizedOffset(), "unrecognized record");
+            return;
+        } else if (report.records > 0) {
+            // Lines skipped after the last record are of known but unhandled
+            // types, so they are kept as valid data
+            report.validLength = cursor.getPosition();
+        }
+
+        if (report.records == 0) {
+            report.corrupt(0, "missing start frame");
+        } else if (cursor.isTruncated()) {
+            report.corrupt(report.validLength, "torn record");
+        }
+    }
+
+    private String validate(short typeId, short deviceId, long millisecond, long start) {
+        boolean device = RecordFormat.isSensorType(typeId) ||
+                RecordFormat.isAccuracyType(typeId) || RecordFormat.isBleType(typeId);
+        if (device ? deviceId < 0 || deviceId >= RecordSync.MAXIMUM_DEVICE_ID : deviceId != 0) {
+            return "invalid device " + deviceId;
+        } else if (cursor.getValueCount() > RecordSync.MAXIMUM_VALUES) {
+            return "too many values " + cursor.getValueCount();
+        } else if (cursor.getPayloadLength() > (RecordFormat.isBleType(typeId) ?
+                RecordSync.MAXIMUM_BLE_LENGTH : RecordSync.MAXIMUM_NMEA_LENGTH)) {
+            return "too long payload " + cursor.getPayloadLength();
+        } else if (millisecond < start - TIME_SLACK || millisecond - start > MAXIMUM_DURATION) {
+            return "invalid time " + millisecond;
+        }
+        return null;
+    }
+
+    private static long[] grow(long[] array) {
+        long[] newArray = new long[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    /**
+     * Result of a recording verification.
+     */
+    public static class Report {
+
+        private long length;
+        private boolean binary;
+        private boolean repaired;
+        private int version;
+        private long records;
+        private long startMillisecond;
+        private long startTimestamp;
+        private long lastMillisecond;
+        private long validLength;
+        private long endOffset = -1;
+        private long corruptionOffset = -1;
+        private String problem;
+        private ChannelMap channels = new ChannelMap();
+        private long[] counts = new long[16];
+        private long gaps;
+        private long longestGap;
+
+        private Report(long length) {
+            this.length = length;
+        }
+
+        private void corrupt(long offset, String problem) {
+            this.corruptionOffset = offset;
+            this.problem = problem;
+        }
+
+        /**
+         * Tells whether the recording is complete, with valid start and end
+         * frames and nothing else past the end frame.
+         */
+        public boolean isValid() {
+            return corruptionOffset < 0 && endOffset >= 0;
+        }
+
+        /**
+         * Tells whether the recording can be fixed by
+         * {@link RecordVerifier#repair(File)}.
+         */
+        public boolean isRepairable() {
+            return hasStart() && !isValid();
+        }
+
+        public boolean isRepaired() {
+            return repaired;
+        }
+
+        public boolean isBinary() {
+            return binary;
+        }
+
+        public boolean hasStart() {
+            return records > 0;
+        }
+
+        public boolean hasEnd() {
+            return endOffset >= 0;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Gets length of the data up to and including the last valid record.
+         */
+        public long getValidLength() {
+            return validLength;
+        }
+
+        /**
+         * Gets offset of the first invalid data.
+         *
+         * @return file offset or <code>-1</code> if all the data is valid
+         */
+        public long getCorruptionOffset() {
+            return corruptionOffset;
+        }
+
+        /**
+         * Describes the first invalid data.
+         *
+         * @return description or <code>null</code> if all the data is valid
+         */
+        public String getProblem() {
+            return problem;
+        }
+
+        /**
+         * Gets number of valid records, including start and end frames.
+         */
+        public long getRecords() {
+            return records;
+        }
+
+        public long getDuration() {
+            return lastMillisecond - startMillisecond;
+        }
+
+        public int getChannelCount() {
+            return channels.size();
+        }
+
+        public short getTypeId(int channel) {
+            return channels.getTypeId(channel);
+        }
+
+        public short getDeviceId(int channel) {
+            return channels.getDeviceId(channel);
+        }
+
+        public long getCount(int channel) {
+            return counts[channel];
+        }
+
+        /**
+         * Gets number of intervals between consecutive records of the same
+         * channel that are at least as long as the verifier gap.
+         */
+        public long getGaps() {
+            return gaps;
+        }
+
+        public long getLongestGap() {
+            return longestGap;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecordEditorTest {
+
+    private static final long START = 5000;
+    private static final int COUNT = 100;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestRecordings.createDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        TestRecordings.delete(directory);
+    }
+
+    @Test
+    public void trimKeepsRecordsOfRange() throws IOException {
+        for (boolean binary : new boolean[] { true, false }) {
+            File recording = TestRecordings.write(new File(directory, "in"), binary, START,
+                    COUNT, true);
+            File output = new File(directory, "out");
+            RecordEditor editor = new RecordEditor(recording);
+            try {
+                RecordEditor.write(output, Collections.singletonList(editor.trim(2000, 5000)));
+            } finally {
+                editor.close();
+            }
+
+            List<String> expected = TestRecordings.read(recording).subList(19, 49);
+            assertEquals(expected, TestRecordings.read(output));
+            RecordVerifier.Report report = new RecordVerifier().verify(output);
+            assertTrue(report.getProblem(), report.isValid());
+        }
+    }
+
+    @Test
+    public void splitAndConcatRestoreRecords() throws IOException {
+        for (boolean binary : new boolean[] { true, false }) {
+            File recording = TestRecordings.write(new File(directory, "in"), binary, START,
+                    COUNT, true);
+            List<File> parts = new ArrayList<>();
+            RecordEditor editor = new RecordEditor(recording);
+            try {
+                for (RecordEditor.Segment segment : editor.split(3000)) {
+                    File part = new File(directory, "part" + parts.size());
+                    RecordEditor.write(part, Collections.singletonList(segment));
+                    parts.add(part);
+                }
+            } finally {
+                editor.close();
+            }
+            assertEquals(4, parts.size());
+
+            List<RecordEditor.Segment> segments = new ArrayList<>();
+            List<RecordEditor> editors = new ArrayList<>();
+            for (File part : parts) {
+                RecordEditor partEditor = new RecordEditor(part);
+                editors.add(partEditor);
+                segments.add(partEditor.getSegment());
+            }
+            File joined = new File(directory, "joined");
+            try {
+                RecordEditor.write(joined, segments);
+            } finally {
+                for (RecordEditor partEditor : editors) {
+                    partEditor.close();
+                }
+            }
+
+            assertEquals(TestRecordings.read(recording), TestRecordings.read(joined));
+            RecordVerifier.Report report = new RecordVerifier().verify(joined);
+            assertTrue(report.getProblem(), report.isValid());
+        }
+    }
+
+    @Test
+    public void splitKeepsBleMappings() throws IOException {
+        for (boolean binary : new boolean[] { true, false }) {
+            File recording = TestRecordings.writeBle(new File(directory, "in"), binary, START,
+                    COUNT);
+            List<String> expected = TestRecordings.readBle(recording);
+            for (String record : expected) {
+                String[] fields = record.split(" ");
+                assertEquals(fields[1], fields[2]);
+            }
+
+            List<String> records = new ArrayList<>();
+            RecordEditor editor = new RecordEditor(recording);
+            try {
+                for (RecordEditor.Segment segment : editor.split(3000)) {
+                    File part = new File(directory, "part");
+                    RecordEditor.write(part, Collections.singletonList(segment));
+                    records.addAll(TestRecordings.readBle(part));
+                    RecordVerifier.Report report = new RecordVerifier().verify(part);
+                    assertTrue(report.getProblem(), report.isValid());
+                }
+            } finally {
+                editor.close();
+            }
+            assertEquals(expected, records);
+        }
+    }
+
+    @Test
+    public void concatJoinsConsecutiveRecordings() throws IOException {
+        File first = TestRecordings.write(new File(directory, "first"), true, START, COUNT,
+                true);
+        File second = TestRecordings.write(new File(directory, "second"), true,
+                START + 100000, COUNT, true);
+        File joined = new File(directory, "joined");
+        join(joined, first, second);
+
+        List<String> expected = new ArrayList<>(TestRecordings.read(first));
+        expected.addAll(TestRecordings.read(second));
+        assertEquals(expected, TestRecordings.read(joined));
+    }
+
+    @Test(expected = IOException.class)
+    public void concatRejectsOverlappingRecordings() throws IOException {
+        File first = TestRecordings.write(new File(directory, "first"), true, START, COUNT,
+                true);
+        File second = TestRecordings.write(new File(directory, "second"), true,
+                START + 2000, COUNT, true);
+        join(new File(directory, "joined"), first, second);
+    }
+
+    @Test(expected = IOException.class)
+    public void concatRejectsRecordingsGoingBack() throws IOException {
+        File first = TestRecordings.write(new File(directory, "first"), true, START + 100000,
+                COUNT, true);
+        File second = TestRecordings.write(new File(directory, "second"), true, START, COUNT,
+                true);
+        join(new File(directory, "joined"), first, second);
+    }
+
+    private static void join(File output, File... recordings) throws IOException {
+        List<RecordEditor> editors = new ArrayList<>();
+        try {
+            List<RecordEditor.Segment> segments = new ArrayList<>();
+            for (File recording : recordings) {
+                RecordEditor editor = new RecordEditor(recording);
+                editors.add(editor);
+                segments.add(editor.getSegment());
+            }
+            RecordEditor.write(output, segments);
+        } finally {
+            for (RecordEditor editor : editors) {
+                editor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RecordQueryTest {
+
+    private static final long START = 5000;
+    private static final int COUNT = 2000;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestRecordings.createDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        TestRecordings.delete(directory);
+    }
+
+    @Test
+    public void chunksOfUnindexedRecordingMatchSequentialRead() throws IOException {
+        for (boolean binary : new boolean[] { true, false }) {
+            File recording = TestRecordings.write(new File(directory, "in"), binary, START,
+                    COUNT, true);
+            List<String> expected = TestRecordings.read(recording);
+
+            RecordQuery query = new RecordQuery().setThreads(4).setChunkSize(1000);
+            assertEquals(expected, lines(query.run(Collections.singletonList(recording))));
+        }
+    }
+
+    @Test
+    public void chunksOfTimeRangeMatchSequentialRead() throws IOException {
+        for (boolean binary : new boolean[] { true, false }) {
+            File recording = TestRecordings.write(new File(directory, "in"), binary, START,
+                    COUNT, true);
+            List<String> expected = TestRecordings.read(recording).subList(49, 1499);
+
+            RecordQuery query = new RecordQuery().setThreads(4).setChunkSize(700)
+                    .setTimeRange(5000, 150000);
+            assertEquals(expected, lines(query.run(Collections.singletonList(recording))));
+        }
+    }
+
+    private static List<String> lines(List<RecordQuery.Series> result) {
+        List<String> lines = new ArrayList<>();
+        for (RecordQuery.Series series : result) {
+            for (int i = 0; i < series.size(); ++i) {
+                StringBuilder builder = new StringBuilder();
+                builder.append(series.getTypeId()).append(' ').append(series.getDeviceId())
+                        .append(' ').append(series.getMillisecond(i));
+                for (int j = 0; j < series.getValueCount(); ++j) {
+                    builder.append(' ').append(series.getValue(i, j));
+                }
+                lines.add(builder.toString());
+            }
+        }
+        return lines;
+    }
+}
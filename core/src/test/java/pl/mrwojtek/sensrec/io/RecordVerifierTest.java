@@ -0,0 +1,181 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecordVerifierTest {
+
+    private static final long START = 5000;
+    private static final int COUNT = 50;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestRecordings.createDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        TestRecordings.delete(directory);
+    }
+
+    @Test
+    public void completeRecordingIsValid() throws IOException {
+        for (boolean binary : new boolean[] { true, false }) {
+            File recording = TestRecordings.write(new File(directory, "in"), binary, START,
+                    COUNT, true);
+            RecordVerifier.Report report = new RecordVerifier().verify(recording);
+            assertTrue(report.getProblem(), report.isValid());
+            assertEquals(recording.length(), report.getValidLength());
+            assertEquals(COUNT + 2, report.getRecords());
+        }
+    }
+
+    @Test
+    public void tornBinaryTailIsRepaired() throws IOException {
+        File recording = TestRecordings.write(new File(directory, "in"), true, START,
+                COUNT, false);
+        long length = recording.length();
+        List<String> expected = TestRecordings.read(recording);
+        append(recording, new byte[] { 0, 2, 0, 0, 0, 0, 0, 0, 0, 1 });
+
+        assertRepaired(recording, length, "torn record", expected);
+    }
+
+    @Test
+    public void tornTextTailIsRepaired() throws IOException {
+        File recording = TestRecordings.write(new File(directory, "in"), false, START,
+                COUNT, false);
+        long length = recording.length();
+        List<String> expected = TestRecordings.read(recording);
+        append(recording, "accel_0\t10000\t1000".getBytes());
+
+        assertRepaired(recording, length, "torn record", expected);
+    }
+
+    @Test
+    public void garbageInTheMiddleIsRepaired() throws IOException {
+        File recording = TestRecordings.write(new File(directory, "in"), false, START,
+                COUNT, true);
+        List<String> expected = TestRecordings.read(recording).subList(0, 10);
+        long offset = lineOffset(recording, 11);
+        insert(recording, offset, "x#3!\tgarbage\n".getBytes());
+
+        assertRepaired(recording, offset, "unrecognized record", expected);
+    }
+
+    @Test
+    public void unknownRecordsAreKept() throws IOException {
+        File recording = TestRecordings.write(new File(directory, "in"), false, START,
+                COUNT, false);
+        List<String> expected = TestRecordings.read(recording);
+        insert(recording, lineOffset(recording, 11), "unknown\t1200\t1\t2\n".getBytes());
+        append(recording, "pause\t10000\n".getBytes());
+        long length = recording.length();
+
+        RecordVerifier verifier = new RecordVerifier();
+        RecordVerifier.Report report = verifier.verify(recording);
+        assertEquals(-1, report.getCorruptionOffset());
+        assertFalse(report.hasEnd());
+        assertEquals(length, report.getValidLength());
+
+        assertTrue(verifier.repair(recording).isRepaired());
+        assertTrue(verifier.verify(recording).isValid());
+        assertEquals(expected, TestRecordings.read(recording));
+        assertTrue(recording.length() > length);
+    }
+
+    @Test
+    public void repairKeepsRecordingOverMaximumLoss() throws IOException {
+        File recording = TestRecordings.write(new File(directory, "in"), false, START,
+                COUNT, true);
+        insert(recording, lineOffset(recording, 11), "garbage\n".getBytes());
+        long length = recording.length();
+
+        RecordVerifier verifier = new RecordVerifier();
+        verifier.setMaximumLoss(100);
+        assertFalse(verifier.repair(recording).isRepaired());
+        assertEquals(length, recording.length());
+    }
+
+    private static void assertRepaired(File recording, long validLength, String problem,
+            List<String> expected) throws IOException {
+        RecordVerifier verifier = new RecordVerifier();
+        RecordVerifier.Report report = verifier.verify(recording);
+        assertFalse(report.isValid());
+        assertTrue(report.isRepairable());
+        assertEquals(problem, report.getProblem());
+        assertEquals(validLength, report.getValidLength());
+
+        assertTrue(verifier.repair(recording).isRepaired());
+        report = verifier.verify(recording);
+        assertTrue(report.getProblem(), report.isValid());
+        assertEquals(expected, TestRecordings.read(recording));
+    }
+
+    private static long lineOffset(File file, int line) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            for (int i = 0; i < line; ++i) {
+                raf.readLine();
+            }
+            return raf.getFilePointer();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void append(File file, byte[] data) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file, true);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+    }
+
+    private static void insert(File file, long offset, byte[] data) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            byte[] tail = new byte[(int) (raf.length() - offset)];
+            raf.seek(offset);
+            raf.readFully(tail);
+            raf.seek(offset);
+            raf.write(data);
+            raf.write(tail);
+        } finally {
+            raf.close();
+        }
+    }
+}
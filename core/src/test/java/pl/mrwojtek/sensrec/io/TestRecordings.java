@@ -0,0 +1,223 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.io;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes small recordings of accelerometer or BLE records for the tests and
+ * reads them back as comparable lines.
+ */
+public class TestRecordings {
+
+    public static final short TYPE_ACCEL = RecordFormat.getSensorTypeId(1);
+    public static final long PERIOD = 100;
+    public static final short BLE_DEVICE = 3;
+
+    private TestRecordings() {
+    }
+
+    /**
+     * Writes a recording with a record every {@link #PERIOD} milliseconds.
+     *
+     * @param file file to write
+     * @param binary binary or text format
+     * @param start millisecond of the start frame
+     * @param count number of records
+     * @param end whether to finish the recording with an end frame
+     * @return the file
+     * @throws IOException on write error
+     */
+    public static File write(File file, boolean binary, long start, int count, boolean end)
+            throws IOException {
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(file));
+        try {
+            dos.write(RecordEditor.frame(binary, RecordFormat.TYPE_START, RecordFormat.VERSION,
+                    start, start + 1000000, 0, 0, 0.0));
+            for (int i = 0; i < count; ++i) {
+                long millisecond = start + (i + 1) * PERIOD;
+                if (binary) {
+                    dos.writeShort(TYPE_ACCEL);
+                    dos.writeShort(0);
+                    dos.writeLong(millisecond);
+                    dos.writeLong(millisecond * 1000000);
+                    dos.writeShort(3);
+                    dos.writeFloat(i);
+                    dos.writeFloat(-i);
+                    dos.writeFloat(0.5f);
+                } else {
+                    dos.write(String.format("accel_0\t%d\t%d\t3\t%d.0\t%d.0\t0.5\n", millisecond,
+                            millisecond * 1000000, i, -i).getBytes());
+                }
+            }
+            if (end) {
+                long millisecond = start + (count + 1) * PERIOD;
+                dos.write(RecordEditor.frame(binary, RecordFormat.TYPE_END,
+                        RecordFormat.VERSION, millisecond, millisecond + 1000000,
+                        millisecond - start, 0, -1.0));
+            }
+        } finally {
+            dos.close();
+        }
+        return file;
+    }
+
+    /**
+     * Writes a complete recording of characteristic values of two BLE
+     * channels. The first channel is mapped with the first record and the
+     * second one half way through the recording. Value of a channel is the
+     * most significant bits of its characteristic UUID.
+     *
+     * @param file file to write
+     * @param binary binary or text format
+     * @param start millisecond of the start frame
+     * @param count number of records of the first channel
+     * @return the file
+     * @throws IOException on write error
+     */
+    public static File writeBle(File file, boolean binary, long start, int count)
+            throws IOException {
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(file));
+        try {
+            dos.write(RecordEditor.frame(binary, RecordFormat.TYPE_START, RecordFormat.VERSION,
+                    start, start + 1000000, 0, 0, 0.0));
+            for (int i = 0; i < count; ++i) {
+                long millisecond = start + (i + 1) * PERIOD;
+                for (short channel = 0; channel < (i < count / 2 ? 1 : 2); ++channel) {
+                    if (i == 0 && channel == 0 || i == count / 2 && channel == 1) {
+                        dos.write(RecordEditor.mapping(binary, BLE_DEVICE, millisecond,
+                                channel, channel + 1, -channel - 1));
+                    }
+                    if (binary) {
+                        dos.writeShort(RecordFormat.TYPE_BLE_VALUE);
+                        dos.writeShort(BLE_DEVICE);
+                        dos.writeLong(millisecond);
+                        dos.writeShort(channel);
+                        dos.writeInt(1);
+                        dos.writeByte(channel + 1);
+                    } else {
+                        dos.write(String.format("bleval_%d\t%d\t%d\t%02X\n", BLE_DEVICE,
+                                millisecond, channel, channel + 1).getBytes());
+                    }
+                }
+            }
+            long millisecond = start + (count + 1) * PERIOD;
+            dos.write(RecordEditor.frame(binary, RecordFormat.TYPE_END, RecordFormat.VERSION,
+                    millisecond, millisecond + 1000000, millisecond - start, 0, -1.0));
+        } finally {
+            dos.close();
+        }
+        return file;
+    }
+
+    /**
+     * Reads the BLE values of a recording with their channels resolved by
+     * the mappings that precede them in the same file.
+     *
+     * @param file recording
+     * @return one line with millisecond, most significant bits of the UUID
+     * or <code>-1</code> if the channel isn't mapped, and the value per
+     * record
+     * @throws IOException on read error or malformed data
+     */
+    public static List<String> readBle(File file) throws IOException {
+        List<String> records = new ArrayList<>();
+        Map<Integer, Long> uuids = new HashMap<>();
+        RecordCursor cursor = new RecordCursor();
+        try {
+            cursor.open(file);
+            while (cursor.next()) {
+                int key = (cursor.getDeviceId() << 16) | (int) cursor.getDouble(0);
+                if (cursor.getTypeId() == RecordFormat.TYPE_BLE_MAP) {
+                    uuids.put(key, cursor.getUuidMostSignificantBits());
+                } else if (cursor.getTypeId() == RecordFormat.TYPE_BLE_VALUE) {
+                    Long uuid = uuids.get(key);
+                    records.add(cursor.getMillisecond() + " " + (uuid != null ? uuid : -1) +
+                            " " + cursor.getPayload()[0]);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return records;
+    }
+
+    /**
+     * Reads the data records of a recording, start and end frames excluded.
+     *
+     * @param file recording
+     * @return one line with type, device, millisecond and values per record
+     * @throws IOException on read error or malformed data
+     */
+    public static List<String> read(File file) throws IOException {
+        List<String> records = new ArrayList<>();
+        RecordCursor cursor = new RecordCursor();
+        try {
+            cursor.open(file);
+            while (cursor.next()) {
+                short typeId = cursor.getTypeId();
+                if (typeId == RecordFormat.TYPE_START || typeId == RecordFormat.TYPE_END) {
+                    continue;
+                }
+                StringBuilder builder = new StringBuilder();
+                builder.append(typeId).append(' ').append(cursor.getDeviceId()).append(' ')
+                        .append(cursor.getMillisecond());
+                for (int i = 0; i < cursor.getValueCount(); ++i) {
+                    builder.append(' ').append(cursor.getDouble(i));
+                }
+                records.add(builder.toString());
+            }
+        } finally {
+            cursor.close();
+        }
+        return records;
+    }
+
+    /**
+     * Creates an empty temporary directory.
+     */
+    public static File createDirectory() throws IOException {
+        File directory = File.createTempFile("sensrec", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Deletes a temporary directory with all its files.
+     */
+    public static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Clock and logger of the recording core backed by the Android framework.
+ */
+public class AndroidPlatform {
+
+    private static boolean installed;
+
+    /**
+     * Installs the Android clock and logger to the {@link Platform}, once.
+     */
+    public static synchronized void install() {
+        if (!installed) {
+            Platform.setClock(new AndroidClock());
+            Platform.setLogger(new AndroidLogger());
+            installed = true;
+        }
+    }
+
+    /**
+     * Elapsed real time clock, the time base of the sensor events.
+     */
+    public static class AndroidClock implements Clock {
+
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                return SystemClock.elapsedRealtimeNanos();
+            } else {
+                return SystemClock.elapsedRealtime() * 1000000L;
+            }
+        }
+    }
+
+    public static class AndroidLogger implements Logger {
+
+        @Override
+        public void d(String tag, String message) {
+            Log.d(tag, message);
+        }
+
+        @Override
+        public void i(String tag, String message) {
+            Log.i(tag, message);
+        }
+
+        @Override
+        public void w(String tag, String message) {
+            Log.w(tag, message);
+        }
+
+        @Override
+        public void e(String tag, String message) {
+            Log.e(tag, message);
+        }
+    }
+}
@@ -35,6 +35,7 @@ public class BatteryRecorder implements Recorder, Runnable {
     protected static final int BATTERY_INTERVAL = 5000;
 
     protected FrequencyMeasure measure = new FrequencyMeasure(10000, 20000, 3);
+    protected ValueHistory history = new ValueHistory(120, BATTERY_INTERVAL);
     protected SensorsRecorder sensorsRecorder;
     protected boolean started;
 
@@ -72,6 +73,14 @@ public class BatteryRecorder implements Recorder, Runnable {
         return measure;
     }
 
+    /**
+     * Gets the history of the battery voltage.
+     */
+    @Override
+    public ValueHistory getValueHistory() {
+        return history;
+    }
+
     @Override
     public Collection<String> getRequiredPermissions() {
         return null;
@@ -83,6 +92,7 @@ public class BatteryRecorder implements Recorder, Runnable {
             sensorsRecorder.getUiHandler().post(this);
             started = true;
             measure.onStarted();
+            history.clear();
         }
     }
 
@@ -114,6 +124,7 @@ public class BatteryRecorder implements Recorder, Runnable {
                 .write(voltage)
                 .write(temperature)
                 .save();
+        history.add(millisecond, voltage);
 
         sensorsRecorder.getUiHandler().postDelayed(this, BATTERY_INTERVAL);
     }
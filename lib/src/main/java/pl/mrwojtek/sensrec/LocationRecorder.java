@@ -38,6 +38,7 @@ public class LocationRecorder implements Recorder, LocationListener {
 
     protected List<String> requiredPermissions;
     protected FrequencyMeasure measure = new FrequencyMeasure(5500, 10500, 100);
+    protected ValueHistory history = new ValueHistory(120, 1000);
     protected SensorsRecorder sensorsRecorder;
     protected boolean started;
 
@@ -77,6 +78,14 @@ public class LocationRecorder implements Recorder, LocationListener {
         return measure;
     }
 
+    /**
+     * Gets the history of the location accuracy.
+     */
+    @Override
+    public ValueHistory getValueHistory() {
+        return history;
+    }
+
     @Override
     public Collection<String> getRequiredPermissions() {
         return requiredPermissions;
@@ -90,6 +99,7 @@ public class LocationRecorder implements Recorder, LocationListener {
                         .requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this);
                 started = true;
                 measure.onStarted();
+                history.clear();
             } catch (SecurityException ex) {
                 measure.onPermissionDenied();
             }
@@ -123,6 +133,11 @@ public class LocationRecorder implements Recorder, LocationListener {
                 .write(location.getAccuracy())
                 .write(location.getTime())
                 .save();
+        history.add(millisecond, location.getAccuracy());
+
+        sensorsRecorder.getTrack().add(millisecond, location.getLatitude(),
+                location.getLongitude(), location.hasAccuracy() ? location.getAccuracy() : -1.0f,
+                location.hasSpeed() ? location.getSpeed() : -1.0f);
     }
 
     @Override
@@ -74,6 +74,11 @@ public class NmeaRecorder implements Recorder, GpsStatus.NmeaListener {
         return measure;
     }
 
+    @Override
+    public ValueHistory getValueHistory() {
+        return null;
+    }
+
     @Override
     public Collection<String> getRequiredPermissions() {
         return requiredPermissions;
@@ -65,6 +65,13 @@ public interface Recorder {
      */
     FrequencyMeasure getFrequencyMeasure();
 
+    /**
+     * Retrieves history of the recorded value for live previews.
+     *
+     * @return value history or <code>null</code> if the recorded data has
+     * no single value to show
+     */
+    ValueHistory getValueHistory();
 
     /**
      * Android dangerous permission required for that sensor
@@ -23,6 +23,7 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Build;
 import android.os.SystemClock;
 
 import java.util.Collection;
@@ -34,9 +35,18 @@ public class SensorRecorder implements Recorder, SensorEventListener {
 
     private static final String PREF_KEY = SensorsRecorder.PREF_SENSOR_ + "%d_%d";
 
+    // Timestamps of some devices are not based on the elapsed real time
+    private static final long MAXIMUM_EVENT_LATENCY = 10000000000L;
+
+    // Period of SENSOR_DELAY_GAME in microseconds
+    private static final long GAME_PERIOD = 20000;
+
     protected FrequencyMeasure measure = new FrequencyMeasure();
     protected SensorsRecorder sensorsRecorder;
     protected Sensor sensor;
+    protected PipelineMetrics.Channel channel;
+    protected GapDetector gapDetector;
+    protected ValueHistory history = new ValueHistory();
 
     protected boolean sensorDefault;
     protected String shortName;
@@ -57,6 +67,8 @@ public class SensorRecorder implements Recorder, SensorEventListener {
         this.accuracyId = SensorsRecorder.getSensorAccuracyId(sensor.getType());
         this.deviceId = (short) number;
         this.prefKey = String.format(PREF_KEY, sensor.getType(), number);
+        this.channel = sensorsRecorder.getMetrics().getChannel(typeId, deviceId);
+        this.gapDetector = new GapDetector(channel);
     }
 
     public short getAccuracyId() {
@@ -93,6 +105,19 @@ public class SensorRecorder implements Recorder, SensorEventListener {
         return measure;
     }
 
+    /**
+     * Gets the history of the sample value, or of the sample magnitude if
+     * the sensor has more than one value.
+     */
+    @Override
+    public ValueHistory getValueHistory() {
+        return history;
+    }
+
+    public GapDetector getGapDetector() {
+        return gapDetector;
+    }
+
     @Override
     public Collection<String> getRequiredPermissions() {
         return null;
@@ -101,13 +126,27 @@ public class SensorRecorder implements Recorder, SensorEventListener {
     @Override
     public void start() {
         if (!started) {
+            gapDetector.reset(getExpectedPeriod());
             sensorsRecorder.getSensorManager()
                     .registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME);
             started = true;
+            measure.setExpectedPeriod(getExpectedPeriod());
             measure.onStarted();
+            history.clear();
         }
     }
 
+    /**
+     * Gets the period the sensor is expected to deliver events with when
+     * registered at {@link SensorManager#SENSOR_DELAY_GAME}. On-change
+     * sensors have no such period.
+     *
+     * @return period in microseconds or <code>0</code> if unknown
+     */
+    protected long getExpectedPeriod() {
+        return sensor.getMinDelay() > 0 ? Math.max(GAME_PERIOD, sensor.getMinDelay()) : 0;
+    }
+
     @Override
     public void stop() {
         if (started) {
@@ -119,7 +158,17 @@ public class SensorRecorder implements Recorder, SensorEventListener {
 
     @Override
     public void onSensorChanged(SensorEvent event) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            long latency = SystemClock.elapsedRealtimeNanos() - event.timestamp;
+            if (latency < MAXIMUM_EVENT_LATENCY) {
+                channel.getLatency(PipelineMetrics.STAGE_EVENT).record(latency);
+            }
+        }
+
         long millisecond = measure.onNewSample();
+        if (gapDetector.onSample(event.timestamp)) {
+            gapDetector.write(sensorsRecorder.getOutput(), millisecond);
+        }
 
         Output.Record record = sensorsRecorder.getOutput()
                 .start(getTypeId(), getDeviceId())
@@ -127,11 +176,16 @@ public class SensorRecorder implements Recorder, SensorEventListener {
                 .write(event.timestamp)
                 .write((short) event.values.length);
 
+        float squares = 0.0f;
         for (float value : event.values) {
             record.write(value);
+            squares += value * value;
         }
 
         record.save();
+
+        history.add(millisecond, event.values.length == 1 ? event.values[0] :
+                (float) Math.sqrt(squares));
     }
 
     @Override
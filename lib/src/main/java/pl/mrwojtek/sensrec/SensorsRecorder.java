@@ -30,11 +30,13 @@ import android.hardware.Sensor;
 import android.hardware.SensorManager;
 import android.location.LocationManager;
 import android.os.Build;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -47,11 +49,13 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 
 import pl.mrwojtek.sensrec.ble.BleRecorder;
+import pl.mrwojtek.sensrec.io.RecordFormat;
 
 /**
  * Provides functionality to manage recordings lifecycle.
  */
-public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChangeListener {
+public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChangeListener,
+        OutputContext {
 
     public static final String PREF_FILE_SAVE = "pref_file_save";
     public static final String PREF_NETWORK_SAVE = "pref_network_save";
@@ -60,14 +64,15 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
     public static final String PREF_NETWORK_PORT = "pref_network_port";
     public static final String PREF_SAVE_BINARY = "pref_save_binary";
     public static final String PREF_SAMPLING_PERIOD = "pref_sampling_period";
+    public static final String PREF_SAVE_STATS = "pref_save_stats";
     public static final String PREF_SENSOR_= "sensor_";
     public static final String PREF_BLE_DEVICES = "ble_devices";
     public static final String PREF_BLE_NAME_ = "ble_name_";
     public static final String PREF_BLE_ID_ = "ble_id_";
     public static final String PREF_LAST_FILE_INDEX = "file_index";
 
-    public static final int PROTOCOL_TCP = 0;
-    public static final int PROTOCOL_UDP = 1;
+    public static final int PROTOCOL_TCP = SocketOutput.PROTOCOL_TCP;
+    public static final int PROTOCOL_UDP = SocketOutput.PROTOCOL_UDP;
 
     public static final int DEFAULT_PORT = 44335;
     public static final int DEFAULT_PROTOCOL = PROTOCOL_TCP;
@@ -75,28 +80,40 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
     public static final boolean DEFAULT_NETWORK_SAVE = false;
     public static final boolean DEFAULT_FILE_SAVE = true;
     public static final boolean DEFAULT_SAVE_BINARY = true;
+    public static final boolean DEFAULT_SAVE_STATS = false;
     public static final long DEFAULT_SAMPLING_PERIOD = SensorManager.SENSOR_DELAY_NORMAL;
 
-    public static final short TYPE_START = -1;
-    public static final short TYPE_PAUSE = -2;
-    public static final short TYPE_END = -3;
-    public static final short TYPE_DEVICE = -4;
-    public static final short TYPE_BATTERY_VOLTAGE = -5;
-    public static final short TYPE_GPS = -6;
-    public static final short TYPE_GPS_NMEA = -7;
-    public static final short TYPE_BLE = -8;
-
-    protected static final int LOG_VERSION = 1301;
-
-    protected static final String SEPARATOR = "\t";
-    protected static final String NEW_LINE = "\n";
-    protected static final String PREFIX_UNKNOWN = "unknown";
+    public static final short TYPE_START = RecordFormat.TYPE_START;
+    public static final short TYPE_PAUSE = RecordFormat.TYPE_PAUSE;
+    public static final short TYPE_END = RecordFormat.TYPE_END;
+    public static final short TYPE_DEVICE = RecordFormat.TYPE_DEVICE;
+    public static final short TYPE_BATTERY_VOLTAGE = RecordFormat.TYPE_BATTERY_VOLTAGE;
+    public static final short TYPE_GPS = RecordFormat.TYPE_GPS;
+    public static final short TYPE_GPS_NMEA = RecordFormat.TYPE_GPS_NMEA;
+    public static final short TYPE_BLE = RecordFormat.TYPE_BLE;
+    public static final short TYPE_STATS = RecordFormat.TYPE_STATS;
+    public static final short TYPE_GAP = RecordFormat.TYPE_GAP;
+    public static final short TYPE_BLE_MAP = RecordFormat.TYPE_BLE_MAP;
+    public static final short TYPE_BLE_VALUE = RecordFormat.TYPE_BLE_VALUE;
+
+    protected static final int LOG_VERSION = RecordFormat.VERSION;
+
+    protected static final String SEPARATOR = RecordFormat.SEPARATOR;
+    protected static final String NEW_LINE = RecordFormat.NEW_LINE;
+    protected static final String PREFIX_UNKNOWN = RecordFormat.PREFIX_UNKNOWN;
     protected static final String BINARY_FILE_NAME = "Recording %d.bin";
     protected static final String TEXT_FILE_NAME = "Recording %d.txt";
-    protected static final String MAGIC_WORD = "SensorsRecord";
+    protected static final String MAGIC_WORD = RecordFormat.MAGIC_WORD;
 
     protected static final String TAG = "SensRec";
 
+    protected static final long METRICS_PERIOD = 1000;
+    protected static final long STATS_PERIOD = 10000;
+
+    static {
+        AndroidPlatform.install();
+    }
+
     protected Context context;
     protected Handler uiHandler;
     protected SensorManager sensorManager;
@@ -106,15 +123,37 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
     protected SharedPreferences prefs;
     protected List<OnRecordingListener> onRecordingListeners = new ArrayList<>();
     protected List<OnBleRecordersChangedListener> onBleRecordersListeners = new ArrayList<>();
+    protected List<OnMetricsListener> onMetricsListeners = new ArrayList<>();
     protected PhysicalRecorderComparator physicalComparator;
     protected List<Recorder> recorders;
     protected SortedMap<Integer, BleRecorder> bleRecorders;
     protected RecorderOutput output;
+    protected PipelineMetrics metrics = new PipelineMetrics();
+    protected TrackAccumulator track = new TrackAccumulator();
 
     protected long lastDuration;
     protected long lastTime;
     protected boolean active;
     protected boolean paused;
+    protected long lastStatsTime;
+
+    private Runnable metricsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long time = SystemClock.elapsedRealtime();
+            if (isRecording() && isSavingStats() && time - lastStatsTime >= STATS_PERIOD) {
+                recordStats(output);
+                lastStatsTime = time;
+            }
+            if (isRecording()) {
+                output.flush();
+            }
+            notifyMetrics();
+            if (active) {
+                uiHandler.postDelayed(this, METRICS_PERIOD);
+            }
+        }
+    };
 
     private BroadcastReceiver bluetoothStateReceiver = new BroadcastReceiver() {
         @Override
@@ -133,11 +172,11 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
     };
 
     public static short getSensorTypeId(int type) {
-        return (short) (type * 2);
+        return RecordFormat.getSensorTypeId(type);
     }
 
     public static short getSensorAccuracyId(int type) {
-        return (short) (type * 2 + 1);
+        return RecordFormat.getSensorAccuracyId(type);
     }
 
     public SensorsRecorder(Context context) {
@@ -290,6 +329,21 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
         onBleRecordersListeners.remove(listener);
     }
 
+    /**
+     * Registers a listener called on the UI thread with the pipeline
+     * metrics every second while recording and once right away.
+     *
+     * @param listener metrics listener
+     */
+    public void addOnMetricsListener(OnMetricsListener listener) {
+        onMetricsListeners.add(listener);
+        listener.onMetrics(metrics);
+    }
+
+    public void removeOnMetricsListener(OnMetricsListener listener) {
+        onMetricsListeners.remove(listener);
+    }
+
     protected SensorManager getSensorManager() {
         return sensorManager;
     }
@@ -330,6 +384,15 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
         return output;
     }
 
+    public TrackAccumulator getTrack() {
+        return track;
+    }
+
+    @Override
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
     public long getDuration(long millisecond) {
         if (active && !paused) {
             return lastDuration + millisecond - lastTime;
@@ -338,6 +401,7 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
         }
     }
 
+    @Override
     public boolean isActive() {
         return active;
     }
@@ -379,10 +443,17 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
         if (!active) {
             lastTime = SystemClock.elapsedRealtime();
             lastDuration = 0;
+            lastStatsTime = lastTime;
+            track.reset();
+            metrics.reset();
             active = true;
             paused = false;
+            uiHandler.postDelayed(metricsRunnable, METRICS_PERIOD);
             startOutput();
             startBluetooth();
+            for (Map.Entry<Integer, BleRecorder> recorder : bleRecorders.entrySet()) {
+                recorder.getValue().reset();
+            }
             startSensors();
             notifyStarted();
         } else if (paused) {
@@ -398,8 +469,10 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
         if (!paused) {
             lastDuration += SystemClock.elapsedRealtime() - lastTime;
             paused = true;
+            track.split();
             stopSensors();
             stopBluetooth();
+            output.flush();
             notifyPaused();
         }
     }
@@ -412,7 +485,12 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
             active = false;
             stopSensors();
             stopBluetooth();
+            if (isSavingStats()) {
+                recordStats(output);
+            }
+            uiHandler.removeCallbacks(metricsRunnable);
             stopOutput();
+            notifyMetrics();
             notifyStopped();
         }
     }
@@ -473,6 +551,7 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
                 physicalComparator.isDefaultEnabled(recorder));
     }
 
+    @Override
     public void recordStart(Output.Record record) {
         long time = SystemClock.elapsedRealtime();
         long wallTime = System.currentTimeMillis();
@@ -484,6 +563,7 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
                 .save();
     }
 
+    @Override
     public void recordStop(Output.Record record) {
         long time = SystemClock.elapsedRealtime();
         long wallTime = System.currentTimeMillis();
@@ -494,15 +574,65 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
                 .write(time)                                // 8B
                 .write(wallTime)                            // 8B
                 .write(duration)                            // 8B
-                .write(0l)                                  // 8B, moving time
-                .write(-1.0)                                // 8B, move distance
+                .write(track.getMovingDuration())           // 8B, moving time
+                .write(track.getDistance())                 // 8B, move distance
                 .save();
     }
 
+    /**
+     * Records a statistics frame for every sink and every channel that had
+     * any records, with the counters accumulated since the start of the
+     * recording.
+     * Sinks are recorded with zero subject type and the sink as device.
+     *
+     * @param output output to record statistics to
+     */
+    public void recordStats(Output output) {
+        long time = SystemClock.elapsedRealtime();
+        for (PipelineMetrics.Channel channel : metrics.getChannels()) {
+            if (channel.get(PipelineMetrics.COUNT) == 0) {
+                continue;
+            }
+            recordStats(output.start(TYPE_STATS, (short) 0), time, channel.getTypeId(),
+                    channel.getDeviceId(), channel);
+        }
+        for (PipelineMetrics.Sink sink : metrics.getSinks()) {
+            recordStats(output.start(TYPE_STATS, (short) 0), time, (short) 0,
+                    (short) sink.getId(), sink);
+        }
+    }
+
+    private void recordStats(Output.Record record, long time, short typeId, short deviceId,
+                             PipelineMetrics.Counters counters) {
+        record.write(time)                                  // 8B
+                .write(typeId)                              // 2B, subject type
+                .write(deviceId);                           // 2B, subject device
+        for (int i = 0; i < PipelineMetrics.COUNTERS; ++i) {
+            record.write(counters.get(i));                  // 8B
+        }
+        record.save();
+    }
+
+    public boolean isSavingStats() {
+        return prefs.getBoolean(PREF_SAVE_STATS, DEFAULT_SAVE_STATS);
+    }
+
+    @Override
     public boolean isSaving() {
         return prefs.getBoolean(PREF_FILE_SAVE, DEFAULT_FILE_SAVE);
     }
 
+    @Override
+    public boolean isStorageMounted() {
+        return Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState());
+    }
+
+    @Override
+    public File getOutputDirectory() {
+        return context.getExternalFilesDir(null);
+    }
+
+    @Override
     public String getOutputFileName(boolean binary) {
         if (binary) {
             return BINARY_FILE_NAME;
@@ -511,26 +641,32 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
         }
     }
 
+    @Override
     public boolean isStreaming() {
         return prefs.getBoolean(PREF_NETWORK_SAVE, DEFAULT_NETWORK_SAVE);
     }
 
+    @Override
     public String getOutputHost(boolean binary) {
         return prefs.getString(PREF_NETWORK_HOST, DEFAULT_HOST);
     }
 
+    @Override
     public int getOutputProtocol(boolean binary) {
         return prefs.getInt(PREF_NETWORK_PROTOCOL, DEFAULT_PROTOCOL);
     }
 
+    @Override
     public int getOutputPort(boolean binary) {
         return prefs.getInt(PREF_NETWORK_PORT, DEFAULT_PORT);
     }
 
+    @Override
     public int getLastFileIndex() {
         return prefs.getInt(PREF_LAST_FILE_INDEX, 0);
     }
 
+    @Override
     public void setLastFileIndex(int fileIndex) {
         prefs.edit().putInt(PREF_LAST_FILE_INDEX, fileIndex).apply();
     }
@@ -544,92 +680,15 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
     }
 
     public String getTypePrefix(short typeId, short deviceId) {
-        if (typeId < 0) {
-            return getOtherTypePrefix(typeId, deviceId);
-        } else {
-            String prefix = getSensorTypePrefix((short) (typeId / 2));
-            if (!PREFIX_UNKNOWN.equals(prefix)) {
-                if (typeId < 0 || typeId % 2 == 0) {
-                    return String.format("%s_%d", prefix, deviceId);
-                } else {
-                    return String.format("%s_%d_acc", prefix, deviceId);
-                }
-            } else {
-                return prefix;
-            }
-        }
+        return RecordFormat.getTypePrefix(typeId, deviceId);
     }
 
     public String getOtherTypePrefix(short typeId, short deviceId) {
-        switch (typeId) {
-            case TYPE_START:
-                return "start";
-            case TYPE_PAUSE:
-                return "pause";
-            case TYPE_END:
-                return "end";
-            case TYPE_DEVICE:
-                return "device";
-            case TYPE_BATTERY_VOLTAGE:
-                return "bat";
-            case TYPE_GPS:
-                return "gps";
-            case TYPE_GPS_NMEA:
-                return "nmea";
-            case TYPE_BLE:
-                return String.format("ble_%d", deviceId);
-            default:
-                return PREFIX_UNKNOWN;
-        }
+        return RecordFormat.getOtherTypePrefix(typeId, deviceId);
     }
 
     public String getSensorTypePrefix(short typeId) {
-        switch (typeId) {
-            case Sensor.TYPE_ACCELEROMETER:
-                return "accel";
-            case Sensor.TYPE_AMBIENT_TEMPERATURE:
-                return "amb";
-            case Sensor.TYPE_GAME_ROTATION_VECTOR:
-                return "rotg";
-            case Sensor.TYPE_GEOMAGNETIC_ROTATION_VECTOR:
-                return "rotgeo";
-            case Sensor.TYPE_GRAVITY:
-                return "grav";
-            case Sensor.TYPE_GYROSCOPE:
-                return "gyro";
-            case Sensor.TYPE_GYROSCOPE_UNCALIBRATED:
-                return "ugyro";
-            case Sensor.TYPE_HEART_RATE:
-                return "heart";
-            case Sensor.TYPE_LIGHT:
-                return "light";
-            case Sensor.TYPE_LINEAR_ACCELERATION:
-                return "lacc";
-            case Sensor.TYPE_MAGNETIC_FIELD:
-                return "magn";
-            case Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED:
-                return "umagn";
-            case Sensor.TYPE_ORIENTATION:
-                return "orient";
-            case Sensor.TYPE_PRESSURE:
-                return "press";
-            case Sensor.TYPE_PROXIMITY:
-                return "prox";
-            case Sensor.TYPE_RELATIVE_HUMIDITY:
-                return "humi";
-            case Sensor.TYPE_ROTATION_VECTOR:
-                return "rotv";
-            case Sensor.TYPE_SIGNIFICANT_MOTION:
-                return "motion";
-            case Sensor.TYPE_STEP_COUNTER:
-                return "stepc";
-            case Sensor.TYPE_STEP_DETECTOR:
-                return "stepd";
-            case Sensor.TYPE_TEMPERATURE:
-                return "temp";
-            default:
-                return PREFIX_UNKNOWN;
-        }
+        return RecordFormat.getSensorTypePrefix(typeId);
     }
 
     public String getBatteryVoltageName() {
@@ -765,6 +824,12 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
         }
     }
 
+    protected void notifyMetrics() {
+        for (OnMetricsListener listener : onMetricsListeners) {
+            listener.onMetrics(metrics);
+        }
+    }
+
     protected void notifyBleRecordersChanged() {
         for (OnBleRecordersChangedListener listener : onBleRecordersListeners) {
             listener.onBleRecordersChanged();
@@ -781,4 +846,8 @@ public class SensorsRecorder implements SharedPreferences.OnSharedPreferenceChan
     public interface OnBleRecordersChangedListener {
         void onBleRecordersChanged();
     }
+
+    public interface OnMetricsListener {
+        void onMetrics(PipelineMetrics metrics);
+    }
 }
@@ -0,0 +1,156 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec;
+
+/**
+ * Accumulates travelled distance and moving time of a recording from the
+ * consecutive location fixes. Only the last fixes are kept, so memory use
+ * is constant and adding a fix doesn't allocate.
+ *
+ * <p>Fixes less accurate than {@link #MAXIMUM_ACCURACY} are dropped and
+ * fixes of unknown accuracy are taken as that inaccurate. Distance is
+ * added only once the position moves away from the last anchor by more
+ * than twice the combined accuracy of both fixes, so that the jitter of a
+ * stationary receiver doesn't add up. The anchor moves only together with
+ * the added distance, so a slow movement is not lost. Time between two
+ * fixes counts as moving if the speed reported by the receiver is at least
+ * {@link #MOVING_SPEED}. If the receiver doesn't report speed, time since
+ * the anchor counts as moving when the anchor is moved fast enough.
+ */
+public class TrackAccumulator {
+
+    public static final double EARTH_RADIUS = 6371008.8;
+
+    public static final float MAXIMUM_ACCURACY = 50.0f;
+    public static final float MOVING_SPEED = 0.5f;
+    public static final long MAXIMUM_INTERVAL = 30000;
+
+    // Anchor of the distance measurement
+    private boolean anchored;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private float anchorAccuracy;
+    private long anchorMillisecond;
+
+    // Previous fix used for the moving time
+    private long lastMillisecond;
+
+    private double distance;
+    private long movingDuration;
+    private int fixes;
+
+    public synchronized void reset() {
+        anchored = false;
+        distance = 0.0;
+        movingDuration = 0;
+        fixes = 0;
+    }
+
+    /**
+     * Breaks the track, so that nothing is accumulated between the last
+     * fix and the next one. Used when a recording is paused.
+     */
+    public synchronized void split() {
+        anchored = false;
+    }
+
+    /**
+     * Adds a location fix.
+     *
+     * @param millisecond elapsed time of the fix in milliseconds
+     * @param latitude latitude in degrees
+     * @param longitude longitude in degrees
+     * @param accuracy horizontal accuracy in meters or a negative value if
+     *                 unknown, in which case {@link #MAXIMUM_ACCURACY} is
+     *                 assumed
+     * @param speed speed in meters per second or a negative value if unknown
+     */
+    public synchronized void add(long millisecond, double latitude, double longitude,
+                                 float accuracy, float speed) {
+        if (accuracy > MAXIMUM_ACCURACY) {
+            return;
+        } else if (accuracy < 0.0f) {
+            accuracy = MAXIMUM_ACCURACY;
+        }
+        ++fixes;
+
+        if (!anchored) {
+            anchor(millisecond, latitude, longitude, accuracy);
+            lastMillisecond = millisecond;
+            anchored = true;
+            return;
+        }
+
+        long interval = millisecond - lastMillisecond;
+        if (speed >= MOVING_SPEED && interval > 0 && interval <= MAXIMUM_INTERVAL) {
+            movingDuration += interval;
+        }
+        lastMillisecond = millisecond;
+
+        double step = haversine(anchorLatitude, anchorLongitude, latitude, longitude);
+        double threshold = 2.0 * Math.sqrt(anchorAccuracy * anchorAccuracy + accuracy * accuracy);
+        if (step > threshold) {
+            long elapsed = millisecond - anchorMillisecond;
+            if (speed < 0.0f && elapsed > 0 && step / (elapsed / 1000.0) >= MOVING_SPEED) {
+                movingDuration += elapsed;
+            }
+            distance += step;
+            anchor(millisecond, latitude, longitude, accuracy);
+        }
+    }
+
+    /**
+     * Gets distance travelled in meters.
+     *
+     * @return distance or <code>-1</code> if no fix was accepted
+     */
+    public synchronized double getDistance() {
+        return fixes > 0 ? distance : -1.0;
+    }
+
+    /**
+     * Gets time spent moving in milliseconds.
+     */
+    public synchronized long getMovingDuration() {
+        return movingDuration;
+    }
+
+    /**
+     * Computes the great-circle distance between two points.
+     *
+     * @return distance in meters
+     */
+    public static double haversine(double latitude1, double longitude1,
+                                   double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double sinPhi = Math.sin((phi2 - phi1) / 2.0);
+        double sinLambda = Math.sin(Math.toRadians(longitude2 - longitude1) / 2.0);
+        double a = sinPhi * sinPhi + Math.cos(phi1) * Math.cos(phi2) * sinLambda * sinLambda;
+        return 2.0 * EARTH_RADIUS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    private void anchor(long millisecond, double latitude, double longitude, float accuracy) {
+        anchorMillisecond = millisecond;
+        anchorLatitude = latitude;
+        anchorLongitude = longitude;
+        anchorAccuracy = accuracy;
+    }
+}
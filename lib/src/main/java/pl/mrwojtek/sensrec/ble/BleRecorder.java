@@ -37,20 +37,35 @@ import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.UUID;
 
 import pl.mrwojtek.sensrec.FrequencyMeasure;
 import pl.mrwojtek.sensrec.Recorder;
 import pl.mrwojtek.sensrec.SensorsRecorder;
+import pl.mrwojtek.sensrec.UuidDictionary;
+import pl.mrwojtek.sensrec.ValueHistory;
 
 /**
  * Recorder for Bluetooth Low Energy devices. Current implementation supports
  * only the heart rate sensor devices.
+ *
+ * <p>Each characteristic gets a short channel id written once in a mapping
+ * frame, so the notifications are recorded as the id and the value only.
+ * Ids are kept across reconnections, so an id names the same
+ * characteristic for the whole recording. All the mappings are written
+ * again periodically and after the network stream may have lost records,
+ * so that a live consumer can resolve the ids as well.
  */
 @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
 public class BleRecorder extends BluetoothGattCallback implements Recorder {
 
     private static final String TAG = "Ble";
 
+    // Intervals in milliseconds between the repeated mappings, regularly
+    // and at most after the network stream lost records
+    private static final long MAPPINGS_PERIOD = 10000;
+    private static final long MAPPINGS_LOSS_PERIOD = 1000;
+
     protected FrequencyMeasure measure = new FrequencyMeasure();
     protected SensorsRecorder sensorsRecorder;
     protected String address;
@@ -64,6 +79,9 @@ public class BleRecorder extends BluetoothGattCallback implements Recorder {
     protected Queue<BluetoothGattCharacteristic> forRetrieval = new LinkedList<>();
     protected List<BluetoothGattCharacteristic> forSubscription = new ArrayList<>();
     protected boolean discovered;
+    protected UuidDictionary channels = new UuidDictionary();
+    protected int lossCount;
+    protected long mappingsMillisecond;
 
     protected Runnable connectRunnable = new Runnable() {
         @Override
@@ -141,6 +159,11 @@ public class BleRecorder extends BluetoothGattCallback implements Recorder {
         return measure;
     }
 
+    @Override
+    public ValueHistory getValueHistory() {
+        return null;
+    }
+
     @Override
     public Collection<String> getRequiredPermissions() {
         return null;
@@ -151,13 +174,24 @@ public class BleRecorder extends BluetoothGattCallback implements Recorder {
         start();
     }
 
+    /**
+     * Forgets the channel ids of the previous recording. Called when a new
+     * recording begins, but not when a paused one is resumed, so that an
+     * id names the same characteristic in the whole file.
+     */
+    public synchronized void reset() {
+        channels.clear();
+    }
+
     @Override
     public void start() {
         if (address == null || started) {
             return;
         }
 
-        discovered = false;
+        synchronized(this) {
+            discovered = false;
+        }
 
         final BluetoothAdapter bluetoothAdapter = sensorsRecorder.getBluetoothAdapter();
         if (bluetoothAdapter != null) {
@@ -334,26 +368,50 @@ public class BleRecorder extends BluetoothGattCallback implements Recorder {
         }
     }
 
-    private void onCharacteristicValue(final BluetoothGattCharacteristic characteristic) {
-        if (GattResolver.HEART_RATE_MEASUREMENT.equals(characteristic.getUuid())) {
-            final int flag = characteristic.getProperties();
-            final int format = (flag & 0x01) != 0 ? BluetoothGattCharacteristic.FORMAT_UINT16 :
-                    BluetoothGattCharacteristic.FORMAT_UINT8;
-            final int heartRate = characteristic.getIntValue(format, 1);
-            Log.d(TAG, "Received " + characteristic.getUuid() + " (heartRate=" + heartRate + ")");
-        } else {
-            Log.d(TAG, "Received " + characteristic.getUuid());
+    private synchronized void onCharacteristicValue(
+            BluetoothGattCharacteristic characteristic) {
+        if (!started) {
+            return;
         }
 
-        if (started) {
-            long millisecond = measure.onNewSample();
-            sensorsRecorder.getOutput()
-                    .start(getTypeId(), getDeviceId())
-                    .write(millisecond)
-                    .write(characteristic.getUuid().getMostSignificantBits())
-                    .write(characteristic.getUuid().getLeastSignificantBits())
-                    .write(characteristic.getValue(), 0, characteristic.getValue().length)
-                    .save();
+        long millisecond = measure.onNewSample();
+        int losses = sensorsRecorder.getOutput().getSocketOutput().getLossCount();
+        long elapsed = millisecond - mappingsMillisecond;
+        if (elapsed >= MAPPINGS_PERIOD ||
+                (losses != lossCount && elapsed >= MAPPINGS_LOSS_PERIOD)) {
+            lossCount = losses;
+            mappingsMillisecond = millisecond;
+            for (int i = 0; i < channels.size(); ++i) {
+                recordMapping(millisecond, i);
+            }
         }
+
+        UUID uuid = characteristic.getUuid();
+        long most = uuid.getMostSignificantBits();
+        long least = uuid.getLeastSignificantBits();
+        int channel = channels.get(most, least);
+        if (channel == UuidDictionary.NO_ID) {
+            channel = channels.add(most, least);
+            Log.i(TAG, "Recording characteristic " + uuid + " as channel " + channel);
+            recordMapping(millisecond, channel);
+        }
+
+        byte[] value = characteristic.getValue();
+        sensorsRecorder.getOutput()
+                .start(SensorsRecorder.TYPE_BLE_VALUE, getDeviceId())
+                .write(millisecond)
+                .write((short) channel)
+                .write(value, 0, value.length)
+                .save();
+    }
+
+    private void recordMapping(long millisecond, int channel) {
+        sensorsRecorder.getOutput()
+                .start(SensorsRecorder.TYPE_BLE_MAP, getDeviceId())
+                .write(millisecond)
+                .write((short) channel)
+                .write(channels.getMostSignificantBits(channel))
+                .write(channels.getLeastSignificantBits(channel))
+                .save();
     }
 }
@@ -0,0 +1,245 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+package pl.mrwojtek.sensrec.tools;
+
+/**
+ * Columnar output in the Arrow IPC streaming format: a schema message,
+ * one record batch message per {@link ColumnBatch} and the end-of-stream
+ * marker. Columns are non-nullable 64-bit integers, single or double
+ * precision floating point numbers, UTF-8 strings or binary values.
+ */
+public class ArrowStreamFormat implements ChannelFormat {
+
+    protected static final short METADATA_VERSION_V5 = 4;
+    protected static final byte HEADER_SCHEMA = 1;
+    protected static final byte HEADER_RECORD_BATCH = 3;
+    protected static final byte TYPE_INT = 2;
+    protected static final byte TYPE_FLOATING_POINT = 3;
+    protected static final byte TYPE_BINARY = 4;
+    protected static final byte TYPE_UTF8 = 5;
+    protected static final short PRECISION_SINGLE = 1;
+    protected static final short PRECISION_DOUBLE = 2;
+
+    private static final int CONTINUATION = 0xffffffff;
+    private static final int ALIGNMENT = 8;
+
+    private FlatBufferBuilder builder = new FlatBufferBuilder(1024);
+    private int[] offsets = new int[16];
+    private long[] bufferOffsets = new long[48];
+    private long[] bufferLengths = new long[48];
+
+    @Override
+    public String getExtension() {
+        return ".arrows";
+    }
+
+    @Override
+    public void writeHeader(ChannelLayout layout, ByteChunk chunk) {
+        int columnCount = layout.getColumnCount();
+        ensureColumns(columnCount);
+
+        builder.clear();
+        for (int column = 0; column < columnCount; ++column) {
+            int name = builder.createString(layout.getColumnName(column));
+            int kind = layout.getColumnKind(column);
+            int type = createType(kind);
+            builder.startVector(4, 0, 4);
+            int children = builder.endVector(0);
+
+            builder.startTable(7);
+            builder.addOffset(0, name);
+            builder.addOffset(3, type);
+            builder.addOffset(5, children);
+            builder.addByte(2, getTypeType(kind));
+            builder.addBoolean(1, false);
+            offsets[column] = builder.endTable();
+        }
+        int fields = builder.createOffsetVector(offsets, columnCount);
+
+        builder.startTable(4);
+        builder.addOffset(1, fields);
+        builder.addShort(0, (short) 0);
+        int schema = builder.endTable();
+
+        writeMessage(chunk, HEADER_SCHEMA, schema, 0);
+    }
+
+    @Override
+    public void writeBatch(ColumnBatch batch, ByteChunk chunk) {
+        ChannelLayout layout = batch.getLayout();
+        int rows = batch.size();
+        int columnCount = layout.getColumnCount();
+        ensureColumns(columnCount);
+
+        // Lay out the body buffers, every buffer starts at an aligned offset
+        int bufferCount = 0;
+        long bodyLength = 0;
+        for (int column = 0; column < columnCount; ++column) {
+            bufferOffsets[bufferCount] = bodyLength;
+            bufferLengths[bufferCount++] = 0;
+
+            int kind = layout.getColumnKind(column);
+            if (kind == ChannelLayout.KIND_TEXT || kind == ChannelLayout.KIND_BINARY) {
+                bufferOffsets[bufferCount] = bodyLength;
+                bufferLengths[bufferCount++] = 4L * (rows + 1);
+                bodyLength += align(4L * (rows + 1));
+                bufferOffsets[bufferCount] = bodyLength;
+                bufferLengths[bufferCount++] = batch.getBytesEnd(rows - 1);
+                bodyLength += align(batch.getBytesEnd(rows - 1));
+            } else {
+                long length = (long) getWidth(kind) * rows;
+                bufferOffsets[bufferCount] = bodyLength;
+                bufferLengths[bufferCount++] = length;
+                bodyLength += align(length);
+            }
+        }
+
+        builder.clear();
+        builder.startVector(16, bufferCount, 8);
+        for (int i = bufferCount - 1; i >= 0; --i) {
+            builder.prep(8, 16);
+            builder.putLong(bufferLengths[i]);
+            builder.putLong(bufferOffsets[i]);
+        }
+        int buffers = builder.endVector(bufferCount);
+
+        builder.startVector(16, columnCount, 8);
+        for (int i = columnCount - 1; i >= 0; --i) {
+            builder.prep(8, 16);
+            builder.putLong(0);
+            builder.putLong(rows);
+        }
+        int nodes = builder.endVector(columnCount);
+
+        builder.startTable(5);
+        builder.addLong(0, rows);
+        builder.addOffset(1, nodes);
+        builder.addOffset(2, buffers);
+        int recordBatch = builder.endTable();
+
+        writeMessage(chunk, HEADER_RECORD_BATCH, recordBatch, bodyLength);
+
+        int start = chunk.length();
+        for (int column = 0; column < columnCount; ++column) {
+            switch (layout.getColumnKind(column)) {
+                case ChannelLayout.KIND_LONG:
+                    for (int row = 0; row < rows; ++row) {
+                        chunk.putLongLE(batch.getLong(column, row));
+                    }
+                    break;
+                case ChannelLayout.KIND_FLOAT:
+                    for (int row = 0; row < rows; ++row) {
+                        chunk.putFloatLE((float) batch.getDouble(column, row));
+                    }
+                    break;
+                case ChannelLayout.KIND_DOUBLE:
+                    for (int row = 0; row < rows; ++row) {
+                        chunk.putDoubleLE(batch.getDouble(column, row));
+                    }
+                    break;
+                default:
+                    chunk.putIntLE(0);
+                    for (int row = 0; row < rows; ++row) {
+                        chunk.putIntLE(batch.getBytesEnd(row));
+                    }
+                    pad(chunk, start);
+                    chunk.put(batch.getBytes(), 0, batch.getBytesEnd(rows - 1));
+                    break;
+            }
+            pad(chunk, start);
+        }
+    }
+
+    @Override
+    public void writeFooter(ChannelLayout layout, ByteChunk chunk) {
+        chunk.putIntLE(CONTINUATION);
+        chunk.putIntLE(0);
+    }
+
+    private void writeMessage(ByteChunk chunk, byte headerType, int header, long bodyLength) {
+        builder.startTable(5);
+        builder.addLong(3, bodyLength);
+        builder.addOffset(2, header);
+        builder.addShort(0, METADATA_VERSION_V5);
+        builder.addByte(1, headerType);
+        int message = builder.endTable();
+        builder.finish(message);
+
+        int length = builder.getDataLength();
+        int paddedLength = (int) align(length);
+        chunk.putIntLE(CONTINUATION);
+        chunk.putIntLE(paddedLength);
+        chunk.put(builder.getBuffer(), builder.getDataStart(), length);
+        chunk.putZeros(paddedLength - length);
+    }
+
+    private int createType(int kind) {
+        switch (kind) {
+            case ChannelLayout.KIND_LONG:
+                builder.startTable(2);
+                builder.addInt(0, 64);
+                builder.addBoolean(1, true);
+                return builder.endTable();
+            case ChannelLayout.KIND_FLOAT:
+            case ChannelLayout.KIND_DOUBLE:
+                builder.startTable(1);
+                builder.addShort(0, kind == ChannelLayout.KIND_FLOAT ?
+                        PRECISION_SINGLE : PRECISION_DOUBLE);
+                return builder.endTable();
+            default:
+                builder.startTable(0);
+                return builder.endTable();
+        }
+    }
+
+    private static byte getTypeType(int kind) {
+        switch (kind) {
+            case ChannelLayout.KIND_LONG:
+                return TYPE_INT;
+            case ChannelLayout.KIND_FLOAT:
+            case ChannelLayout.KIND_DOUBLE:
+                return TYPE_FLOATING_POINT;
+            case ChannelLayout.KIND_TEXT:
+                return TYPE_UTF8;
+            default:
+                return TYPE_BINARY;
+        }
+    }
+
+    private static int getWidth(int kind) {
+        return kind == ChannelLayout.KIND_FLOAT ? 4 : 8;
+    }
+
+    private static long align(long length) {
+        return (length + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+    }
+
+    private static void pad(ByteChunk chunk, int start) {
+        int length = chunk.length() - start;
+        chunk.putZeros((int) (align(length) - length));
+    }
+
+    private void ensureColumns(int columnCount) {
+        if (offsets.length < columnCount) {
+            offsets = new int[columnCount];
+            bufferOffsets = new long[3 * columnCount];
+            bufferLengths = new long[3 * columnCount];
+        }
+    }
+}
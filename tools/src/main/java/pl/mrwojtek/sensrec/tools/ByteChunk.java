@@ -0,0 +1,147 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.tools;
+
+/**
+ * Reusable growable byte array that formatted output is assembled in.
+ * Multi-byte numbers are stored in the little-endian order.
+ */
+public class ByteChunk {
+
+    private static final byte[] DIGITS = "0123456789ABCDEF".getBytes();
+
+    private byte[] data;
+    private int length;
+    private byte[] scratch = new byte[20];
+
+    public ByteChunk(int capacity) {
+        data = new byte[capacity];
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void clear() {
+        length = 0;
+    }
+
+    public ByteChunk put(byte value) {
+        ensure(1);
+        data[length++] = value;
+        return this;
+    }
+
+    public ByteChunk put(byte[] value, int offset, int count) {
+        ensure(count);
+        System.arraycopy(value, offset, data, length, count);
+        length += count;
+        return this;
+    }
+
+    public ByteChunk putZeros(int count) {
+        ensure(count);
+        for (int i = 0; i < count; ++i) {
+            data[length++] = 0;
+        }
+        return this;
+    }
+
+    public ByteChunk putIntLE(int value) {
+        ensure(4);
+        data[length++] = (byte) value;
+        data[length++] = (byte) (value >> 8);
+        data[length++] = (byte) (value >> 16);
+        data[length++] = (byte) (value >> 24);
+        return this;
+    }
+
+    public ByteChunk putLongLE(long value) {
+        putIntLE((int) value);
+        putIntLE((int) (value >> 32));
+        return this;
+    }
+
+    public ByteChunk putFloatLE(float value) {
+        return putIntLE(Float.floatToRawIntBits(value));
+    }
+
+    public ByteChunk putDoubleLE(double value) {
+        return putLongLE(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Appends characters of a string that are known to be ASCII.
+     */
+    public ByteChunk putAscii(String value) {
+        int count = value.length();
+        ensure(count);
+        for (int i = 0; i < count; ++i) {
+            data[length++] = (byte) value.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Appends decimal representation of a number.
+     */
+    public ByteChunk putDecimal(long value) {
+        if (value == Long.MIN_VALUE) {
+            return putAscii(Long.toString(value));
+        }
+
+        if (value < 0) {
+            put((byte) '-');
+            value = -value;
+        }
+
+        int i = scratch.length;
+        do {
+            scratch[--i] = DIGITS[(int) (value % 10)];
+            value /= 10;
+        } while (value != 0);
+        return put(scratch, i, scratch.length - i);
+    }
+
+    /**
+     * Appends upper case hexadecimal representation of bytes.
+     */
+    public ByteChunk putHex(byte[] value, int offset, int count) {
+        ensure(2 * count);
+        for (int i = 0; i < count; ++i) {
+            int b = value[offset + i];
+            data[length++] = DIGITS[(b >> 4) & 0xf];
+            data[length++] = DIGITS[b & 0xf];
+        }
+        return this;
+    }
+
+    private void ensure(int count) {
+        if (length + count > data.length) {
+            byte[] newData = new byte[Math.max(length + count, data.length * 2)];
+            System.arraycopy(data, 0, newData, 0, length);
+            data = newData;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+package pl.mrwojtek.sensrec.tools;
+
+/**
+ * Output format of a single channel of a converted recording.
+ */
+public interface ChannelFormat {
+
+    /**
+     * Extension of the channel files including the leading dot.
+     */
+    String getExtension();
+
+    void writeHeader(ChannelLayout layout, ByteChunk chunk);
+
+    void writeBatch(ColumnBatch batch, ByteChunk chunk);
+
+    void writeFooter(ChannelLayout layout, ByteChunk chunk);
+}
@@ -0,0 +1,220 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import pl.mrwojtek.sensrec.io.RecordCursor;
+import pl.mrwojtek.sensrec.io.RecordFormat;
+
+/**
+ * Columns of a single channel of a recording. Layout is resolved from the
+ * first record of a channel; sensor channels take the number of values
+ * from it.
+ */
+public class ChannelLayout {
+
+    public static final int KIND_LONG = 0;
+    public static final int KIND_FLOAT = 1;
+    public static final int KIND_DOUBLE = 2;
+    public static final int KIND_TEXT = 3;
+    public static final int KIND_BINARY = 4;
+
+    protected static final int SOURCE_MILLISECOND = 0;
+    protected static final int SOURCE_TIMESTAMP = 1;
+    protected static final int SOURCE_VALUE = 2;
+    protected static final int SOURCE_UUID_MOST = 3;
+    protected static final int SOURCE_UUID_LEAST = 4;
+    protected static final int SOURCE_PAYLOAD = 5;
+
+    private String name;
+    private short typeId;
+    private short deviceId;
+
+    private List<String> names = new ArrayList<>();
+    private int[] kinds = new int[16];
+    private int[] sources = new int[16];
+    private int[] indices = new int[16];
+    private int[] slots = new int[16];
+    private int columnCount;
+    private int longCount;
+    private int doubleCount;
+    private boolean payload;
+
+    protected ChannelLayout(short typeId, short deviceId) {
+        this.typeId = typeId;
+        this.deviceId = deviceId;
+        this.name = RecordFormat.getTypePrefix(typeId, deviceId);
+        if (RecordFormat.PREFIX_UNKNOWN.equals(name)) {
+            name = String.format("%s_%d_%d", RecordFormat.PREFIX_UNKNOWN, typeId, deviceId);
+        }
+    }
+
+    /**
+     * Creates layout of a channel from its first record.
+     *
+     * @param cursor cursor positioned on the first record of a channel
+     * @return channel layout
+     */
+    public static ChannelLayout create(RecordCursor cursor) {
+        short typeId = cursor.getTypeId();
+        ChannelLayout layout = new ChannelLayout(typeId, cursor.getDeviceId());
+        layout.add("millisecond", KIND_LONG, SOURCE_MILLISECOND, 0);
+
+        if (RecordFormat.isSensorType(typeId)) {
+            layout.add("timestamp", KIND_LONG, SOURCE_TIMESTAMP, 0);
+            for (int i = 0; i < cursor.getValueCount(); ++i) {
+                layout.add("value" + i, KIND_FLOAT, SOURCE_VALUE, i);
+            }
+        } else if (RecordFormat.isAccuracyType(typeId)) {
+            layout.add("accuracy", KIND_LONG, SOURCE_VALUE, 0);
+            layout.add("resolution", KIND_FLOAT, SOURCE_VALUE, 1);
+            layout.add("maximum_range", KIND_FLOAT, SOURCE_VALUE, 2);
+        } else if (typeId == RecordFormat.TYPE_BATTERY_VOLTAGE) {
+            layout.add("percentage", KIND_FLOAT, SOURCE_VALUE, 0);
+            layout.add("voltage", KIND_LONG, SOURCE_VALUE, 1);
+            layout.add("temperature", KIND_LONG, SOURCE_VALUE, 2);
+        } else if (typeId == RecordFormat.TYPE_GPS) {
+            layout.add("latitude", KIND_DOUBLE, SOURCE_VALUE, 0);
+            layout.add("longitude", KIND_DOUBLE, SOURCE_VALUE, 1);
+            layout.add("altitude", KIND_DOUBLE, SOURCE_VALUE, 2);
+            layout.add("bearing", KIND_FLOAT, SOURCE_VALUE, 3);
+            layout.add("speed", KIND_FLOAT, SOURCE_VALUE, 4);
+            layout.add("accuracy", KIND_FLOAT, SOURCE_VALUE, 5);
+            layout.add("time", KIND_LONG, SOURCE_TIMESTAMP, 0);
+        } else if (typeId == RecordFormat.TYPE_GPS_NMEA) {
+            layout.add("timestamp", KIND_LONG, SOURCE_TIMESTAMP, 0);
+            layout.add("sentence", KIND_TEXT, SOURCE_PAYLOAD, 0);
+        } else if (typeId == RecordFormat.TYPE_BLE) {
+            layout.add("uuid_most", KIND_LONG, SOURCE_UUID_MOST, 0);
+            layout.add("uuid_least", KIND_LONG, SOURCE_UUID_LEAST, 0);
+            layout.add("value", KIND_BINARY, SOURCE_PAYLOAD, 0);
+        } else if (typeId == RecordFormat.TYPE_BLE_MAP) {
+            layout.add("channel", KIND_LONG, SOURCE_VALUE, 0);
+            layout.add("uuid_most", KIND_LONG, SOURCE_UUID_MOST, 0);
+            layout.add("uuid_least", KIND_LONG, SOURCE_UUID_LEAST, 0);
+        } else if (typeId == RecordFormat.TYPE_BLE_VALUE) {
+            layout.add("channel", KIND_LONG, SOURCE_VALUE, 0);
+            layout.add("value", KIND_BINARY, SOURCE_PAYLOAD, 0);
+        } else if (typeId == RecordFormat.TYPE_STATS) {
+            layout.add("subject_type", KIND_LONG, SOURCE_VALUE, 0);
+            layout.add("subject_device", KIND_LONG, SOURCE_VALUE, 1);
+            layout.add("count", KIND_LONG, SOURCE_VALUE, 2);
+            layout.add("bytes", KIND_LONG, SOURCE_VALUE, 3);
+            layout.add("dropped", KIND_LONG, SOURCE_VALUE, 4);
+            layout.add("wait_nanos", KIND_LONG, SOURCE_VALUE, 5);
+            layout.add("busy_nanos", KIND_LONG, SOURCE_VALUE, 6);
+            layout.add("busy_count", KIND_LONG, SOURCE_VALUE, 7);
+        } else if (typeId == RecordFormat.TYPE_GAP) {
+            layout.add("subject_type", KIND_LONG, SOURCE_VALUE, 0);
+            layout.add("subject_device", KIND_LONG, SOURCE_VALUE, 1);
+            layout.add("timestamp", KIND_LONG, SOURCE_TIMESTAMP, 0);
+            layout.add("duration_nanos", KIND_LONG, SOURCE_VALUE, 2);
+            layout.add("missed", KIND_LONG, SOURCE_VALUE, 3);
+        } else {
+            for (int i = 0; i < cursor.getValueCount(); ++i) {
+                layout.add("value" + i, KIND_DOUBLE, SOURCE_VALUE, i);
+            }
+        }
+        return layout;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public short getTypeId() {
+        return typeId;
+    }
+
+    public short getDeviceId() {
+        return deviceId;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public String getColumnName(int column) {
+        return names.get(column);
+    }
+
+    public int getColumnKind(int column) {
+        return kinds[column];
+    }
+
+    /**
+     * Index of the column among the columns of the same storage, that is
+     * among the long, the floating point or the payload columns.
+     */
+    public int getColumnSlot(int column) {
+        return slots[column];
+    }
+
+    public int getLongCount() {
+        return longCount;
+    }
+
+    public int getDoubleCount() {
+        return doubleCount;
+    }
+
+    public boolean hasPayload() {
+        return payload;
+    }
+
+    protected int getColumnSource(int column) {
+        return sources[column];
+    }
+
+    protected int getColumnIndex(int column) {
+        return indices[column];
+    }
+
+    private void add(String name, int kind, int source, int index) {
+        if (columnCount == kinds.length) {
+            kinds = grow(kinds);
+            sources = grow(sources);
+            indices = grow(indices);
+            slots = grow(slots);
+        }
+
+        names.add(name);
+        kinds[columnCount] = kind;
+        sources[columnCount] = source;
+        indices[columnCount] = index;
+        if (kind == KIND_LONG) {
+            slots[columnCount] = longCount++;
+        } else if (kind == KIND_FLOAT || kind == KIND_DOUBLE) {
+            slots[columnCount] = doubleCount++;
+        } else {
+            slots[columnCount] = 0;
+            payload = true;
+        }
+        ++columnCount;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.tools;
+
+import pl.mrwojtek.sensrec.io.RecordCursor;
+
+/**
+ * Fixed capacity batch of decoded records of a single channel stored in
+ * columns. Batches are reused, so appending does not allocate unless a
+ * payload larger than any before shows up.
+ */
+public class ColumnBatch {
+
+    private ChannelLayout layout;
+    private int capacity;
+    private int size;
+
+    private long[][] longs;
+    private double[][] doubles;
+    private byte[] bytes;
+    private int[] offsets;
+
+    public ColumnBatch(ChannelLayout layout, int capacity) {
+        this.layout = layout;
+        this.capacity = capacity;
+        this.longs = new long[layout.getLongCount()][capacity];
+        this.doubles = new double[layout.getDoubleCount()][capacity];
+        if (layout.hasPayload()) {
+            this.bytes = new byte[capacity * 32];
+            this.offsets = new int[capacity + 1];
+        }
+    }
+
+    public ChannelLayout getLayout() {
+        return layout;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public long getLong(int column, int row) {
+        return longs[layout.getColumnSlot(column)][row];
+    }
+
+    public double getDouble(int column, int row) {
+        return doubles[layout.getColumnSlot(column)][row];
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getBytesStart(int row) {
+        return offsets[row];
+    }
+
+    public int getBytesEnd(int row) {
+        return offsets[row + 1];
+    }
+
+    /**
+     * Appends the current record of a cursor. Values missing in the record
+     * are stored as <code>NaN</code>.
+     *
+     * @param cursor cursor positioned on a record of this batch channel
+     */
+    public void append(RecordCursor cursor) {
+        for (int column = 0; column < layout.getColumnCount(); ++column) {
+            int slot = layout.getColumnSlot(column);
+            int index = layout.getColumnIndex(column);
+            switch (layout.getColumnSource(column)) {
+                case ChannelLayout.SOURCE_MILLISECOND:
+                    longs[slot][size] = cursor.getMillisecond();
+                    break;
+                case ChannelLayout.SOURCE_TIMESTAMP:
+                    longs[slot][size] = cursor.getTimestamp();
+                    break;
+                case ChannelLayout.SOURCE_UUID_MOST:
+                    longs[slot][size] = cursor.getUuidMostSignificantBits();
+                    break;
+                case ChannelLayout.SOURCE_UUID_LEAST:
+                    longs[slot][size] = cursor.getUuidLeastSignificantBits();
+                    break;
+                case ChannelLayout.SOURCE_VALUE:
+                    double value = index < cursor.getValueCount() ?
+                            cursor.getDouble(index) : Double.NaN;
+                    if (layout.getColumnKind(column) == ChannelLayout.KIND_LONG) {
+                        longs[slot][size] = (long) value;
+                    } else {
+                        doubles[slot][size] = value;
+                    }
+                    break;
+                case ChannelLayout.SOURCE_PAYLOAD:
+                    appendPayload(cursor.getPayload(), 0, cursor.getPayloadLength());
+                    break;
+            }
+        }
+        ++size;
+    }
+
+    /**
+     * Appends a row of another batch of the same channel. Layouts of the
+     * batches may differ in the number of values, the ones missing in the
+     * source are stored as <code>NaN</code>, like by
+     * {@link #append(RecordCursor)}.
+     *
+     * @param source batch of the same channel
+     * @param row row of the source batch
+     */
+    public void append(ColumnBatch source, int row) {
+        ChannelLayout sourceLayout = source.layout;
+        for (int column = 0; column < layout.getColumnCount(); ++column) {
+            int slot = layout.getColumnSlot(column);
+            boolean present = column < sourceLayout.getColumnCount();
+            int sourceSlot = present ? sourceLayout.getColumnSlot(column) : 0;
+            switch (layout.getColumnKind(column)) {
+                case ChannelLayout.KIND_LONG:
+                    longs[slot][size] = present ? source.longs[sourceSlot][row] :
+                            (long) Double.NaN;
+                    break;
+                case ChannelLayout.KIND_FLOAT:
+                case ChannelLayout.KIND_DOUBLE:
+                    doubles[slot][size] = present ? source.doubles[sourceSlot][row] :
+                            Double.NaN;
+                    break;
+                default:
+                    int start = source.offsets[row];
+                    appendPayload(source.bytes, start, source.offsets[row + 1] - start);
+                    break;
+            }
+        }
+        ++size;
+    }
+
+    private void appendPayload(byte[] payload, int offset, int length) {
+        int start = offsets[size];
+        if (start + length > bytes.length) {
+            byte[] newBytes = new byte[Math.max(start + length, bytes.length * 2)];
+            System.arraycopy(bytes, 0, newBytes, 0, start);
+            bytes = newBytes;
+        }
+        System.arraycopy(payload, offset, bytes, start, length);
+        offsets[size + 1] = start + length;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+package pl.mrwojtek.sensrec.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Command line converter of recordings to per channel CSV or Arrow files.
+ * Recordings of the given directories are converted concurrently and large
+ * recordings are decoded in parallel on a pool shared by the conversions.
+ */
+public class ConvertTool {
+
+    private static final String USAGE =
+            "usage: convert [-f csv|arrow] [-o output] [-j jobs] recording|directory...";
+
+    private PrintStream out;
+    private String formatName = RecordConverter.FORMAT_CSV;
+    private File outputRoot = new File(".");
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private List<File> inputs = new ArrayList<>();
+
+    public ConvertTool(PrintStream out) {
+        this.out = out;
+    }
+
+    public int run(String[] args) {
+        if (!parse(args)) {
+            out.println(USAGE);
+            return 1;
+        }
+
+        final List<File> files;
+        try {
+            files = Main.listRecordings(inputs);
+        } catch (IOException ex) {
+            out.println(ex.getMessage());
+            return 1;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, jobs));
+        final ParallelRecordDecoder decoder = new ParallelRecordDecoder(pool);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, jobs));
+        List<Future<RecordConverter.Statistics>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (final File file : files) {
+            results.add(executor.submit(new Callable<RecordConverter.Statistics>() {
+                @Override
+                public RecordConverter.Statistics call() throws IOException {
+                    return new RecordConverter(formatName, decoder).convert(file,
+                            new File(outputRoot, file.getName()));
+                }
+            }));
+        }
+        executor.shutdown();
+
+        try {
+            return report(files, results, start);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private int report(List<File> files, List<Future<RecordConverter.Statistics>> results,
+                       long start) {
+        int failures = 0;
+        long bytes = 0;
+        long records = 0;
+        for (int i = 0; i < files.size(); ++i) {
+            try {
+                RecordConverter.Statistics statistics = results.get(i).get();
+                bytes += statistics.getBytes();
+                records += statistics.getRecords();
+                out.println(String.format("%s: %d records in %d channels, %.1f MB in %.2f s, " +
+                                "%.1f MB/s", files.get(i), statistics.getRecords(),
+                        statistics.getChannels(), statistics.getBytes() / 1e6,
+                        statistics.getNanoseconds() / 1e9, statistics.getMegabytesPerSecond()));
+            } catch (ExecutionException ex) {
+                ++failures;
+                out.println(files.get(i) + ": " + ex.getCause().getMessage());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return 1;
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.println(String.format("total: %d files, %d records, %.1f MB in %.2f s, %.1f MB/s",
+                files.size(), records, bytes / 1e6, seconds,
+                seconds > 0 ? bytes / 1e6 / seconds : 0));
+        return failures == 0 ? 0 : 2;
+    }
+
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if (arg.startsWith("-") && i + 1 >= args.length) {
+                return false;
+            } else if ("-f".equals(arg)) {
+                formatName = args[++i];
+                if (!RecordConverter.FORMAT_CSV.equals(formatName) &&
+                        !RecordConverter.FORMAT_ARROW.equals(formatName)) {
+                    return false;
+                }
+            } else if ("-o".equals(arg)) {
+                outputRoot = new File(args[++i]);
+            } else if ("-j".equals(arg)) {
+                try {
+                    jobs = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+            } else if (arg.startsWith("-")) {
+                return false;
+            } else {
+                inputs.add(new File(arg));
+            }
+        }
+        return !inputs.isEmpty();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+package pl.mrwojtek.sensrec.tools;
+
+/**
+ * Comma separated values with a header line. Text payloads are quoted and
+ * binary payloads are written in hexadecimal.
+ */
+public class CsvFormat implements ChannelFormat {
+
+    private static final byte SEPARATOR = ',';
+    private static final byte NEW_LINE = '\n';
+    private static final byte QUOTE = '"';
+
+    @Override
+    public String getExtension() {
+        return ".csv";
+    }
+
+    @Override
+    public void writeHeader(ChannelLayout layout, ByteChunk chunk) {
+        for (int column = 0; column < layout.getColumnCount(); ++column) {
+            if (column > 0) {
+                chunk.put(SEPARATOR);
+            }
+            chunk.putAscii(layout.getColumnName(column));
+        }
+        chunk.put(NEW_LINE);
+    }
+
+    @Override
+    public void writeBatch(ColumnBatch batch, ByteChunk chunk) {
+        ChannelLayout layout = batch.getLayout();
+        for (int row = 0; row < batch.size(); ++row) {
+            for (int column = 0; column < layout.getColumnCount(); ++column) {
+                if (column > 0) {
+                    chunk.put(SEPARATOR);
+                }
+                switch (layout.getColumnKind(column)) {
+                    case ChannelLayout.KIND_LONG:
+                        chunk.putDecimal(batch.getLong(column, row));
+                        break;
+                    case ChannelLayout.KIND_FLOAT:
+                        chunk.putAscii(Float.toString((float) batch.getDouble(column, row)));
+                        break;
+                    case ChannelLayout.KIND_DOUBLE:
+                        chunk.putAscii(Double.toString(batch.getDouble(column, row)));
+                        break;
+                    case ChannelLayout.KIND_TEXT:
+                        putQuoted(chunk, batch.getBytes(), batch.getBytesStart(row),
+                                batch.getBytesEnd(row));
+                        break;
+                    case ChannelLayout.KIND_BINARY:
+                        chunk.putHex(batch.getBytes(), batch.getBytesStart(row),
+                                batch.getBytesEnd(row) - batch.getBytesStart(row));
+                        break;
+                }
+            }
+            chunk.put(NEW_LINE);
+        }
+    }
+
+    @Override
+    public void writeFooter(ChannelLayout layout, ByteChunk chunk) {
+        // No footer
+    }
+
+    private void putQuoted(ByteChunk chunk, byte[] bytes, int start, int end) {
+        chunk.put(QUOTE);
+        for (int i = start; i < end; ++i) {
+            byte b = bytes[i];
+            if (b == QUOTE) {
+                chunk.put(QUOTE);
+            }
+            if (b != '\r' && b != NEW_LINE) {
+                chunk.put(b);
+            }
+        }
+        chunk.put(QUOTE);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+package pl.mrwojtek.sensrec.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import pl.mrwojtek.sensrec.io.RecordEditor;
+
+/**
+ * Command line tool that trims, splits and concatenates recordings without
+ * decoding them. Times are given in seconds since the start of a recording.
+ */
+public class EditTool {
+
+    public static final String COMMAND_TRIM = "trim";
+    public static final String COMMAND_SPLIT = "split";
+    public static final String COMMAND_CONCAT = "concat";
+
+    private static final String USAGE =
+            "usage: trim [-s start] [-e end] recording output\n" +
+            "       split -i interval [-o output] recording\n" +
+            "       concat -o output recording...";
+
+    private PrintStream out;
+    private long start = 0;
+    private long end = Long.MAX_VALUE;
+    private long interval = -1;
+    private File output;
+    private List<File> inputs = new ArrayList<>();
+
+    public EditTool(PrintStream out) {
+        this.out = out;
+    }
+
+    public int run(String command, String[] args) {
+        if (!parse(args) || !isValid(command)) {
+            out.println(USAGE);
+            return 1;
+        }
+
+        long startTime = System.nanoTime();
+        long bytes;
+        try {
+            if (COMMAND_TRIM.equals(command)) {
+                bytes = trim(inputs.get(0), inputs.get(1));
+            } else if (COMMAND_SPLIT.equals(command)) {
+                bytes = split(inputs.get(0));
+            } else {
+                bytes = concat();
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            out.println(command + ": " + ex.getMessage());
+            return 2;
+        }
+
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        out.println(String.format("total: %.1f MB in %.2f s", bytes / 1e6, seconds));
+        return 0;
+    }
+
+    private long trim(File input, File output) throws IOException {
+        RecordEditor editor = new RecordEditor(input);
+        try {
+            RecordEditor.Segment segment = editor.trim(start, end);
+            long bytes = RecordEditor.write(output, Collections.singletonList(segment));
+            print(output, segment);
+            return bytes;
+        } finally {
+            editor.close();
+        }
+    }
+
+    private long split(File input) throws IOException {
+        File directory = output != null ? output : input.getAbsoluteFile().getParentFile();
+        String name = input.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+
+        RecordEditor editor = new RecordEditor(input);
+        try {
+            long bytes = 0;
+            List<RecordEditor.Segment> segments = editor.split(interval);
+            for (int i = 0; i < segments.size(); ++i) {
+                RecordEditor.Segment segment = segments.get(i);
+                File part = new File(directory, base + " part " + (i + 1) + extension);
+                bytes += RecordEditor.write(part, Collections.singletonList(segment));
+                print(part, segment);
+            }
+            return bytes;
+        } finally {
+            editor.close();
+        }
+    }
+
+    private long concat() throws IOException {
+        List<RecordEditor.Segment> segments = new ArrayList<>();
+        for (File input : inputs) {
+            RecordEditor editor = new RecordEditor(input);
+            try {
+                segments.add(editor.getSegment());
+            } finally {
+                editor.close();
+            }
+        }
+        return RecordEditor.write(output, segments);
+    }
+
+    private void print(File file, RecordEditor.Segment segment) {
+        out.println(String.format("%s: %.1f MB, %.1f s", file, segment.getLength() / 1e6,
+                segment.getDuration() / 1e3));
+    }
+
+    private boolean isValid(String command) {
+        if (COMMAND_TRIM.equals(command)) {
+            return inputs.size() == 2 && start < end;
+        } else if (COMMAND_SPLIT.equals(command)) {
+            return inputs.size() == 1 && interval > 0;
+        } else if (COMMAND_CONCAT.equals(command)) {
+            return !inputs.isEmpty() && output != null;
+        }
+        return false;
+    }
+
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if (arg.startsWith("-") && i + 1 >= args.length) {
+                return false;
+            }
+            try {
+                if ("-s".equals(arg)) {
+                    start = parseMilliseconds(args[++i]);
+                } else if ("-e".equals(arg)) {
+                    end = parseMilliseconds(args[++i]);
+                } else if ("-i".equals(arg)) {
+                    interval = parseMilliseconds(args[++i]);
+                } else if ("-o".equals(arg)) {
+                    output = new File(args[++i]);
+                } else if (arg.startsWith("-")) {
+                    return false;
+                } else {
+                    inputs.add(new File(arg));
+                }
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseMilliseconds(String seconds) {
+        return Math.round(Double.parseDouble(seconds) * 1000.0);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+package pl.mrwojtek.sensrec.tools;
+
+/**
+ * Minimal FlatBuffers builder used to encode the Arrow IPC metadata. Like
+ * the reference implementation it fills the buffer from the end, so
+ * children are created before the tables that refer to them. Only the
+ * features Arrow metadata needs are supported and vtables are not shared.
+ */
+public class FlatBufferBuilder {
+
+    private byte[] buffer;
+    private int space;
+    private int minimumAlignment = 1;
+    private int[] vtable = new int[16];
+    private int vtableSize;
+    private int objectStart;
+
+    public FlatBufferBuilder(int capacity) {
+        buffer = new byte[capacity];
+        space = capacity;
+    }
+
+    public void clear() {
+        space = buffer.length;
+        minimumAlignment = 1;
+        vtableSize = 0;
+    }
+
+    /**
+     * Current offset measured from the end of the buffer.
+     */
+    public int offset() {
+        return buffer.length - space;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Position of the finished data in the buffer returned by
+     * {@link #getBuffer()}.
+     */
+    public int getDataStart() {
+        return space;
+    }
+
+    public int getDataLength() {
+        return buffer.length - space;
+    }
+
+    public void prep(int size, int additional) {
+        if (size > minimumAlignment) {
+            minimumAlignment = size;
+        }
+
+        int alignSize = (~(buffer.length - space + additional) + 1) & (size - 1);
+        while (space < alignSize + size + additional) {
+            grow();
+        }
+        for (int i = 0; i < alignSize; ++i) {
+            buffer[--space] = 0;
+        }
+    }
+
+    public void putByte(byte value) {
+        buffer[--space] = value;
+    }
+
+    public void putShort(short value) {
+        buffer[--space] = (byte) (value >> 8);
+        buffer[--space] = (byte) value;
+    }
+
+    public void putInt(int value) {
+        buffer[--space] = (byte) (value >> 24);
+        buffer[--space] = (byte) (value >> 16);
+        buffer[--space] = (byte) (value >> 8);
+        buffer[--space] = (byte) value;
+    }
+
+    public void putLong(long value) {
+        putInt((int) (value >> 32));
+        putInt((int) value);
+    }
+
+    public void addByte(byte value) {
+        prep(1, 0);
+        putByte(value);
+    }
+
+    public void addShort(short value) {
+        prep(2, 0);
+        putShort(value);
+    }
+
+    public void addInt(int value) {
+        prep(4, 0);
+        putInt(value);
+    }
+
+    public void addLong(long value) {
+        prep(8, 0);
+        putLong(value);
+    }
+
+    public void addOffset(int offset) {
+        prep(4, 0);
+        putInt(offset() - offset + 4);
+    }
+
+    public int createString(String value) {
+        int length = value.length();
+        prep(4, length + 1);
+        putByte((byte) 0);
+        for (int i = length - 1; i >= 0; --i) {
+            putByte((byte) value.charAt(i));
+        }
+        putInt(length);
+        return offset();
+    }
+
+    public void startVector(int elementSize, int count, int alignment) {
+        prep(4, elementSize * count);
+        prep(alignment, elementSize * count);
+    }
+
+    public int endVector(int count) {
+        putInt(count);
+        return offset();
+    }
+
+    public int createOffsetVector(int[] offsets, int count) {
+        startVector(4, count, 4);
+        for (int i = count - 1; i >= 0; --i) {
+            addOffset(offsets[i]);
+        }
+        return endVector(count);
+    }
+
+    public void startTable(int fieldCount) {
+        if (vtable.length < fieldCount) {
+            vtable = new int[fieldCount];
+        }
+        for (int i = 0; i < fieldCount; ++i) {
+            vtable[i] = 0;
+        }
+        vtableSize = fieldCount;
+        objectStart = offset();
+    }
+
+    public void addByte(int field, byte value) {
+        addByte(value);
+        vtable[field] = offset();
+    }
+
+    public void addShort(int field, short value) {
+        addShort(value);
+        vtable[field] = offset();
+    }
+
+    public void addInt(int field, int value) {
+        addInt(value);
+        vtable[field] = offset();
+    }
+
+    public void addLong(int field, long value) {
+        addLong(value);
+        vtable[field] = offset();
+    }
+
+    public void addBoolean(int field, boolean value) {
+        addByte(field, (byte) (value ? 1 : 0));
+    }
+
+    public void addOffset(int field, int offset) {
+        addOffset(offset);
+        vtable[field] = offset();
+    }
+
+    public int endTable() {
+        addInt(0);
+        int objectOffset = offset();
+
+        int fieldCount = vtableSize;
+        while (fieldCount > 0 && vtable[fieldCount - 1] == 0) {
+            --fieldCount;
+        }
+        for (int i = fieldCount - 1; i >= 0; --i) {
+            addShort((short) (vtable[i] != 0 ? objectOffset - vtable[i] : 0));
+        }
+        addShort((short) (objectOffset - objectStart));
+        addShort((short) ((fieldCount + 2) * 2));
+
+        int vtableOffset = offset();
+        int position = buffer.length - objectOffset;
+        int value = vtableOffset - objectOffset;
+        buffer[position] = (byte) value;
+        buffer[position + 1] = (byte) (value >> 8);
+        buffer[position + 2] = (byte) (value >> 16);
+        buffer[position + 3] = (byte) (value >> 24);
+        vtableSize = 0;
+        return objectOffset;
+    }
+
+    public void finish(int root) {
+        prep(minimumAlignment, 4);
+        addOffset(root);
+    }
+
+    private void grow() {
+        int used = buffer.length - space;
+        byte[] newBuffer = new byte[buffer.length * 2];
+        System.arraycopy(buffer, space, newBuffer, newBuffer.length - used, used);
+        space += newBuffer.length - buffer.length;
+        buffer = newBuffer;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+package pl.mrwojtek.sensrec.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import pl.mrwojtek.sensrec.io.RecordFormat;
+
+/**
+ * Entry point of the desktop tools.
+ */
+public class Main {
+
+    private static final String USAGE =
+            "usage: tools convert|trim|split|concat|verify|query|overview [options...]";
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        String[] commandArgs = Arrays.copyOfRange(args, 1, args.length);
+        int status;
+        if ("convert".equals(args[0])) {
+            status = new ConvertTool(System.out).run(commandArgs);
+        } else if (EditTool.COMMAND_TRIM.equals(args[0]) ||
+                EditTool.COMMAND_SPLIT.equals(args[0]) ||
+                EditTool.COMMAND_CONCAT.equals(args[0])) {
+            status = new EditTool(System.out).run(args[0], commandArgs);
+        } else if ("verify".equals(args[0])) {
+            status = new VerifyTool(System.out).run(commandArgs);
+        } else if ("query".equals(args[0])) {
+            status = new QueryTool(System.out).run(commandArgs);
+        } else if ("overview".equals(args[0])) {
+            status = new OverviewTool(System.out).run(commandArgs);
+        } else {
+            System.err.println(USAGE);
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    /**
+     * Expands the directories among the inputs of a command into the
+     * recordings they contain, sorted by name. Sidecars are skipped.
+     *
+     * @param inputs recordings and directories given on the command line
+     * @return recording files
+     * @throws IOException when a directory can't be listed
+     */
+    static List<File> listRecordings(List<File> inputs) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (File input : inputs) {
+            if (input.isDirectory()) {
+                File[] children = input.listFiles();
+                if (children == null) {
+                    throw new IOException(input + ": unable to list the directory");
+                }
+                Arrays.sort(children);
+                for (File child : children) {
+                    if (child.isFile() && !RecordFormat.isSidecar(child.getName())) {
+                        files.add(child);
+                    }
+                }
+            } else {
+                files.add(input);
+            }
+        }
+        return files;
+    }
+}
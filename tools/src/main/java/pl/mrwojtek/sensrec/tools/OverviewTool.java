@@ -0,0 +1,114 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import pl.mrwojtek.sensrec.io.RecordFormat;
+import pl.mrwojtek.sensrec.io.RecordOverview;
+
+/**
+ * Command line builder of the overview sidecars. Overviews that are
+ * missing or stale are built from the recordings, up to date ones are only
+ * loaded, so the command can be run after every recording session.
+ */
+public class OverviewTool {
+
+    private static final String USAGE = "usage: overview [-v] recording|directory...";
+
+    private PrintStream out;
+    private boolean verbose;
+    private List<File> inputs = new ArrayList<>();
+
+    public OverviewTool(PrintStream out) {
+        this.out = out;
+    }
+
+    public int run(String[] args) {
+        if (!parse(args)) {
+            out.println(USAGE);
+            return 1;
+        }
+
+        List<File> files;
+        try {
+            files = Main.listRecordings(inputs);
+        } catch (IOException ex) {
+            out.println(ex.getMessage());
+            return 1;
+        }
+
+        int failed = 0;
+        long start = System.nanoTime();
+        for (File file : files) {
+            try {
+                RecordOverview overview = RecordOverview.open(file);
+                try {
+                    print(file, overview);
+                } finally {
+                    overview.close();
+                }
+            } catch (IOException ex) {
+                ++failed;
+                out.println(file + ": " + ex.getMessage());
+            }
+        }
+
+        out.println(String.format("total: %d files, %d failed in %.2f s", files.size(), failed,
+                (System.nanoTime() - start) / 1e9));
+        return failed == 0 ? 0 : 2;
+    }
+
+    private void print(File file, RecordOverview overview) {
+        out.println(String.format("%s: %d channels, %d levels", file,
+                overview.getChannelCount(), overview.getLevelCount()));
+        if (verbose) {
+            for (int i = 0; i < overview.getChannelCount(); ++i) {
+                StringBuilder builder = new StringBuilder();
+                builder.append("  ").append(RecordFormat.getTypePrefix(overview.getTypeId(i),
+                        overview.getDeviceId(i))).append(':');
+                for (int level = 0; level < overview.getLevelCount(); ++level) {
+                    builder.append(String.format(" %d buckets of %.0f s,",
+                            overview.getBucketCount(i, level),
+                            overview.getBucketSize(level) / 1e3));
+                }
+                builder.setLength(builder.length() - 1);
+                out.println(builder);
+            }
+        }
+    }
+
+    private boolean parse(String[] args) {
+        for (String arg : args) {
+            if ("-v".equals(arg)) {
+                verbose = true;
+            } else if (arg.startsWith("-")) {
+                return false;
+            } else {
+                inputs.add(new File(arg));
+            }
+        }
+        return !inputs.isEmpty();
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import pl.mrwojtek.sensrec.io.RecordCursor;
+import pl.mrwojtek.sensrec.io.RecordIndex;
+import pl.mrwojtek.sensrec.io.RecordSync;
+
+/**
+ * Decodes a recording in parallel. The file is split into byte ranges of
+ * about {@link #getChunkSize()} bytes, each range is moved to a record
+ * boundary, using the sidecar index checkpoints when the index is complete
+ * or {@link RecordSync} otherwise, and decoded on a {@link ForkJoinPool}.
+ * Results are handed over in file order.
+ *
+ * <p>A range is trusted only if the previous one ended exactly at its
+ * start. When a boundary turns out to be wrong the rest of the recording is
+ * decoded sequentially, so the output never depends on the resync
+ * heuristics.
+ */
+public class ParallelRecordDecoder {
+
+    public static final long DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private ForkJoinPool pool;
+    private long chunkSize;
+
+    public ParallelRecordDecoder(ForkJoinPool pool) {
+        this(pool, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelRecordDecoder(ForkJoinPool pool, long chunkSize) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Decodes all records of a recording.
+     *
+     * @param file recording file
+     * @param handler receiver of the decoded records
+     * @param <R> type of the per chunk results
+     * @return number of records decoded
+     * @throws IOException on read error, malformed data or handler error
+     */
+    public <R> long decode(File file, Handler<R> handler) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            long length = channel.size();
+
+            RecordCursor cursor = new RecordCursor();
+            cursor.open(channel);
+            boolean binary = cursor.isBinary();
+
+            RecordIndex index = loadIndex(file, length);
+            int chunkCount = (int) Math.max(1, (length + chunkSize - 1) / chunkSize);
+            int window = 2 * pool.getParallelism();
+            Deque<ChunkTask<R>> tasks = new ArrayDeque<>();
+
+            long records = 0;
+            long position = 0;
+            boolean verified = true;
+            int next = 0;
+            while (verified && (next < chunkCount || !tasks.isEmpty())) {
+                while (next < chunkCount && tasks.size() < window) {
+                    ChunkTask<R> task = new ChunkTask<>(channel, binary, index, handler,
+                            next * chunkSize, Math.min(length, (next + 1) * chunkSize),
+                            next + 1 == chunkCount);
+                    pool.execute(task);
+                    tasks.addLast(task);
+                    ++next;
+                }
+
+                ChunkTask<R> task = tasks.removeFirst();
+                task.join();
+                if (task.start != position) {
+                    verified = false;
+                    break;
+                }
+                if (task.exception != null) {
+                    throw task.exception;
+                }
+
+                handler.onChunk(task.result);
+                records += task.records;
+                position = task.reached;
+                verified = task.reached == task.end;
+            }
+
+            if (!verified) {
+                for (ChunkTask<R> task : tasks) {
+                    task.cancel(false);
+                }
+
+                // Decode sequentially from the last known boundary
+                ChunkTask<R> task = new ChunkTask<>(channel, binary, index, handler,
+                        position, length, true);
+                task.start = position;
+                task.decode();
+                handler.onChunk(task.result);
+                records += task.records;
+            }
+            return records;
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static RecordIndex loadIndex(File file, long length) {
+        File indexFile = RecordIndex.getIndexFile(file);
+        if (!indexFile.exists()) {
+            return null;
+        }
+
+        try {
+            RecordIndex index = RecordIndex.load(indexFile);
+            return index.getDataLength() == length ? index : null;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Receiver of the decoded records.
+     *
+     * @param <R> type of the per chunk results
+     */
+    public interface Handler<R> {
+
+        /**
+         * Creates a result of a chunk. Called on a worker thread.
+         */
+        R newChunk();
+
+        /**
+         * Handles a record. Called on a worker thread, records of a chunk
+         * are delivered in file order.
+         */
+        void onRecord(RecordCursor cursor, R chunk) throws IOException;
+
+        /**
+         * Handles a decoded chunk. Called on the thread that started
+         * decoding, chunks are delivered in file order.
+         */
+        void onChunk(R chunk) throws IOException;
+    }
+
+    private static class ChunkTask<R> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private FileChannel channel;
+        private boolean binary;
+        private RecordIndex index;
+        private Handler<R> handler;
+        private long from;
+        private long to;
+        private boolean last;
+
+        private RecordSync sync = new RecordSync();
+        private long start;
+        private long end;
+        private long reached;
+        private long records;
+        private R result;
+        private IOException exception;
+
+        public ChunkTask(FileChannel channel, boolean binary, RecordIndex index,
+                         Handler<R> handler, long from, long to, boolean last) {
+            this.channel = channel;
+            this.binary = binary;
+            this.index = index;
+            this.handler = handler;
+            this.from = from;
+            this.to = to;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                start = findBoundary(from, channel.size());
+                decode();
+            } catch (IOException ex) {
+                exception = ex;
+            }
+        }
+
+        private void decode() throws IOException {
+            long length = channel.size();
+            end = last ? length : Math.max(start, findBoundary(to, length));
+
+            result = handler.newChunk();
+            RecordCursor cursor = new RecordCursor();
+            cursor.open(new RangeChannel(channel, start, end), start, binary);
+            while (cursor.next()) {
+                handler.onRecord(cursor, result);
+                ++records;
+            }
+            reached = cursor.getPosition();
+        }
+
+        private long findBoundary(long offset, long length) throws IOException {
+            if (offset <= 0) {
+                return 0;
+            } else if (index != null) {
+                long boundary = index.findBoundary(offset);
+                return boundary >= 0 ? boundary : length;
+            } else {
+                return sync.findBoundary(channel, binary, offset, length);
+            }
+        }
+    }
+
+    /**
+     * Reads a byte range of a file with positional reads, so that many
+     * ranges can be read at once.
+     */
+    private static class RangeChannel implements ReadableByteChannel {
+
+        private FileChannel channel;
+        private long position;
+        private long end;
+
+        public RangeChannel(FileChannel channel, long position, long end) {
+            this.channel = channel;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+
+            int limit = dst.limit();
+            if (dst.remaining() > end - position) {
+                dst.limit(dst.position() + (int) (end - position));
+            }
+            try {
+                int read = channel.read(dst, position);
+                if (read > 0) {
+                    position += read;
+                }
+                return read;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+package pl.mrwojtek.sensrec.tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import pl.mrwojtek.sensrec.io.RecordFormat;
+import pl.mrwojtek.sensrec.io.RecordQuery;
+
+/**
+ * Command line wrapper of {@link RecordQuery}. Channels are selected by the
+ * record type id and optionally the device id, times are given in seconds
+ * since the start of each recording. Selected records are written to a
+ * single CSV file, one line per record.
+ */
+public class QueryTool {
+
+    private static final String USAGE =
+            "usage: query [-c type[:device]]... [-s start] [-e end] [-j jobs] [-o output] " +
+                    "recording|directory...";
+
+    private PrintStream out;
+    private RecordQuery query = new RecordQuery();
+    private long start = 0;
+    private long end = Long.MAX_VALUE;
+    private File output;
+    private List<File> inputs = new ArrayList<>();
+
+    public QueryTool(PrintStream out) {
+        this.out = out;
+    }
+
+    public int run(String[] args) {
+        if (!parse(args) || start >= end) {
+            out.println(USAGE);
+            return 1;
+        }
+
+        List<File> files;
+        try {
+            files = Main.listRecordings(inputs);
+        } catch (IOException ex) {
+            out.println(ex.getMessage());
+            return 1;
+        }
+
+        long startTime = System.nanoTime();
+        List<RecordQuery.Series> result;
+        try {
+            result = query.setTimeRange(start, end).run(files);
+        } catch (IOException ex) {
+            out.println("query: " + ex.getMessage());
+            return 2;
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+
+        long records = 0;
+        for (RecordQuery.Series series : result) {
+            records += series.size();
+            out.println(String.format("%s: %s, %d records", series.getFile(),
+                    getName(series), series.size()));
+        }
+        out.println(String.format("total: %d files, %d skipped, %d records, " +
+                        "%.1f MB scanned in %.2f s", files.size(), query.getSkippedFiles(),
+                records, query.getScannedBytes() / 1e6, seconds));
+
+        if (output != null) {
+            try {
+                write(result);
+            } catch (IOException ex) {
+                out.println(output + ": " + ex.getMessage());
+                return 2;
+            }
+        }
+        return 0;
+    }
+
+    private void write(List<RecordQuery.Series> result) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(output));
+        try {
+            writer.write("file,channel,millisecond,timestamp,values\n");
+            for (RecordQuery.Series series : result) {
+                String prefix = series.getFile().getName() + "," + getName(series) + ",";
+                for (int i = 0; i < series.size(); ++i) {
+                    writer.write(prefix);
+                    writer.write(Long.toString(series.getMillisecond(i)));
+                    writer.write(',');
+                    writer.write(Long.toString(series.getTimestamp(i)));
+                    for (int j = 0; j < series.getValueCount(); ++j) {
+                        writer.write(',');
+                        writer.write(Double.toString(series.getValue(i, j)));
+                    }
+                    writer.write('\n');
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String getName(RecordQuery.Series series) {
+        return RecordFormat.getTypePrefix(series.getTypeId(), series.getDeviceId());
+    }
+
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if (arg.startsWith("-") && i + 1 >= args.length) {
+                return false;
+            }
+            try {
+                if ("-c".equals(arg)) {
+                    String[] channel = args[++i].split(":");
+                    if (channel.length > 2) {
+                        return false;
+                    }
+                    query.addChannel(Short.parseShort(channel[0]), channel.length > 1 ?
+                            Short.parseShort(channel[1]) : RecordQuery.ANY_DEVICE);
+                } else if ("-s".equals(arg)) {
+                    start = Math.round(Double.parseDouble(args[++i]) * 1000.0);
+                } else if ("-e".equals(arg)) {
+                    end = Math.round(Double.parseDouble(args[++i]) * 1000.0);
+                } else if ("-j".equals(arg)) {
+                    query.setThreads(Integer.parseInt(args[++i]));
+                } else if ("-o".equals(arg)) {
+                    output = new File(args[++i]);
+                } else if (arg.startsWith("-")) {
+                    return false;
+                } else {
+                    inputs.add(new File(arg));
+                }
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+        }
+        return !inputs.isEmpty();
+    }
+}
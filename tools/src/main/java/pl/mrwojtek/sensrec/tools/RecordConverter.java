@@ -0,0 +1,567 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+package pl.mrwojtek.sensrec.tools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import pl.mrwojtek.sensrec.io.ChannelMap;
+import pl.mrwojtek.sensrec.io.RecordCursor;
+import pl.mrwojtek.sensrec.io.RecordFormat;
+
+/**
+ * Converts a recording into one file per channel. Conversion is a pipeline
+ * of four threads, reading file blocks, decoding records into column
+ * batches, formatting batches and writing formatted bytes, connected with
+ * bounded queues of recycled buffers. Memory use depends on the number of
+ * channels but not on the size of a recording.
+ *
+ * <p>Recordings larger than a chunk of the optional
+ * {@link ParallelRecordDecoder} are decoded by it instead of the reading
+ * and decoding threads. Chunks are decoded into column batches on its pool
+ * and appended to the channel batches in file order, so the output is the
+ * same as of the sequential decoding.
+ */
+public class RecordConverter {
+
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_ARROW = "arrow";
+
+    protected static final int BLOCK_SIZE = 1024 * 1024;
+    protected static final int BLOCK_COUNT = 4;
+    protected static final int BATCH_ROWS = 4096;
+    protected static final int BATCH_QUEUE = 16;
+    protected static final int CHUNK_SIZE = 256 * 1024;
+    protected static final int CHUNK_COUNT = 8;
+
+    private static final ByteBuffer END_OF_FILE = ByteBuffer.allocate(0);
+    private static final Object END_OF_BATCHES = new Object();
+    private static final OutputChunk END_OF_CHUNKS = new OutputChunk(0);
+
+    private String formatName;
+    private ParallelRecordDecoder decoder;
+
+    private File input;
+    private File outputDirectory;
+    private ChannelFormat format;
+    private boolean parallel;
+    private final Object failureLock = new Object();
+    private volatile Throwable failure;
+    private List<Thread> threads = new ArrayList<>();
+
+    private BlockingQueue<ByteBuffer> freeBlocks = new ArrayBlockingQueue<>(BLOCK_COUNT);
+    private BlockingQueue<ByteBuffer> fullBlocks = new ArrayBlockingQueue<>(BLOCK_COUNT + 1);
+    private BlockingQueue<Object> batches = new ArrayBlockingQueue<>(BATCH_QUEUE + 1);
+    private BlockingQueue<OutputChunk> freeChunks = new ArrayBlockingQueue<>(CHUNK_COUNT);
+    private BlockingQueue<OutputChunk> fullChunks = new ArrayBlockingQueue<>(CHUNK_COUNT + 1);
+    private ChannelMap channelMap = new ChannelMap();
+    private List<ChannelOutput> channels = new ArrayList<>();
+    private long records;
+
+    public RecordConverter(String formatName) {
+        this(formatName, null);
+    }
+
+    /**
+     * Creates a converter that decodes large recordings in parallel.
+     *
+     * @param formatName format of the channel files
+     * @param decoder decoder of the recordings larger than its chunk size
+     *                or <code>null</code> to always decode sequentially
+     */
+    public RecordConverter(String formatName, ParallelRecordDecoder decoder) {
+        this.formatName = formatName;
+        this.decoder = decoder;
+        newFormat(formatName);
+    }
+
+    public static ChannelFormat newFormat(String formatName) {
+        if (FORMAT_CSV.equals(formatName)) {
+            return new CsvFormat();
+        } else if (FORMAT_ARROW.equals(formatName)) {
+            return new ArrowStreamFormat();
+        } else {
+            throw new IllegalArgumentException("Unknown format " + formatName);
+        }
+    }
+
+    /**
+     * Converts a recording. Converter instance can be used for a single
+     * conversion at a time.
+     *
+     * @param input recording file
+     * @param outputDirectory directory for the channel files, created if
+     *                        needed
+     * @return conversion statistics
+     * @throws IOException on read, decode or write error
+     */
+    public synchronized Statistics convert(File input, File outputDirectory)
+            throws IOException {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Can't create directory " + outputDirectory);
+        }
+
+        this.input = input;
+        this.outputDirectory = outputDirectory;
+        reset();
+
+        long start = System.nanoTime();
+        if (!parallel) {
+            start(new Runnable() {
+                @Override
+                public void run() {
+                    read();
+                }
+            }, "read");
+        }
+        start(new Runnable() {
+            @Override
+            public void run() {
+                decode();
+            }
+        }, "decode");
+        start(new Runnable() {
+            @Override
+            public void run() {
+                format();
+            }
+        }, "format");
+        start(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "write");
+
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                    fail(ex);
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure != null) {
+            throw new IOException("Conversion of " + input + " failed", failure);
+        }
+        return new Statistics(input.length(), records, channels.size(),
+                System.nanoTime() - start);
+    }
+
+    private void reset() {
+        format = newFormat(formatName);
+        parallel = decoder != null && input.length() > decoder.getChunkSize();
+        failure = null;
+        threads.clear();
+        channelMap.clear();
+        channels.clear();
+        records = 0;
+        freeBlocks.clear();
+        fullBlocks.clear();
+        batches.clear();
+        freeChunks.clear();
+        fullChunks.clear();
+        for (int i = 0; i < BLOCK_COUNT; ++i) {
+            freeBlocks.add(ByteBuffer.allocate(BLOCK_SIZE));
+        }
+        for (int i = 0; i < CHUNK_COUNT; ++i) {
+            freeChunks.add(new OutputChunk(CHUNK_SIZE));
+        }
+    }
+
+    private void start(final Runnable stage, String name) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stage.run();
+                } catch (Throwable ex) {
+                    fail(ex);
+                }
+            }
+        }, input.getName() + "-" + name);
+        synchronized (failureLock) {
+            threads.add(thread);
+        }
+        thread.start();
+    }
+
+    private void fail(Throwable ex) {
+        synchronized (failureLock) {
+            if (failure == null) {
+                failure = ex;
+                for (Thread thread : threads) {
+                    thread.interrupt();
+                }
+            }
+        }
+    }
+
+    private void read() {
+        FileInputStream stream = null;
+        try {
+            stream = new FileInputStream(input);
+            FileChannel channel = stream.getChannel();
+            while (true) {
+                ByteBuffer block = freeBlocks.take();
+                block.clear();
+                if (channel.read(block) < 0) {
+                    fullBlocks.put(END_OF_FILE);
+                    break;
+                }
+                block.flip();
+                fullBlocks.put(block);
+            }
+        } catch (IOException | InterruptedException ex) {
+            fail(ex);
+        } finally {
+            close(stream);
+        }
+    }
+
+    private void decode() {
+        try {
+            if (parallel) {
+                decoder.decode(input, new ChunkHandler());
+            } else {
+                RecordCursor cursor = new RecordCursor();
+                cursor.open(new BlockChannel());
+                while (cursor.next()) {
+                    short typeId = cursor.getTypeId();
+                    if (typeId == RecordFormat.TYPE_START || typeId == RecordFormat.TYPE_END) {
+                        continue;
+                    }
+
+                    int index = channelMap.put(typeId, cursor.getDeviceId());
+                    if (index == channels.size()) {
+                        channels.add(new ChannelOutput(ChannelLayout.create(cursor)));
+                    }
+
+                    ChannelOutput output = channels.get(index);
+                    output.current.append(cursor);
+                    next(output);
+                    ++records;
+                }
+            }
+
+            for (ChannelOutput output : channels) {
+                if (output.current.size() > 0) {
+                    batches.put(output.current);
+                }
+            }
+            batches.put(END_OF_BATCHES);
+        } catch (IOException | InterruptedException ex) {
+            fail(ex);
+        }
+    }
+
+    private void next(ChannelOutput output) throws InterruptedException {
+        if (output.current.isFull()) {
+            batches.put(output.current);
+            output.current = output.freeBatches.take();
+        }
+    }
+
+    private void format() {
+        List<ChannelOutput> formatted = new ArrayList<>();
+        try {
+            while (true) {
+                Object next = batches.take();
+                if (next == END_OF_BATCHES) {
+                    break;
+                }
+
+                ChannelBatch batch = (ChannelBatch) next;
+                ChannelOutput output = batch.output;
+                OutputChunk chunk = freeChunks.take();
+                chunk.output = output;
+                if (!output.formatted) {
+                    format.writeHeader(output.layout, chunk);
+                    output.formatted = true;
+                    formatted.add(output);
+                }
+                format.writeBatch(batch, chunk);
+                fullChunks.put(chunk);
+
+                batch.clear();
+                output.freeBatches.put(batch);
+            }
+
+            for (ChannelOutput output : formatted) {
+                OutputChunk chunk = freeChunks.take();
+                chunk.output = output;
+                chunk.close = true;
+                format.writeFooter(output.layout, chunk);
+                fullChunks.put(chunk);
+            }
+            fullChunks.put(END_OF_CHUNKS);
+        } catch (InterruptedException ex) {
+            fail(ex);
+        }
+    }
+
+    private void write() {
+        List<ChannelOutput> opened = new ArrayList<>();
+        try {
+            while (true) {
+                OutputChunk chunk = fullChunks.take();
+                if (chunk == END_OF_CHUNKS) {
+                    break;
+                }
+
+                ChannelOutput output = chunk.output;
+                if (output.stream == null) {
+                    output.stream = new FileOutputStream(new File(outputDirectory,
+                            output.layout.getName() + format.getExtension()));
+                    opened.add(output);
+                }
+                output.stream.write(chunk.getData(), 0, chunk.length());
+                if (chunk.close) {
+                    output.stream.close();
+                }
+
+                chunk.clear();
+                chunk.output = null;
+                chunk.close = false;
+                freeChunks.put(chunk);
+            }
+        } catch (IOException | InterruptedException ex) {
+            fail(ex);
+        } finally {
+            for (ChannelOutput output : opened) {
+                close(output.stream);
+            }
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+                // Ignore, the first error is reported
+            }
+        }
+    }
+
+    /**
+     * Feeds the decoder with the blocks read by the reader thread.
+     */
+    private class BlockChannel implements ReadableByteChannel {
+
+        private ByteBuffer block;
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            try {
+                while (block == null || !block.hasRemaining()) {
+                    if (block == END_OF_FILE) {
+                        return -1;
+                    } else if (block != null) {
+                        freeBlocks.put(block);
+                    }
+                    block = fullBlocks.take();
+                }
+            } catch (InterruptedException ex) {
+                throw new IOException("Conversion interrupted", ex);
+            }
+
+            int count = Math.min(dst.remaining(), block.remaining());
+            int limit = block.limit();
+            block.limit(block.position() + count);
+            dst.put(block);
+            block.limit(limit);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Decodes chunks of a recording into column batches and appends them to
+     * the channel batches in file order.
+     */
+    private class ChunkHandler implements ParallelRecordDecoder.Handler<DecodedChunk> {
+
+        @Override
+        public DecodedChunk newChunk() {
+            return new DecodedChunk();
+        }
+
+        @Override
+        public void onRecord(RecordCursor cursor, DecodedChunk chunk) {
+            short typeId = cursor.getTypeId();
+            if (typeId == RecordFormat.TYPE_START || typeId == RecordFormat.TYPE_END) {
+                return;
+            }
+
+            int index = chunk.channelMap.put(typeId, cursor.getDeviceId());
+            if (index == chunk.batches.size()) {
+                List<ColumnBatch> channelBatches = new ArrayList<>();
+                channelBatches.add(new ColumnBatch(ChannelLayout.create(cursor), BATCH_ROWS));
+                chunk.batches.add(channelBatches);
+            }
+
+            List<ColumnBatch> channelBatches = chunk.batches.get(index);
+            ColumnBatch batch = channelBatches.get(channelBatches.size() - 1);
+            if (batch.isFull()) {
+                batch = new ColumnBatch(batch.getLayout(), BATCH_ROWS);
+                channelBatches.add(batch);
+            }
+            batch.append(cursor);
+            ++chunk.records;
+        }
+
+        @Override
+        public void onChunk(DecodedChunk chunk) throws IOException {
+            try {
+                for (int i = 0; i < chunk.batches.size(); ++i) {
+                    List<ColumnBatch> channelBatches = chunk.batches.get(i);
+                    ChannelLayout layout = channelBatches.get(0).getLayout();
+                    int index = channelMap.put(layout.getTypeId(), layout.getDeviceId());
+                    if (index == channels.size()) {
+                        channels.add(new ChannelOutput(layout));
+                    }
+
+                    ChannelOutput output = channels.get(index);
+                    for (ColumnBatch batch : channelBatches) {
+                        for (int row = 0; row < batch.size(); ++row) {
+                            output.current.append(batch, row);
+                            next(output);
+                        }
+                    }
+                }
+            } catch (InterruptedException ex) {
+                throw new IOException("Conversion interrupted", ex);
+            }
+            records += chunk.records;
+        }
+    }
+
+    /**
+     * Records of a chunk decoded into column batches per channel, in the
+     * order the channels first appear in the chunk.
+     */
+    private static class DecodedChunk {
+
+        private ChannelMap channelMap = new ChannelMap();
+        private List<List<ColumnBatch>> batches = new ArrayList<>();
+        private long records;
+    }
+
+    private static class ChannelOutput {
+
+        private ChannelLayout layout;
+        private ChannelBatch current;
+        private BlockingQueue<ChannelBatch> freeBatches = new ArrayBlockingQueue<>(2);
+        private boolean formatted;
+        private FileOutputStream stream;
+
+        public ChannelOutput(ChannelLayout layout) {
+            this.layout = layout;
+            this.current = new ChannelBatch(this);
+            this.freeBatches.add(new ChannelBatch(this));
+        }
+    }
+
+    private static class ChannelBatch extends ColumnBatch {
+
+        private ChannelOutput output;
+
+        public ChannelBatch(ChannelOutput output) {
+            super(output.layout, BATCH_ROWS);
+            this.output = output;
+        }
+    }
+
+    private static class OutputChunk extends ByteChunk {
+
+        private ChannelOutput output;
+        private boolean close;
+
+        public OutputChunk(int capacity) {
+            super(capacity);
+        }
+    }
+
+    /**
+     * Summary of a conversion.
+     */
+    public static class Statistics {
+
+        private long bytes;
+        private long records;
+        private int channels;
+        private long nanoseconds;
+
+        public Statistics(long bytes, long records, int channels, long nanoseconds) {
+            this.bytes = bytes;
+            this.records = records;
+            this.channels = channels;
+            this.nanoseconds = nanoseconds;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        public long getNanoseconds() {
+            return nanoseconds;
+        }
+
+        public double getMegabytesPerSecond() {
+            return nanoseconds > 0 ? bytes / 1e6 / (nanoseconds / 1e9) : 0;
+        }
+    }
+}
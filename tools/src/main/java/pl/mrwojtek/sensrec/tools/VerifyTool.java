@@ -0,0 +1,145 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+package pl.mrwojtek.sensrec.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import pl.mrwojtek.sensrec.io.RecordFormat;
+import pl.mrwojtek.sensrec.io.RecordVerifier;
+
+/**
+ * Command line verifier of recordings. Reports records, channels and gaps
+ * of each recording together with the first corrupted offset and, if
+ * asked to, repairs the recordings that are not complete.
+ */
+public class VerifyTool {
+
+    private static final String USAGE =
+            "usage: verify [-r] [-v] [-g gap] recording|directory...";
+
+    private PrintStream out;
+    private boolean repair;
+    private boolean verbose;
+    private RecordVerifier verifier = new RecordVerifier();
+    private List<File> inputs = new ArrayList<>();
+
+    public VerifyTool(PrintStream out) {
+        this.out = out;
+    }
+
+    public int run(String[] args) {
+        if (!parse(args)) {
+            out.println(USAGE);
+            return 1;
+        }
+
+        List<File> files;
+        try {
+            files = Main.listRecordings(inputs);
+        } catch (IOException ex) {
+            out.println(ex.getMessage());
+            return 1;
+        }
+
+        int invalid = 0;
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (File file : files) {
+            try {
+                RecordVerifier.Report report = repair ? verifier.repair(file) :
+                        verifier.verify(file);
+                bytes += report.getLength();
+                print(file, report);
+                if (!report.isValid() && !report.isRepaired()) {
+                    ++invalid;
+                }
+            } catch (IOException ex) {
+                ++invalid;
+                out.println(file + ": " + ex.getMessage());
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.println(String.format("total: %d files, %d invalid, %.1f MB in %.2f s, %.1f MB/s",
+                files.size(), invalid, bytes / 1e6, seconds,
+                seconds > 0 ? bytes / 1e6 / seconds : 0));
+        return invalid == 0 ? 0 : 2;
+    }
+
+    private void print(File file, RecordVerifier.Report report) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(file).append(": ");
+        if (report.isValid()) {
+            builder.append("valid");
+        } else if (report.getCorruptionOffset() >= 0) {
+            builder.append(String.format("corrupted at %d (%s), %d of %d bytes valid",
+                    report.getCorruptionOffset(), report.getProblem(),
+                    report.getValidLength(), report.getLength()));
+        } else {
+            builder.append("missing end frame");
+        }
+        builder.append(String.format(", %d records in %d channels, %.1f s, %d gaps",
+                report.getRecords(), report.getChannelCount(), report.getDuration() / 1e3,
+                report.getGaps()));
+        if (report.getGaps() > 0) {
+            builder.append(String.format(" (longest %.1f s)", report.getLongestGap() / 1e3));
+        }
+        if (report.isRepaired()) {
+            builder.append(", repaired");
+        }
+        out.println(builder);
+
+        if (verbose) {
+            for (int i = 0; i < report.getChannelCount(); ++i) {
+                out.println(String.format("  %s: %d records",
+                        RecordFormat.getTypePrefix(report.getTypeId(i), report.getDeviceId(i)),
+                        report.getCount(i)));
+            }
+        }
+    }
+
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if ("-r".equals(arg)) {
+                repair = true;
+            } else if ("-v".equals(arg)) {
+                verbose = true;
+            } else if ("-g".equals(arg)) {
+                if (i + 1 >= args.length) {
+                    return false;
+                }
+                try {
+                    verifier.setGap(Math.round(Double.parseDouble(args[++i]) * 1000.0));
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+            } else if (arg.startsWith("-")) {
+                return false;
+            } else {
+                inputs.add(new File(arg));
+            }
+        }
+        return !inputs.isEmpty();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import pl.mrwojtek.sensrec.io.RecordCursor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelRecordDecoderTest {
+
+    private static final int COUNT = 3000;
+
+    private File directory;
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestRecordings.createDirectory();
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        TestRecordings.delete(directory);
+    }
+
+    @Test
+    public void decodeMatchesSequentialCursor() throws IOException {
+        for (boolean binary : new boolean[] { true, false }) {
+            File recording = TestRecordings.write(new File(directory, "in"), binary, COUNT);
+            List<String> expected = read(recording);
+
+            // Chunk sizes that aren't multiples of any record length, so the
+            // chunk boundaries fall in the middle of records. With 1000 byte
+            // steps the sync also finds a false binary boundary the decoder
+            // must reject.
+            for (long chunkSize : new long[] { 1000, 4099, recording.length() / 3 }) {
+                final List<String> records = new ArrayList<>();
+                final int[] chunks = new int[1];
+                long count = new ParallelRecordDecoder(pool, chunkSize).decode(recording,
+                        new ParallelRecordDecoder.Handler<List<String>>() {
+                            @Override
+                            public List<String> newChunk() {
+                                return new ArrayList<>();
+                            }
+
+                            @Override
+                            public void onRecord(RecordCursor cursor, List<String> chunk) {
+                                chunk.add(line(cursor));
+                            }
+
+                            @Override
+                            public void onChunk(List<String> chunk) {
+                                records.addAll(chunk);
+                                ++chunks[0];
+                            }
+                        });
+                assertEquals(expected, records);
+                assertEquals(expected.size(), count);
+                assertTrue(chunks[0] > 1);
+            }
+        }
+    }
+
+    private static List<String> read(File file) throws IOException {
+        List<String> records = new ArrayList<>();
+        RecordCursor cursor = new RecordCursor();
+        try {
+            cursor.open(file);
+            while (cursor.next()) {
+                records.add(line(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return records;
+    }
+
+    private static String line(RecordCursor cursor) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(cursor.getTypeId()).append(' ').append(cursor.getDeviceId())
+                .append(' ').append(cursor.getMillisecond());
+        for (int i = 0; i < cursor.getValueCount(); ++i) {
+            builder.append(' ').append(cursor.getDouble(i));
+        }
+        for (int i = 0; i < cursor.getPayloadLength(); ++i) {
+            builder.append(' ').append(cursor.getPayload()[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RecordConverterTest {
+
+    private static final int COUNT = 3000;
+
+    private File directory;
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestRecordings.createDirectory();
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        TestRecordings.delete(directory);
+    }
+
+    @Test
+    public void parallelDecodingMatchesSequential() throws IOException {
+        for (boolean binary : new boolean[] { true, false }) {
+            File recording = TestRecordings.write(new File(directory, "in"), binary, COUNT);
+            for (String formatName : new String[] { RecordConverter.FORMAT_CSV,
+                    RecordConverter.FORMAT_ARROW }) {
+                File sequential = new File(directory, "sequential");
+                File parallel = new File(directory, "parallel");
+                RecordConverter.Statistics expected = new RecordConverter(formatName)
+                        .convert(recording, sequential);
+                RecordConverter.Statistics statistics = new RecordConverter(formatName,
+                        new ParallelRecordDecoder(pool, 1000)).convert(recording, parallel);
+
+                assertEquals(expected.getRecords(), statistics.getRecords());
+                assertEquals(expected.getChannels(), statistics.getChannels());
+                String[] names = sequential.list();
+                Arrays.sort(names);
+                String[] parallelNames = parallel.list();
+                Arrays.sort(parallelNames);
+                assertArrayEquals(names, parallelNames);
+                for (String name : names) {
+                    assertArrayEquals(name, read(new File(sequential, name)),
+                            read(new File(parallel, name)));
+                }
+
+                TestRecordings.delete(sequential);
+                TestRecordings.delete(parallel);
+            }
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * (C) Copyright 2013, 2015 Wojciech Mruczkiewicz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Wojciech Mruczkiewicz
+ */
+
+package pl.mrwojtek.sensrec.tools;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import pl.mrwojtek.sensrec.io.RecordFormat;
+
+/**
+ * Writes recordings of interleaved sensor and BLE records for the tests.
+ */
+public class TestRecordings {
+
+    public static final short TYPE_ACCEL = RecordFormat.getSensorTypeId(1);
+    public static final short TYPE_GYRO = RecordFormat.getSensorTypeId(4);
+    public static final long PERIOD = 10;
+
+    private TestRecordings() {
+    }
+
+    /**
+     * Writes a complete recording with accelerometer records of two
+     * devices, gyroscope records with fewer values and BLE values of
+     * varying length.
+     *
+     * @param file file to write
+     * @param binary binary or text format
+     * @param count number of accelerometer records of the first device
+     * @return the file
+     * @throws IOException on write error
+     */
+    public static File write(File file, boolean binary, int count) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(file));
+        try {
+            writeFrame(dos, binary, RecordFormat.TYPE_START, 0);
+            for (int i = 0; i < count; ++i) {
+                long millisecond = (i + 1) * PERIOD;
+                writeSensor(dos, binary, TYPE_ACCEL, (short) 0, millisecond, i, 3);
+                if (i % 3 == 0) {
+                    writeSensor(dos, binary, TYPE_ACCEL, (short) 1, millisecond, -i, 3);
+                }
+                if (i % 5 == 0) {
+                    writeSensor(dos, binary, TYPE_GYRO, (short) 0, millisecond, i, 1 + i % 3);
+                }
+                if (i % 7 == 0) {
+                    writeBle(dos, binary, millisecond, (short) (i % 2), 1 + i % 11);
+                }
+            }
+            writeFrame(dos, binary, RecordFormat.TYPE_END, (count + 1) * PERIOD);
+        } finally {
+            dos.close();
+        }
+        return file;
+    }
+
+    private static void writeFrame(DataOutputStream dos, boolean binary, short typeId,
+                                   long millisecond) throws IOException {
+        if (!binary) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(RecordFormat.getTypePrefix(typeId, (short) 0))
+                    .append(RecordFormat.SEPARATOR).append(RecordFormat.MAGIC_WORD)
+                    .append(RecordFormat.SEPARATOR).append(RecordFormat.VERSION)
+                    .append(RecordFormat.SEPARATOR).append(millisecond)
+                    .append(RecordFormat.SEPARATOR).append(millisecond * 1000000);
+            if (typeId == RecordFormat.TYPE_END) {
+                builder.append(RecordFormat.SEPARATOR).append(millisecond)
+                        .append(RecordFormat.SEPARATOR).append(0)
+                        .append(RecordFormat.SEPARATOR).append(-1.0);
+            }
+            dos.write(builder.append(RecordFormat.NEW_LINE).toString().getBytes());
+            return;
+        }
+
+        byte[] magicWord = RecordFormat.MAGIC_WORD.getBytes();
+        dos.writeShort(typeId);
+        dos.writeShort(0);
+        dos.writeInt(magicWord.length);
+        dos.write(magicWord);
+        dos.writeInt(RecordFormat.VERSION);
+        dos.writeLong(millisecond);
+        dos.writeLong(millisecond * 1000000);
+        if (typeId == RecordFormat.TYPE_END) {
+            dos.writeLong(millisecond);
+            dos.writeLong(0);
+            dos.writeDouble(-1.0);
+        }
+    }
+
+    private static void writeSensor(DataOutputStream dos, boolean binary, short typeId,
+                                    short deviceId, long millisecond, int value,
+                                    int valueCount) throws IOException {
+        if (!binary) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(RecordFormat.getTypePrefix(typeId, deviceId))
+                    .append(RecordFormat.SEPARATOR).append(millisecond)
+                    .append(RecordFormat.SEPARATOR).append(millisecond * 1000000)
+                    .append(RecordFormat.SEPARATOR).append(valueCount);
+            for (int i = 0; i < valueCount; ++i) {
+                builder.append(RecordFormat.SEPARATOR).append(value + 0.25f * i);
+            }
+            dos.write(builder.append(RecordFormat.NEW_LINE).toString().getBytes());
+            return;
+        }
+
+        dos.writeShort(typeId);
+        dos.writeShort(deviceId);
+        dos.writeLong(millisecond);
+        dos.writeLong(millisecond * 1000000);
+        dos.writeShort(valueCount);
+        for (int i = 0; i < valueCount; ++i) {
+            dos.writeFloat(value + 0.25f * i);
+        }
+    }
+
+    private static void writeBle(DataOutputStream dos, boolean binary, long millisecond,
+                                 short channel, int length) throws IOException {
+        if (!binary) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(RecordFormat.getTypePrefix(RecordFormat.TYPE_BLE_VALUE, (short) 0))
+                    .append(RecordFormat.SEPARATOR).append(millisecond)
+                    .append(RecordFormat.SEPARATOR).append(channel)
+                    .append(RecordFormat.SEPARATOR);
+            for (int i = 0; i < length; ++i) {
+                builder.append(String.format("%02X", (byte) (millisecond + i)));
+            }
+            dos.write(builder.append(RecordFormat.NEW_LINE).toString().getBytes());
+            return;
+        }
+
+        dos.writeShort(RecordFormat.TYPE_BLE_VALUE);
+        dos.writeShort(0);
+        dos.writeLong(millisecond);
+        dos.writeShort(channel);
+        dos.writeInt(length);
+        for (int i = 0; i < length; ++i) {
+            dos.writeByte((int) (millisecond + i));
+        }
+    }
+
+    /**
+     * Creates an empty temporary directory.
+     */
+    public static File createDirectory() throws IOException {
+        File directory = File.createTempFile("sensrec", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Deletes a temporary directory with all its files and directories.
+     */
+    public static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    delete(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        directory.delete();
+    }
+}